@@ -0,0 +1,58 @@
+package com.bjedrzejewski.talkingchess;
+
+import com.bjedrzejewski.talkingchess.send.SendPipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Maintenance operations. Disabled unless {@code talkingchess.admin.token} is set,
+ * requests have to send the token in the {@code X-Admin-Token} header.
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdminController.class);
+
+    private final String adminToken;
+    private final SendPipeline sendPipeline;
+
+    @Autowired
+    public AdminController(@Value("${talkingchess.admin.token:}") final String adminToken, final SendPipeline sendPipeline) {
+        this.adminToken = adminToken;
+        this.sendPipeline = sendPipeline;
+    }
+
+    @RequestMapping(value = "/dead-letters/replay", method = RequestMethod.POST)
+    public ResponseEntity<Map<String, Object>> replayDeadLetters(@RequestHeader(value = "X-Admin-Token", required = false) final String token) throws IOException {
+        if (!isAuthorized(token)) {
+            return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+        }
+        final int replayed = sendPipeline.replayDeadLetters();
+        return ResponseEntity.ok(Collections.<String, Object>singletonMap("replayed", replayed));
+    }
+
+    private boolean isAuthorized(String token) {
+        if (adminToken.isEmpty()) {
+            logger.warn("Admin request rejected, talkingchess.admin.token is not set");
+            return false;
+        }
+        //compares every byte, so the time taken does not tell how much of the token was right
+        return token != null && MessageDigest.isEqual(adminToken.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8));
+    }
+}
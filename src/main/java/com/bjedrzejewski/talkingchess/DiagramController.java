@@ -0,0 +1,43 @@
+package com.bjedrzejewski.talkingchess;
+
+import com.bjedrzejewski.talkingchess.diagrams.BoardDiagrams;
+import com.bjedrzejewski.talkingchess.diagrams.Diagram;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the board diagrams, Messenger fetches the image attachments from here.
+ * A key names what the diagram shows, so the response never changes and may be cached for good.
+ */
+@RestController
+@RequestMapping("/diagrams")
+public class DiagramController {
+
+    private final BoardDiagrams diagrams;
+
+    @Autowired
+    public DiagramController(final BoardDiagrams diagrams) {
+        this.diagrams = diagrams;
+    }
+
+    @RequestMapping(value = "/{key}.png", method = RequestMethod.GET)
+    public ResponseEntity<byte[]> diagram(@PathVariable("key") final String key) {
+        final Diagram diagram = diagrams.find(key);
+        if (diagram == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_PNG)
+                .cacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic())
+                .body(diagram.getPng());
+    }
+}
@@ -1,16 +1,26 @@
 package com.bjedrzejewski.talkingchess;
 
+import com.bjedrzejewski.talkingchess.analysis.AnalysisTalk;
+import com.bjedrzejewski.talkingchess.dispatch.CallbackQueue;
+import com.bjedrzejewski.talkingchess.dispatch.CallbackSignature;
+import com.bjedrzejewski.talkingchess.dispatch.MessageDeduplicator;
+import com.bjedrzejewski.talkingchess.dispatch.SenderDispatcher;
+import com.bjedrzejewski.talkingchess.diagrams.BoardDiagrams;
+import com.bjedrzejewski.talkingchess.diagrams.Diagram;
+import com.bjedrzejewski.talkingchess.engine.Position;
 import com.bjedrzejewski.talkingchess.general.GeneralTalk;
-import com.bjedrzejewski.talkingchess.openings.FrenchTalk;
-import com.bjedrzejewski.talkingchess.openings.OpeningTalk;
-import com.bjedrzejewski.talkingchess.openings.SicilianTalk;
-import com.bjedrzejewski.talkingchess.openings.SpanishTalk;
-import com.bjedrzejewski.talkingchess.players.CarlsenTalk;
-import com.bjedrzejewski.talkingchess.players.KasparovTalk;
-import com.bjedrzejewski.talkingchess.players.PlayerTalk;
+import com.bjedrzejewski.talkingchess.general.QuickReplyMenu;
+import com.bjedrzejewski.talkingchess.general.QuickReplyRegistry;
+import com.bjedrzejewski.talkingchess.metrics.LatencyHistogram;
+import com.bjedrzejewski.talkingchess.metrics.Metrics;
+import com.bjedrzejewski.talkingchess.send.AttachmentRegistry;
+import com.bjedrzejewski.talkingchess.send.PreparedMessage;
+import com.bjedrzejewski.talkingchess.send.PreparedMessageCache;
+import com.bjedrzejewski.talkingchess.send.SendException;
+import com.bjedrzejewski.talkingchess.send.SendPipeline;
+import com.bjedrzejewski.talkingchess.session.ConversationState;
+import com.bjedrzejewski.talkingchess.session.SessionStore;
 import com.github.messenger4j.MessengerPlatform;
-import com.github.messenger4j.exceptions.MessengerApiException;
-import com.github.messenger4j.exceptions.MessengerIOException;
 import com.github.messenger4j.exceptions.MessengerVerificationException;
 import com.github.messenger4j.receive.MessengerReceiveClient;
 import com.github.messenger4j.receive.events.AccountLinkingEvent.AccountLinkingStatus;
@@ -18,7 +28,6 @@ import com.github.messenger4j.receive.events.AttachmentMessageEvent.Attachment;
 import com.github.messenger4j.receive.events.AttachmentMessageEvent.AttachmentType;
 import com.github.messenger4j.receive.events.AttachmentMessageEvent.Payload;
 import com.github.messenger4j.receive.handlers.*;
-import com.github.messenger4j.send.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,6 +37,8 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static com.github.messenger4j.MessengerPlatform.*;
 
@@ -46,11 +57,26 @@ public class MessengerPlatformCallbackHandler {
             "https://raw.githubusercontent.com/fbsamples/messenger-platform-samples/master/node/public";
 
     private static final Logger logger = LoggerFactory.getLogger(MessengerPlatformCallbackHandler.class);
+    private static final PreparedMessage TYPING_ON = PreparedMessage.senderAction("typing_on");
 
+    private final String appSecret;
     private final MessengerReceiveClient receiveClient;
-    private final MessengerSendClient sendClient;
-    private final List<OpeningTalk> openingTalks = new ArrayList<>();
-    private final List<PlayerTalk> playerTalks = new ArrayList<>();
+    private final CallbackQueue callbackQueue;
+    private final SenderDispatcher senderDispatcher;
+    private final MessageDeduplicator deduplicator;
+    private final PreparedMessageCache preparedMessages;
+    private final SendPipeline sendPipeline;
+    private final GeneralTalk generalTalk;
+    private final QuickReplyRegistry quickReplies;
+    private final AnalysisTalk analysisTalk;
+    private final SessionStore sessions;
+    private final BoardDiagrams diagrams;
+    private final AttachmentRegistry attachments;
+    private final Metrics metrics;
+    private final LatencyHistogram verifyTime;
+    private final LatencyHistogram parseTime;
+    private final LatencyHistogram sentTime;
+    private final LatencyHistogram failedTime;
 
     /**
      * Constructs the {@code MessengerPlatformCallbackHandler} and initializes the {@code MessengerReceiveClient}.
@@ -58,21 +84,32 @@ public class MessengerPlatformCallbackHandler {
      * @param appSecret   the {@code Application Secret}
      * @param verifyToken the {@code Verification Token} that has been provided by you during the setup of the {@code
      *                    Webhook}
-     * @param sendClient  the initialized {@code MessengerSendClient}
+     * @param callbackQueue the queue used to process verified payloads off the request thread
+     * @param senderDispatcher the per-sender lanes the message handlers run on
+     * @param deduplicator filter for messages the platform delivers more than once
+     * @param preparedMessages segmented texts rendered into ready to send request bodies
+     * @param sendPipeline the asynchronous pipeline posting prepared request bodies to the Send API
+     * @param generalTalk the talks answering the messages, with the analyses and the sessions they use
+     * @param diagrams board diagrams sent as images next to the lines and games
+     * @param attachments ids of the diagrams uploaded to the platform, so that each is uploaded once
+     * @param metrics latency histograms of the callbacks, the intents and the sends
      */
     @Autowired
     public MessengerPlatformCallbackHandler(@Value("${messenger4j.appSecret}") final String appSecret,
                                             @Value("${messenger4j.verifyToken}") final String verifyToken,
-                                            final MessengerSendClient sendClient) {
-        openingTalks.add(new SicilianTalk());
-        openingTalks.add(new SpanishTalk());
-        openingTalks.add(new FrenchTalk());
-
-        playerTalks.add(new KasparovTalk());
-        playerTalks.add(new CarlsenTalk());
-
+                                            final CallbackQueue callbackQueue,
+                                            final SenderDispatcher senderDispatcher,
+                                            final MessageDeduplicator deduplicator,
+                                            final PreparedMessageCache preparedMessages,
+                                            final SendPipeline sendPipeline,
+                                            final GeneralTalk generalTalk,
+                                            final BoardDiagrams diagrams,
+                                            final AttachmentRegistry attachments,
+                                            final Metrics metrics) {
         logger.debug("Initializing MessengerReceiveClient - appSecret: {} | verifyToken: {}", appSecret, verifyToken);
+        //handleCallback verifies the signature before the payload is queued
         this.receiveClient = MessengerPlatform.newReceiveClientBuilder(appSecret, verifyToken)
+                .disableSignatureVerification()
                 .onTextMessageEvent(newTextMessageEventHandler())
                 .onAttachmentMessageEvent(newAttachmentMessageEventHandler())
                 .onQuickReplyMessageEvent(newQuickReplyMessageEventHandler())
@@ -84,7 +121,26 @@ public class MessengerPlatformCallbackHandler {
                 .onMessageReadEvent(newMessageReadEventHandler())
                 .fallbackEventHandler(newFallbackEventHandler())
                 .build();
-        this.sendClient = sendClient;
+        this.appSecret = appSecret;
+        this.callbackQueue = callbackQueue;
+        this.senderDispatcher = senderDispatcher;
+        this.deduplicator = deduplicator;
+        this.preparedMessages = preparedMessages;
+        this.sendPipeline = sendPipeline;
+        this.generalTalk = generalTalk;
+        this.quickReplies = generalTalk.getQuickReplies();
+        this.analysisTalk = generalTalk.getAnalysisTalk();
+        this.sessions = generalTalk.getSessions();
+        this.diagrams = diagrams;
+        this.attachments = attachments;
+        this.metrics = metrics;
+        this.verifyTime = callbackHistogram("verify");
+        this.parseTime = callbackHistogram("parse");
+        this.sentTime = sendHistogram("sent");
+        this.failedTime = sendHistogram("failed");
+        analysisTalk.analyseOpeningLines(generalTalk.getOpeningTalks());
+        diagrams.prerenderLines(generalTalk.getOpeningTalks());
+        preparedMessages.prerender(generalTalk.getStaticTexts());
     }
 
     /**
@@ -112,6 +168,8 @@ public class MessengerPlatformCallbackHandler {
 
     /**
      * Callback endpoint responsible for processing the inbound messages and events.
+     * The signature is verified here, once. In async mode the payload is then queued, so the platform gets its 200
+     * straight away, or a 503 to deliver it again later when the queue is full.
      */
     @RequestMapping(method = RequestMethod.POST)
     public ResponseEntity<Void> handleCallback(@RequestBody final Optional<String> payload,
@@ -120,14 +178,59 @@ public class MessengerPlatformCallbackHandler {
             return ResponseEntity.status(HttpStatus.OK).build();
         }
         logger.debug("Received Messenger Platform callback - payload: {} | signature: {}", payload, signature);
+        final long start = System.nanoTime();
+        final boolean valid = CallbackSignature.isValid(payload.get(), signature.get(), appSecret);
+        verifyTime.recordSince(start);
+        if (!valid) {
+            logger.warn("Processing of callback payload failed: signature verification failed");
+            return ResponseEntity.status(HttpStatus.OK).build();
+        }
+        if (!callbackQueue.submit(() -> processCallbackPayload(payload.get(), signature.get()))) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.status(HttpStatus.OK).build();
+    }
+
+    /**
+     * Parses the verified payload and calls the handlers, which only queue the messages on the sender lanes.
+     */
+    private void processCallbackPayload(String payload, String signature) {
+        final long start = System.nanoTime();
         try {
-            this.receiveClient.processCallbackPayload(payload.get(), signature.get());
+            this.receiveClient.processCallbackPayload(payload, signature);
             logger.debug("Processed callback payload successfully");
-            return ResponseEntity.status(HttpStatus.OK).build();
         } catch (MessengerVerificationException e) {
             logger.warn("Processing of callback payload failed: {}", e.getMessage());
-            return ResponseEntity.status(HttpStatus.OK).build();
+        } finally {
+            parseTime.recordSince(start);
+        }
+    }
+
+    private LatencyHistogram callbackHistogram(String stage) {
+        return metrics.histogram("talkingchess_callback_seconds",
+                "Time spent verifying and parsing the webhook callbacks.", "stage", stage);
+    }
+
+    private LatencyHistogram sendHistogram(String outcome) {
+        return metrics.histogram("talkingchess_send_seconds",
+                "Time from queueing a message until it was delivered or given up on, backoff and retries included.", "outcome", outcome);
+    }
+
+    /**
+     * Records how long answering the message took, by what answered it.
+     */
+    private void recordIntent(String intent, long startNanos) {
+        metrics.histogram("talkingchess_intent_seconds",
+                "Time spent resolving and answering a message, by what answered it.", "intent", intent)
+                .recordSince(startNanos);
+    }
+
+    private boolean isRedelivered(String messageId) {
+        if (deduplicator.firstSeen(messageId)) {
+            return false;
         }
+        logger.info("Message '{}' has already been handled, ignoring the redelivery", messageId);
+        return true;
     }
 
     private TextMessageEventHandler newTextMessageEventHandler() {
@@ -141,8 +244,17 @@ public class MessengerPlatformCallbackHandler {
 
             logger.info("Received message '{}' with text '{}' from user '{}' at '{}'",
                     messageId, messageText, senderId, timestamp);
+            if (isRedelivered(messageId)) {
+                return;
+            }
 
-            GeneralTalk.resolveMessage(messageText, senderId, openingTalks, playerTalks, this);
+            senderDispatcher.dispatch(senderId, () -> {
+                analysisTalk.cancel(senderId);
+                sessions.touch(senderId);
+                final long start = System.nanoTime();
+                final String intent = generalTalk.resolveMessage(messageText, senderId, this);
+                recordIntent(intent, start);
+            });
 
         };
     }
@@ -150,32 +262,107 @@ public class MessengerPlatformCallbackHandler {
 
 
     /**
-     * Will try to make sure that messages are shorter than 300 chars.
+     * Makes sure that messages are shorter than 300 chars, the chunks of long texts are segmented
+     * and rendered into request bodies once and cached.
      * @param recipientId
      * @param text
      */
     public void sendTextMessage(String recipientId, String text) {
-        if(text.length() > 298){
-            String[] split = text.split("\\. ");
-            if(split.length == 1){
-                logger.error("Message too long to send: "+text);
-                return;
-            }
-            for(String s : split){
-                sendTextMessage(recipientId, s+".");
-            }
+        for (PreparedMessage message : preparedMessages.text(text)) {
+            sendPreparedMessage(recipientId, message);
+        }
+    }
+
+    /**
+     * Shows the typing bubble, Messenger hides it after 20 seconds or with the next message.
+     */
+    public void sendTypingIndicator(String recipientId) {
+        sendPreparedMessage(recipientId, TYPING_ON);
+    }
+
+    /**
+     * Sends the engine evaluation of a line quoted by an opening talk, if the background analysis has reached it.
+     */
+    public void sendLineEvaluation(String recipientId, String lineName) {
+        final String evaluation = analysisTalk.describeLine(lineName);
+        if (evaluation != null) {
+            sendTextMessage(recipientId, evaluation);
+        }
+    }
+
+    /**
+     * Sends the diagram of the final position of a line quoted by an opening talk.
+     */
+    public void sendLineDiagram(String recipientId, String lineName) {
+        if (diagrams.isServed()) {
+            sendDiagram(recipientId, diagrams.getLineDiagram(lineName));
+        }
+    }
+
+    /**
+     * Sends the diagram of the position.
+     *
+     * @param flipped true to show the board from Black's side
+     */
+    public void sendPositionDiagram(String recipientId, Position position, boolean flipped) {
+        if (diagrams.isServed()) {
+            sendDiagram(recipientId, diagrams.get(position, flipped));
+        }
+    }
+
+    private void sendDiagram(String recipientId, Diagram diagram) {
+        if (diagram != null) {
+            sendPreparedMessage(recipientId, attachments.image(diagram.getKey(), diagrams.getUrl(diagram)));
+        }
+    }
+
+    /**
+     * Remembers the menu as the topic of the conversation, so that "tell me more" and typed replies follow it up.
+     */
+    public void rememberMenu(String recipientId, QuickReplyMenu menu) {
+        final String name = quickReplies.getMenuName(menu);
+        if (name != null) {
+            sessions.update(recipientId, ConversationState.MENU, name);
+        }
+    }
 
-        } else {
-            try {
-                final Recipient recipient = Recipient.newBuilder().recipientId(recipientId).build();
-                final NotificationType notificationType = NotificationType.REGULAR;
-                final String metadata = "DEVELOPER_DEFINED_METADATA";
+    /**
+     * Remembers that details from the menu of the topic were sent.
+     */
+    public void rememberDetails(String recipientId) {
+        sessions.update(recipientId, ConversationState.DETAILS);
+    }
 
-                this.sendClient.sendTextMessage(recipient, notificationType, text, metadata);
-            } catch (MessengerApiException | MessengerIOException e) {
-                handleSendException(e);
+    /**
+     * Queues the message on the send pipeline, messages to one recipient are delivered in the order they were queued.
+     * The outcome is recorded once the pipeline is done with the message, after any retries.
+     */
+    public CompletableFuture<Void> sendPreparedMessage(String recipientId, PreparedMessage message) {
+        final long start = System.nanoTime();
+        final CompletableFuture<Void> result = sendPipeline.submit(recipientId, message);
+        result.whenComplete((ignored, failure) -> {
+            if (failure == null) {
+                sentTime.recordSince(start);
+                return;
             }
+            failedTime.recordSince(start);
+            final Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+            metrics.counter("talkingchess_send_failures_total",
+                    "Messages given up on after their last attempt, by the last failure.", "reason", failureReason(cause)).increment();
+            handleSendException(cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+        });
+        return result;
+    }
+
+    private static String failureReason(Throwable failure) {
+        if (!(failure instanceof SendException)) {
+            return "other";
+        }
+        final SendException e = (SendException) failure;
+        if (e.getStatusCode() == -1) {
+            return "network";
         }
+        return e.isThrottled() ? "throttled" : "rejected";
     }
 
 
@@ -190,6 +377,9 @@ public class MessengerPlatformCallbackHandler {
 
             logger.info("Received message '{}' with attachments from user '{}' at '{}':",
                     messageId, senderId, timestamp);
+            if (isRedelivered(messageId)) {
+                return;
+            }
 
             attachments.forEach(attachment -> {
                 final AttachmentType attachmentType = attachment.getType();
@@ -206,12 +396,16 @@ public class MessengerPlatformCallbackHandler {
                 logger.info("Attachment of type '{}' with payload '{}'", attachmentType, payloadAsString);
             });
 
-            sendTextMessage(senderId, "Message with attachment received");
+            senderDispatcher.dispatch(senderId, () -> {
+                analysisTalk.cancel(senderId);
+                sendTextMessage(senderId, "Message with attachment received");
+            });
         };
     }
 
     /**
-     * Modified to go through priority messages
+     * Our own payloads are answered straight from the quick reply registry,
+     * anything else goes through the priority messages like typed text.
      * @return
      */
     private QuickReplyMessageEventHandler newQuickReplyMessageEventHandler() {
@@ -223,8 +417,22 @@ public class MessengerPlatformCallbackHandler {
             final String quickReplyPayload = event.getQuickReply().getPayload();
 
             logger.info("Received quick reply for message '{}' with payload '{}'", messageId, quickReplyPayload);
+            if (isRedelivered(messageId)) {
+                return;
+            }
 
-            GeneralTalk.resolveMessage(quickReplyPayload, senderId, openingTalks, playerTalks, this);
+            senderDispatcher.dispatch(senderId, () -> {
+                analysisTalk.cancel(senderId);
+                sessions.touch(senderId);
+                final long start = System.nanoTime();
+                if (quickReplies.resolve(quickReplyPayload, senderId, this)) {
+                    recordIntent("quick_reply", start);
+                    return;
+                }
+                logger.info("Quick reply payload '{}' is not registered, resolving it as text", quickReplyPayload);
+                final String intent = generalTalk.resolveMessage(quickReplyPayload, senderId, this);
+                recordIntent(intent, start);
+            });
         };
     }
 
@@ -240,7 +448,7 @@ public class MessengerPlatformCallbackHandler {
             logger.info("Received postback for user '{}' and page '{}' with payload '{}' at '{}'",
                     senderId, recipientId, payload, timestamp);
 
-            sendTextMessage(senderId, "Postback called");
+            senderDispatcher.dispatch(senderId, () -> sendTextMessage(senderId, "Postback called"));
         };
     }
 
@@ -269,7 +477,7 @@ public class MessengerPlatformCallbackHandler {
             logger.info("Received authentication for user '{}' and page '{}' with pass through param '{}' at '{}'",
                     senderId, recipientId, passThroughParam, timestamp);
 
-            sendTextMessage(senderId, "Authentication successful");
+            senderDispatcher.dispatch(senderId, () -> sendTextMessage(senderId, "Authentication successful"));
         };
     }
 
@@ -333,8 +541,4 @@ public class MessengerPlatformCallbackHandler {
     public void handleSendException(Exception e) {
         logger.error("Message could not be sent. An unexpected error occurred.", e);
     }
-
-    public MessengerSendClient getSendClient() {
-        return sendClient;
-    }
 }
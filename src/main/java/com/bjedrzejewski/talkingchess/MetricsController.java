@@ -0,0 +1,33 @@
+package com.bjedrzejewski.talkingchess;
+
+import com.bjedrzejewski.talkingchess.metrics.Metrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Exposes the latency histograms for Prometheus to scrape.
+ */
+@RestController
+@RequestMapping("/metrics")
+public class MetricsController {
+
+    private static final MediaType PROMETHEUS_TEXT = MediaType.parseMediaType("text/plain; version=0.0.4; charset=utf-8");
+
+    private final Metrics metrics;
+
+    @Autowired
+    public MetricsController(final Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @RequestMapping(method = RequestMethod.GET)
+    public ResponseEntity<String> metrics() {
+        return ResponseEntity.ok()
+                .contentType(PROMETHEUS_TEXT)
+                .body(metrics.scrape());
+    }
+}
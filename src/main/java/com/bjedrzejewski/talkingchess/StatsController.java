@@ -0,0 +1,171 @@
+package com.bjedrzejewski.talkingchess;
+
+import com.bjedrzejewski.talkingchess.analysis.AnalysisScheduler;
+import com.bjedrzejewski.talkingchess.analysis.PositionAnalysisService;
+import com.bjedrzejewski.talkingchess.engine.TranspositionTable;
+import com.bjedrzejewski.talkingchess.dispatch.CallbackQueue;
+import com.bjedrzejewski.talkingchess.dispatch.MessageDeduplicator;
+import com.bjedrzejewski.talkingchess.dispatch.SenderDispatcher;
+import com.bjedrzejewski.talkingchess.diagrams.BoardDiagrams;
+import com.bjedrzejewski.talkingchess.endgames.Endgames;
+import com.bjedrzejewski.talkingchess.games.GameArchive;
+import com.bjedrzejewski.talkingchess.games.OpeningExplorer;
+import com.bjedrzejewski.talkingchess.play.ActiveGames;
+import com.bjedrzejewski.talkingchess.send.AttachmentRegistry;
+import com.bjedrzejewski.talkingchess.send.MessageSegmenter;
+import com.bjedrzejewski.talkingchess.send.PreparedMessageCache;
+import com.bjedrzejewski.talkingchess.send.RetryQueue;
+import com.bjedrzejewski.talkingchess.send.SendPipeline;
+import com.bjedrzejewski.talkingchess.send.SendRateLimiter;
+import com.bjedrzejewski.talkingchess.session.SessionStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes the runtime numbers of the webhook processing as JSON.
+ */
+@RestController
+@RequestMapping("/stats")
+public class StatsController {
+
+    private final CallbackQueue callbackQueue;
+    private final SenderDispatcher senderDispatcher;
+    private final MessageDeduplicator deduplicator;
+    private final MessageSegmenter messageSegmenter;
+    private final PreparedMessageCache preparedMessages;
+    private final SendPipeline sendPipeline;
+    private final SendRateLimiter sendRateLimiter;
+    private final RetryQueue retryQueue;
+    private final PositionAnalysisService analysisService;
+    private final AnalysisScheduler analysisScheduler;
+    private final GameArchive gameArchive;
+    private final Endgames endgames;
+    private final SessionStore sessions;
+    private final ActiveGames activeGames;
+    private final BoardDiagrams diagrams;
+    private final AttachmentRegistry attachments;
+
+    @Autowired
+    public StatsController(final CallbackQueue callbackQueue, final SenderDispatcher senderDispatcher,
+                           final MessageDeduplicator deduplicator,
+                           final MessageSegmenter messageSegmenter, final PreparedMessageCache preparedMessages,
+                           final SendPipeline sendPipeline, final SendRateLimiter sendRateLimiter,
+                           final RetryQueue retryQueue, final PositionAnalysisService analysisService,
+                           final AnalysisScheduler analysisScheduler, final GameArchive gameArchive,
+                           final Endgames endgames, final SessionStore sessions, final ActiveGames activeGames,
+                           final BoardDiagrams diagrams, final AttachmentRegistry attachments) {
+        this.callbackQueue = callbackQueue;
+        this.senderDispatcher = senderDispatcher;
+        this.deduplicator = deduplicator;
+        this.messageSegmenter = messageSegmenter;
+        this.preparedMessages = preparedMessages;
+        this.sendPipeline = sendPipeline;
+        this.sendRateLimiter = sendRateLimiter;
+        this.retryQueue = retryQueue;
+        this.analysisService = analysisService;
+        this.analysisScheduler = analysisScheduler;
+        this.gameArchive = gameArchive;
+        this.endgames = endgames;
+        this.sessions = sessions;
+        this.activeGames = activeGames;
+        this.diagrams = diagrams;
+        this.attachments = attachments;
+    }
+
+    @RequestMapping(method = RequestMethod.GET)
+    public Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("callback.async", callbackQueue.isAsync());
+        stats.put("callback.queue.depth", callbackQueue.getQueueDepth());
+        stats.put("callback.processed", callbackQueue.getProcessed());
+        stats.put("callback.rejected", callbackQueue.getRejected());
+        stats.put("callback.lag.last.ms", callbackQueue.getLastLagMillis());
+        stats.put("callback.lag.max.ms", callbackQueue.getMaxLagMillis());
+        stats.put("callback.lag.avg.ms", callbackQueue.getAverageLagMillis());
+        stats.put("callback.duplicates.suppressed", deduplicator.getSuppressed());
+        stats.put("callback.duplicates.tracked", deduplicator.getTracked());
+        stats.put("callback.duplicates.earlyRotations", deduplicator.getEarlyRotations());
+        stats.put("callback.duplicates.memory.bytes", deduplicator.getMemoryBytes());
+        for (int lane = 0; lane < senderDispatcher.getLaneCount(); lane++) {
+            final Map<String, Object> laneStats = new LinkedHashMap<>();
+            laneStats.put("backlog", senderDispatcher.getBacklog(lane));
+            laneStats.put("maxBacklog", senderDispatcher.getMaxBacklog(lane));
+            laneStats.put("completed", senderDispatcher.getCompleted(lane));
+            laneStats.put("blocked", senderDispatcher.getBlocked(lane));
+            stats.put("dispatch.lane." + lane, laneStats);
+        }
+        stats.put("send.segments.unsegmentable", messageSegmenter.getUnsegmentable());
+        stats.put("send.prepared.cached", preparedMessages.getCachedCount());
+        stats.put("send.prepared.renderedOnSend", preparedMessages.getRenderedOnSend());
+        stats.put("send.queued", sendPipeline.getQueued());
+        stats.put("send.inFlight", sendPipeline.getInFlight());
+        stats.put("send.sent", sendPipeline.getSent());
+        stats.put("send.failed", sendPipeline.getFailed());
+        stats.put("send.latency.avg.ms", sendPipeline.getAverageSendMillis());
+        stats.put("send.throttled", sendRateLimiter.getThrottled());
+        stats.put("send.throttled.wait.ms", sendRateLimiter.getWaitMillis());
+        stats.put("send.throttled.wait.avg.ms", sendRateLimiter.getAverageWaitMillis());
+        stats.put("send.throttled.platform", sendRateLimiter.getPlatformThrottled());
+        stats.put("send.retry.pending", retryQueue.getPending());
+        stats.put("send.retry.scheduled", retryQueue.getScheduled());
+        stats.put("send.retry.delivered", retryQueue.getRetried());
+        stats.put("send.retry.deadLettered", retryQueue.getDeadLettered());
+        stats.put("send.retry.deadLettersLost", retryQueue.getDeadLettersLost());
+        stats.put("send.retry.recovered", retryQueue.getRecovered());
+        stats.put("send.retry.log.bytes", retryQueue.getLogSize());
+        stats.put("analysis.requests", analysisService.getRequests());
+        stats.put("analysis.depth.avg", analysisService.getAverageDepth());
+        stats.put("analysis.depth.last", analysisService.getLastDepth());
+        stats.put("analysis.nps.avg", analysisService.getAverageNodesPerSecond());
+        stats.put("analysis.nps.last", analysisService.getLastNodesPerSecond());
+        stats.put("analysis.threads", analysisService.getThreads());
+        stats.put("analysis.jobs.pending", analysisScheduler.getPending());
+        stats.put("analysis.jobs.running", analysisScheduler.getRunning());
+        stats.put("analysis.jobs.submitted", analysisScheduler.getSubmitted());
+        stats.put("analysis.jobs.completed", analysisScheduler.getCompleted());
+        stats.put("analysis.jobs.cancelled", analysisScheduler.getCancelled());
+        stats.put("analysis.jobs.sliced", analysisScheduler.getSliced());
+        stats.put("analysis.jobs.updates", analysisScheduler.getUpdates());
+        stats.put("analysis.lines.analysed", analysisService.getLinesAnalysed());
+        final TranspositionTable table = analysisService.getTable();
+        stats.put("analysis.tt.size.bytes", table.getSizeBytes());
+        stats.put("analysis.tt.probes", table.getProbes());
+        stats.put("analysis.tt.hitRate", table.getHitRate());
+        stats.put("analysis.tt.collisionRate", table.getCollisionRate());
+        stats.put("analysis.tt.fill", table.getFill());
+        stats.put("games.count", gameArchive.getGameCount());
+        stats.put("games.players", gameArchive.getPlayerCount());
+        stats.put("games.ingest.gamesPerSecond", gameArchive.getIngestGamesPerSecond());
+        stats.put("games.playerStats.ready", gameArchive.getStats() != null);
+        final OpeningExplorer explorer = gameArchive.getExplorer();
+        stats.put("games.explorer.positions", explorer == null ? 0 : explorer.getPositionCount());
+        stats.put("endgames.tables", endgames.getTableCount());
+        stats.put("sessions.active", sessions.getSize());
+        stats.put("sessions.memoryBytes", sessions.getMemoryBytes());
+        stats.put("sessions.evicted", sessions.getEvicted());
+        stats.put("sessions.expired", sessions.getExpired());
+        stats.put("sessions.flushFailures", sessions.getFlushFailures());
+        stats.put("play.games", activeGames.getGames());
+        stats.put("play.slots", activeGames.getCapacity());
+        stats.put("play.started", activeGames.getStarted());
+        stats.put("play.finished", activeGames.getFinished());
+        stats.put("play.expired", activeGames.getExpired());
+        stats.put("play.checkpoints", activeGames.getCheckpoints());
+        stats.put("diagrams.memoryHits", diagrams.getMemoryHits());
+        stats.put("diagrams.diskHits", diagrams.getDiskHits());
+        stats.put("diagrams.rendered", diagrams.getRendered());
+        stats.put("diagrams.memoryBytes", diagrams.getMemoryBytes());
+        stats.put("diagrams.diskBytes", diagrams.getDiskBytes());
+        stats.put("attachments.ids", attachments.getIds());
+        stats.put("attachments.uploads", attachments.getUploads());
+        stats.put("attachments.uploadFailures", attachments.getUploadFailures());
+        stats.put("attachments.invalidated", attachments.getInvalidated());
+        stats.put("attachments.sentById", attachments.getSentById());
+        return stats;
+    }
+}
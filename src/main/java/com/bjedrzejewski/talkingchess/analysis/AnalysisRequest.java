@@ -0,0 +1,93 @@
+package com.bjedrzejewski.talkingchess.analysis;
+
+import com.bjedrzejewski.talkingchess.engine.Notation;
+import com.bjedrzejewski.talkingchess.engine.Position;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Recognises chat messages asking for a position to be analysed: a FEN anywhere in the message,
+ * "analyse" followed by a move list or nothing, or a message that is nothing but a move list. Anything else after
+ * "analyse", such as "analyse the najdorf", is left to the chat.
+ */
+public final class AnalysisRequest {
+
+    private static final String RANK = "[pnbrqkPNBRQK1-8]{1,8}";
+    private static final Pattern FEN = Pattern.compile("(" + RANK + "(?:/" + RANK + "){7})"
+            + "(?:\\s+([wb]))?(?:\\s+(-|[KQkq]{1,4}))?(?:\\s+(-|[a-h][36]))?(?:\\s+(\\d+)\\s+(\\d+))?");
+    private static final Pattern COMMAND = Pattern.compile("^\\s*(?:please\\s+)?(?:analy[sz]e|analysis|evaluate)\\b"
+            + "(?:\\s+(?:this|the|my))?(?:\\s+(?:position|game|moves|line))?\\s*:?\\s*(.*)$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final Position position;
+    private final String error;
+
+    private AnalysisRequest(Position position, String error) {
+        this.position = position;
+        this.error = error;
+    }
+
+    /**
+     * @return the request or null if the message is not asking for an analysis
+     */
+    public static AnalysisRequest parse(String messageText) {
+        final Matcher fen = FEN.matcher(messageText);
+        if (fen.find()) {
+            return fromFen(fen);
+        }
+        final Matcher command = COMMAND.matcher(messageText);
+        if (command.matches()) {
+            final String moves = command.group(1).trim();
+            if (moves.isEmpty()) {
+                return new AnalysisRequest(null, "Send me a FEN or the moves of the game, like: analyse 1. e4 c5 2. Nf3 d6");
+            }
+            if (Notation.isMoveList(moves)) {
+                return fromMoves(moves);
+            }
+            return null;
+        }
+        if (Notation.isMoveList(messageText)) {
+            return fromMoves(messageText);
+        }
+        return null;
+    }
+
+    private static AnalysisRequest fromFen(Matcher fen) {
+        final String text = fen.group(1)
+                + " " + (fen.group(2) == null ? "w" : fen.group(2))
+                + " " + (fen.group(3) == null ? "-" : fen.group(3))
+                + " " + (fen.group(4) == null ? "-" : fen.group(4))
+                + " " + (fen.group(5) == null ? "0 1" : fen.group(5) + " " + fen.group(6));
+        try {
+            return new AnalysisRequest(Position.fromFen(text), null);
+        } catch (IllegalArgumentException e) {
+            return new AnalysisRequest(null, "I could not read that FEN. " + e.getMessage());
+        }
+    }
+
+    private static AnalysisRequest fromMoves(String moves) {
+        final Position position = Position.start();
+        try {
+            Notation.playMoves(position, moves);
+            return new AnalysisRequest(position, null);
+        } catch (IllegalArgumentException e) {
+            return new AnalysisRequest(null, "I could not follow the moves, '" + e.getMessage() + "' is not legal in "
+                    + position.toFen() + ".");
+        }
+    }
+
+    /**
+     * @return position to analyse, null if the request could not be understood
+     */
+    public Position getPosition() {
+        return position;
+    }
+
+    /**
+     * @return what to tell the user when there is no position
+     */
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,379 @@
+package com.bjedrzejewski.talkingchess.analysis;
+
+import com.bjedrzejewski.talkingchess.dispatch.SenderDispatcher;
+import com.bjedrzejewski.talkingchess.engine.ParallelSearch;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import com.bjedrzejewski.talkingchess.engine.SearchResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs analysis jobs on worker threads of its own, so sender lanes and webhook threads never search.
+ * <p>
+ * Every sender has at most one job of each {@link Kind}: a new job cancels the one of its kind queued or running,
+ * and any new message cancels the sender's analysis. The bot's move in a game is only replaced by another search
+ * for its move, so asking for an analysis while the bot thinks does not lose the move.
+ * Senders are served in the order they asked, and while others wait a running job gives up its worker
+ * once it has searched for a fair slice, answering with the deepest iteration completed by then.
+ * As iterative deepening goes the job reports interim results, the first one shortly after it starts.
+ * <p>
+ * Results are handed to the sender's lane of the {@link SenderDispatcher}, so they are told in order with the
+ * answers to the sender's other messages. A job counts as the sender's until its final result has been handled
+ * on the lane, so a message handled on the lane before it still cancels it and nothing of the job is told after.
+ */
+@Component
+public class AnalysisScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalysisScheduler.class);
+
+    /**
+     * What a job searches for, a sender has one job of each kind at most.
+     */
+    public enum Kind {
+        /** an analysis the user asked for, cancelled by their next message */
+        ANALYSIS,
+        /** the bot's move in the user's game */
+        GAME_MOVE
+    }
+
+    /**
+     * Receives the progress of one job, on the sender's dispatch lane. Nothing is received once the job is cancelled.
+     */
+    public interface Listener {
+
+        void progress(SearchResult result);
+
+        void done(SearchResult result);
+    }
+
+    private final PositionAnalysisService analysisService;
+    private final SenderDispatcher senderDispatcher;
+    private final long firstUpdateNanos;
+    private final long updateIntervalNanos;
+    private final long fairSliceNanos;
+    private final Thread[] workers;
+
+    private final Object lock = new Object();
+    //insertion ordered, the sender waiting longest is served first
+    private final LinkedHashMap<Key, Job> pending = new LinkedHashMap<>();
+    private final Map<Key, Job> running = new HashMap<>();
+    //jobs taken by a worker whose final result has not been handled on the lane yet
+    private final Map<Key, Job> answering = new HashMap<>();
+    private volatile boolean shutdown;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder sliced = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+
+    @Autowired
+    public AnalysisScheduler(final PositionAnalysisService analysisService,
+                             final SenderDispatcher senderDispatcher,
+                             @Value("${talkingchess.analysis.workers:2}") final int workerCount,
+                             @Value("${talkingchess.analysis.firstUpdateMillis:100}") final long firstUpdateMillis,
+                             @Value("${talkingchess.analysis.updateIntervalMillis:700}") final long updateIntervalMillis,
+                             @Value("${talkingchess.analysis.fairSliceMillis:500}") final long fairSliceMillis) {
+        this.analysisService = analysisService;
+        this.senderDispatcher = senderDispatcher;
+        this.firstUpdateNanos = TimeUnit.MILLISECONDS.toNanos(firstUpdateMillis);
+        this.updateIntervalNanos = TimeUnit.MILLISECONDS.toNanos(updateIntervalMillis);
+        this.fairSliceNanos = TimeUnit.MILLISECONDS.toNanos(fairSliceMillis);
+        this.workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            final ParallelSearch search = analysisService.newSearch();
+            workers[i] = new Thread(() -> work(search), "analysis-worker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        logger.info("Analysis scheduler started with {} workers", workerCount);
+    }
+
+    /**
+     * Queues the analysis, replacing any analysis of the sender.
+     */
+    public void submit(String senderId, Position position, Listener listener) {
+        submit(senderId, Kind.ANALYSIS, position, listener);
+    }
+
+    /**
+     * Queues the search, replacing any job of the sender of the same kind.
+     */
+    public void submit(String senderId, Kind kind, Position position, Listener listener) {
+        final Key key = new Key(senderId, kind);
+        synchronized (lock) {
+            cancelLocked(key);
+            pending.put(key, new Job(key, position, listener));
+            submitted.increment();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Drops the queued analysis of the sender and stops the running one, neither reports anything more.
+     * @return true if there was an analysis to cancel
+     */
+    public boolean cancel(String senderId) {
+        return cancel(senderId, Kind.ANALYSIS);
+    }
+
+    /**
+     * Drops the queued job of the sender of the kind and stops the running one, neither reports anything more.
+     * @return true if there was a job to cancel
+     */
+    public boolean cancel(String senderId, Kind kind) {
+        synchronized (lock) {
+            return cancelLocked(new Key(senderId, kind));
+        }
+    }
+
+    /**
+     * @return true if the sender has a job of the kind that has not been answered yet
+     */
+    public boolean isBusy(String senderId, Kind kind) {
+        final Key key = new Key(senderId, kind);
+        synchronized (lock) {
+            return pending.containsKey(key) || answering.containsKey(key);
+        }
+    }
+
+    private boolean cancelLocked(Key key) {
+        boolean found = pending.remove(key) != null;
+        final Job job = answering.get(key);
+        if (job != null && !job.cancelled) {
+            job.cancelled = true;
+            //a finished job's worker may be searching for someone else already
+            if (running.get(key) == job) {
+                job.search.stop();
+            }
+            found = true;
+        }
+        if (found) {
+            cancelled.increment();
+        }
+        return found;
+    }
+
+    private void work(ParallelSearch search) {
+        while (!shutdown) {
+            final Job job;
+            synchronized (lock) {
+                while (pending.isEmpty()) {
+                    if (shutdown) {
+                        return;
+                    }
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                final Iterator<Job> next = pending.values().iterator();
+                job = next.next();
+                next.remove();
+                job.search = search;
+                running.put(job.key, job);
+                answering.put(job.key, job);
+            }
+            try {
+                run(job);
+            } catch (RuntimeException e) {
+                logger.error("Analysis for sender '{}' failed", job.senderId, e);
+            } finally {
+                synchronized (lock) {
+                    running.remove(job.key, job);
+                    if (!job.answered) {
+                        answering.remove(job.key, job);
+                    }
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void run(Job job) {
+        final long start = System.nanoTime();
+        final SearchResult result = analysisService.analyse(job.search, job.position, iteration -> {
+            if (job.cancelled) {
+                //cancelled before the search began, which clears earlier stop requests
+                job.search.stop();
+                return;
+            }
+            final long now = System.nanoTime();
+            if (now - start >= fairSliceNanos && hasWaiting()) {
+                job.sliced = true;
+                job.search.stop();
+                return;
+            }
+            if (now - start >= firstUpdateNanos && (job.lastUpdate == 0 || now - job.lastUpdate >= updateIntervalNanos)) {
+                job.lastUpdate = now;
+                updates.increment();
+                tell(job, () -> {
+                    if (!job.cancelled) {
+                        job.listener.progress(iteration);
+                    }
+                });
+            }
+        });
+        if (job.cancelled) {
+            return;
+        }
+        if (job.sliced) {
+            sliced.increment();
+        }
+        completed.increment();
+        job.answered = tell(job, () -> {
+            try {
+                //cancelling happens on this lane as well, so the job cannot be cancelled once it is told
+                if (!job.cancelled) {
+                    job.listener.done(result);
+                }
+            } finally {
+                synchronized (lock) {
+                    answering.remove(job.key, job);
+                    lock.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return false if the dispatcher shuts down and the result is dropped
+     */
+    private boolean tell(Job job, Runnable task) {
+        try {
+            senderDispatcher.dispatch(job.senderId, task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.debug("Dropped the analysis result for sender '{}', shutting down", job.senderId);
+            return false;
+        }
+    }
+
+    private boolean hasWaiting() {
+        synchronized (lock) {
+            return !pending.isEmpty();
+        }
+    }
+
+    /**
+     * Waits until no job is queued, running or waiting for its final result to be handled, for tests and shutdown.
+     * @return true if the scheduler became idle in time
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (!pending.isEmpty() || !running.isEmpty() || !answering.isEmpty()) {
+                final long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, left);
+            }
+            return true;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            pending.clear();
+            for (Job job : answering.values()) {
+                job.cancelled = true;
+                job.search.stop();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    public int getPending() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    public int getRunning() {
+        synchronized (lock) {
+            return running.size();
+        }
+    }
+
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getCancelled() {
+        return cancelled.sum();
+    }
+
+    public long getSliced() {
+        return sliced.sum();
+    }
+
+    public long getUpdates() {
+        return updates.sum();
+    }
+
+    private static final class Job {
+
+        private final Key key;
+        private final String senderId;
+        private final Position position;
+        private final Listener listener;
+        private ParallelSearch search;
+        private volatile boolean cancelled;
+        private boolean sliced;
+        private boolean answered;
+        private long lastUpdate;
+
+        private Job(Key key, Position position, Listener listener) {
+            this.key = key;
+            this.senderId = key.senderId;
+            this.position = position;
+            this.listener = listener;
+        }
+    }
+
+    private static final class Key {
+
+        private final String senderId;
+        private final Kind kind;
+
+        private Key(String senderId, Kind kind) {
+            this.senderId = senderId;
+            this.kind = kind;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) other;
+            return senderId.equals(key.senderId) && kind == key.kind;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(senderId, kind);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.bjedrzejewski.talkingchess.analysis;
+
+import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
+import com.bjedrzejewski.talkingchess.endgames.Bitbase;
+import com.bjedrzejewski.talkingchess.endgames.Endgames;
+import com.bjedrzejewski.talkingchess.engine.MoveGenerator;
+import com.bjedrzejewski.talkingchess.engine.Notation;
+import com.bjedrzejewski.talkingchess.engine.Piece;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import com.bjedrzejewski.talkingchess.engine.SearchResult;
+import com.bjedrzejewski.talkingchess.openings.OpeningTalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers "analyse this position" messages with an evaluation and the best line.
+ * Searches are queued on the {@link AnalysisScheduler}, the sender lane only parses the request; the user gets
+ * a typing indicator, interim "depth N" results while the search deepens and the final line at the end.
+ * Endgames the {@link Endgames} bitbases cover are answered from the table instead, without a search.
+ */
+@Component
+public class AnalysisTalk {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalysisTalk.class);
+
+    private static final int MAX_LINE_LENGTH = 8;
+
+    private final PositionAnalysisService analysisService;
+    private final AnalysisScheduler scheduler;
+    private final Endgames endgames;
+
+    @Autowired
+    public AnalysisTalk(final PositionAnalysisService analysisService, final AnalysisScheduler scheduler,
+                        final Endgames endgames) {
+        this.analysisService = analysisService;
+        this.scheduler = scheduler;
+        this.endgames = endgames;
+    }
+
+    /**
+     * Starts analysing the lines the opening talks quote, so the table already knows them when users ask.
+     */
+    public void analyseOpeningLines(List<OpeningTalk> openingTalks) {
+        final Map<String, String> lines = new LinkedHashMap<>();
+        for (OpeningTalk openingTalk : openingTalks) {
+            lines.putAll(openingTalk.getLines());
+        }
+        analysisService.analyseLines(lines);
+    }
+
+    /**
+     * @return true if the message asked for an analysis and has been answered
+     */
+    public boolean analysisCheck(MessengerPlatformCallbackHandler callbackHandler, String messageText, String recipientId) {
+        final AnalysisRequest request = AnalysisRequest.parse(messageText);
+        if (request == null) {
+            return false;
+        }
+        if (request.getPosition() == null) {
+            callbackHandler.sendTextMessage(recipientId, request.getError());
+            return true;
+        }
+        final Position position = request.getPosition();
+        if (MoveGenerator.generate(position, new int[MoveGenerator.MAX_MOVES]) == 0) {
+            callbackHandler.sendTextMessage(recipientId, position.isInCheck()
+                    ? "That is checkmate already, nothing left for me to calculate."
+                    : "That is stalemate, a draw. Nothing left for me to calculate.");
+            return true;
+        }
+        final int endgame = endgames.probe(position);
+        if (endgame != Endgames.UNKNOWN) {
+            callbackHandler.sendTextMessage(recipientId, describeEndgame(position, endgame));
+            return true;
+        }
+        callbackHandler.sendTypingIndicator(recipientId);
+        scheduler.submit(recipientId, position, new AnalysisScheduler.Listener() {
+            @Override
+            public void progress(SearchResult result) {
+                callbackHandler.sendTextMessage(recipientId, formatProgress(position, result));
+                callbackHandler.sendTypingIndicator(recipientId);
+            }
+
+            @Override
+            public void done(SearchResult result) {
+                logger.info("Analysed '{}' - depth: {} | nodes: {} | time: {}ms | nps: {}", position.toFen(), result.getDepth(),
+                        result.getNodes(), TimeUnit.NANOSECONDS.toMillis(result.getNanos()), result.getNodesPerSecond());
+                callbackHandler.sendTextMessage(recipientId, format(position, result));
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Stops the analysis the sender is waiting for, they have moved on.
+     */
+    public void cancel(String senderId) {
+        scheduler.cancel(senderId);
+    }
+
+    /**
+     * @return evaluation of a line quoted by an opening talk, or null while the background analysis has not reached it
+     */
+    public String describeLine(String name) {
+        final String moves = analysisService.getLine(name);
+        final SearchResult result = analysisService.getLineResult(name);
+        if (moves == null || result == null) {
+            return null;
+        }
+        final Position position = Position.start();
+        Notation.playMoves(position, moves);
+        return "My evaluation of the " + name + ": " + format(position, result);
+    }
+
+    private String describeEndgame(Position position, int result) {
+        final String table = "My " + endgames.tableFor(position) + " bitbase says ";
+        if (result == Bitbase.DRAW) {
+            return table + "this is a draw with best play.";
+        }
+        final boolean whiteWins = (result == Bitbase.WIN) == (position.getSideToMove() == Piece.WHITE);
+        return table + (whiteWins ? "White" : "Black") + " wins with best play.";
+    }
+
+    static String formatProgress(Position position, SearchResult result) {
+        final int[] line = result.getPrincipalVariation();
+        return "Depth " + result.getDepth() + ": " + evaluation(result, position.getSideToMove()) + ", "
+                + Notation.line(position, line, Math.min(line.length, MAX_LINE_LENGTH));
+    }
+
+    private static String format(Position position, SearchResult result) {
+        final int[] line = result.getPrincipalVariation();
+        return describe(result, position.getSideToMove()) + " Best line: "
+                + Notation.line(position, line, Math.min(line.length, MAX_LINE_LENGTH))
+                + String.format(Locale.ROOT, " (depth %d, %,d nodes/s)", result.getDepth(), result.getNodesPerSecond());
+    }
+
+    /**
+     * @return short evaluation from White's point of view, such as "+0.35" or "#-2"
+     */
+    private static String evaluation(SearchResult result, int sideToMove) {
+        final boolean whiteToMove = sideToMove == Piece.WHITE;
+        if (result.isMate()) {
+            return "#" + (whiteToMove ? result.getMateIn() : -result.getMateIn());
+        }
+        return String.format(Locale.ROOT, "%+.2f", (whiteToMove ? result.getScore() : -result.getScore()) / 100.0);
+    }
+
+    private static String describe(SearchResult result, int sideToMove) {
+        final boolean whiteToMove = sideToMove == Piece.WHITE;
+        if (result.isMate()) {
+            final int mateIn = result.getMateIn();
+            final boolean whiteMates = (mateIn > 0) == whiteToMove;
+            return (whiteMates ? "White" : "Black") + " mates in " + Math.abs(mateIn) + ".";
+        }
+        final int whiteScore = whiteToMove ? result.getScore() : -result.getScore();
+        final String evaluation = evaluation(result, sideToMove);
+        final String side = whiteScore > 0 ? "White" : "Black";
+        final int advantage = Math.abs(whiteScore);
+        if (advantage < 30) {
+            return "The position is about equal (" + evaluation + ").";
+        } else if (advantage < 100) {
+            return side + " is slightly better (" + evaluation + ").";
+        } else if (advantage < 300) {
+            return side + " is better (" + evaluation + ").";
+        }
+        return side + " is winning (" + evaluation + ").";
+    }
+}
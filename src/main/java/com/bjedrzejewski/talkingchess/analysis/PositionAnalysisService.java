@@ -0,0 +1,190 @@
+package com.bjedrzejewski.talkingchess.analysis;
+
+import com.bjedrzejewski.talkingchess.engine.Notation;
+import com.bjedrzejewski.talkingchess.engine.ParallelSearch;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import com.bjedrzejewski.talkingchess.engine.SearchListener;
+import com.bjedrzejewski.talkingchess.engine.SearchResult;
+import com.bjedrzejewski.talkingchess.engine.TranspositionTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Searches positions for every sender against one transposition table held off the heap,
+ * so a line analysed for one user makes the same line quicker and deeper for the next one.
+ * Each search is helped by threads of a pool of its own (Lazy SMP), so chat dispatch threads are never
+ * taken for it. The opening lines quoted by the talks are analysed in the background at startup.
+ */
+@Component
+public class PositionAnalysisService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PositionAnalysisService.class);
+
+    private final long budgetMillis;
+    private final long lineBudgetMillis;
+    private final int maxDepth;
+    private final int helperThreads;
+    private final TranspositionTable table;
+    private final ExecutorService helperPool;
+    private final Map<String, String> lines = new ConcurrentHashMap<>();
+    private final Map<String, SearchResult> lineResults = new ConcurrentHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder totalDepth = new LongAdder();
+    private final LongAdder totalNodes = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong lastDepth = new AtomicLong();
+    private final AtomicLong lastNodesPerSecond = new AtomicLong();
+
+    /**
+     * @param helperThreads threads helping every search, negative for one less than the available processors
+     */
+    @Autowired
+    public PositionAnalysisService(@Value("${talkingchess.analysis.hashMb:64}") final int hashMb,
+                                   @Value("${talkingchess.analysis.helperThreads:-1}") final int helperThreads,
+                                   @Value("${talkingchess.analysis.budgetMillis:2000}") final long budgetMillis,
+                                   @Value("${talkingchess.analysis.lineBudgetMillis:5000}") final long lineBudgetMillis,
+                                   @Value("${talkingchess.analysis.maxDepth:64}") final int maxDepth) {
+        this.budgetMillis = budgetMillis;
+        this.lineBudgetMillis = lineBudgetMillis;
+        this.maxDepth = maxDepth;
+        this.helperThreads = helperThreads < 0 ? Runtime.getRuntime().availableProcessors() - 1 : helperThreads;
+        this.table = new TranspositionTable(hashMb);
+        this.helperPool = Executors.newFixedThreadPool(Math.max(1, this.helperThreads), new HelperThreadFactory());
+        logger.info("Transposition table of {} MB allocated off heap, {} helper threads per search",
+                table.getSizeBytes() >> 20, this.helperThreads);
+    }
+
+    /**
+     * @return search over the shared table and helper pool, to be reused by one thread at a time
+     */
+    public ParallelSearch newSearch() {
+        return new ParallelSearch(table, helperPool, helperThreads);
+    }
+
+    /**
+     * Searches the position within the configured budget.
+     * @param listener told about every completed iteration, may be null
+     */
+    public SearchResult analyse(ParallelSearch search, Position position, SearchListener listener) {
+        final SearchResult result = search.search(position, budgetMillis, TimeUnit.MILLISECONDS, maxDepth, listener);
+        record(result);
+        return result;
+    }
+
+    /**
+     * Analyses the lines, name to move list, one after another on a background thread.
+     */
+    public void analyseLines(Map<String, String> lines) {
+        final Map<String, String> pending = new LinkedHashMap<>(lines);
+        final Thread thread = new Thread(() -> {
+            final ParallelSearch search = newSearch();
+            for (Map.Entry<String, String> line : pending.entrySet()) {
+                try {
+                    final Position position = Position.start();
+                    Notation.playMoves(position, line.getValue());
+                    final SearchResult result = search.search(position, lineBudgetMillis, TimeUnit.MILLISECONDS, maxDepth);
+                    this.lines.put(line.getKey(), line.getValue());
+                    lineResults.put(line.getKey(), result);
+                    logger.info("Analysed line '{}' - depth: {} | score: {}", line.getKey(), result.getDepth(), result.getScore());
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Cannot play line '{}', illegal move: {}", line.getKey(), e.getMessage());
+                }
+            }
+        }, "analysis-lines");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * @return result of the background analysis of the named line, or null if it has not finished yet
+     */
+    public SearchResult getLineResult(String name) {
+        return lineResults.get(name);
+    }
+
+    /**
+     * @return moves of the named line once it has been analysed, or null
+     */
+    public String getLine(String name) {
+        return lines.get(name);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        helperPool.shutdownNow();
+    }
+
+    private void record(SearchResult result) {
+        requests.increment();
+        totalDepth.add(result.getDepth());
+        totalNodes.add(result.getNodes());
+        totalNanos.add(result.getNanos());
+        lastDepth.set(result.getDepth());
+        lastNodesPerSecond.set(result.getNodesPerSecond());
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public double getAverageDepth() {
+        final long count = requests.sum();
+        return count == 0 ? 0 : (double) totalDepth.sum() / count;
+    }
+
+    public long getAverageNodesPerSecond() {
+        final long nanos = totalNanos.sum();
+        return nanos == 0 ? 0 : totalNodes.sum() * 1_000_000_000L / nanos;
+    }
+
+    public long getLastDepth() {
+        return lastDepth.get();
+    }
+
+    public long getLastNodesPerSecond() {
+        return lastNodesPerSecond.get();
+    }
+
+    public int getLinesAnalysed() {
+        return lineResults.size();
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    public int getThreads() {
+        return helperThreads + 1;
+    }
+
+    private static class HelperThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "search-helper-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            //chat dispatch comes first when the machine is busy
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
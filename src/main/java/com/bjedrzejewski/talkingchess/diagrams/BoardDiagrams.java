@@ -0,0 +1,325 @@
+package com.bjedrzejewski.talkingchess.diagrams;
+
+import com.bjedrzejewski.talkingchess.engine.Notation;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import com.bjedrzejewski.talkingchess.openings.OpeningTalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * PNG board diagrams, rendered on the server and sent to Messenger as image attachments.
+ * <p>
+ * Diagrams are looked up in a least recently used memory cache first and then in {@code data/diagrams}, where every
+ * diagram is a file named by its key, the SHA-256 of what it shows. Only a diagram found in neither is rendered.
+ * The positions the opening talks quote are rendered at startup and kept in memory for good. The oldest files are
+ * deleted once the directory outgrows its budget.
+ * <p>
+ * Messenger fetches the images from {@code talkingchess.publicUrl}, without it no diagrams are sent.
+ */
+@Component
+public class BoardDiagrams {
+
+    private static final Logger logger = LoggerFactory.getLogger(BoardDiagrams.class);
+
+    private static final Pattern KEY = Pattern.compile("[0-9a-f]{64}");
+    private static final String SUFFIX = ".png";
+    /** Estimated bytes of a cached diagram on top of its PNG. */
+    private static final int ENTRY_BYTES = 256;
+
+    private final Path directory;
+    private final int squarePixels;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    private final String publicUrl;
+
+    //least recently used first
+    private final LinkedHashMap<String, Diagram> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final Map<String, Diagram> pinned = new ConcurrentHashMap<>();
+    private final Map<String, String> lineKeys = new ConcurrentHashMap<>();
+    private final Map<String, String> lines = new ConcurrentHashMap<>();
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder rendered = new LongAdder();
+
+    /**
+     * @param squarePixels size of a square of the board
+     * @param memoryKb     diagrams kept in memory at most, besides the pre-rendered ones
+     * @param diskMb       diagrams kept on the disk at most
+     * @param publicUrl    base URL this application is reachable at, empty to not send diagrams
+     */
+    @Autowired
+    public BoardDiagrams(@Value("${talkingchess.dataDir:data}") final String dataDir,
+                         @Value("${talkingchess.diagrams.squarePixels:48}") final int squarePixels,
+                         @Value("${talkingchess.diagrams.memoryKb:8192}") final int memoryKb,
+                         @Value("${talkingchess.diagrams.diskMb:256}") final int diskMb,
+                         @Value("${talkingchess.publicUrl:}") final String publicUrl) throws IOException {
+        this(Paths.get(dataDir, "diagrams"), squarePixels, memoryKb, diskMb, publicUrl);
+    }
+
+    BoardDiagrams(Path directory, int squarePixels, int memoryKb, int diskMb, String publicUrl) throws IOException {
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.squarePixels = squarePixels;
+        this.maxMemoryBytes = memoryKb * 1024L;
+        this.maxDiskBytes = diskMb * 1024L * 1024L;
+        this.publicUrl = publicUrl.endsWith("/") ? publicUrl.substring(0, publicUrl.length() - 1) : publicUrl;
+        long bytes = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                bytes += Files.size(file);
+            }
+        }
+        diskBytes.set(bytes);
+        logger.info("Board diagrams initialized - on disk: {}KB | max memory: {}KB | max disk: {}MB | served: {}",
+                bytes / 1024, memoryKb, diskMb, !this.publicUrl.isEmpty());
+    }
+
+    /**
+     * Renders the final positions of the lines the opening talks quote in the background, they are kept in memory.
+     */
+    public void prerenderLines(List<OpeningTalk> openingTalks) {
+        for (OpeningTalk openingTalk : openingTalks) {
+            lines.putAll(openingTalk.getLines());
+        }
+        final Map<String, String> pending = new LinkedHashMap<>(lines);
+        final Thread thread = new Thread(() -> {
+            for (String name : pending.keySet()) {
+                getLineDiagram(name);
+            }
+            logger.info("Pre-rendered {} line diagrams", lineKeys.size());
+        }, "diagram-prerender");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * @return diagram of the final position of a line quoted by an opening talk, null if the line is not known
+     */
+    public Diagram getLineDiagram(String lineName) {
+        final String key = lineKeys.get(lineName);
+        if (key != null) {
+            memoryHits.increment();
+            return pinned.get(key);
+        }
+        final String moves = lines.get(lineName);
+        if (moves == null) {
+            return null;
+        }
+        final Position position = Position.start();
+        try {
+            Notation.playMoves(position, moves);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Cannot play line '{}' for its diagram: {}", lineName, e.getMessage());
+            return null;
+        }
+        final Diagram diagram = get(position, false);
+        pinned.put(diagram.getKey(), diagram);
+        lineKeys.put(lineName, diagram.getKey());
+        return diagram;
+    }
+
+    /**
+     * @param flipped true to show the board from Black's side
+     * @return the diagram of the position, from the caches if it has been rendered before
+     */
+    public Diagram get(Position position, boolean flipped) {
+        final String key = key(position, flipped);
+        final Diagram cached = find(key);
+        if (cached != null) {
+            return cached;
+        }
+        final Diagram diagram = new Diagram(key, BoardRenderer.render(position, flipped, squarePixels));
+        rendered.increment();
+        remember(diagram);
+        store(diagram);
+        return diagram;
+    }
+
+    /**
+     * @return the diagram cached under the key, null if there is none
+     */
+    public Diagram find(String key) {
+        if (!KEY.matcher(key).matches()) {
+            return null;
+        }
+        Diagram diagram = pinned.get(key);
+        if (diagram == null) {
+            synchronized (memory) {
+                diagram = memory.get(key);
+            }
+        }
+        if (diagram != null) {
+            memoryHits.increment();
+            return diagram;
+        }
+        final Path file = directory.resolve(key + SUFFIX);
+        try {
+            diagram = new Diagram(key, Files.readAllBytes(file));
+            //the oldest files are deleted first, so a used one counts as new
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Could not read diagram {}", file, e);
+            return null;
+        }
+        diskHits.increment();
+        remember(diagram);
+        return diagram;
+    }
+
+    /**
+     * @return URL Messenger can fetch the diagram from, null if diagrams are not served
+     */
+    public String getUrl(Diagram diagram) {
+        return publicUrl.isEmpty() ? null : publicUrl + "/diagrams/" + diagram.getKey() + SUFFIX;
+    }
+
+    public boolean isServed() {
+        return !publicUrl.isEmpty();
+    }
+
+    /**
+     * Hex SHA-256 over the drawing version, the square size, the side the board is seen from and the placement of
+     * the pieces, which is everything a diagram shows.
+     */
+    String key(Position position, boolean flipped) {
+        final String fen = position.toFen();
+        final String content = BoardRenderer.VERSION + "/" + squarePixels + "/" + (flipped ? "b" : "w") + "/"
+                + fen.substring(0, fen.indexOf(' '));
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.US_ASCII));
+            final StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private void remember(Diagram diagram) {
+        synchronized (memory) {
+            if (memory.put(diagram.getKey(), diagram) == null) {
+                memoryBytes += bytes(diagram);
+            }
+            final Iterator<Diagram> eldest = memory.values().iterator();
+            while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+                memoryBytes -= bytes(eldest.next());
+                eldest.remove();
+            }
+        }
+    }
+
+    private static long bytes(Diagram diagram) {
+        return ENTRY_BYTES + diagram.getPng().length;
+    }
+
+    /**
+     * Writes the diagram to the disk, whole or not at all. Diagrams are only ever rendered again, so a failed write
+     * costs a render and nothing else.
+     */
+    private void store(Diagram diagram) {
+        final Path file = directory.resolve(diagram.getKey() + SUFFIX);
+        final Path temp = directory.resolve(diagram.getKey() + SUFFIX + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            Files.write(temp, diagram.getPng());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not store diagram {}", file, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                //nothing left to do
+            }
+            return;
+        }
+        if (diskBytes.addAndGet(diagram.getPng().length) > maxDiskBytes) {
+            trim();
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the directory is down to three quarters of its budget.
+     */
+    private synchronized void trim() {
+        if (diskBytes.get() <= maxDiskBytes) {
+            return;
+        }
+        final List<Path> files = new ArrayList<>();
+        long bytes = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+                bytes += Files.size(file);
+            }
+            final Map<Path, Long> modified = new LinkedHashMap<>();
+            for (Path file : files) {
+                modified.put(file, Files.getLastModifiedTime(file).toMillis());
+            }
+            files.sort((a, b) -> Long.compare(modified.get(a), modified.get(b)));
+            for (Path file : files) {
+                if (bytes <= maxDiskBytes / 4 * 3) {
+                    break;
+                }
+                final long size = Files.size(file);
+                Files.delete(file);
+                bytes -= size;
+            }
+        } catch (IOException e) {
+            logger.warn("Could not trim the diagrams in {}", directory, e);
+        }
+        diskBytes.set(bytes);
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.sum();
+    }
+
+    public long getDiskHits() {
+        return diskHits.sum();
+    }
+
+    public long getRendered() {
+        return rendered.sum();
+    }
+
+    public long getMemoryBytes() {
+        synchronized (memory) {
+            return memoryBytes;
+        }
+    }
+
+    public long getDiskBytes() {
+        return diskBytes.get();
+    }
+}
@@ -0,0 +1,163 @@
+package com.bjedrzejewski.talkingchess.diagrams;
+
+import com.bjedrzejewski.talkingchess.engine.Piece;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import com.bjedrzejewski.talkingchess.engine.Square;
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Draws the board of a position into a PNG. Pieces are plain silhouettes drawn from shapes, no text is drawn,
+ * so that no fonts or images have to be installed on the server.
+ */
+final class BoardRenderer {
+
+    /** Changes whenever the drawing changes, so that diagrams cached on the disk are not mixed up. */
+    static final int VERSION = 1;
+
+    private static final Color LIGHT = new Color(240, 217, 181);
+    private static final Color DARK = new Color(181, 136, 99);
+    private static final Color WHITE_PIECE = new Color(250, 250, 250);
+    private static final Color BLACK_PIECE = new Color(40, 40, 40);
+    private static final Color OUTLINE = new Color(20, 20, 20);
+
+    /** Silhouettes by piece type, in a square of size 1 with y growing downwards. */
+    private static final Shape[] SHAPES = {pawn(), knight(), bishop(), rook(), queen(), king()};
+
+    private BoardRenderer() {
+    }
+
+    /**
+     * @param flipped    true to show the board from Black's side
+     * @param squareSize pixels of a square
+     */
+    static byte[] render(Position position, boolean flipped, int squareSize) {
+        final BufferedImage image = new BufferedImage(8 * squareSize, 8 * squareSize, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            graphics.setStroke(new BasicStroke(Math.max(1f, squareSize / 24f), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            for (int row = 0; row < 8; row++) {
+                for (int column = 0; column < 8; column++) {
+                    final int file = flipped ? 7 - column : column;
+                    final int rank = flipped ? row : 7 - row;
+                    final int x = column * squareSize;
+                    final int y = row * squareSize;
+                    graphics.setColor((file + rank) % 2 == 0 ? DARK : LIGHT);
+                    graphics.fillRect(x, y, squareSize, squareSize);
+                    final int piece = position.getPiece(Square.of(file, rank));
+                    if (piece != Piece.NONE) {
+                        drawPiece(graphics, piece, x, y, squareSize);
+                    }
+                }
+            }
+        } finally {
+            graphics.dispose();
+        }
+        final ByteArrayOutputStream png = new ByteArrayOutputStream(8 * 1024);
+        try {
+            ImageIO.write(image, "png", png);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not encode the diagram", e);
+        }
+        return png.toByteArray();
+    }
+
+    private static void drawPiece(Graphics2D graphics, int piece, int x, int y, int squareSize) {
+        final AffineTransform transform = new AffineTransform();
+        transform.translate(x, y);
+        transform.scale(squareSize, squareSize);
+        final Shape shape = transform.createTransformedShape(SHAPES[Piece.type(piece)]);
+        graphics.setColor(Piece.color(piece) == Piece.WHITE ? WHITE_PIECE : BLACK_PIECE);
+        graphics.fill(shape);
+        graphics.setColor(OUTLINE);
+        graphics.draw(shape);
+    }
+
+    private static Area base() {
+        return new Area(new Rectangle2D.Double(0.24, 0.72, 0.52, 0.1));
+    }
+
+    private static Area circle(double centerX, double centerY, double radius) {
+        return new Area(new Ellipse2D.Double(centerX - radius, centerY - radius, 2 * radius, 2 * radius));
+    }
+
+    private static Area polygon(double... points) {
+        final Path2D.Double path = new Path2D.Double();
+        path.moveTo(points[0], points[1]);
+        for (int i = 2; i < points.length; i += 2) {
+            path.lineTo(points[i], points[i + 1]);
+        }
+        path.closePath();
+        return new Area(path);
+    }
+
+    private static Shape pawn() {
+        final Area pawn = base();
+        pawn.add(polygon(0.4, 0.42, 0.6, 0.42, 0.68, 0.74, 0.32, 0.74));
+        pawn.add(circle(0.5, 0.33, 0.12));
+        return pawn;
+    }
+
+    private static Shape knight() {
+        final Area knight = base();
+        knight.add(polygon(0.3, 0.74, 0.7, 0.74, 0.7, 0.45, 0.62, 0.26, 0.5, 0.17, 0.46, 0.23, 0.36, 0.3,
+                0.22, 0.5, 0.27, 0.58, 0.42, 0.5));
+        return knight;
+    }
+
+    private static Shape bishop() {
+        final Area bishop = base();
+        final Path2D.Double mitre = new Path2D.Double();
+        mitre.moveTo(0.36, 0.74);
+        mitre.quadTo(0.28, 0.45, 0.5, 0.24);
+        mitre.quadTo(0.72, 0.45, 0.64, 0.74);
+        mitre.closePath();
+        bishop.add(new Area(mitre));
+        bishop.add(circle(0.5, 0.2, 0.06));
+        return bishop;
+    }
+
+    private static Shape rook() {
+        final Area rook = base();
+        rook.add(new Area(new Rectangle2D.Double(0.32, 0.36, 0.36, 0.38)));
+        rook.add(polygon(0.27, 0.2, 0.37, 0.2, 0.37, 0.27, 0.45, 0.27, 0.45, 0.2, 0.55, 0.2, 0.55, 0.27,
+                0.63, 0.27, 0.63, 0.2, 0.73, 0.2, 0.73, 0.38, 0.27, 0.38));
+        return rook;
+    }
+
+    private static Shape queen() {
+        final Area queen = base();
+        queen.add(polygon(0.28, 0.74, 0.2, 0.32, 0.36, 0.52, 0.4, 0.24, 0.5, 0.5, 0.6, 0.24, 0.64, 0.52,
+                0.8, 0.32, 0.72, 0.74));
+        queen.add(circle(0.2, 0.3, 0.045));
+        queen.add(circle(0.4, 0.22, 0.045));
+        queen.add(circle(0.6, 0.22, 0.045));
+        queen.add(circle(0.8, 0.3, 0.045));
+        return queen;
+    }
+
+    private static Shape king() {
+        final Area king = base();
+        king.add(polygon(0.3, 0.74, 0.22, 0.44, 0.5, 0.52, 0.78, 0.44, 0.7, 0.74));
+        king.add(new Area(new Ellipse2D.Double(0.38, 0.32, 0.24, 0.24)));
+        king.add(new Area(new Rectangle2D.Double(0.47, 0.1, 0.06, 0.26)));
+        king.add(new Area(new Rectangle2D.Double(0.4, 0.16, 0.2, 0.06)));
+        return king;
+    }
+}
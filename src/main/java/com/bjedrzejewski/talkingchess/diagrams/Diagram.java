@@ -0,0 +1,29 @@
+package com.bjedrzejewski.talkingchess.diagrams;
+
+/**
+ * A rendered board diagram and the key it is cached and served under.
+ */
+public final class Diagram {
+
+    private final String key;
+    private final byte[] png;
+
+    Diagram(String key, byte[] png) {
+        this.key = key;
+        this.png = png;
+    }
+
+    /**
+     * @return hex SHA-256 of what the diagram shows, see {@link BoardDiagrams}
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the PNG bytes, not to be changed
+     */
+    public byte[] getPng() {
+        return png;
+    }
+}
@@ -0,0 +1,137 @@
+package com.bjedrzejewski.talkingchess.dispatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-process queue for verified webhook payloads.
+ * The callback endpoint hands the payload over and returns 200 straight away, the worker pool drains the queue.
+ * When the queue is full the payload is refused and the endpoint answers 503, so the platform delivers it again
+ * later. Processing it on the request thread instead would let it overtake the earlier payloads still queued.
+ */
+@Component
+public class CallbackQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallbackQueue.class);
+
+    private final boolean async;
+    private final ThreadPoolExecutor workers;
+
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalLagMillis = new LongAdder();
+    private final AtomicLong lastLagMillis = new AtomicLong();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+
+    @Autowired
+    public CallbackQueue(@Value("${talkingchess.callback.async:true}") final boolean async,
+                         @Value("${talkingchess.callback.queueCapacity:1000}") final int queueCapacity,
+                         @Value("${talkingchess.callback.workers:1}") final int workerCount) {
+        this.async = async;
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "callback-worker-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        logger.info("Callback queue initialized - async: {} | capacity: {} | workers: {}", async, queueCapacity, workerCount);
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Queues the payload processing, or runs it inline if async mode is off.
+     *
+     * @return false if the queue is full and the payload has to be delivered again
+     */
+    public boolean submit(Runnable task) {
+        if (!async) {
+            runSafely(task);
+            return true;
+        }
+        final long enqueuedAt = System.nanoTime();
+        try {
+            workers.execute(() -> {
+                recordLag(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueuedAt));
+                runSafely(task);
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            logger.warn("Callback queue full ({} waiting), refusing the payload", workers.getQueue().size());
+            return false;
+        }
+    }
+
+    private void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            logger.error("Processing of queued callback payload failed", e);
+        } finally {
+            processed.increment();
+        }
+    }
+
+    private void recordLag(long lagMillis) {
+        lastLagMillis.set(lagMillis);
+        totalLagMillis.add(lagMillis);
+        long max;
+        while (lagMillis > (max = maxLagMillis.get())) {
+            if (maxLagMillis.compareAndSet(max, lagMillis)) {
+                break;
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getLastLagMillis() {
+        return lastLagMillis.get();
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    public double getAverageLagMillis() {
+        final long count = processed.sum();
+        return count <= 0 ? 0 : (double) totalLagMillis.sum() / count;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        workers.shutdown();
+        if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+            logger.warn("Callback queue shut down with {} payloads still waiting", workers.getQueue().size());
+            workers.shutdownNow();
+        }
+    }
+}
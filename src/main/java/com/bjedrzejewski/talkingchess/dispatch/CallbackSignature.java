@@ -0,0 +1,40 @@
+package com.bjedrzejewski.talkingchess.dispatch;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * Verifies the {@code X-Hub-Signature} header of a callback before the payload is queued,
+ * so that only payloads signed with our {@code Application Secret} are accepted for later processing.
+ */
+public final class CallbackSignature {
+
+    private static final String PREFIX = "sha1=";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private CallbackSignature() {
+    }
+
+    public static boolean isValid(String payload, String signature, String appSecret) {
+        if (payload == null || signature == null || !signature.startsWith(PREFIX)) {
+            return false;
+        }
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(appSecret.getBytes(StandardCharsets.UTF_8), "HmacSHA1"));
+            final byte[] digest = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+            final char[] expected = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                expected[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                expected[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return MessageDigest.isEqual(new String(expected).getBytes(StandardCharsets.US_ASCII),
+                    signature.substring(PREFIX.length()).toLowerCase().getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.bjedrzejewski.talkingchess.dispatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers the ids of recently handled messages, so that events the platform redelivers after a slow ack
+ * are answered only once.
+ * <p>
+ * Ids are kept as 64-bit hashes in two open-addressing tables of a fixed size, the current and the previous
+ * generation. The generations rotate once per window, so an id is remembered for at least one window and is
+ * forgotten once two windows have passed.
+ * A generation that fills up rotates early, which shortens the window but never grows the memory.
+ */
+@Component
+public class MessageDeduplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageDeduplicator.class);
+
+    private static final long EMPTY = 0L;
+
+    private final long windowNanos;
+    private final int mask;
+    private final int maxEntries;
+    private final LongSupplier clock;
+
+    private long[] current;
+    private long[] previous;
+    private int currentSize;
+    private long rotatedAt;
+
+    private final LongAdder suppressed = new LongAdder();
+    private final LongAdder earlyRotations = new LongAdder();
+
+    @Autowired
+    public MessageDeduplicator(@Value("${talkingchess.dedup.windowSeconds:600}") final long windowSeconds,
+                               @Value("${talkingchess.dedup.maxMemoryKb:1024}") final int maxMemoryKb) {
+        this(TimeUnit.SECONDS.toNanos(windowSeconds), maxMemoryKb, System::nanoTime);
+    }
+
+    MessageDeduplicator(long windowNanos, int maxMemoryKb, LongSupplier clock) {
+        //two generations of 8 byte slots, rounded down to a power of two
+        final int slots = Integer.highestOneBit(Math.max(16, maxMemoryKb * 1024 / 2 / 8));
+        this.windowNanos = windowNanos;
+        this.mask = slots - 1;
+        //linear probing stays short up to half full
+        this.maxEntries = slots / 2;
+        this.clock = clock;
+        this.current = new long[slots];
+        this.previous = new long[slots];
+        this.rotatedAt = clock.getAsLong();
+        logger.info("Message deduplicator initialized - window: {}s | slots per generation: {}",
+                TimeUnit.NANOSECONDS.toSeconds(windowNanos), slots);
+    }
+
+    /**
+     * Records the message id.
+     *
+     * @return false if the id has already been seen within the window, true otherwise and for messages without an id
+     */
+    public synchronized boolean firstSeen(String messageId) {
+        if (messageId == null) {
+            return true;
+        }
+        final long now = clock.getAsLong();
+        final long elapsedWindows = (now - rotatedAt) / windowNanos;
+        if (elapsedWindows >= 2) {
+            //after an idle gap both generations are older than a window
+            Arrays.fill(current, EMPTY);
+            currentSize = 0;
+            rotate(now);
+        } else if (elapsedWindows == 1) {
+            rotate(now);
+        }
+        final long hash = hash(messageId);
+        if (contains(previous, hash) || contains(current, hash)) {
+            suppressed.increment();
+            return false;
+        }
+        if (currentSize >= maxEntries) {
+            earlyRotations.increment();
+            logger.warn("Message deduplicator generation full after {}ms, rotating early",
+                    TimeUnit.NANOSECONDS.toMillis(now - rotatedAt));
+            rotate(now);
+        }
+        insert(current, hash);
+        currentSize++;
+        return true;
+    }
+
+    private void rotate(long now) {
+        final long[] recycled = previous;
+        Arrays.fill(recycled, EMPTY);
+        previous = current;
+        current = recycled;
+        currentSize = 0;
+        rotatedAt = now;
+    }
+
+    private boolean contains(long[] table, long hash) {
+        int slot = (int) hash & mask;
+        while (table[slot] != EMPTY) {
+            if (table[slot] == hash) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    private void insert(long[] table, long hash) {
+        int slot = (int) hash & mask;
+        while (table[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = hash;
+    }
+
+    /**
+     * FNV-1a over the UTF-8 bytes with a final mix, 0 is reserved for empty slots.
+     */
+    static long hash(String messageId) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : messageId.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    public long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    public long getEarlyRotations() {
+        return earlyRotations.sum();
+    }
+
+    public synchronized int getTracked() {
+        return currentSize;
+    }
+
+    public int getMemoryBytes() {
+        return (mask + 1) * 8 * 2;
+    }
+}
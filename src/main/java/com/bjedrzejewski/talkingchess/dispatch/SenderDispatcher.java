@@ -0,0 +1,178 @@
+package com.bjedrzejewski.talkingchess.dispatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Striped executor for the message handlers.
+ * Every sender is hashed onto one of N single threaded lanes, so the messages of one user are answered in the
+ * order they arrived (a quick reply is never answered before the menu it came from), while different users
+ * are handled in parallel. Lanes use a lock-free queue and park their thread when there is nothing to do.
+ * <p>
+ * Every lane holds a bounded number of tasks. A full lane blocks the caller until there is room, which stalls the
+ * callback workers and in turn fills the {@link CallbackQueue}, so a burst pushes back on the platform instead of
+ * growing the heap.
+ */
+@Component
+public class SenderDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(SenderDispatcher.class);
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SHUTDOWN_DRAIN_MILLIS = 5000;
+
+    private final Lane[] lanes;
+    private volatile boolean running = true;
+
+    @Autowired
+    public SenderDispatcher(@Value("${talkingchess.dispatch.lanes:8}") final int laneCount,
+                            @Value("${talkingchess.dispatch.laneCapacity:1000}") final int laneCapacity) {
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, laneCapacity);
+        }
+        logger.info("Sender dispatcher initialized with {} lanes of {} tasks", laneCount, laneCapacity);
+    }
+
+    /**
+     * Queues the task on the lane owning the sender, waiting for room while the lane is full.
+     *
+     * @throws RejectedExecutionException if the dispatcher shuts down before the task could be queued
+     */
+    public void dispatch(String senderId, Runnable task) {
+        lanes[laneFor(senderId)].offer(task);
+    }
+
+    int laneFor(String senderId) {
+        int hash = senderId == null ? 0 : senderId.hashCode();
+        hash ^= (hash >>> 16);
+        return (hash & 0x7fffffff) % lanes.length;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    public int getBacklog(int lane) {
+        return lanes[lane].backlog.get();
+    }
+
+    public int getMaxBacklog(int lane) {
+        return lanes[lane].maxBacklog.get();
+    }
+
+    public long getCompleted(int lane) {
+        return lanes[lane].completed.sum();
+    }
+
+    /**
+     * How many tasks had to wait for room on the lane - a growing number means a hot sender or a slow handler.
+     */
+    public long getBlocked(int lane) {
+        return lanes[lane].blocked.sum();
+    }
+
+    /**
+     * Stops taking new tasks and runs those already queued, for at most a few seconds.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Lane lane : lanes) {
+            LockSupport.unpark(lane.thread);
+        }
+        final long deadline = System.currentTimeMillis() + SHUTDOWN_DRAIN_MILLIS;
+        for (Lane lane : lanes) {
+            lane.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            if (lane.thread.isAlive()) {
+                logger.warn("{} did not drain in time, {} tasks dropped", lane.thread.getName(), lane.backlog.get());
+            }
+        }
+    }
+
+    private final class Lane implements Runnable {
+
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Semaphore room;
+        private final AtomicInteger backlog = new AtomicInteger();
+        private final AtomicInteger maxBacklog = new AtomicInteger();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder blocked = new LongAdder();
+        private final Thread thread;
+
+        private Lane(int index, int capacity) {
+            this.room = new Semaphore(capacity);
+            this.thread = new Thread(this, "sender-lane-" + index);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        private void offer(Runnable task) {
+            if (!running) {
+                throw new RejectedExecutionException(thread.getName() + " is shutting down");
+            }
+            if (!room.tryAcquire()) {
+                //a lane waiting on itself would never get the room back
+                if (Thread.currentThread() == thread) {
+                    throw new RejectedExecutionException(thread.getName() + " is full");
+                }
+                blocked.increment();
+                awaitRoom();
+            }
+            tasks.offer(task);
+            final int waiting = backlog.incrementAndGet();
+            int max;
+            while (waiting > (max = maxBacklog.get())) {
+                if (maxBacklog.compareAndSet(max, waiting)) {
+                    break;
+                }
+            }
+            LockSupport.unpark(thread);
+        }
+
+        private void awaitRoom() {
+            try {
+                while (!room.tryAcquire(IDLE_PARK_NANOS, TimeUnit.NANOSECONDS)) {
+                    if (!running) {
+                        throw new RejectedExecutionException(thread.getName() + " is shutting down");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted waiting for room on " + thread.getName(), e);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running || !tasks.isEmpty()) {
+                final Runnable task = tasks.poll();
+                if (task == null) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    continue;
+                }
+                backlog.decrementAndGet();
+                room.release();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Message handling failed on " + thread.getName(), e);
+                } finally {
+                    completed.increment();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.bjedrzejewski.talkingchess.endgames;
+
+import com.bjedrzejewski.talkingchess.engine.Position;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Won, drawn or lost for the side to move, for every position of one {@link Material}, two bits a position.
+ * <p>
+ * The file holds a header with the material and two bit sets numbered like {@link Material#index(Position)}: the
+ * positions the side to move wins and the ones it loses, every other position being a draw. It is memory mapped,
+ * a probe reads one word of each set and nothing of the table is copied onto the heap.
+ */
+public final class Bitbase {
+
+    public static final int LOSS = -1;
+    public static final int DRAW = 0;
+    public static final int WIN = 1;
+
+    static final String EXTENSION = ".bitbase";
+
+    private static final int MAGIC = 0x54434242;
+    private static final int VERSION = 1;
+
+    private final Material material;
+    private final LongBuffer wins;
+    private final LongBuffer losses;
+
+    private Bitbase(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not an endgame bitbase of version " + VERSION);
+        }
+        final byte[] signature = new byte[buffer.get(8)];
+        for (int i = 0; i < signature.length; i++) {
+            signature[i] = buffer.get(9 + i);
+        }
+        this.material = Material.of(new String(signature, StandardCharsets.US_ASCII));
+        final int words = words(material);
+        this.wins = words(buffer, 16, words);
+        this.losses = words(buffer, 16 + 8 * words, words);
+    }
+
+    private static LongBuffer words(ByteBuffer buffer, int from, int words) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(from);
+        view.limit(from + 8 * words);
+        return view.slice().asLongBuffer();
+    }
+
+    static int words(Material material) {
+        return (int) (material.getPositionCount() >>> 6);
+    }
+
+    public static Bitbase open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Bitbase(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes the bit sets of a generated table, replacing the file at once when it is complete.
+     */
+    static void write(Path file, Material material, long[] wins, long[] losses) throws IOException {
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            final byte[] signature = material.getSignature().getBytes(StandardCharsets.US_ASCII);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(signature.length);
+            out.write(signature);
+            for (int pad = 9 + signature.length; pad < 16; pad++) {
+                out.writeByte(0);
+            }
+            for (long word : wins) {
+                out.writeLong(word);
+            }
+            for (long word : losses) {
+                out.writeLong(word);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the name of the table, such as "KPK"
+     */
+    public String getSignature() {
+        return material.getSignature();
+    }
+
+    Material getMaterial() {
+        return material;
+    }
+
+    /**
+     * Castling and en passant rights are not taken into account.
+     *
+     * @param position a position with exactly the material of this table
+     * @return {@link #WIN}, {@link #DRAW} or {@link #LOSS} for the side to move
+     */
+    public int probe(Position position) {
+        return probe(material.index(position));
+    }
+
+    int probe(long index) {
+        final int word = (int) (index >>> 6);
+        final long bit = 1L << index;
+        if ((wins.get(word) & bit) != 0) {
+            return WIN;
+        }
+        return (losses.get(word) & bit) != 0 ? LOSS : DRAW;
+    }
+}
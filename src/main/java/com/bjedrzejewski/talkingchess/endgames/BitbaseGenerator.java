@@ -0,0 +1,236 @@
+package com.bjedrzejewski.talkingchess.endgames;
+
+import com.bjedrzejewski.talkingchess.engine.Move;
+import com.bjedrzejewski.talkingchess.engine.MoveGenerator;
+import com.bjedrzejewski.talkingchess.engine.Piece;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Generates {@link Bitbase} files by retrograde analysis.
+ * <p>
+ * Every pass looks at the positions not decided yet: the side to move wins if a move reaches a position lost for
+ * the opponent, and loses if it is mated or every move reaches a position won for the opponent. Checkmates are found
+ * in the first pass and each pass carries the results one ply further back, until a pass decides nothing new; what
+ * is left is a draw. Captures and promotions lead into smaller tables, which are generated first. Passes split the
+ * table into words of 64 positions spread over the threads, so each word has a single writer.
+ * <p>
+ * Tables of three pieces take seconds, four pieces minutes, and five pieces need an evening and 512 MB of heap.
+ */
+public final class BitbaseGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(BitbaseGenerator.class);
+
+    private final Path directory;
+    private final int threads;
+    private final Map<Material, Bitbase> tables = new HashMap<>();
+
+    /**
+     * @param directory where the tables are read from and written to, as {@code KPK.bitbase}
+     * @param threads   threads of each pass
+     */
+    public BitbaseGenerator(Path directory, int threads) {
+        this.directory = directory;
+        this.threads = threads;
+    }
+
+    /**
+     * Opens the table of the material, generating it and the tables it leads into first when they are missing.
+     *
+     * @param signature material such as "KPK"
+     */
+    public Bitbase generate(String signature) throws IOException {
+        return generate(Material.of(signature));
+    }
+
+    private Bitbase generate(Material material) throws IOException {
+        final Bitbase known = tables.get(material);
+        if (known != null) {
+            return known;
+        }
+        final Path file = directory.resolve(material.getSignature() + Bitbase.EXTENSION);
+        if (!Files.exists(file)) {
+            for (Material smaller : successors(material)) {
+                if (smaller.canMate()) {
+                    generate(smaller);
+                }
+            }
+            Files.createDirectories(directory);
+            new Generation(material).run(file);
+        }
+        final Bitbase table = Bitbase.open(file);
+        tables.put(material, table);
+        return table;
+    }
+
+    /**
+     * @return the materials a capture or a promotion turns this one into
+     */
+    private static Iterable<Material> successors(Material material) {
+        final Map<String, Material> successors = new HashMap<>();
+        final String signature = material.getSignature();
+        for (int i = 0; i < material.getPieceCount(); i++) {
+            final int type = Piece.type(material.getPiece(i));
+            if (type == Piece.KING) {
+                continue;
+            }
+            final Material captured = Material.of(signature.substring(0, i) + signature.substring(i + 1));
+            successors.put(captured.getSignature(), captured);
+            if (type == Piece.PAWN) {
+                for (char promotion : "QRBN".toCharArray()) {
+                    final Material promoted = Material.of(signature.substring(0, i) + promotion + signature.substring(i + 1));
+                    successors.put(promoted.getSignature(), promoted);
+                    //a pawn may also promote by capturing
+                    for (int j = 0; j < material.getPieceCount(); j++) {
+                        if (j != i && Piece.type(material.getPiece(j)) != Piece.KING
+                                && Piece.color(material.getPiece(j)) != Piece.color(material.getPiece(i))) {
+                            final StringBuilder both = new StringBuilder(signature);
+                            both.setCharAt(i, promotion);
+                            both.deleteCharAt(j);
+                            final Material promotedCapture = Material.of(both.toString());
+                            successors.put(promotedCapture.getSignature(), promotedCapture);
+                        }
+                    }
+                }
+            }
+        }
+        return successors.values();
+    }
+
+    /**
+     * The passes over one table, with its bit sets on the heap until it is written.
+     */
+    private final class Generation {
+
+        private final Material material;
+        private final long[] wins;
+        private final long[] losses;
+        private final int[] pieces;
+        private final ThreadLocal<Worker> workers;
+
+        Generation(Material material) {
+            this.material = material;
+            final int words = Bitbase.words(material);
+            this.wins = new long[words];
+            this.losses = new long[words];
+            this.pieces = new int[material.getPieceCount()];
+            for (int i = 0; i < pieces.length; i++) {
+                pieces[i] = material.getPiece(i);
+            }
+            this.workers = ThreadLocal.withInitial(Worker::new);
+        }
+
+        void run(Path file) throws IOException {
+            final long start = System.nanoTime();
+            final ForkJoinPool pool = new ForkJoinPool(threads);
+            int passes = 0;
+            long decided = 0;
+            try {
+                while (true) {
+                    final LongAdder found = new LongAdder();
+                    pool.submit(() -> IntStream.range(0, wins.length).parallel()
+                            .forEach(word -> found.add(pass(word)))).join();
+                    passes++;
+                    if (found.sum() == 0) {
+                        break;
+                    }
+                    decided += found.sum();
+                }
+            } finally {
+                pool.shutdown();
+            }
+            Bitbase.write(file, material, wins, losses);
+            logger.info("Bitbase {} generated - decided: {} | passes: {} | threads: {} | time: {}ms", material, decided,
+                    passes, threads, (System.nanoTime() - start) / 1_000_000);
+        }
+
+        /**
+         * Decides what it can of the 64 positions of the word.
+         *
+         * @return number of positions decided
+         */
+        private int pass(int word) {
+            final Worker worker = workers.get();
+            final long undecided = ~(wins[word] | losses[word]);
+            int found = 0;
+            for (int bit = 0; bit < 64; bit++) {
+                if ((undecided & 1L << bit) == 0) {
+                    continue;
+                }
+                final int result = worker.decide((long) word << 6 | bit);
+                if (result == Bitbase.WIN) {
+                    wins[word] |= 1L << bit;
+                    found++;
+                } else if (result == Bitbase.LOSS) {
+                    losses[word] |= 1L << bit;
+                    found++;
+                }
+            }
+            return found;
+        }
+
+        private int probe(long index) {
+            final long bit = 1L << index;
+            final int word = (int) (index >>> 6);
+            return (wins[word] & bit) != 0 ? Bitbase.WIN : (losses[word] & bit) != 0 ? Bitbase.LOSS : Bitbase.DRAW;
+        }
+
+        /**
+         * Position and buffers of one thread.
+         */
+        private final class Worker {
+
+            private final Position position = Position.empty();
+            private final int[] squares = new int[Material.MAX_PIECES];
+            private final int[] moves = new int[MoveGenerator.MAX_MOVES];
+
+            /**
+             * @return {@link Bitbase#WIN} or {@link Bitbase#LOSS} if it is known by now, {@link Bitbase#DRAW} otherwise
+             */
+            int decide(long index) {
+                final int sideToMove = material.squares(index, squares);
+                if (sideToMove < 0) {
+                    return Bitbase.DRAW;
+                }
+                position.setPieces(pieces, squares, pieces.length, sideToMove);
+                if (!position.isLegal()) {
+                    return Bitbase.DRAW;
+                }
+                final int count = MoveGenerator.generate(position, moves);
+                if (count == 0) {
+                    return position.isInCheck() ? Bitbase.LOSS : Bitbase.DRAW;
+                }
+                boolean allWon = true;
+                for (int i = 0; i < count; i++) {
+                    final int move = moves[i];
+                    final boolean sameMaterial = position.getPiece(Move.to(move)) == Piece.NONE
+                            && Move.flag(move) != Move.EN_PASSANT && Move.promotionType(move) == 0;
+                    position.makeMove(move);
+                    final int reply = sameMaterial ? probe(material.index(position)) : probeSmaller();
+                    position.unmakeMove(move);
+                    if (reply == Bitbase.LOSS) {
+                        return Bitbase.WIN;
+                    }
+                    allWon &= reply == Bitbase.WIN;
+                }
+                return allWon ? Bitbase.LOSS : Bitbase.DRAW;
+            }
+
+            private int probeSmaller() {
+                final Material smaller = Material.of(position);
+                final Bitbase table = tables.get(smaller);
+                return table == null ? Bitbase.DRAW : table.probe(position);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.bjedrzejewski.talkingchess.endgames;
+
+import com.bjedrzejewski.talkingchess.engine.Piece;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import com.bjedrzejewski.talkingchess.engine.Square;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The endgame bitbases the bot answers from, configured as {@code talkingchess.endgames.tables}.
+ * <p>
+ * Tables found in the data directory are opened at startup, missing ones are generated on a background thread and
+ * become available as they are done. A position is looked up in the table of its material, or in the table with the
+ * colours swapped, so "KPK" answers for a black pawn as well.
+ */
+@Component
+public class Endgames {
+
+    private static final Logger logger = LoggerFactory.getLogger(Endgames.class);
+
+    /** Result of {@link #probe(Position)} for positions no table covers. */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private final Map<Material, Bitbase> tables = new ConcurrentHashMap<>();
+
+    /**
+     * @param signatures tables to open or generate, comma separated, such as "KPK,KQK,KRK"
+     * @param threads    threads generating a table, negative for the available processors
+     */
+    @Autowired
+    public Endgames(@Value("${talkingchess.endgames.tables:KPK,KQK,KRK}") final String signatures,
+                    @Value("${talkingchess.dataDir:data}") final String dataDir,
+                    @Value("${talkingchess.endgames.threads:-1}") final int threads) {
+        final List<String> wanted = new ArrayList<>();
+        for (String signature : signatures.split(",")) {
+            if (!signature.trim().isEmpty()) {
+                wanted.add(signature.trim());
+            }
+        }
+        if (wanted.isEmpty()) {
+            return;
+        }
+        final BitbaseGenerator generator = new BitbaseGenerator(Paths.get(dataDir, "endgames"),
+                threads < 0 ? Runtime.getRuntime().availableProcessors() : threads);
+        final Thread thread = new Thread(() -> {
+            for (String signature : wanted) {
+                try {
+                    add(generator.generate(signature));
+                } catch (IOException | IllegalArgumentException e) {
+                    logger.error("Could not open or generate the {} bitbase", signature, e);
+                }
+            }
+        }, "endgame-generator");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private Endgames() {
+    }
+
+    /**
+     * Endgames answered from the given tables, for tests and tools.
+     */
+    public static Endgames of(Bitbase... bitbases) {
+        final Endgames endgames = new Endgames();
+        for (Bitbase bitbase : bitbases) {
+            endgames.add(bitbase);
+        }
+        return endgames;
+    }
+
+    /**
+     * Opens the tables in a directory, generating the missing ones, for tests and tools.
+     */
+    public static Endgames generate(Path directory, int threads, String... signatures) throws IOException {
+        final BitbaseGenerator generator = new BitbaseGenerator(directory, threads);
+        final Endgames endgames = new Endgames();
+        for (String signature : signatures) {
+            endgames.add(generator.generate(signature));
+        }
+        return endgames;
+    }
+
+    private void add(Bitbase bitbase) {
+        tables.put(bitbase.getMaterial(), bitbase);
+        logger.info("Bitbase {} ready", bitbase.getSignature());
+    }
+
+    /**
+     * @return {@link Bitbase#WIN}, {@link Bitbase#DRAW} or {@link Bitbase#LOSS} for the side to move, or
+     * {@link #UNKNOWN} if there is no table for the material
+     */
+    public int probe(Position position) {
+        final Material material = Material.of(position);
+        if (material == null) {
+            return UNKNOWN;
+        }
+        final Bitbase table = tables.get(material);
+        if (table != null) {
+            return table.probe(position);
+        }
+        final Bitbase mirrored = tables.get(material.mirrored());
+        return mirrored == null ? UNKNOWN : mirrored.probe(mirror(position));
+    }
+
+    /**
+     * @return name of the table that covers the position, such as "KPK", null if none does
+     */
+    public String tableFor(Position position) {
+        final Material material = Material.of(position);
+        if (material == null) {
+            return null;
+        }
+        final Bitbase table = tables.containsKey(material) ? tables.get(material) : tables.get(material.mirrored());
+        return table == null ? null : table.getSignature();
+    }
+
+    public int getTableCount() {
+        return tables.size();
+    }
+
+    /**
+     * @return the position upside down with the colours swapped, which has the same result for the side to move
+     */
+    private static Position mirror(Position position) {
+        final int count = Long.bitCount(position.getOccupied());
+        final int[] pieces = new int[count];
+        final int[] squares = new int[count];
+        long occupied = position.getOccupied();
+        for (int i = 0; i < count; i++) {
+            final int square = Long.numberOfTrailingZeros(occupied);
+            occupied &= occupied - 1;
+            final int piece = position.getPiece(square);
+            pieces[i] = Piece.make(Piece.color(piece) ^ 1, Piece.type(piece));
+            squares[i] = Square.of(Square.file(square), 7 - Square.rank(square));
+        }
+        final Position mirrored = Position.empty();
+        mirrored.setPieces(pieces, squares, count, position.getSideToMove() ^ 1);
+        return mirrored;
+    }
+}
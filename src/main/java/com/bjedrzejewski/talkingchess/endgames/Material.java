@@ -0,0 +1,219 @@
+package com.bjedrzejewski.talkingchess.endgames;
+
+import com.bjedrzejewski.talkingchess.engine.Position;
+
+import java.util.Arrays;
+
+import static com.bjedrzejewski.talkingchess.engine.Piece.*;
+
+/**
+ * The pieces of an endgame, such as "KPK": the white pieces starting with the white king, then the black ones
+ * starting with the black king. Kings come first on each side and the other pieces follow strongest first.
+ * <p>
+ * A position of the material is numbered by the squares of its pieces in that order, six bits each, with the side
+ * to move in the lowest bit. Pieces of the same kind are numbered in ascending square order, so only one of their
+ * orderings is ever used.
+ */
+final class Material {
+
+    static final int MAX_PIECES = 5;
+
+    private static final String LETTERS = "PNBRQK";
+
+    private final String signature;
+    private final int[] pieces;
+
+    private Material(int[] pieces) {
+        this.pieces = pieces;
+        final StringBuilder name = new StringBuilder(pieces.length);
+        for (int piece : pieces) {
+            name.append(LETTERS.charAt(type(piece)));
+        }
+        this.signature = name.toString();
+    }
+
+    /**
+     * @param signature such as "KPK" or "KRKP", case insensitive
+     * @throws IllegalArgumentException unless it is one king a side and at most {@link #MAX_PIECES} pieces
+     */
+    static Material of(String signature) {
+        final String upper = signature.trim().toUpperCase();
+        final int blackKing = upper.indexOf('K', 1);
+        if (!upper.startsWith("K") || blackKing < 0 || upper.indexOf('K', blackKing + 1) >= 0
+                || upper.length() > MAX_PIECES) {
+            throw new IllegalArgumentException("Not an endgame of " + MAX_PIECES + " pieces at most: " + signature);
+        }
+        final int[] white = types(upper.substring(1, blackKing));
+        final int[] black = types(upper.substring(blackKing + 1));
+        return of(white, black);
+    }
+
+    private static int[] types(String letters) {
+        final int[] types = new int[letters.length()];
+        for (int i = 0; i < letters.length(); i++) {
+            types[i] = LETTERS.indexOf(letters.charAt(i));
+            if (types[i] < 0 || types[i] == KING) {
+                throw new IllegalArgumentException("Not a piece: " + letters.charAt(i));
+            }
+        }
+        return types;
+    }
+
+    private static Material of(int[] whiteTypes, int[] blackTypes) {
+        final int[] pieces = new int[whiteTypes.length + blackTypes.length + 2];
+        int next = 0;
+        pieces[next++] = make(WHITE, KING);
+        for (int type : sortedDescending(whiteTypes)) {
+            pieces[next++] = make(WHITE, type);
+        }
+        pieces[next++] = make(BLACK, KING);
+        for (int type : sortedDescending(blackTypes)) {
+            pieces[next++] = make(BLACK, type);
+        }
+        return new Material(pieces);
+    }
+
+    private static int[] sortedDescending(int[] types) {
+        final int[] sorted = types.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length / 2; i++) {
+            final int swap = sorted[i];
+            sorted[i] = sorted[sorted.length - 1 - i];
+            sorted[sorted.length - 1 - i] = swap;
+        }
+        return sorted;
+    }
+
+    /**
+     * @return the material of the position, null with more than {@link #MAX_PIECES} pieces
+     */
+    static Material of(Position position) {
+        if (Long.bitCount(position.getOccupied()) > MAX_PIECES) {
+            return null;
+        }
+        final int[][] types = new int[2][];
+        for (int color = WHITE; color <= BLACK; color++) {
+            int count = 0;
+            final int[] found = new int[MAX_PIECES];
+            for (int type = PAWN; type < KING; type++) {
+                for (int n = Long.bitCount(position.getPieces(make(color, type))); n > 0; n--) {
+                    found[count++] = type;
+                }
+            }
+            types[color] = Arrays.copyOf(found, count);
+        }
+        return of(types[WHITE], types[BLACK]);
+    }
+
+    /**
+     * @return the same pieces with the colours swapped, "KPK" for "KKP"
+     */
+    Material mirrored() {
+        final int blackKing = blackKingIndex();
+        final int[] white = new int[blackKing - 1];
+        final int[] black = new int[pieces.length - blackKing - 1];
+        for (int i = 1; i < blackKing; i++) {
+            white[i - 1] = type(pieces[i]);
+        }
+        for (int i = blackKing + 1; i < pieces.length; i++) {
+            black[i - blackKing - 1] = type(pieces[i]);
+        }
+        return of(black, white);
+    }
+
+    private int blackKingIndex() {
+        for (int i = 1; i < pieces.length; i++) {
+            if (pieces[i] == make(BLACK, KING)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("No black king in " + signature);
+    }
+
+    String getSignature() {
+        return signature;
+    }
+
+    int getPieceCount() {
+        return pieces.length;
+    }
+
+    int getPiece(int i) {
+        return pieces[i];
+    }
+
+    /**
+     * @return number of positions, both sides to move, including the ones with pieces on the same square
+     */
+    long getPositionCount() {
+        return 2L << (6 * pieces.length);
+    }
+
+    /**
+     * @return true if a side has a piece that could ever mate
+     */
+    boolean canMate() {
+        int minors = 0;
+        for (int piece : pieces) {
+            final int type = type(piece);
+            if (type == PAWN || type == ROOK || type == QUEEN) {
+                return true;
+            }
+            minors += type == KNIGHT || type == BISHOP ? 1 : 0;
+        }
+        return minors >= 2;
+    }
+
+    /**
+     * @return number of the position, which must have this material
+     */
+    long index(Position position) {
+        long index = 0;
+        long taken = 0;
+        for (int i = pieces.length - 1; i >= 0; i--) {
+            //pieces of a kind take their squares in ascending order, the last of them the highest square
+            final long remaining = position.getPieces(pieces[i]) & ~taken;
+            final int square = 63 - Long.numberOfLeadingZeros(remaining);
+            taken |= 1L << square;
+            index = index << 6 | square;
+        }
+        return index << 1 | position.getSideToMove();
+    }
+
+    /**
+     * Writes the squares of the numbered position.
+     *
+     * @return the side to move, -1 if pieces share a square or pieces of a kind are not in ascending order
+     */
+    int squares(long index, int[] squares) {
+        long rest = index >>> 1;
+        long taken = 0;
+        for (int i = 0; i < pieces.length; i++) {
+            squares[i] = (int) (rest & 63);
+            rest >>>= 6;
+            if ((taken & 1L << squares[i]) != 0 || i > 0 && pieces[i] == pieces[i - 1] && squares[i] < squares[i - 1]) {
+                return -1;
+            }
+            taken |= 1L << squares[i];
+            if (type(pieces[i]) == PAWN && (squares[i] < 8 || squares[i] >= 56)) {
+                return -1;
+            }
+        }
+        return (int) (index & 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Material && Arrays.equals(((Material) o).pieces, pieces);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(pieces);
+    }
+
+    @Override
+    public String toString() {
+        return signature;
+    }
+}
@@ -0,0 +1,168 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+/**
+ * Precomputed attack tables. Sliding attacks use fancy magic bitboards, the magic numbers are
+ * searched for once at class initialisation with a fixed seed, so every run builds the same tables.
+ */
+final class Attacks {
+
+    static final long[] KNIGHT = new long[64];
+    static final long[] KING = new long[64];
+    /** Squares attacked by a pawn of the given colour standing on the square. */
+    static final long[][] PAWN = new long[2][64];
+    /** Squares strictly between two squares on a line, 0 if they do not share one. */
+    static final long[][] BETWEEN = new long[64][64];
+    /** The whole line through two squares, 0 if they do not share one. */
+    static final long[][] LINE = new long[64][64];
+
+    private static final int[][] ROOK_DIRECTIONS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    private static final int[][] BISHOP_DIRECTIONS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+    private static final long[] ROOK_MASK = new long[64];
+    private static final long[] ROOK_MAGIC = new long[64];
+    private static final int[] ROOK_SHIFT = new int[64];
+    private static final int[] ROOK_OFFSET = new int[64];
+    private static final long[] ROOK_TABLE = new long[102400];
+
+    private static final long[] BISHOP_MASK = new long[64];
+    private static final long[] BISHOP_MAGIC = new long[64];
+    private static final int[] BISHOP_SHIFT = new int[64];
+    private static final int[] BISHOP_OFFSET = new int[64];
+    private static final long[] BISHOP_TABLE = new long[5248];
+
+    private static long seed = 0x2545F4914F6CDD1DL;
+
+    static {
+        final int[][] knightSteps = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+        final int[][] kingSteps = {{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+        for (int square = 0; square < 64; square++) {
+            KNIGHT[square] = steps(square, knightSteps);
+            KING[square] = steps(square, kingSteps);
+            PAWN[Piece.WHITE][square] = steps(square, new int[][]{{-1, 1}, {1, 1}});
+            PAWN[Piece.BLACK][square] = steps(square, new int[][]{{-1, -1}, {1, -1}});
+        }
+        initMagics(ROOK_DIRECTIONS, ROOK_MASK, ROOK_MAGIC, ROOK_SHIFT, ROOK_OFFSET, ROOK_TABLE);
+        initMagics(BISHOP_DIRECTIONS, BISHOP_MASK, BISHOP_MAGIC, BISHOP_SHIFT, BISHOP_OFFSET, BISHOP_TABLE);
+        for (int a = 0; a < 64; a++) {
+            for (int b = 0; b < 64; b++) {
+                if (a == b) {
+                    continue;
+                }
+                final long squareA = 1L << a;
+                final long squareB = 1L << b;
+                if ((rook(a, 0) & squareB) != 0) {
+                    BETWEEN[a][b] = rook(a, squareB) & rook(b, squareA);
+                    LINE[a][b] = (rook(a, 0) & rook(b, 0)) | squareA | squareB;
+                } else if ((bishop(a, 0) & squareB) != 0) {
+                    BETWEEN[a][b] = bishop(a, squareB) & bishop(b, squareA);
+                    LINE[a][b] = (bishop(a, 0) & bishop(b, 0)) | squareA | squareB;
+                }
+            }
+        }
+    }
+
+    private Attacks() {
+    }
+
+    static long rook(int square, long occupied) {
+        return ROOK_TABLE[ROOK_OFFSET[square] + (int) (((occupied & ROOK_MASK[square]) * ROOK_MAGIC[square]) >>> ROOK_SHIFT[square])];
+    }
+
+    static long bishop(int square, long occupied) {
+        return BISHOP_TABLE[BISHOP_OFFSET[square] + (int) (((occupied & BISHOP_MASK[square]) * BISHOP_MAGIC[square]) >>> BISHOP_SHIFT[square])];
+    }
+
+    static long queen(int square, long occupied) {
+        return rook(square, occupied) | bishop(square, occupied);
+    }
+
+    private static long steps(int square, int[][] steps) {
+        long attacks = 0;
+        for (int[] step : steps) {
+            final int file = Square.file(square) + step[0];
+            final int rank = Square.rank(square) + step[1];
+            if (file >= 0 && file < 8 && rank >= 0 && rank < 8) {
+                attacks |= 1L << Square.of(file, rank);
+            }
+        }
+        return attacks;
+    }
+
+    private static long slidingAttacks(int square, long occupied, int[][] directions) {
+        long attacks = 0;
+        for (int[] direction : directions) {
+            int file = Square.file(square) + direction[0];
+            int rank = Square.rank(square) + direction[1];
+            while (file >= 0 && file < 8 && rank >= 0 && rank < 8) {
+                final long target = 1L << Square.of(file, rank);
+                attacks |= target;
+                if ((occupied & target) != 0) {
+                    break;
+                }
+                file += direction[0];
+                rank += direction[1];
+            }
+        }
+        return attacks;
+    }
+
+    private static void initMagics(int[][] directions, long[] masks, long[] magics, int[] shifts, int[] offsets, long[] table) {
+        final long fileA = 0x0101010101010101L;
+        final long rank1 = 0xFFL;
+        int offset = 0;
+        for (int square = 0; square < 64; square++) {
+            //edge squares never block anything further, so they are left out of the mask
+            final long edges = ((rank1 | rank1 << 56) & ~(rank1 << (8 * Square.rank(square))))
+                    | ((fileA | fileA << 7) & ~(fileA << Square.file(square)));
+            final long mask = slidingAttacks(square, 0, directions) & ~edges;
+            final int bits = Long.bitCount(mask);
+            final int size = 1 << bits;
+            final long[] occupancies = new long[size];
+            final long[] references = new long[size];
+            long subset = 0;
+            int count = 0;
+            do {
+                occupancies[count] = subset;
+                references[count] = slidingAttacks(square, subset, directions);
+                count++;
+                subset = (subset - mask) & mask;
+            } while (subset != 0);
+
+            final long[] used = new long[size];
+            final int[] epoch = new int[size];
+            int attempt = 0;
+            long magic;
+            search:
+            while (true) {
+                magic = nextRandom() & nextRandom() & nextRandom();
+                if (Long.bitCount((mask * magic) >>> 56) < 6) {
+                    continue;
+                }
+                attempt++;
+                for (int i = 0; i < size; i++) {
+                    final int index = (int) ((occupancies[i] * magic) >>> (64 - bits));
+                    if (epoch[index] != attempt) {
+                        epoch[index] = attempt;
+                        used[index] = references[i];
+                    } else if (used[index] != references[i]) {
+                        continue search;
+                    }
+                }
+                break;
+            }
+            masks[square] = mask;
+            magics[square] = magic;
+            shifts[square] = 64 - bits;
+            offsets[square] = offset;
+            System.arraycopy(used, 0, table, offset, size);
+            offset += size;
+        }
+    }
+
+    private static long nextRandom() {
+        seed ^= seed >>> 12;
+        seed ^= seed << 25;
+        seed ^= seed >>> 27;
+        return seed * 0x2545F4914F6CDD1DL;
+    }
+}
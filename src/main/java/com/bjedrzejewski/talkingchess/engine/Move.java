@@ -0,0 +1,62 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+/**
+ * Moves packed into an int: from square in bits 0-5, to square in bits 6-11,
+ * promotion piece type in bits 12-14 (0 for none) and the special move flag in bits 15-16.
+ * 0 is never a legal move and is used as "no move".
+ */
+public final class Move {
+
+    public static final int NONE = 0;
+
+    public static final int NORMAL = 0;
+    public static final int CASTLING = 1;
+    public static final int EN_PASSANT = 2;
+    public static final int DOUBLE_PUSH = 3;
+
+    private Move() {
+    }
+
+    public static int make(int from, int to) {
+        return from | to << 6;
+    }
+
+    public static int make(int from, int to, int flag) {
+        return from | to << 6 | flag << 15;
+    }
+
+    public static int promotion(int from, int to, int promotionType) {
+        return from | to << 6 | promotionType << 12;
+    }
+
+    public static int from(int move) {
+        return move & 63;
+    }
+
+    public static int to(int move) {
+        return (move >>> 6) & 63;
+    }
+
+    /**
+     * @return promoted piece type, 0 if the move is not a promotion
+     */
+    public static int promotionType(int move) {
+        return (move >>> 12) & 7;
+    }
+
+    public static int flag(int move) {
+        return (move >>> 15) & 3;
+    }
+
+    /**
+     * @return the move in UCI notation, for example "e2e4" or "e7e8q"
+     */
+    public static String toUci(int move) {
+        if (move == NONE) {
+            return "0000";
+        }
+        final String squares = Square.name(from(move)) + Square.name(to(move));
+        final int promotion = promotionType(move);
+        return promotion == 0 ? squares : squares + Character.toLowerCase(Piece.symbol(promotion));
+    }
+}
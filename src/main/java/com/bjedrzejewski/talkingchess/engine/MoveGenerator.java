@@ -0,0 +1,214 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+import static com.bjedrzejewski.talkingchess.engine.Piece.*;
+
+/**
+ * Legal move generation straight from the bitboards: pinned pieces only move along their pin line,
+ * in check only moves that capture or block the checker are generated, and king moves are tested against
+ * the attacks with the king lifted off the board. Moves are written into a caller supplied buffer,
+ * nothing is allocated.
+ */
+public final class MoveGenerator {
+
+    /** No position has more legal moves than this. */
+    public static final int MAX_MOVES = 256;
+
+    private static final long RANK_1 = 0xFFL;
+    private static final long RANK_8 = RANK_1 << 56;
+
+    private MoveGenerator() {
+    }
+
+    /**
+     * Writes the legal moves of the side to move into {@code moves}, starting at index 0.
+     *
+     * @return number of moves written
+     */
+    public static int generate(Position position, int[] moves) {
+        return generate(position, moves, false);
+    }
+
+    /**
+     * Like {@link #generate(Position, int[])} but only captures and queen promotions, or every evasion when in check.
+     */
+    public static int generateCaptures(Position position, int[] moves) {
+        return generate(position, moves, true);
+    }
+
+    private static int generate(Position position, int[] moves, boolean capturesOnly) {
+        final int us = position.sideToMove;
+        final int them = us ^ 1;
+        final long ours = position.colors[us];
+        final long theirs = position.colors[them];
+        final long occupied = position.occupied;
+        final int king = position.kingSquare(us);
+        final long checkers = position.attackersTo(king, them, occupied);
+        int count = 0;
+
+        //king moves, with the king lifted off the board so that it cannot hide behind itself from a slider
+        final long withoutKing = occupied ^ (1L << king);
+        long kingTargets = Attacks.KING[king] & ~ours;
+        if (capturesOnly && checkers == 0) {
+            kingTargets &= theirs;
+        }
+        while (kingTargets != 0) {
+            final int to = Long.numberOfTrailingZeros(kingTargets);
+            kingTargets &= kingTargets - 1;
+            if (position.attackersTo(to, them, withoutKing) == 0) {
+                moves[count++] = Move.make(king, to);
+            }
+        }
+        if (Long.bitCount(checkers) > 1) {
+            return count;
+        }
+
+        long targets = ~ours;
+        if (checkers != 0) {
+            targets &= checkers | Attacks.BETWEEN[king][Long.numberOfTrailingZeros(checkers)];
+        } else if (capturesOnly) {
+            targets &= theirs;
+        } else {
+            count = generateCastling(position, moves, count, us, them, occupied);
+        }
+        final boolean evasions = checkers != 0;
+        final long pinned = pinned(position, us, them, king, ours, occupied);
+
+        count = generatePawnMoves(position, moves, count, us, them, king, pinned, targets, capturesOnly && !evasions);
+
+        for (int type = KNIGHT; type <= QUEEN; type++) {
+            long pieces = position.pieces[make(us, type)];
+            if (type == KNIGHT) {
+                //a pinned knight can never move
+                pieces &= ~pinned;
+            }
+            while (pieces != 0) {
+                final int from = Long.numberOfTrailingZeros(pieces);
+                pieces &= pieces - 1;
+                long attacks;
+                switch (type) {
+                    case KNIGHT:
+                        attacks = Attacks.KNIGHT[from];
+                        break;
+                    case BISHOP:
+                        attacks = Attacks.bishop(from, occupied);
+                        break;
+                    case ROOK:
+                        attacks = Attacks.rook(from, occupied);
+                        break;
+                    default:
+                        attacks = Attacks.queen(from, occupied);
+                }
+                attacks &= targets;
+                if ((pinned & 1L << from) != 0) {
+                    attacks &= Attacks.LINE[king][from];
+                }
+                while (attacks != 0) {
+                    moves[count++] = Move.make(from, Long.numberOfTrailingZeros(attacks));
+                    attacks &= attacks - 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Our pieces standing alone between our king and an enemy slider.
+     */
+    private static long pinned(Position position, int us, int them, int king, long ours, long occupied) {
+        final long theirs = position.colors[them];
+        final long queens = position.pieces[make(them, QUEEN)];
+        long snipers = (Attacks.rook(king, theirs) & (position.pieces[make(them, ROOK)] | queens))
+                | (Attacks.bishop(king, theirs) & (position.pieces[make(them, BISHOP)] | queens));
+        long pinned = 0;
+        while (snipers != 0) {
+            final int sniper = Long.numberOfTrailingZeros(snipers);
+            snipers &= snipers - 1;
+            final long between = Attacks.BETWEEN[king][sniper] & occupied;
+            if (between != 0 && (between & (between - 1)) == 0 && (between & ours) != 0) {
+                pinned |= between;
+            }
+        }
+        return pinned;
+    }
+
+    private static int generatePawnMoves(Position position, int[] moves, int count, int us, int them, int king,
+                                         long pinned, long targets, boolean capturesOnly) {
+        final long empty = ~position.occupied;
+        final long theirs = position.colors[them];
+        final int forward = us == WHITE ? 8 : -8;
+        final long promotionRank = us == WHITE ? RANK_8 : RANK_1;
+        final int startRank = us == WHITE ? 1 : 6;
+        long pawns = position.pieces[make(us, PAWN)];
+        while (pawns != 0) {
+            final int from = Long.numberOfTrailingZeros(pawns);
+            pawns &= pawns - 1;
+            final long pinLine = (pinned & 1L << from) != 0 ? Attacks.LINE[king][from] : -1L;
+
+            long destinations = Attacks.PAWN[us][from] & theirs;
+            final int push = from + forward;
+            final long pushBit = 1L << push;
+            if ((empty & pushBit) != 0) {
+                if (!capturesOnly || (pushBit & promotionRank) != 0) {
+                    destinations |= pushBit;
+                }
+                final int doublePush = push + forward;
+                if (!capturesOnly && Square.rank(from) == startRank && (empty & 1L << doublePush & targets & pinLine) != 0) {
+                    moves[count++] = Move.make(from, doublePush, Move.DOUBLE_PUSH);
+                }
+            }
+            destinations &= targets & pinLine;
+            while (destinations != 0) {
+                final int to = Long.numberOfTrailingZeros(destinations);
+                destinations &= destinations - 1;
+                if ((1L << to & promotionRank) != 0) {
+                    moves[count++] = Move.promotion(from, to, QUEEN);
+                    if (!capturesOnly) {
+                        moves[count++] = Move.promotion(from, to, KNIGHT);
+                        moves[count++] = Move.promotion(from, to, ROOK);
+                        moves[count++] = Move.promotion(from, to, BISHOP);
+                    }
+                } else {
+                    moves[count++] = Move.make(from, to);
+                }
+            }
+
+            final int ep = position.epSquare;
+            if (ep != Square.NONE && (Attacks.PAWN[us][from] & 1L << ep) != 0 && isLegalEnPassant(position, us, them, king, from, ep)) {
+                moves[count++] = Move.make(from, ep, Move.EN_PASSANT);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * En passant removes two pieces from one rank, so it is checked by looking at the board after the capture.
+     */
+    private static boolean isLegalEnPassant(Position position, int us, int them, int king, int from, int ep) {
+        final int captured = ep ^ 8;
+        if (position.board[captured] != make(them, PAWN)) {
+            return false;
+        }
+        final long capturedBit = 1L << captured;
+        final long occupancy = (position.occupied ^ 1L << from ^ capturedBit) | 1L << ep;
+        return (position.attackersTo(king, them, occupancy) & ~capturedBit) == 0;
+    }
+
+    private static int generateCastling(Position position, int[] moves, int count, int us, int them, long occupied) {
+        final int kingside = us == WHITE ? Position.WHITE_KINGSIDE : Position.BLACK_KINGSIDE;
+        final int queenside = us == WHITE ? Position.WHITE_QUEENSIDE : Position.BLACK_QUEENSIDE;
+        final int base = us == WHITE ? 0 : 56;
+        if ((position.castling & kingside) != 0
+                && (occupied & (3L << (base + 5))) == 0
+                && position.attackersTo(base + 5, them, occupied) == 0
+                && position.attackersTo(base + 6, them, occupied) == 0) {
+            moves[count++] = Move.make(base + 4, base + 6, Move.CASTLING);
+        }
+        if ((position.castling & queenside) != 0
+                && (occupied & (7L << (base + 1))) == 0
+                && position.attackersTo(base + 3, them, occupied) == 0
+                && position.attackersTo(base + 2, them, occupied) == 0) {
+            moves[count++] = Move.make(base + 4, base + 2, Move.CASTLING);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,242 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+import java.util.function.LongConsumer;
+import java.util.regex.Pattern;
+
+import static com.bjedrzejewski.talkingchess.engine.Piece.*;
+
+/**
+ * Standard algebraic notation. Parsing is lenient about what people type in chat: check and annotation
+ * symbols are ignored, castling may use zeros, promotions may leave out the '=', pawn captures may leave out
+ * the 'x' ("ed5") and UCI moves ("e2e4") are accepted as well.
+ */
+public final class Notation {
+
+    private static final String PIECE_LETTERS = "NBRQK";
+    private static final String SAN = "(?:[NBRQK][a-h]?[1-8]?x?[a-h][1-8]|[a-h](?:x[a-h])?[1-8](?:=?[NBRQ])?|O-O(?:-O)?|0-0(?:-0)?)[+#]?[!?]*";
+    private static final String NUMBER = "\\d+\\.+\\s*";
+    //a numbered first move or at least two moves, so a lone "e4" or "a4" in a chat is not taken for a game
+    private static final Pattern MOVE_LIST = Pattern.compile("^\\s*(?:" + NUMBER + SAN + "|" + SAN + "\\s+(?:" + NUMBER + ")?" + SAN + ")"
+            + "(?:\\s+(?:" + NUMBER + ")?" + SAN + ")*(?:\\s+(?:1-0|0-1|1/2-1/2|\\*))?\\s*$");
+
+    private Notation() {
+    }
+
+    public static String toSan(Position position, int move) {
+        final int from = Move.from(move);
+        final int to = Move.to(move);
+        final int piece = position.board[from];
+        final StringBuilder san = new StringBuilder(8);
+        if (Move.flag(move) == Move.CASTLING) {
+            san.append(Square.file(to) == 6 ? "O-O" : "O-O-O");
+        } else {
+            final boolean capture = position.board[to] != NONE || Move.flag(move) == Move.EN_PASSANT;
+            if (type(piece) == PAWN) {
+                if (capture) {
+                    san.append((char) ('a' + Square.file(from))).append('x');
+                }
+                san.append(Square.name(to));
+                if (Move.promotionType(move) != 0) {
+                    san.append('=').append(Piece.symbol(Move.promotionType(move)));
+                }
+            } else {
+                san.append(Piece.symbol(make(WHITE, type(piece))));
+                appendDisambiguation(san, position, move, piece);
+                if (capture) {
+                    san.append('x');
+                }
+                san.append(Square.name(to));
+            }
+        }
+        position.makeMove(move);
+        if (position.isInCheck()) {
+            san.append(MoveGenerator.generate(position, new int[MoveGenerator.MAX_MOVES]) == 0 ? '#' : '+');
+        }
+        position.unmakeMove(move);
+        return san.toString();
+    }
+
+    private static void appendDisambiguation(StringBuilder san, Position position, int move, int piece) {
+        final int from = Move.from(move);
+        final int[] moves = new int[MoveGenerator.MAX_MOVES];
+        final int count = MoveGenerator.generate(position, moves);
+        boolean ambiguous = false;
+        boolean sameFile = false;
+        boolean sameRank = false;
+        for (int i = 0; i < count; i++) {
+            final int other = Move.from(moves[i]);
+            if (other != from && Move.to(moves[i]) == Move.to(move) && position.board[other] == piece) {
+                ambiguous = true;
+                sameFile |= Square.file(other) == Square.file(from);
+                sameRank |= Square.rank(other) == Square.rank(from);
+            }
+        }
+        if (!ambiguous) {
+            return;
+        }
+        if (!sameFile) {
+            san.append((char) ('a' + Square.file(from)));
+        } else if (!sameRank) {
+            san.append((char) ('1' + Square.rank(from)));
+        } else {
+            san.append(Square.name(from));
+        }
+    }
+
+    /**
+     * @return the legal move the text stands for, {@link Move#NONE} if there is none or it is ambiguous
+     */
+    public static int parseSan(Position position, String text) {
+        String san = text.trim();
+        while (!san.isEmpty() && "+#!?".indexOf(san.charAt(san.length() - 1)) >= 0) {
+            san = san.substring(0, san.length() - 1);
+        }
+        final int[] moves = new int[MoveGenerator.MAX_MOVES];
+        final int count = MoveGenerator.generate(position, moves);
+        if (san.equals("O-O") || san.equals("0-0") || san.equals("O-O-O") || san.equals("0-0-0")) {
+            final int file = san.length() == 3 ? 6 : 2;
+            for (int i = 0; i < count; i++) {
+                if (Move.flag(moves[i]) == Move.CASTLING && Square.file(Move.to(moves[i])) == file) {
+                    return moves[i];
+                }
+            }
+            return Move.NONE;
+        }
+        final int uci = parseUci(san, moves, count);
+        if (uci != Move.NONE) {
+            return uci;
+        }
+
+        int pieceType = PAWN;
+        int start = 0;
+        if (!san.isEmpty() && PIECE_LETTERS.indexOf(san.charAt(0)) >= 0) {
+            pieceType = PIECE_LETTERS.indexOf(san.charAt(0)) + KNIGHT;
+            start = 1;
+        }
+        int end = san.length();
+        int promotion = 0;
+        if (pieceType == PAWN && end >= 2 && PIECE_LETTERS.indexOf(Character.toUpperCase(san.charAt(end - 1))) >= 0
+                && Character.toUpperCase(san.charAt(end - 1)) != 'K') {
+            promotion = PIECE_LETTERS.indexOf(Character.toUpperCase(san.charAt(end - 1))) + KNIGHT;
+            end--;
+            if (san.charAt(end - 1) == '=') {
+                end--;
+            }
+        }
+        if (end - start < 2) {
+            return Move.NONE;
+        }
+        final int to = Square.parse(san.substring(end - 2, end));
+        if (to == Square.NONE) {
+            return Move.NONE;
+        }
+        //whatever is left between the piece and the target square: disambiguation and the capture mark
+        int fromFile = -1;
+        int fromRank = -1;
+        for (int i = start; i < end - 2; i++) {
+            final char c = san.charAt(i);
+            if (c >= 'a' && c <= 'h') {
+                fromFile = c - 'a';
+            } else if (c >= '1' && c <= '8') {
+                fromRank = c - '1';
+            } else if (c != 'x' && c != ':' && c != '-') {
+                return Move.NONE;
+            }
+        }
+        int match = Move.NONE;
+        for (int i = 0; i < count; i++) {
+            final int move = moves[i];
+            final int from = Move.from(move);
+            if (Move.to(move) != to || type(position.board[from]) != pieceType || Move.flag(move) == Move.CASTLING
+                    || Move.promotionType(move) != promotion
+                    || (fromFile >= 0 && Square.file(from) != fromFile)
+                    || (fromRank >= 0 && Square.rank(from) != fromRank)) {
+                continue;
+            }
+            if (match != Move.NONE) {
+                return Move.NONE;
+            }
+            match = move;
+        }
+        return match;
+    }
+
+    private static int parseUci(String text, int[] moves, int count) {
+        if (text.length() < 4 || text.length() > 5) {
+            return Move.NONE;
+        }
+        final int from = Square.parse(text.substring(0, 2));
+        final int to = Square.parse(text.substring(2, 4));
+        if (from == Square.NONE || to == Square.NONE) {
+            return Move.NONE;
+        }
+        final int promotion = text.length() == 5 ? PIECE_LETTERS.indexOf(Character.toUpperCase(text.charAt(4))) + KNIGHT : 0;
+        for (int i = 0; i < count; i++) {
+            if (Move.from(moves[i]) == from && Move.to(moves[i]) == to && Move.promotionType(moves[i]) == promotion) {
+                return moves[i];
+            }
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * @return true if the whole text is a move list such as "1. e4 c5 2. Nf3 d6" or "e4 c5 Nf3 d6", not a sentence
+     * mentioning a move
+     */
+    public static boolean isMoveList(String text) {
+        return MOVE_LIST.matcher(text).matches();
+    }
+
+    /**
+     * Plays a move list such as "1. e4 c5 2. Nf3 d6" on the position. Move numbers and game results are skipped.
+     *
+     * @return number of moves played
+     * @throws IllegalArgumentException naming the first token that is not a legal move
+     */
+    public static int playMoves(Position position, String moveText) {
+        return playMoves(position, moveText, key -> { });
+    }
+
+    /**
+     * Plays the move list like {@link #playMoves(Position, String)}, passing the key of the position after every move.
+     */
+    public static int playMoves(Position position, String moveText, LongConsumer keys) {
+        int played = 0;
+        for (String token : moveText.trim().split("\\s+")) {
+            //"12." or "12..." in front of or glued to the move
+            final String san = token.replaceFirst("^\\d+\\.+", "");
+            if (san.isEmpty() || san.equals("1-0") || san.equals("0-1") || san.equals("1/2-1/2") || san.equals("*")) {
+                continue;
+            }
+            final int move = parseSan(position, san);
+            if (move == Move.NONE) {
+                throw new IllegalArgumentException(san);
+            }
+            position.makeMove(move);
+            keys.accept(position.getKey());
+            played++;
+        }
+        return played;
+    }
+
+    /**
+     * Writes a line of moves with move numbers, starting from the position, for example "12... Nf6 13. e5".
+     * The position is left as it was.
+     */
+    public static String line(Position position, int[] moves, int length) {
+        final StringBuilder line = new StringBuilder(length * 8);
+        for (int i = 0; i < length; i++) {
+            if (position.sideToMove == WHITE) {
+                line.append(position.fullmoveNumber).append(". ");
+            } else if (i == 0) {
+                line.append(position.fullmoveNumber).append("... ");
+            }
+            line.append(toSan(position, moves[i])).append(' ');
+            position.makeMove(moves[i]);
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            position.unmakeMove(moves[i]);
+        }
+        return line.toString().trim();
+    }
+}
@@ -0,0 +1,125 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lazy SMP: the calling thread and a number of helper searches work on the same position at once and
+ * share nothing but the transposition table. Helpers fill the table with results that cut the main search
+ * short; every other helper starts one ply deeper so the threads do not walk the tree in lockstep.
+ * The result is the one of the calling thread, with the nodes of all threads counted.
+ * <p>
+ * Helpers run on the pool given, so they never take threads from chat dispatch. If the pool is busy with
+ * other searches a helper simply starts late or not at all. An instance is used by one thread at a time.
+ */
+public final class ParallelSearch {
+
+    private final TranspositionTable table;
+    private final ExecutorService pool;
+    private final Search main;
+    private final Search[] helpers;
+    private final Future<?>[] running;
+    //claimed by the helper when it starts, or by the main thread when the helper is no longer wanted
+    private final AtomicBoolean[] claimed;
+
+    public ParallelSearch(TranspositionTable table, ExecutorService pool, int helperCount) {
+        this.table = table;
+        this.pool = pool;
+        this.main = new Search(table);
+        this.helpers = new Search[helperCount];
+        for (int i = 0; i < helperCount; i++) {
+            helpers[i] = new Search(table);
+        }
+        this.running = new Future<?>[helperCount];
+        this.claimed = new AtomicBoolean[helperCount];
+    }
+
+    /**
+     * Searches until the budget is spent, the maximum depth is reached, a forced mate is found or
+     * {@link #stop()} is called. Unless stopped, at least one iteration is completed.
+     */
+    public SearchResult search(Position position, long budget, TimeUnit unit, int maxDepth) {
+        return search(position, budget, unit, maxDepth, null);
+    }
+
+    /**
+     * @param listener told about every iteration the calling thread completes, may be null
+     */
+    public SearchResult search(Position position, long budget, TimeUnit unit, int maxDepth, SearchListener listener) {
+        final long nanos = unit.toNanos(budget);
+        table.newSearch();
+        main.clearStop();
+        for (int i = 0; i < helpers.length; i++) {
+            final Search helper = helpers[i];
+            final Position copy = position.copy();
+            final int firstDepth = i % 2 == 0 ? 2 : 1;
+            //a fresh flag per search, a task left in the queue by an earlier search stays claimed
+            final AtomicBoolean start = new AtomicBoolean();
+            claimed[i] = start;
+            helper.clearStop();
+            helper.resetNodes();
+            running[i] = pool.submit(() -> {
+                if (start.compareAndSet(false, true)) {
+                    helper.search(copy, nanos, firstDepth, maxDepth, null);
+                }
+            });
+        }
+        final SearchResult result;
+        try {
+            result = main.search(position, nanos, 1, maxDepth, listener);
+        } finally {
+            stopHelpers();
+        }
+        long nodes = result.getNodes();
+        for (Search helper : helpers) {
+            nodes += helper.getNodes();
+        }
+        return new SearchResult(result.getPrincipalVariation(), result.getScore(), result.getDepth(), nodes, result.getNanos());
+    }
+
+    /**
+     * Waits for the helpers that started to return, so their buffers are free for the next search.
+     * Helpers still queued behind other searches are claimed here and never run.
+     */
+    private void stopHelpers() {
+        for (Search helper : helpers) {
+            helper.stop();
+        }
+        boolean interrupted = false;
+        for (int i = 0; i < helpers.length; i++) {
+            if (!claimed[i].compareAndSet(false, true)) {
+                while (true) {
+                    try {
+                        running[i].get();
+                        break;
+                    } catch (ExecutionException e) {
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            running[i] = null;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Asks a running search to return soon, may be called from any thread.
+     */
+    public void stop() {
+        main.stop();
+        for (Search helper : helpers) {
+            helper.stop();
+        }
+    }
+
+    public int getThreads() {
+        return helpers.length + 1;
+    }
+}
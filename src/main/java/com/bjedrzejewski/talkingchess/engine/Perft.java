@@ -0,0 +1,37 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+/**
+ * Counts the leaf nodes of the legal move tree to a fixed depth, the standard correctness and speed check
+ * for a move generator. One move buffer per ply is allocated up front.
+ */
+public final class Perft {
+
+    private final int[][] moveBuffers;
+
+    public Perft(int maxDepth) {
+        this.moveBuffers = new int[Math.max(1, maxDepth)][MoveGenerator.MAX_MOVES];
+    }
+
+    public long perft(Position position, int depth) {
+        return perft(position, depth, 0);
+    }
+
+    private long perft(Position position, int depth, int ply) {
+        if (depth == 0) {
+            return 1;
+        }
+        final int[] moves = moveBuffers[ply];
+        final int count = MoveGenerator.generate(position, moves);
+        //bulk counting, the moves of the last ply do not have to be played
+        if (depth == 1) {
+            return count;
+        }
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            nodes += perft(position, depth - 1, ply + 1);
+            position.unmakeMove(moves[i]);
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,55 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+/**
+ * Colours, piece types and pieces as ints. A piece is its colour in bit 3 and its type in bits 0-2.
+ */
+public final class Piece {
+
+    public static final int WHITE = 0;
+    public static final int BLACK = 1;
+
+    public static final int PAWN = 0;
+    public static final int KNIGHT = 1;
+    public static final int BISHOP = 2;
+    public static final int ROOK = 3;
+    public static final int QUEEN = 4;
+    public static final int KING = 5;
+
+    public static final int NONE = -1;
+
+    private static final String SYMBOLS = "PNBRQK";
+
+    private Piece() {
+    }
+
+    public static int make(int color, int type) {
+        return color << 3 | type;
+    }
+
+    public static int color(int piece) {
+        return piece >>> 3;
+    }
+
+    public static int type(int piece) {
+        return piece & 7;
+    }
+
+    /**
+     * @return FEN letter, upper case for white
+     */
+    public static char symbol(int piece) {
+        final char symbol = SYMBOLS.charAt(type(piece));
+        return color(piece) == WHITE ? symbol : Character.toLowerCase(symbol);
+    }
+
+    /**
+     * @return piece for the FEN letter or {@link #NONE}
+     */
+    public static int fromSymbol(char symbol) {
+        final int type = SYMBOLS.indexOf(Character.toUpperCase(symbol));
+        if (type < 0) {
+            return NONE;
+        }
+        return make(Character.isUpperCase(symbol) ? WHITE : BLACK, type);
+    }
+}
@@ -0,0 +1,455 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+import java.util.Arrays;
+
+import static com.bjedrzejewski.talkingchess.engine.Piece.*;
+
+/**
+ * Mutable chess position: one bitboard per piece plus a square to piece array.
+ * {@link #makeMove(int)} and {@link #unmakeMove(int)} keep their undo information in preallocated arrays,
+ * so walking a search tree does not allocate. The Zobrist key is updated incrementally with every move;
+ * an en passant square is only kept, and hashed, when a pawn can actually capture on it.
+ */
+public final class Position {
+
+    public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    public static final int WHITE_KINGSIDE = 1;
+    public static final int WHITE_QUEENSIDE = 2;
+    public static final int BLACK_KINGSIDE = 4;
+    public static final int BLACK_QUEENSIDE = 8;
+
+    private static final int MAX_PLY = 1024;
+    private static final int[] CASTLING_MASK = new int[64];
+
+    static {
+        for (int square = 0; square < 64; square++) {
+            CASTLING_MASK[square] = 15;
+        }
+        CASTLING_MASK[Square.A1] = ~WHITE_QUEENSIDE & 15;
+        CASTLING_MASK[Square.H1] = ~WHITE_KINGSIDE & 15;
+        CASTLING_MASK[Square.E1] = ~(WHITE_KINGSIDE | WHITE_QUEENSIDE) & 15;
+        CASTLING_MASK[Square.A8] = ~BLACK_QUEENSIDE & 15;
+        CASTLING_MASK[Square.H8] = ~BLACK_KINGSIDE & 15;
+        CASTLING_MASK[Square.E8] = ~(BLACK_KINGSIDE | BLACK_QUEENSIDE) & 15;
+    }
+
+    final long[] pieces = new long[16];
+    final long[] colors = new long[2];
+    long occupied;
+    final int[] board = new int[64];
+    int sideToMove;
+    int castling;
+    int epSquare = Square.NONE;
+    int halfmoveClock;
+    int fullmoveNumber = 1;
+    long key;
+
+    private int ply;
+    private final long[] undoKey = new long[MAX_PLY];
+    private final int[] undoCaptured = new int[MAX_PLY];
+    private final int[] undoCastling = new int[MAX_PLY];
+    private final int[] undoEpSquare = new int[MAX_PLY];
+    private final int[] undoHalfmoveClock = new int[MAX_PLY];
+
+    private Position() {
+        Arrays.fill(board, NONE);
+    }
+
+    /**
+     * @return independent copy, including the moves made so far for repetition detection
+     */
+    public Position copy() {
+        final Position copy = new Position();
+        System.arraycopy(pieces, 0, copy.pieces, 0, pieces.length);
+        System.arraycopy(colors, 0, copy.colors, 0, colors.length);
+        System.arraycopy(board, 0, copy.board, 0, board.length);
+        copy.occupied = occupied;
+        copy.sideToMove = sideToMove;
+        copy.castling = castling;
+        copy.epSquare = epSquare;
+        copy.halfmoveClock = halfmoveClock;
+        copy.fullmoveNumber = fullmoveNumber;
+        copy.key = key;
+        copy.ply = ply;
+        System.arraycopy(undoCaptured, 0, copy.undoCaptured, 0, ply);
+        System.arraycopy(undoCastling, 0, copy.undoCastling, 0, ply);
+        System.arraycopy(undoEpSquare, 0, copy.undoEpSquare, 0, ply);
+        System.arraycopy(undoHalfmoveClock, 0, copy.undoHalfmoveClock, 0, ply);
+        System.arraycopy(undoKey, 0, copy.undoKey, 0, ply);
+        return copy;
+    }
+
+    public static Position start() {
+        return fromFen(START_FEN);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the FEN cannot be parsed, the position has not exactly one king a side
+     *                                  or the side not to move is in check
+     */
+    public static Position fromFen(String fen) {
+        final String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 4) {
+            throw new IllegalArgumentException("FEN needs at least 4 fields: " + fen);
+        }
+        final Position position = new Position();
+        int rank = 7;
+        int file = 0;
+        for (int i = 0; i < fields[0].length(); i++) {
+            final char c = fields[0].charAt(i);
+            if (c == '/') {
+                if (file != 8 || rank == 0) {
+                    throw new IllegalArgumentException("Bad rank in FEN: " + fen);
+                }
+                rank--;
+                file = 0;
+            } else if (c >= '1' && c <= '8') {
+                file += c - '0';
+            } else {
+                final int piece = Piece.fromSymbol(c);
+                if (piece == NONE || file > 7) {
+                    throw new IllegalArgumentException("Bad piece placement in FEN: " + fen);
+                }
+                position.put(piece, Square.of(file, rank));
+                file++;
+            }
+            if (file > 8) {
+                throw new IllegalArgumentException("Bad rank in FEN: " + fen);
+            }
+        }
+        if (rank != 0 || file != 8) {
+            throw new IllegalArgumentException("FEN needs 8 ranks: " + fen);
+        }
+        if (Long.bitCount(position.pieces[make(WHITE, KING)]) != 1 || Long.bitCount(position.pieces[make(BLACK, KING)]) != 1) {
+            throw new IllegalArgumentException("FEN needs one king a side: " + fen);
+        }
+
+        if ("w".equals(fields[1])) {
+            position.sideToMove = WHITE;
+        } else if ("b".equals(fields[1])) {
+            position.sideToMove = BLACK;
+        } else {
+            throw new IllegalArgumentException("Bad side to move in FEN: " + fen);
+        }
+        if (!position.isLegal()) {
+            throw new IllegalArgumentException("The side not to move is in check in FEN: " + fen);
+        }
+        if (!"-".equals(fields[2])) {
+            for (int i = 0; i < fields[2].length(); i++) {
+                final int right = "KQkq".indexOf(fields[2].charAt(i));
+                if (right < 0) {
+                    throw new IllegalArgumentException("Bad castling rights in FEN: " + fen);
+                }
+                position.castling |= 1 << right;
+            }
+        }
+        position.castling &= position.possibleCastling();
+        if (!"-".equals(fields[3])) {
+            final int epSquare = Square.parse(fields[3]);
+            if (epSquare == Square.NONE) {
+                throw new IllegalArgumentException("Bad en passant square in FEN: " + fen);
+            }
+            if (position.canCaptureEnPassant(epSquare)) {
+                position.epSquare = epSquare;
+            }
+        }
+        try {
+            position.halfmoveClock = fields.length > 4 ? Integer.parseInt(fields[4]) : 0;
+            position.fullmoveNumber = fields.length > 5 ? Integer.parseInt(fields[5]) : 1;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad move counters in FEN: " + fen, e);
+        }
+        position.key = position.computeKey();
+        return position;
+    }
+
+    /**
+     * @return a position without pieces, to be filled with {@link #setPieces(int[], int[], int, int)}
+     */
+    public static Position empty() {
+        return new Position();
+    }
+
+    /**
+     * Replaces everything on this object with the pieces on their squares, no castling rights, no en passant square
+     * and no moves made. Meant for setting up many positions in a row without allocating, as generating endgame
+     * tables does; the caller places one king a side and checks {@link #isLegal()}.
+     */
+    public void setPieces(int[] pieceList, int[] squares, int count, int sideToMove) {
+        Arrays.fill(pieces, 0);
+        Arrays.fill(colors, 0);
+        Arrays.fill(board, NONE);
+        occupied = 0;
+        for (int i = 0; i < count; i++) {
+            put(pieceList[i], squares[i]);
+        }
+        this.sideToMove = sideToMove;
+        castling = 0;
+        epSquare = Square.NONE;
+        halfmoveClock = 0;
+        fullmoveNumber = 1;
+        ply = 0;
+        key = computeKey();
+    }
+
+    /**
+     * @return false if the side that just moved left its king in check
+     */
+    public boolean isLegal() {
+        return attackersTo(kingSquare(sideToMove ^ 1), sideToMove, occupied) == 0;
+    }
+
+    private boolean canCaptureEnPassant(int epSquare) {
+        return (Attacks.PAWN[sideToMove ^ 1][epSquare] & pieces[make(sideToMove, PAWN)]) != 0;
+    }
+
+    /**
+     * Key computed from scratch, the incrementally maintained {@link #getKey()} always equals it.
+     */
+    long computeKey() {
+        long hash = 0;
+        for (int square = 0; square < 64; square++) {
+            if (board[square] != NONE) {
+                hash ^= Zobrist.PIECE_SQUARE[board[square]][square];
+            }
+        }
+        hash ^= Zobrist.CASTLING[castling];
+        if (epSquare != Square.NONE) {
+            hash ^= Zobrist.EN_PASSANT_FILE[Square.file(epSquare)];
+        }
+        return sideToMove == BLACK ? hash ^ Zobrist.SIDE : hash;
+    }
+
+    /**
+     * Castling rights that the king and rook placement still allows.
+     */
+    private int possibleCastling() {
+        int possible = 0;
+        if (board[Square.E1] == make(WHITE, KING)) {
+            possible |= board[Square.H1] == make(WHITE, ROOK) ? WHITE_KINGSIDE : 0;
+            possible |= board[Square.A1] == make(WHITE, ROOK) ? WHITE_QUEENSIDE : 0;
+        }
+        if (board[Square.E8] == make(BLACK, KING)) {
+            possible |= board[Square.H8] == make(BLACK, ROOK) ? BLACK_KINGSIDE : 0;
+            possible |= board[Square.A8] == make(BLACK, ROOK) ? BLACK_QUEENSIDE : 0;
+        }
+        return possible;
+    }
+
+    public String toFen() {
+        final StringBuilder fen = new StringBuilder(90);
+        for (int rank = 7; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                final int piece = board[Square.of(file, rank)];
+                if (piece == NONE) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    fen.append(empty);
+                    empty = 0;
+                }
+                fen.append(Piece.symbol(piece));
+            }
+            if (empty > 0) {
+                fen.append(empty);
+            }
+            if (rank > 0) {
+                fen.append('/');
+            }
+        }
+        fen.append(sideToMove == WHITE ? " w " : " b ");
+        if (castling == 0) {
+            fen.append('-');
+        } else {
+            for (int right = 0; right < 4; right++) {
+                if ((castling & 1 << right) != 0) {
+                    fen.append("KQkq".charAt(right));
+                }
+            }
+        }
+        fen.append(' ').append(epSquare == Square.NONE ? "-" : Square.name(epSquare));
+        fen.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber);
+        return fen.toString();
+    }
+
+    public void makeMove(int move) {
+        final int from = Move.from(move);
+        final int to = Move.to(move);
+        final int flag = Move.flag(move);
+        final int us = sideToMove;
+        final int piece = board[from];
+        final int captured = flag == Move.EN_PASSANT ? make(us ^ 1, PAWN) : board[to];
+
+        undoCaptured[ply] = captured;
+        undoCastling[ply] = castling;
+        undoEpSquare[ply] = epSquare;
+        undoHalfmoveClock[ply] = halfmoveClock;
+        undoKey[ply] = key;
+        ply++;
+
+        key ^= Zobrist.CASTLING[castling] ^ Zobrist.SIDE;
+        if (epSquare != Square.NONE) {
+            key ^= Zobrist.EN_PASSANT_FILE[Square.file(epSquare)];
+        }
+        halfmoveClock++;
+        epSquare = Square.NONE;
+        if (captured != NONE) {
+            remove(captured, flag == Move.EN_PASSANT ? to ^ 8 : to);
+            halfmoveClock = 0;
+        }
+        remove(piece, from);
+        final int promotion = Move.promotionType(move);
+        put(promotion == 0 ? piece : make(us, promotion), to);
+
+        if (type(piece) == PAWN) {
+            halfmoveClock = 0;
+            if (flag == Move.DOUBLE_PUSH && (Attacks.PAWN[us][(from + to) >>> 1] & pieces[make(us ^ 1, PAWN)]) != 0) {
+                epSquare = (from + to) >>> 1;
+                key ^= Zobrist.EN_PASSANT_FILE[Square.file(epSquare)];
+            }
+        } else if (flag == Move.CASTLING) {
+            final int rook = make(us, ROOK);
+            if (Square.file(to) == 6) {
+                remove(rook, to + 1);
+                put(rook, to - 1);
+            } else {
+                remove(rook, to - 2);
+                put(rook, to + 1);
+            }
+        }
+        castling &= CASTLING_MASK[from] & CASTLING_MASK[to];
+        key ^= Zobrist.CASTLING[castling];
+        if (us == BLACK) {
+            fullmoveNumber++;
+        }
+        sideToMove = us ^ 1;
+    }
+
+    public void unmakeMove(int move) {
+        final int from = Move.from(move);
+        final int to = Move.to(move);
+        final int flag = Move.flag(move);
+        final int us = sideToMove ^ 1;
+        ply--;
+
+        final int moved = board[to];
+        remove(moved, to);
+        put(Move.promotionType(move) == 0 ? moved : make(us, PAWN), from);
+        final int captured = undoCaptured[ply];
+        if (captured != NONE) {
+            put(captured, flag == Move.EN_PASSANT ? to ^ 8 : to);
+        }
+        if (flag == Move.CASTLING) {
+            final int rook = make(us, ROOK);
+            if (Square.file(to) == 6) {
+                remove(rook, to - 1);
+                put(rook, to + 1);
+            } else {
+                remove(rook, to + 1);
+                put(rook, to - 2);
+            }
+        }
+        castling = undoCastling[ply];
+        epSquare = undoEpSquare[ply];
+        halfmoveClock = undoHalfmoveClock[ply];
+        key = undoKey[ply];
+        if (us == BLACK) {
+            fullmoveNumber--;
+        }
+        sideToMove = us;
+    }
+
+    private void put(int piece, int square) {
+        final long bit = 1L << square;
+        pieces[piece] |= bit;
+        colors[color(piece)] |= bit;
+        occupied |= bit;
+        board[square] = piece;
+        key ^= Zobrist.PIECE_SQUARE[piece][square];
+    }
+
+    private void remove(int piece, int square) {
+        final long bit = ~(1L << square);
+        pieces[piece] &= bit;
+        colors[color(piece)] &= bit;
+        occupied &= bit;
+        board[square] = NONE;
+        key ^= Zobrist.PIECE_SQUARE[piece][square];
+    }
+
+    /**
+     * @return true if the position occurred before since the last capture or pawn move, among the moves made on this object
+     */
+    public boolean isRepetition() {
+        final int earliest = Math.max(0, ply - halfmoveClock);
+        for (int i = ply - 4; i >= earliest; i -= 2) {
+            if (undoKey[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return pieces of the given colour attacking the square, with the given occupancy
+     */
+    long attackersTo(int square, int color, long occupancy) {
+        return (Attacks.PAWN[color ^ 1][square] & pieces[make(color, PAWN)])
+                | (Attacks.KNIGHT[square] & pieces[make(color, KNIGHT)])
+                | (Attacks.KING[square] & pieces[make(color, KING)])
+                | (Attacks.bishop(square, occupancy) & (pieces[make(color, BISHOP)] | pieces[make(color, QUEEN)]))
+                | (Attacks.rook(square, occupancy) & (pieces[make(color, ROOK)] | pieces[make(color, QUEEN)]));
+    }
+
+    int kingSquare(int color) {
+        return Long.numberOfTrailingZeros(pieces[make(color, KING)]);
+    }
+
+    public boolean isInCheck() {
+        return attackersTo(kingSquare(sideToMove), sideToMove ^ 1, occupied) != 0;
+    }
+
+    public long getKey() {
+        return key;
+    }
+
+    public int getSideToMove() {
+        return sideToMove;
+    }
+
+    public int getPiece(int square) {
+        return board[square];
+    }
+
+    public long getPieces(int piece) {
+        return pieces[piece];
+    }
+
+    public long getOccupied() {
+        return occupied;
+    }
+
+    public int getCastling() {
+        return castling;
+    }
+
+    public int getEpSquare() {
+        return epSquare;
+    }
+
+    public int getHalfmoveClock() {
+        return halfmoveClock;
+    }
+
+    public int getFullmoveNumber() {
+        return fullmoveNumber;
+    }
+
+    @Override
+    public String toString() {
+        return toFen();
+    }
+}
@@ -0,0 +1,354 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.bjedrzejewski.talkingchess.engine.Piece.*;
+
+/**
+ * Iterative deepening alpha-beta search with principal variation search, quiescence on captures, a
+ * transposition table and move ordering by the previous principal variation, the table move, MVV-LVA,
+ * killer moves and history. The transposition table may be shared with searches on other threads.
+ * The clock is checked every few thousand nodes and the search stops as soon as the budget is spent,
+ * returning the deepest completed iteration, or when {@link #stop()} is called from another thread.
+ * Every buffer is allocated once per instance, so an instance is meant to be reused, by one thread at a time.
+ */
+public final class Search {
+
+    public static final int MATE = 30000;
+    public static final int MAX_PLY = 128;
+
+    private static final int INFINITY = 32000;
+    private static final int CHECK_CLOCK_EVERY = 2047;
+
+    private static final int PV_SCORE = 2_000_000;
+    private static final int CAPTURE_SCORE = 1_000_000;
+    private static final int KILLER_SCORE = 900_000;
+
+    private final int[][] moves = new int[MAX_PLY][MoveGenerator.MAX_MOVES];
+    private final int[][] scores = new int[MAX_PLY][MoveGenerator.MAX_MOVES];
+    private final int[][] killers = new int[MAX_PLY][2];
+    private final int[][] history = new int[16][64];
+    private final int[][] pv = new int[MAX_PLY][MAX_PLY];
+    private final int[] pvLength = new int[MAX_PLY];
+    private final int[] path = new int[MAX_PLY];
+    private int[] previousPv = new int[0];
+    private final TranspositionTable table;
+
+    private Position position;
+    private long deadline;
+    private long nodes;
+    private boolean canStop;
+    private boolean stopped;
+    private volatile boolean stopRequested;
+
+    /**
+     * Search with a small table of its own.
+     */
+    public Search() {
+        this(new TranspositionTable(1));
+    }
+
+    public Search(TranspositionTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Searches until the budget is spent, the maximum depth is reached or a forced mate is found.
+     * At least one iteration is always completed.
+     */
+    public SearchResult search(Position position, long budget, TimeUnit unit, int maxDepth) {
+        table.newSearch();
+        stopRequested = false;
+        return search(position, unit.toNanos(budget), 1, maxDepth, null);
+    }
+
+    /**
+     * Search of one thread of a {@link ParallelSearch}, which starts the table generation
+     * and clears stop requests itself.
+     */
+    SearchResult search(Position position, long budgetNanos, int firstDepth, int maxDepth, SearchListener listener) {
+        final long start = System.nanoTime();
+        this.position = position;
+        this.deadline = start + budgetNanos;
+        this.nodes = 0;
+        this.canStop = false;
+        this.stopped = false;
+        this.previousPv = new int[0];
+        for (int[] killer : killers) {
+            Arrays.fill(killer, Move.NONE);
+        }
+        for (int[] pieceHistory : history) {
+            Arrays.fill(pieceHistory, 0);
+        }
+
+        int[] bestLine = new int[0];
+        int bestScore = 0;
+        int completedDepth = 0;
+        for (int depth = firstDepth; depth <= Math.min(maxDepth, MAX_PLY - 1); depth++) {
+            final int score = alphaBeta(depth, -INFINITY, INFINITY, 0);
+            if (stopped) {
+                break;
+            }
+            bestScore = score;
+            bestLine = Arrays.copyOf(pv[0], pvLength[0]);
+            previousPv = bestLine;
+            completedDepth = depth;
+            //the first iteration always finishes, so there is a move to play even with a tiny budget
+            canStop = true;
+            if (listener != null) {
+                listener.iterationCompleted(new SearchResult(bestLine, bestScore, depth, nodes, System.nanoTime() - start));
+            }
+            if (Math.abs(score) >= MATE - depth || bestLine.length == 0) {
+                break;
+            }
+        }
+        return new SearchResult(bestLine, bestScore, completedDepth, nodes, System.nanoTime() - start);
+    }
+
+    private int alphaBeta(int depth, int alpha, int beta, int ply) {
+        pvLength[ply] = 0;
+        if (shouldStop(ply)) {
+            return 0;
+        }
+        final boolean inCheck = position.isInCheck();
+        if (inCheck) {
+            depth++;
+        }
+        if (depth <= 0) {
+            return quiesce(alpha, beta, ply);
+        }
+        nodes++;
+        if (ply > 0 && (position.halfmoveClock >= 100 || position.isRepetition())) {
+            return 0;
+        }
+        if (ply >= MAX_PLY - 1) {
+            return Evaluator.evaluate(position);
+        }
+
+        final long entry = table.probe(position.key);
+        int tableMove = Move.NONE;
+        if (entry != 0) {
+            tableMove = TranspositionTable.move(entry);
+            //cut off on null window nodes only, so the principal variation is always searched out
+            if (ply > 0 && beta - alpha == 1 && TranspositionTable.depth(entry) >= depth) {
+                final int score = fromTable(TranspositionTable.score(entry), ply);
+                final int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT
+                        || bound == TranspositionTable.LOWER && score >= beta
+                        || bound == TranspositionTable.UPPER && score <= alpha) {
+                    return score;
+                }
+            }
+        }
+
+        final int[] plyMoves = moves[ply];
+        final int count = MoveGenerator.generate(position, plyMoves);
+        if (count == 0) {
+            return inCheck ? -MATE + ply : 0;
+        }
+        scoreMoves(ply, count, ply < previousPv.length && isOnPreviousPv(ply) ? previousPv[ply] : tableMove);
+
+        final int originalAlpha = alpha;
+        int best = -INFINITY;
+        int bestMove = Move.NONE;
+        for (int i = 0; i < count; i++) {
+            final int move = pickNext(ply, i, count);
+            final boolean quiet = isQuiet(move);
+            path[ply] = move;
+            position.makeMove(move);
+            int score;
+            if (i == 0) {
+                score = -alphaBeta(depth - 1, -beta, -alpha, ply + 1);
+            } else {
+                //the first move is usually best, prove the others worse with a null window first
+                score = -alphaBeta(depth - 1, -alpha - 1, -alpha, ply + 1);
+                if (score > alpha && score < beta) {
+                    score = -alphaBeta(depth - 1, -beta, -alpha, ply + 1);
+                }
+            }
+            position.unmakeMove(move);
+            if (stopped) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                bestMove = move;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                    if (alpha >= beta) {
+                        if (quiet) {
+                            storeKiller(ply, move);
+                            history[position.board[Move.from(move)]][Move.to(move)] += depth * depth;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        final int bound = best >= beta ? TranspositionTable.LOWER
+                : best > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+        table.store(position.key, bound == TranspositionTable.UPPER ? Move.NONE : bestMove, toTable(best, ply), depth, bound);
+        return best;
+    }
+
+    /**
+     * Mate scores are stored relative to the position rather than to the root.
+     */
+    private static int toTable(int score, int ply) {
+        return score >= MATE - MAX_PLY ? score + ply : score <= -MATE + MAX_PLY ? score - ply : score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        return score >= MATE - MAX_PLY ? score - ply : score <= -MATE + MAX_PLY ? score + ply : score;
+    }
+
+    private int quiesce(int alpha, int beta, int ply) {
+        pvLength[ply] = 0;
+        nodes++;
+        if (shouldStop(ply)) {
+            return 0;
+        }
+        final boolean inCheck = position.isInCheck();
+        if (ply >= MAX_PLY - 1) {
+            return Evaluator.evaluate(position);
+        }
+        int best = -INFINITY;
+        if (!inCheck) {
+            best = Evaluator.evaluate(position);
+            if (best >= beta) {
+                return best;
+            }
+            alpha = Math.max(alpha, best);
+        }
+        final int[] plyMoves = moves[ply];
+        //in check this generates every evasion, so a mate is still recognised
+        final int count = MoveGenerator.generateCaptures(position, plyMoves);
+        if (count == 0 && inCheck) {
+            return -MATE + ply;
+        }
+        scoreMoves(ply, count, Move.NONE);
+        for (int i = 0; i < count; i++) {
+            final int move = pickNext(ply, i, count);
+            position.makeMove(move);
+            final int score = -quiesce(-beta, -alpha, ply + 1);
+            position.unmakeMove(move);
+            if (stopped) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private boolean shouldStop(int ply) {
+        if ((nodes & CHECK_CLOCK_EVERY) == 0 && (stopRequested || canStop && System.nanoTime() - deadline > 0)) {
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    /**
+     * Asks a running search to return soon, even before its first iteration completes.
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    void clearStop() {
+        stopRequested = false;
+    }
+
+    long getNodes() {
+        return nodes;
+    }
+
+    void resetNodes() {
+        nodes = 0;
+    }
+
+    /**
+     * The previous principal variation is only a good guess while we are still following it.
+     */
+    private boolean isOnPreviousPv(int ply) {
+        for (int i = 0; i < ply; i++) {
+            if (path[i] != previousPv[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void scoreMoves(int ply, int count, int pvMove) {
+        final int[] plyMoves = moves[ply];
+        final int[] plyScores = scores[ply];
+        for (int i = 0; i < count; i++) {
+            final int move = plyMoves[i];
+            final int attacker = position.board[Move.from(move)];
+            final int victim = Move.flag(move) == Move.EN_PASSANT ? PAWN : position.board[Move.to(move)];
+            if (move == pvMove) {
+                plyScores[i] = PV_SCORE;
+            } else if (victim != NONE || Move.promotionType(move) != 0) {
+                int gain = victim == NONE ? 0 : Evaluator.VALUES[type(victim)];
+                if (Move.promotionType(move) != 0) {
+                    gain += Evaluator.VALUES[Move.promotionType(move)];
+                }
+                plyScores[i] = CAPTURE_SCORE + gain * 8 - type(attacker);
+            } else if (move == killers[ply][0] || move == killers[ply][1]) {
+                plyScores[i] = KILLER_SCORE;
+            } else {
+                plyScores[i] = Math.min(history[attacker][Move.to(move)], KILLER_SCORE - 1);
+            }
+        }
+    }
+
+    /**
+     * Selection sort one step at a time, most nodes cut off after the first few moves.
+     */
+    private int pickNext(int ply, int index, int count) {
+        final int[] plyMoves = moves[ply];
+        final int[] plyScores = scores[ply];
+        int best = index;
+        for (int i = index + 1; i < count; i++) {
+            if (plyScores[i] > plyScores[best]) {
+                best = i;
+            }
+        }
+        final int move = plyMoves[best];
+        plyMoves[best] = plyMoves[index];
+        plyMoves[index] = move;
+        final int score = plyScores[best];
+        plyScores[best] = plyScores[index];
+        plyScores[index] = score;
+        return move;
+    }
+
+    private boolean isQuiet(int move) {
+        return position.board[Move.to(move)] == NONE && Move.flag(move) != Move.EN_PASSANT && Move.promotionType(move) == 0;
+    }
+
+    private void storeKiller(int ply, int move) {
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+    }
+
+    private void updatePv(int ply, int move) {
+        //pv[ply] holds the line from ply on, the move found here followed by the line of the child
+        pv[ply][0] = move;
+        final int childLength = ply + 1 < MAX_PLY ? pvLength[ply + 1] : 0;
+        System.arraycopy(pv[ply + 1], 0, pv[ply], 1, Math.min(childLength, MAX_PLY - 1));
+        pvLength[ply] = Math.min(childLength + 1, MAX_PLY);
+    }
+}
@@ -0,0 +1,12 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+/**
+ * Told about every completed iteration of a search, on the searching thread, so it should return quickly.
+ */
+public interface SearchListener {
+
+    /**
+     * @param result best line of the iteration just completed, nodes and time counted so far by the searching thread
+     */
+    void iterationCompleted(SearchResult result);
+}
@@ -0,0 +1,72 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+import java.util.Arrays;
+
+/**
+ * Outcome of a search: the best line found in the deepest completed iteration and what it cost.
+ */
+public final class SearchResult {
+
+    private final int[] principalVariation;
+    private final int score;
+    private final int depth;
+    private final long nodes;
+    private final long nanos;
+
+    SearchResult(int[] principalVariation, int score, int depth, long nodes, long nanos) {
+        this.principalVariation = principalVariation;
+        this.score = score;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.nanos = nanos;
+    }
+
+    /**
+     * @return best move or {@link Move#NONE} if the side to move has no legal moves
+     */
+    public int getBestMove() {
+        return principalVariation.length == 0 ? Move.NONE : principalVariation[0];
+    }
+
+    public int[] getPrincipalVariation() {
+        return Arrays.copyOf(principalVariation, principalVariation.length);
+    }
+
+    /**
+     * @return score in centipawns from the side to move's point of view
+     */
+    public int getScore() {
+        return score;
+    }
+
+    public boolean isMate() {
+        return Math.abs(score) >= Search.MATE - Search.MAX_PLY;
+    }
+
+    /**
+     * @return moves until mate, positive if the side to move mates, negative if it gets mated, 0 if there is no mate
+     */
+    public int getMateIn() {
+        if (!isMate()) {
+            return 0;
+        }
+        final int plies = Search.MATE - Math.abs(score);
+        return score > 0 ? (plies + 1) / 2 : -(plies / 2);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public long getNodesPerSecond() {
+        return nanos == 0 ? 0 : nodes * 1_000_000_000L / nanos;
+    }
+}
@@ -0,0 +1,58 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+/**
+ * Squares are 0 (a1) to 63 (h8), rank by rank.
+ */
+public final class Square {
+
+    public static final int A1 = 0;
+    public static final int C1 = 2;
+    public static final int D1 = 3;
+    public static final int E1 = 4;
+    public static final int F1 = 5;
+    public static final int G1 = 6;
+    public static final int H1 = 7;
+    public static final int A8 = 56;
+    public static final int C8 = 58;
+    public static final int D8 = 59;
+    public static final int E8 = 60;
+    public static final int F8 = 61;
+    public static final int G8 = 62;
+    public static final int H8 = 63;
+
+    public static final int NONE = -1;
+
+    private Square() {
+    }
+
+    public static int of(int file, int rank) {
+        return rank << 3 | file;
+    }
+
+    public static int file(int square) {
+        return square & 7;
+    }
+
+    public static int rank(int square) {
+        return square >>> 3;
+    }
+
+    /**
+     * @return square for names like "e4" or {@link #NONE}
+     */
+    public static int parse(CharSequence name) {
+        if (name.length() != 2) {
+            return NONE;
+        }
+        final int file = name.charAt(0) - 'a';
+        final int rank = name.charAt(1) - '1';
+        if (file < 0 || file > 7 || rank < 0 || rank > 7) {
+            return NONE;
+        }
+        return of(file, rank);
+    }
+
+    public static String name(int square) {
+        return new String(new char[]{(char) ('a' + file(square)), (char) ('1' + rank(square))});
+    }
+}
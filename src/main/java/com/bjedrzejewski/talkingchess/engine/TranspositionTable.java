@@ -0,0 +1,186 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transposition table shared by all searches, held in one direct buffer outside the Java heap.
+ * <p>
+ * Entries are 16 bytes: the packed data and the position key xor-ed with that data. Buckets of four
+ * entries fill one cache line. Readers and writers take no locks; a torn entry written by two threads
+ * at once fails the xor check and reads as a miss. Within a bucket the entry for the same position is
+ * overwritten, otherwise the shallowest one, where every search generation of age counts as eight plies.
+ * <p>
+ * Data layout: move (bits 0-16), score (17-32), depth (33-40), bound (41-42), generation (43-48), used (49).
+ */
+public final class TranspositionTable {
+
+    public static final int UPPER = 1;
+    public static final int LOWER = 2;
+    public static final int EXACT = 3;
+
+    private static final int ENTRY_BYTES = 16;
+    private static final int BUCKET_ENTRIES = 4;
+    private static final int BUCKET_BYTES = ENTRY_BYTES * BUCKET_ENTRIES;
+    private static final long USED = 1L << 49;
+    private static final int FILL_SAMPLE_BUCKETS = 256;
+
+    private final ByteBuffer table;
+    private final int bucketMask;
+    private volatile int generation;
+
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+
+    /**
+     * @param megabytes rounded down to a power of two number of buckets, at most 1024 MB
+     */
+    public TranspositionTable(int megabytes) {
+        final long bytes = Math.min(1024, Math.max(1, megabytes)) * 1024L * 1024L;
+        final int buckets = Integer.highestOneBit((int) (bytes / BUCKET_BYTES));
+        table = ByteBuffer.allocateDirect(buckets * BUCKET_BYTES).order(ByteOrder.nativeOrder());
+        bucketMask = buckets - 1;
+    }
+
+    /**
+     * Starts a new search generation, entries of older generations are replaced first.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & 63;
+    }
+
+    /**
+     * @return packed data of the entry for the key, or 0 if there is none
+     */
+    public long probe(long key) {
+        probes.increment();
+        final int bucket = bucketOffset(key);
+        for (int i = 0; i < BUCKET_ENTRIES; i++) {
+            final int offset = bucket + i * ENTRY_BYTES;
+            final long data = table.getLong(offset + 8);
+            if ((data & USED) != 0 && (table.getLong(offset) ^ data) == key) {
+                hits.increment();
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    public void store(long key, int move, int score, int depth, int bound) {
+        final int bucket = bucketOffset(key);
+        final int currentGeneration = generation;
+        int replace = bucket;
+        int replaceWorth = Integer.MAX_VALUE;
+        long replaceData = 0;
+        for (int i = 0; i < BUCKET_ENTRIES; i++) {
+            final int offset = bucket + i * ENTRY_BYTES;
+            final long data = table.getLong(offset + 8);
+            if ((data & USED) == 0) {
+                replace = offset;
+                replaceData = 0;
+                break;
+            }
+            if ((table.getLong(offset) ^ data) == key) {
+                if (depth < depth(data) && bound != EXACT && generation(data) == currentGeneration) {
+                    return;
+                }
+                if (move == Move.NONE) {
+                    move = move(data);
+                }
+                replace = offset;
+                replaceData = 0;
+                break;
+            }
+            final int age = (currentGeneration - generation(data)) & 63;
+            final int worth = depth(data) - 8 * age;
+            if (worth < replaceWorth) {
+                replace = offset;
+                replaceWorth = worth;
+                replaceData = data;
+            }
+        }
+        if (replaceData != 0 && generation(replaceData) == currentGeneration) {
+            collisions.increment();
+        }
+        final long data = (move & 0x1FFFFL)
+                | (score & 0xFFFFL) << 17
+                | (long) Math.min(255, Math.max(0, depth)) << 33
+                | (long) bound << 41
+                | (long) currentGeneration << 43
+                | USED;
+        table.putLong(replace, key ^ data);
+        table.putLong(replace + 8, data);
+        stores.increment();
+    }
+
+    public static int move(long data) {
+        return (int) (data & 0x1FFFF);
+    }
+
+    public static int score(long data) {
+        return (short) (data >>> 17);
+    }
+
+    public static int depth(long data) {
+        return (int) (data >>> 33) & 0xFF;
+    }
+
+    public static int bound(long data) {
+        return (int) (data >>> 41) & 3;
+    }
+
+    private static int generation(long data) {
+        return (int) (data >>> 43) & 63;
+    }
+
+    private int bucketOffset(long key) {
+        return (int) (key & bucketMask) * BUCKET_BYTES;
+    }
+
+    public void clear() {
+        for (int offset = 0; offset < table.capacity(); offset += 8) {
+            table.putLong(offset, 0);
+        }
+    }
+
+    public long getSizeBytes() {
+        return table.capacity();
+    }
+
+    public long getProbes() {
+        return probes.sum();
+    }
+
+    /**
+     * @return share of probes that found their position
+     */
+    public double getHitRate() {
+        final long probed = probes.sum();
+        return probed == 0 ? 0 : (double) hits.sum() / probed;
+    }
+
+    /**
+     * @return share of stores that evicted an entry of another position written by the current generation
+     */
+    public double getCollisionRate() {
+        final long stored = stores.sum();
+        return stored == 0 ? 0 : (double) collisions.sum() / stored;
+    }
+
+    /**
+     * @return share of used entries, sampled over the first buckets like the UCI hashfull figure
+     */
+    public double getFill() {
+        final int buckets = Math.min(FILL_SAMPLE_BUCKETS, bucketMask + 1);
+        int used = 0;
+        for (int offset = 0; offset < buckets * BUCKET_BYTES; offset += ENTRY_BYTES) {
+            if ((table.getLong(offset + 8) & USED) != 0) {
+                used++;
+            }
+        }
+        return (double) used / (buckets * BUCKET_ENTRIES);
+    }
+}
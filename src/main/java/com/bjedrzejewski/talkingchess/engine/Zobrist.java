@@ -0,0 +1,43 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+/**
+ * Random keys for Zobrist hashing. Generated from a fixed seed, so keys are stable between runs
+ * and anything persisted by position key stays valid after a restart.
+ */
+final class Zobrist {
+
+    static final long[][] PIECE_SQUARE = new long[16][64];
+    static final long[] CASTLING = new long[16];
+    static final long[] EN_PASSANT_FILE = new long[8];
+    static final long SIDE;
+
+    static {
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int piece = 0; piece < 16; piece++) {
+            for (int square = 0; square < 64; square++) {
+                seed = next(seed);
+                PIECE_SQUARE[piece][square] = seed;
+            }
+        }
+        for (int rights = 0; rights < 16; rights++) {
+            seed = next(seed);
+            CASTLING[rights] = seed;
+        }
+        CASTLING[0] = 0;
+        for (int file = 0; file < 8; file++) {
+            seed = next(seed);
+            EN_PASSANT_FILE[file] = seed;
+        }
+        SIDE = next(seed);
+    }
+
+    private Zobrist() {
+    }
+
+    private static long next(long x) {
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        return x;
+    }
+}
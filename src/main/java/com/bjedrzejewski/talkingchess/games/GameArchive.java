@@ -0,0 +1,216 @@
+package com.bjedrzejewski.talkingchess.games;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The games the bot knows about, from the PGN file configured as {@code talkingchess.games.pgn}.
+ * <p>
+ * The store in the data directory is opened at startup. When the PGN file is newer than the store, or there is no
+ * store yet, it is ingested again on a background thread and the new store replaces the old one when it is done.
+ * The {@link PlayerStatsCube} and the {@link OpeningExplorer} next to the store are brought up to date after every
+ * ingestion, the statistics adding only the new games when the PGN file grew. Without a PGN file the archive is empty and the talks fall back to what they know
+ * by heart.
+ */
+@Component
+public class GameArchive {
+
+    private static final Logger logger = LoggerFactory.getLogger(GameArchive.class);
+
+    private final Path pgn;
+    private final Path storeFile;
+    private final Path statsFile;
+    private final Path explorerFile;
+    private final int threads;
+    private final int explorerPlies;
+    private volatile GameStore store;
+    private volatile PlayerStatsCube stats;
+    private volatile OpeningExplorer explorer;
+    private volatile PgnIngester.Result lastIngest;
+
+    /**
+     * @param pgn     PGN file to read games from, empty for none
+     * @param threads threads scanning the file, negative for the available processors
+     * @param explorerPlies plies of each game counted by the opening explorer
+     */
+    @Autowired
+    public GameArchive(@Value("${talkingchess.games.pgn:}") final String pgn,
+                       @Value("${talkingchess.dataDir:data}") final String dataDir,
+                       @Value("${talkingchess.games.threads:-1}") final int threads,
+                       @Value("${talkingchess.games.explorerPlies:24}") final int explorerPlies) {
+        this.pgn = pgn.isEmpty() ? null : Paths.get(pgn);
+        this.storeFile = Paths.get(dataDir, "games.bin");
+        this.statsFile = Paths.get(dataDir, "player-stats.bin");
+        this.explorerFile = Paths.get(dataDir, "explorer.bin");
+        this.threads = threads < 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        this.explorerPlies = explorerPlies;
+        open();
+        final Runnable preparation = this.pgn != null && isStale() ? this::ingest
+                : store != null && (stats == null || !stats.covers(store) || explorer == null || !explorer.covers(store))
+                ? this::updateIndexes : null;
+        if (preparation != null) {
+            final Thread thread = new Thread(preparation, "game-ingest");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+    }
+
+    private GameArchive(GameStore store, PlayerStatsCube stats, OpeningExplorer explorer) {
+        this.pgn = null;
+        this.storeFile = null;
+        this.statsFile = null;
+        this.explorerFile = null;
+        this.threads = 0;
+        this.explorerPlies = 0;
+        this.store = store;
+        this.stats = stats;
+        this.explorer = explorer;
+    }
+
+    /**
+     * Archive of an existing store, for tests and tools.
+     * @param store the games, null for an empty archive
+     */
+    public static GameArchive of(GameStore store) {
+        return new GameArchive(store, null, null);
+    }
+
+    /**
+     * Archive of an existing store and its indexes, for tests and tools. Either index may be null.
+     */
+    public static GameArchive of(GameStore store, PlayerStatsCube stats, OpeningExplorer explorer) {
+        return new GameArchive(store, stats, explorer);
+    }
+
+    private void open() {
+        if (!Files.exists(storeFile)) {
+            return;
+        }
+        try {
+            store = GameStore.open(storeFile);
+            logger.info("Game store opened - games: {} | players: {}", store.getGameCount(), store.getPlayerCount());
+        } catch (IOException e) {
+            logger.warn("Could not open game store {}, it will be ingested again", storeFile, e);
+            return;
+        }
+        if (Files.exists(statsFile)) {
+            try {
+                stats = PlayerStatsCube.open(statsFile);
+            } catch (IOException e) {
+                logger.warn("Could not open player statistics {}, they will be built again", statsFile, e);
+            }
+        }
+        if (Files.exists(explorerFile)) {
+            try {
+                explorer = OpeningExplorer.open(explorerFile);
+            } catch (IOException e) {
+                logger.warn("Could not open opening explorer {}, it will be built again", explorerFile, e);
+            }
+        }
+    }
+
+    private boolean isStale() {
+        try {
+            return store == null || !Files.exists(storeFile)
+                    || Files.getLastModifiedTime(pgn).compareTo(Files.getLastModifiedTime(storeFile)) > 0;
+        } catch (IOException e) {
+            logger.warn("Could not read PGN file {}", pgn, e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads the PGN file into a new store and switches to it, then updates the indexes over it.
+     */
+    public synchronized void ingest() {
+        if (pgn == null) {
+            return;
+        }
+        try {
+            lastIngest = PgnIngester.ingest(pgn, storeFile, threads);
+            store = GameStore.open(storeFile);
+        } catch (IOException e) {
+            logger.error("Could not ingest {}", pgn, e);
+            return;
+        }
+        updateIndexes();
+    }
+
+    private synchronized void updateIndexes() {
+        final GameStore current = store;
+        if (current == null || statsFile == null) {
+            return;
+        }
+        try {
+            stats = PlayerStatsCube.update(current, statsFile);
+        } catch (IOException e) {
+            logger.error("Could not update player statistics {}", statsFile, e);
+        }
+        try {
+            explorer = OpeningExplorer.update(current, explorerFile, explorerPlies);
+        } catch (IOException e) {
+            logger.error("Could not update opening explorer {}", explorerFile, e);
+        }
+    }
+
+    /**
+     * @return the store, null while there is none
+     */
+    public GameStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the player statistics, null while they do not cover the current store
+     */
+    public PlayerStatsCube getStats() {
+        return getStats(store);
+    }
+
+    /**
+     * Reads the statistics together with a store taken from {@link #getStore()} before, so that player ids stay valid
+     * even when a new store replaces it in between.
+     *
+     * @return the player statistics, null while they do not cover the given store
+     */
+    public PlayerStatsCube getStats(GameStore games) {
+        final PlayerStatsCube current = stats;
+        return current == null || games == null || !current.covers(games) ? null : current;
+    }
+
+    /**
+     * @return the opening explorer, null while it does not cover the current store
+     */
+    public OpeningExplorer getExplorer() {
+        final OpeningExplorer current = explorer;
+        final GameStore games = store;
+        return current == null || games == null || !current.covers(games) ? null : current;
+    }
+
+    public int getGameCount() {
+        final GameStore current = store;
+        return current == null ? 0 : current.getGameCount();
+    }
+
+    public int getPlayerCount() {
+        final GameStore current = store;
+        return current == null ? 0 : current.getPlayerCount();
+    }
+
+    /**
+     * @return games per second of the last ingestion since startup, 0 if there was none
+     */
+    public long getIngestGamesPerSecond() {
+        final PgnIngester.Result result = lastIngest;
+        return result == null ? 0 : result.getGamesPerSecond();
+    }
+}
@@ -0,0 +1,452 @@
+package com.bjedrzejewski.talkingchess.games;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Headers of ingested games in one binary file, memory mapped read only.
+ * <p>
+ * Games are fixed size records numbered in the order of the PGN file. Indexes by player, ECO code and result list
+ * game numbers per key, the date index lists all games by date. Lookups return views of the mapped file, nothing
+ * is copied. The moves stay in the PGN file, every record knows where its game is.
+ * <p>
+ * Layout: a header with the counts and the offsets of the sections, the source file name, the records, the player
+ * names, then the indexes. Numbers are big endian.
+ */
+public final class GameStore {
+
+    public static final byte WHITE_WINS = 0;
+    public static final byte BLACK_WINS = 1;
+    public static final byte DRAW = 2;
+    public static final byte UNKNOWN = 3;
+
+    /** ECO code of games without one, codes run from A00 = 0 to E99 = 499. */
+    public static final short NO_ECO = -1;
+    static final int ECO_CODES = 500;
+
+    private static final int MAGIC = 0x54434753;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16 + 6 * 8;
+    private static final int RECORD_BYTES = 32;
+
+    private final ByteBuffer buffer;
+    private final int games;
+    private final int players;
+    private final String source;
+    private final int recordsAt;
+    private final String[] names;
+    private final Map<String, Integer> playerIds;
+    private final IntBuffer playerStarts;
+    private final IntBuffer playerGames;
+    private final IntBuffer ecoStarts;
+    private final IntBuffer ecoGames;
+    private final IntBuffer resultStarts;
+    private final IntBuffer resultGames;
+    private final IntBuffer dateOrder;
+
+    private GameStore(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a game store of version " + VERSION);
+        }
+        this.games = buffer.getInt(8);
+        this.players = buffer.getInt(12);
+        this.recordsAt = (int) buffer.getLong(16);
+        final int namesAt = (int) buffer.getLong(24);
+        final int playerIndexAt = (int) buffer.getLong(32);
+        final int ecoIndexAt = (int) buffer.getLong(40);
+        final int resultIndexAt = (int) buffer.getLong(48);
+        final int dateIndexAt = (int) buffer.getLong(56);
+        this.source = string(HEADER_BYTES);
+
+        this.names = new String[players];
+        this.playerIds = new HashMap<>(players * 2);
+        int at = namesAt;
+        for (int i = 0; i < players; i++) {
+            names[i] = string(at);
+            at += 2 + (buffer.getShort(at) & 0xFFFF);
+            playerIds.putIfAbsent(names[i].toLowerCase(Locale.ROOT), i);
+        }
+        this.playerStarts = ints(playerIndexAt, players + 1);
+        this.playerGames = ints(playerIndexAt + 4 * (players + 1), playerStarts.get(players));
+        this.ecoStarts = ints(ecoIndexAt, ECO_CODES + 1);
+        this.ecoGames = ints(ecoIndexAt + 4 * (ECO_CODES + 1), ecoStarts.get(ECO_CODES));
+        this.resultStarts = ints(resultIndexAt, 5);
+        this.resultGames = ints(resultIndexAt + 4 * 5, games);
+        this.dateOrder = ints(dateIndexAt, games);
+    }
+
+    /**
+     * Maps the store file. Stores are limited to 2GB, some 40 million games.
+     */
+    public static GameStore open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Game store larger than 2GB: " + file);
+            }
+            return new GameStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private String string(int at) {
+        final byte[] bytes = new byte[buffer.getShort(at) & 0xFFFF];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(at + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private IntBuffer ints(int at, int count) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(at);
+        view.limit(at + 4 * count);
+        return view.slice().asIntBuffer();
+    }
+
+    private static IntBuffer range(IntBuffer games, int from, int to) {
+        final IntBuffer view = games.duplicate();
+        view.limit(to);
+        view.position(from);
+        return view.slice();
+    }
+
+    public int getGameCount() {
+        return games;
+    }
+
+    public int getPlayerCount() {
+        return players;
+    }
+
+    /**
+     * @return the PGN file the games were read from
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public String getPlayerName(int player) {
+        return names[player];
+    }
+
+    /**
+     * Finds a player by the name as written in the PGN files, such as "Carlsen, Magnus", or by the start of it.
+     *
+     * @return the player, the one with most games if several names start the same way, -1 if there is none
+     */
+    public int findPlayer(String name) {
+        final String lower = name.toLowerCase(Locale.ROOT);
+        final Integer exact = playerIds.get(lower);
+        if (exact != null) {
+            return exact;
+        }
+        int best = -1;
+        for (int i = 0; i < players; i++) {
+            if (names[i].toLowerCase(Locale.ROOT).startsWith(lower) && (best < 0 || getGameCount(i) > getGameCount(best))) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return number of games of the player, with either colour
+     */
+    public int getGameCount(int player) {
+        return playerStarts.get(player + 1) - playerStarts.get(player);
+    }
+
+    public int getWhite(int game) {
+        return buffer.getInt(recordsAt + game * RECORD_BYTES);
+    }
+
+    public int getBlack(int game) {
+        return buffer.getInt(recordsAt + game * RECORD_BYTES + 4);
+    }
+
+    /**
+     * @return date as yyyymmdd, unknown parts are 0
+     */
+    public int getDate(int game) {
+        return buffer.getInt(recordsAt + game * RECORD_BYTES + 8);
+    }
+
+    /**
+     * @return ECO code from 0 for A00 to 499 for E99, or {@link #NO_ECO}
+     */
+    public int getEco(int game) {
+        return buffer.getShort(recordsAt + game * RECORD_BYTES + 12);
+    }
+
+    public byte getResult(int game) {
+        return buffer.get(recordsAt + game * RECORD_BYTES + 14);
+    }
+
+    /**
+     * @return where the game starts in the PGN file
+     */
+    public long getSourceOffset(int game) {
+        return buffer.getLong(recordsAt + game * RECORD_BYTES + 16);
+    }
+
+    /**
+     * @return bytes of the game in the PGN file, tags and moves
+     */
+    public int getSourceLength(int game) {
+        return buffer.getInt(recordsAt + game * RECORD_BYTES + 24);
+    }
+
+    /**
+     * @return the player's games with either colour, in file order
+     */
+    public IntBuffer gamesOf(int player) {
+        return range(playerGames, playerStarts.get(player), playerStarts.get(player + 1));
+    }
+
+    public IntBuffer gamesWithEco(int eco) {
+        return range(ecoGames, ecoStarts.get(eco), ecoStarts.get(eco + 1));
+    }
+
+    public IntBuffer gamesWithResult(byte result) {
+        return range(resultGames, resultStarts.get(result), resultStarts.get(result + 1));
+    }
+
+    /**
+     * @return games played between the two dates, both included, in date order
+     */
+    public IntBuffer gamesBetween(int fromDate, int toDate) {
+        return range(dateOrder, firstOnOrAfter(fromDate), firstOnOrAfter(toDate + 1));
+    }
+
+    private int firstOnOrAfter(int date) {
+        int low = 0;
+        int high = games;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (getDate(dateOrder.get(middle)) < date) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return code of an ECO name such as "B90", {@link #NO_ECO} if it is not one
+     */
+    public static int ecoCode(String eco) {
+        if (eco == null || eco.length() != 3 || eco.charAt(0) < 'A' || eco.charAt(0) > 'E'
+                || !Character.isDigit(eco.charAt(1)) || !Character.isDigit(eco.charAt(2))) {
+            return NO_ECO;
+        }
+        return (eco.charAt(0) - 'A') * 100 + (eco.charAt(1) - '0') * 10 + eco.charAt(2) - '0';
+    }
+
+    public static String ecoName(int code) {
+        return code == NO_ECO ? "?" : String.format(Locale.ROOT, "%c%02d", (char) ('A' + code / 100), code % 100);
+    }
+
+    /**
+     * Collects games in file order and writes them as a store.
+     */
+    static final class Writer {
+
+        private final String source;
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> playerIds = new HashMap<>();
+        private int count;
+        private int[] white = new int[1024];
+        private int[] black = new int[1024];
+        private int[] date = new int[1024];
+        private short[] eco = new short[1024];
+        private byte[] result = new byte[1024];
+        private long[] offset = new long[1024];
+        private int[] length = new int[1024];
+
+        Writer(String source) {
+            this.source = source;
+        }
+
+        int player(String name) {
+            final Integer id = playerIds.get(name);
+            if (id != null) {
+                return id;
+            }
+            playerIds.put(name, names.size());
+            names.add(name);
+            return names.size() - 1;
+        }
+
+        void add(int whitePlayer, int blackPlayer, int gameDate, short gameEco, byte gameResult, long gameOffset, int gameLength) {
+            if (count == white.length) {
+                final int capacity = count * 2;
+                white = Arrays.copyOf(white, capacity);
+                black = Arrays.copyOf(black, capacity);
+                date = Arrays.copyOf(date, capacity);
+                eco = Arrays.copyOf(eco, capacity);
+                result = Arrays.copyOf(result, capacity);
+                offset = Arrays.copyOf(offset, capacity);
+                length = Arrays.copyOf(length, capacity);
+            }
+            white[count] = whitePlayer;
+            black[count] = blackPlayer;
+            date[count] = gameDate;
+            eco[count] = gameEco;
+            result[count] = gameResult;
+            offset[count] = gameOffset;
+            length[count] = gameLength;
+            count++;
+        }
+
+        int getGameCount() {
+            return count;
+        }
+
+        int getPlayerCount() {
+            return names.size();
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            final byte[] sourceBytes = utf8(source);
+            final byte[][] nameBytes = new byte[names.size()][];
+            long namesSize = 0;
+            for (int i = 0; i < nameBytes.length; i++) {
+                nameBytes[i] = utf8(names.get(i));
+                namesSize += 2 + nameBytes[i].length;
+            }
+
+            //player index, a game counts once for a player who played himself
+            final int[] playerStarts = new int[names.size() + 1];
+            for (int g = 0; g < count; g++) {
+                playerStarts[white[g] + 1]++;
+                if (black[g] != white[g]) {
+                    playerStarts[black[g] + 1]++;
+                }
+            }
+            final int[] playerGames = fill(playerStarts, (g, add) -> {
+                add.accept(white[g]);
+                if (black[g] != white[g]) {
+                    add.accept(black[g]);
+                }
+            });
+            final int[] ecoStarts = new int[ECO_CODES + 1];
+            for (int g = 0; g < count; g++) {
+                if (eco[g] != NO_ECO) {
+                    ecoStarts[eco[g] + 1]++;
+                }
+            }
+            final int[] ecoGames = fill(ecoStarts, (g, add) -> {
+                if (eco[g] != NO_ECO) {
+                    add.accept(eco[g]);
+                }
+            });
+            final int[] resultStarts = new int[5];
+            for (int g = 0; g < count; g++) {
+                resultStarts[result[g] + 1]++;
+            }
+            final int[] resultGames = fill(resultStarts, (g, add) -> add.accept(result[g]));
+            //date above game number, games of the same day stay in file order
+            final long[] byDate = new long[count];
+            for (int g = 0; g < count; g++) {
+                byDate[g] = (long) date[g] << 32 | g;
+            }
+            Arrays.sort(byDate);
+
+            final long recordsAt = HEADER_BYTES + 2 + sourceBytes.length;
+            final long namesAt = recordsAt + (long) RECORD_BYTES * count;
+            final long playerIndexAt = namesAt + namesSize;
+            final long ecoIndexAt = playerIndexAt + 4L * (playerStarts.length + playerGames.length);
+            final long resultIndexAt = ecoIndexAt + 4L * (ecoStarts.length + ecoGames.length);
+            final long dateIndexAt = resultIndexAt + 4L * (resultStarts.length + resultGames.length);
+            if (dateIndexAt + 4L * count > Integer.MAX_VALUE) {
+                throw new IOException("Too many games for one store: " + count);
+            }
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeInt(names.size());
+            out.writeLong(recordsAt);
+            out.writeLong(namesAt);
+            out.writeLong(playerIndexAt);
+            out.writeLong(ecoIndexAt);
+            out.writeLong(resultIndexAt);
+            out.writeLong(dateIndexAt);
+            writeString(out, sourceBytes);
+            for (int g = 0; g < count; g++) {
+                out.writeInt(white[g]);
+                out.writeInt(black[g]);
+                out.writeInt(date[g]);
+                out.writeShort(eco[g]);
+                out.writeByte(result[g]);
+                out.writeByte(0);
+                out.writeLong(offset[g]);
+                out.writeInt(length[g]);
+                out.writeInt(0);
+            }
+            for (byte[] name : nameBytes) {
+                writeString(out, name);
+            }
+            writeInts(out, playerStarts);
+            writeInts(out, playerGames);
+            writeInts(out, ecoStarts);
+            writeInts(out, ecoGames);
+            writeInts(out, resultStarts);
+            writeInts(out, resultGames);
+            for (long game : byDate) {
+                out.writeInt((int) game);
+            }
+        }
+
+        /**
+         * Turns the counts, shifted by one, into starts and lists every game under its keys.
+         */
+        private int[] fill(int[] starts, Keys keys) {
+            for (int i = 1; i < starts.length; i++) {
+                starts[i] += starts[i - 1];
+            }
+            final int[] games = new int[starts[starts.length - 1]];
+            final int[] next = Arrays.copyOf(starts, starts.length - 1);
+            for (int g = 0; g < count; g++) {
+                final int game = g;
+                keys.of(g, key -> games[next[key]++] = game);
+            }
+            return games;
+        }
+
+        private static byte[] utf8(String text) {
+            final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            return bytes.length > 0xFFFF ? Arrays.copyOf(bytes, 0xFFFF) : bytes;
+        }
+
+        private static void writeString(DataOutputStream out, byte[] bytes) throws IOException {
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+
+        private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        }
+
+        private interface Keys {
+
+            void of(int game, IntConsumer add);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.bjedrzejewski.talkingchess.games;
+
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Open-addressing map of primitive long keys to int values, for counting and indexing without boxing.
+ * Keys must not be negative.
+ */
+public final class LongIntMap {
+
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    public LongIntMap() {
+        this(64);
+    }
+
+    public LongIntMap(int expected) {
+        final int slots = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        keys = new long[slots];
+        Arrays.fill(keys, EMPTY);
+        values = new int[slots];
+        mask = slots - 1;
+    }
+
+    /**
+     * Combines the value with the one under the key, or stores it if there is none.
+     */
+    void merge(long key, int value, IntBinaryOperator combine) {
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                values[slot] = combine.applyAsInt(values[slot], value);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        //linear probing stays short up to half full
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    public void put(long key, int value) {
+        merge(key, value, (old, replacement) -> replacement);
+    }
+
+    void add(long key, int delta) {
+        merge(key, delta, Integer::sum);
+    }
+
+    /**
+     * Merges every entry of the other map into this one.
+     */
+    void mergeAll(LongIntMap other, IntBinaryOperator combine) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != EMPTY) {
+                merge(other.keys[i], other.values[i], combine);
+            }
+        }
+    }
+
+    /**
+     * @return the value under the key, or the default
+     */
+    public int get(long key, int defaultValue) {
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Removes the key, shifting back the keys probed past it so that lookups still find them.
+     */
+    public void remove(long key) {
+        int slot = slot(key);
+        while (keys[slot] != key) {
+            if (keys[slot] == EMPTY) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        size--;
+        int next = slot;
+        while (true) {
+            keys[slot] = EMPTY;
+            do {
+                next = (next + 1) & mask;
+                if (keys[next] == EMPTY) {
+                    return;
+                }
+                //a key stays put if its home slot lies cyclically between the hole and where it is
+            } while (((next - slot(keys[next])) & mask) < ((next - slot) & mask));
+            keys[slot] = keys[next];
+            values[slot] = values[next];
+            slot = next;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the keys in ascending order
+     */
+    long[] sortedKeys() {
+        final long[] sorted = new long[size];
+        int next = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                sorted[next++] = key;
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private int slot(long key) {
+        //keys are small, structured numbers, spread them before masking
+        final long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ mixed >>> 32) & mask;
+    }
+
+    private void grow() {
+        final long[] oldKeys = keys;
+        final int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        values = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                merge(oldKeys[i], oldValues[i], Integer::sum);
+            }
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package com.bjedrzejewski.talkingchess.games;
+
+import com.bjedrzejewski.talkingchess.engine.Move;
+import com.bjedrzejewski.talkingchess.engine.Notation;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The moves played from each opening position of a {@link GameStore}, with how often and how they scored.
+ * <p>
+ * The first plies of every game are replayed from its PGN text, then the (position, move, result) triples are sorted
+ * and counted. The file holds the Zobrist keys of the positions as a sorted array, and for each position a start into
+ * the arrays of moves, games and results, most played move first. It is memory mapped and a lookup is a binary search
+ * over the keys, about 25 reads for tens of millions of positions.
+ */
+public final class OpeningExplorer {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpeningExplorer.class);
+
+    public static final int DEFAULT_PLIES = 24;
+
+    private static final int MAGIC = 0x54434f45;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 4 + 8;
+
+    private static final int MOVE_BITS = 17;
+    private static final int WHITE_WIN = 0;
+    private static final int DRAW = 1;
+    private static final int BLACK_WIN = 2;
+    private static final int UNFINISHED = 3;
+
+    private final int games;
+    private final int positions;
+    private final long lastOffset;
+    private final String source;
+    private final LongBuffer keys;
+    private final IntBuffer starts;
+    private final IntBuffer moves;
+    private final IntBuffer counts;
+    private final IntBuffer whiteWins;
+    private final IntBuffer draws;
+    private final IntBuffer blackWins;
+
+    private OpeningExplorer(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not an opening explorer index of version " + VERSION);
+        }
+        this.games = buffer.getInt(8);
+        this.positions = buffer.getInt(12);
+        final int entries = buffer.getInt(16);
+        this.lastOffset = buffer.getLong(20);
+        final byte[] sourceBytes = new byte[buffer.getShort(HEADER_BYTES) & 0xFFFF];
+        for (int i = 0; i < sourceBytes.length; i++) {
+            sourceBytes[i] = buffer.get(HEADER_BYTES + 2 + i);
+        }
+        this.source = new String(sourceBytes, StandardCharsets.UTF_8);
+        //the key array is aligned to 8 bytes, the int arrays follow it
+        int at = (HEADER_BYTES + 2 + sourceBytes.length + 7) & ~7;
+        this.keys = column(buffer, at, 8L * positions).asLongBuffer();
+        at += 8 * positions;
+        this.starts = column(buffer, at, 4L * (positions + 1)).asIntBuffer();
+        at += 4 * (positions + 1);
+        this.moves = column(buffer, at, 4L * entries).asIntBuffer();
+        at += 4 * entries;
+        this.counts = column(buffer, at, 4L * entries).asIntBuffer();
+        at += 4 * entries;
+        this.whiteWins = column(buffer, at, 4L * entries).asIntBuffer();
+        at += 4 * entries;
+        this.draws = column(buffer, at, 4L * entries).asIntBuffer();
+        at += 4 * entries;
+        this.blackWins = column(buffer, at, 4L * entries).asIntBuffer();
+    }
+
+    private static ByteBuffer column(ByteBuffer buffer, int from, long length) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(from);
+        view.limit((int) (from + length));
+        return view.slice();
+    }
+
+    public static OpeningExplorer open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new OpeningExplorer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Opens the index in the file if it was built from the games of the store, builds it again otherwise.
+     *
+     * @param plies how many plies of each game are counted
+     */
+    public static OpeningExplorer update(GameStore store, Path file, int plies) throws IOException {
+        if (Files.exists(file)) {
+            try {
+                final OpeningExplorer previous = open(file);
+                if (previous.covers(store)) {
+                    return previous;
+                }
+            } catch (IOException e) {
+                logger.warn("Could not open opening explorer {}, building it again", file, e);
+            }
+        }
+        build(store, file, plies);
+        return open(file);
+    }
+
+    /**
+     * Replays the first plies of every game of the store, reading the moves from the PGN file it was ingested from.
+     */
+    public static void build(GameStore store, Path file, int plies) throws IOException {
+        final long start = System.nanoTime();
+        final Path pgn = Paths.get(store.getSource());
+        final Plies all;
+        try (FileChannel channel = FileChannel.open(pgn, StandardOpenOption.READ)) {
+            all = IntStream.range(0, store.getGameCount()).parallel()
+                    .collect(() -> new Plies(plies), (p, game) -> p.replay(store, channel, game), Plies::addAll);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        //positions are numbered in key order, so sorting the packed triples groups them by position then move
+        final long[] distinct = Arrays.copyOf(all.keys, all.size);
+        Arrays.parallelSort(distinct);
+        int positions = 0;
+        for (int i = 0; i < distinct.length; i++) {
+            if (i == 0 || distinct[i] != distinct[i - 1]) {
+                distinct[positions++] = distinct[i];
+            }
+        }
+        final long[] packed = new long[all.size];
+        for (int i = 0; i < all.size; i++) {
+            final long position = Arrays.binarySearch(distinct, 0, positions, all.keys[i]);
+            packed[i] = position << (MOVE_BITS + 2) | all.movesAndResults[i];
+        }
+        Arrays.parallelSort(packed);
+
+        final Counts counts = new Counts(positions, packed);
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            final byte[] source = store.getSource().getBytes(StandardCharsets.UTF_8);
+            final int games = store.getGameCount();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(games);
+            out.writeInt(positions);
+            out.writeInt(counts.size);
+            out.writeLong(games == 0 ? -1 : store.getSourceOffset(games - 1));
+            out.writeShort(source.length);
+            out.write(source);
+            for (int pad = HEADER_BYTES + 2 + source.length; pad % 8 != 0; pad++) {
+                out.writeByte(0);
+            }
+            for (int i = 0; i < positions; i++) {
+                out.writeLong(distinct[i]);
+            }
+            for (int i = 0; i <= positions; i++) {
+                out.writeInt(counts.starts[i]);
+            }
+            for (int[] column : new int[][]{counts.moves, counts.games, counts.whiteWins, counts.draws, counts.blackWins}) {
+                for (int i = 0; i < counts.size; i++) {
+                    out.writeInt(column[i]);
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Opening explorer built - games: {} | plies: {} | positions: {} | moves: {} | time: {}ms",
+                store.getGameCount(), all.size, positions, counts.size, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * @return true if the index counts exactly the games of the store
+     */
+    public boolean covers(GameStore store) {
+        return source.equals(store.getSource()) && games == store.getGameCount()
+                && (games == 0 || store.getSourceOffset(games - 1) == lastOffset);
+    }
+
+    public int getGameCount() {
+        return games;
+    }
+
+    public int getPositionCount() {
+        return positions;
+    }
+
+    /**
+     * @return number of the position with the Zobrist key, -1 if no game reached it
+     */
+    public int find(long key) {
+        int low = 0;
+        int high = positions - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final long found = keys.get(middle);
+            if (found < key) {
+                low = middle + 1;
+            } else if (found > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return number of different moves played in the position
+     */
+    public int getMoveCount(int position) {
+        return starts.get(position + 1) - starts.get(position);
+    }
+
+    /**
+     * @param rank 0 for the move played most often
+     */
+    public int getMove(int position, int rank) {
+        return moves.get(starts.get(position) + rank);
+    }
+
+    public int getGames(int position, int rank) {
+        return counts.get(starts.get(position) + rank);
+    }
+
+    /**
+     * @return points White scored after the move in percent, a draw being half a point, 0 without finished games
+     */
+    public double getWhiteScore(int position, int rank) {
+        final int entry = starts.get(position) + rank;
+        final int finished = whiteWins.get(entry) + draws.get(entry) + blackWins.get(entry);
+        return finished == 0 ? 0 : (whiteWins.get(entry) + draws.get(entry) / 2.0) * 100 / finished;
+    }
+
+    /**
+     * The (position key, move, result) triples of a range of games.
+     */
+    private static final class Plies {
+
+        private final int plies;
+        private ByteBuffer text = ByteBuffer.allocate(4096);
+        private long[] keys = new long[1024];
+        private int[] movesAndResults = new int[1024];
+        private int size;
+
+        Plies(int plies) {
+            this.plies = plies;
+        }
+
+        void replay(GameStore store, FileChannel pgn, int game) {
+            //positional reads, the channel is shared by the threads and files may be larger than one mapping
+            final int length = store.getSourceLength(game);
+            if (text.capacity() < length) {
+                text = ByteBuffer.allocate(length);
+            }
+            text.clear().limit(length);
+            try {
+                while (text.hasRemaining() && pgn.read(text, store.getSourceOffset(game) + text.position()) >= 0) {
+                    //read the rest
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            final byte result = store.getResult(game);
+            final int outcome = result == GameStore.WHITE_WINS ? WHITE_WIN : result == GameStore.BLACK_WINS ? BLACK_WIN
+                    : result == GameStore.DRAW ? DRAW : UNFINISHED;
+            final Position position = Position.start();
+            final MoveText tokens = new MoveText(text, text.position());
+            int played = 0;
+            String san;
+            while (played < plies && (san = tokens.next()) != null) {
+                final int move = Notation.parseSan(position, san);
+                if (move == Move.NONE) {
+                    //a move we cannot read ends the game for the explorer, the plies before it still count
+                    return;
+                }
+                add(position.getKey(), move << 2 | outcome);
+                position.makeMove(move);
+                played++;
+            }
+        }
+
+        private void add(long key, int moveAndResult) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                movesAndResults = Arrays.copyOf(movesAndResults, size * 2);
+            }
+            keys[size] = key;
+            movesAndResults[size] = moveAndResult;
+            size++;
+        }
+
+        void addAll(Plies other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.keys[i], other.movesAndResults[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads the moves of one game: skips the tags, comments, variations, annotations, move numbers and the result.
+     */
+    private static final class MoveText {
+
+        private final ByteBuffer text;
+        private final int end;
+        private final StringBuilder token = new StringBuilder(8);
+        private int at;
+
+        MoveText(ByteBuffer text, int length) {
+            this.text = text;
+            this.end = length;
+        }
+
+        String next() {
+            while (at < end) {
+                final char c = (char) (text.get(at) & 0xFF);
+                if (c == '[' && (at == 0 || text.get(at - 1) == '\n')) {
+                    skipPast('\n');
+                } else if (c == '{') {
+                    skipPast('}');
+                } else if (c == ';' || c == '%') {
+                    skipPast('\n');
+                } else if (c == '(') {
+                    skipVariation();
+                } else if (Character.isLetter(c)) {
+                    token.setLength(0);
+                    while (at < end && !isDelimiter((char) (text.get(at) & 0xFF))) {
+                        token.append((char) (text.get(at) & 0xFF));
+                        at++;
+                    }
+                    return token.toString();
+                } else if (c == '$' || Character.isDigit(c) || c == '*') {
+                    //NAGs, move numbers with their dots and results
+                    at++;
+                    while (at < end && !isDelimiter((char) (text.get(at) & 0xFF))) {
+                        at++;
+                    }
+                    while (at < end && text.get(at) == '.') {
+                        at++;
+                    }
+                } else {
+                    at++;
+                }
+            }
+            return null;
+        }
+
+        private void skipPast(char stop) {
+            while (at < end && text.get(at) != stop) {
+                at++;
+            }
+            at++;
+        }
+
+        private void skipVariation() {
+            int depth = 0;
+            while (at < end) {
+                final byte c = text.get(at++);
+                if (c == '{') {
+                    skipPast('}');
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')' && --depth == 0) {
+                    return;
+                }
+            }
+        }
+
+        private static boolean isDelimiter(char c) {
+            return c <= ' ' || c == '.' || c == '{' || c == '(' || c == ')' || c == '$' || c == ';';
+        }
+    }
+
+    /**
+     * Games and results per position and move, counted from the sorted packed triples.
+     */
+    private static final class Counts {
+
+        final int[] starts;
+        final int[] moves;
+        final int[] games;
+        final int[] whiteWins;
+        final int[] draws;
+        final int[] blackWins;
+        int size;
+
+        Counts(int positions, long[] packed) {
+            starts = new int[positions + 1];
+            int distinct = 0;
+            for (int i = 0; i < packed.length; i++) {
+                if (i == 0 || packed[i] >>> 2 != packed[i - 1] >>> 2) {
+                    distinct++;
+                }
+            }
+            moves = new int[distinct];
+            games = new int[distinct];
+            whiteWins = new int[distinct];
+            draws = new int[distinct];
+            blackWins = new int[distinct];
+            for (int i = 0; i < packed.length; ) {
+                final long positionAndMove = packed[i] >>> 2;
+                final int position = (int) (positionAndMove >>> MOVE_BITS);
+                moves[size] = (int) (positionAndMove & ((1 << MOVE_BITS) - 1));
+                for (; i < packed.length && packed[i] >>> 2 == positionAndMove; i++) {
+                    games[size]++;
+                    switch ((int) (packed[i] & 3)) {
+                        case WHITE_WIN:
+                            whiteWins[size]++;
+                            break;
+                        case DRAW:
+                            draws[size]++;
+                            break;
+                        case BLACK_WIN:
+                            blackWins[size]++;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                starts[position + 1]++;
+                size++;
+            }
+            for (int position = 0; position < positions; position++) {
+                starts[position + 1] += starts[position];
+                sortByGames(starts[position], starts[position + 1]);
+            }
+        }
+
+        /**
+         * Orders the moves of one position, most played first. Positions have a handful of moves, insertion sort it is.
+         */
+        private void sortByGames(int from, int to) {
+            for (int i = from + 1; i < to; i++) {
+                for (int j = i; j > from && games[j] > games[j - 1]; j--) {
+                    swap(moves, j);
+                    swap(games, j);
+                    swap(whiteWins, j);
+                    swap(draws, j);
+                    swap(blackWins, j);
+                }
+            }
+        }
+
+        private static void swap(int[] column, int j) {
+            final int value = column[j];
+            column[j] = column[j - 1];
+            column[j - 1] = value;
+        }
+    }
+}
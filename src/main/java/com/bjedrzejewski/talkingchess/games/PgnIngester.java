@@ -0,0 +1,421 @@
+package com.bjedrzejewski.talkingchess.games;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads PGN files into a {@link GameStore}.
+ * <p>
+ * The file is memory mapped and cut into chunks at game boundaries, the chunks are scanned in parallel straight
+ * from the mapping: only the tags the store keeps are looked at and only player names become strings. The movetext
+ * is not parsed, the store points back to where each game is in the PGN file. Chunks are merged in file order, so the
+ * store is the same whatever the number of threads.
+ */
+public final class PgnIngester {
+
+    private static final Logger logger = LoggerFactory.getLogger(PgnIngester.class);
+
+    /** Default chunk size, also the most a chunk maps at once. */
+    static final int CHUNK_BYTES = 64 << 20;
+
+    private static final byte[] EVENT = "[Event ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WHITE = "White".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BLACK = "Black".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESULT = "Result".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ECO = "ECO".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DATE = "Date".getBytes(StandardCharsets.US_ASCII);
+
+    private PgnIngester() {
+    }
+
+    /**
+     * Ingests the PGN file into a new store, replacing the old one once it is complete.
+     *
+     * @param threads chunks scanned at the same time
+     */
+    public static Result ingest(Path pgn, Path store, int threads) throws IOException {
+        return ingest(pgn, store, threads, CHUNK_BYTES);
+    }
+
+    static Result ingest(Path pgn, Path store, int threads, int chunkBytes) throws IOException {
+        final long start = System.nanoTime();
+        final List<Segment> segments;
+        final long size;
+        try (FileChannel channel = FileChannel.open(pgn, StandardOpenOption.READ)) {
+            size = channel.size();
+            final long[] boundaries = boundaries(channel, chunkBytes);
+            final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+                final Thread thread = new Thread(runnable, "pgn-ingest");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                final List<Future<Segment>> futures = new ArrayList<>();
+                for (int i = 0; i + 1 < boundaries.length; i++) {
+                    final long from = boundaries[i];
+                    final long to = boundaries[i + 1];
+                    futures.add(pool.submit(() -> scan(channel.map(FileChannel.MapMode.READ_ONLY, from, to - from), from)));
+                }
+                segments = new ArrayList<>(futures.size());
+                for (Future<Segment> future : futures) {
+                    segments.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while ingesting " + pgn, e);
+            } catch (ExecutionException e) {
+                throw new IOException("Could not ingest " + pgn, e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        final Path temp = store.resolveSibling(store.getFileName() + ".tmp");
+        if (store.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(store.toAbsolutePath().getParent());
+        }
+        final int games;
+        final int players;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            final GameStore.Writer writer = new GameStore.Writer(pgn.toAbsolutePath().toString());
+            for (Segment segment : segments) {
+                final int[] globalPlayers = new int[segment.players.size()];
+                for (int i = 0; i < globalPlayers.length; i++) {
+                    globalPlayers[i] = writer.player(segment.players.get(i));
+                }
+                for (int g = 0; g < segment.count; g++) {
+                    writer.add(globalPlayers[segment.white[g]], globalPlayers[segment.black[g]], segment.date[g],
+                            segment.eco[g], segment.result[g], segment.offset[g], segment.length[g]);
+                }
+            }
+            writer.write(out);
+            games = writer.getGameCount();
+            players = writer.getPlayerCount();
+        }
+        Files.move(temp, store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        final long nanos = System.nanoTime() - start;
+        final Result result = new Result(games, players, size, segments.size(), nanos);
+        logger.info("Ingested {} - games: {} | players: {} | chunks: {} | time: {}ms | games/s: {}",
+                pgn, games, players, segments.size(), nanos / 1_000_000, result.getGamesPerSecond());
+        return result;
+    }
+
+    /**
+     * Cuts the file into chunks of about the given size, each starting with an "[Event " line.
+     */
+    static long[] boundaries(FileChannel channel, int chunkBytes) throws IOException {
+        final long size = channel.size();
+        final List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        long next = chunkBytes;
+        while (next < size) {
+            final long start = nextGame(channel, next);
+            if (start >= size) {
+                break;
+            }
+            if (start - boundaries.get(boundaries.size() - 1) > Integer.MAX_VALUE) {
+                throw new IOException("A single game of more than 2GB at " + start);
+            }
+            boundaries.add(start);
+            next = start + chunkBytes;
+        }
+        boundaries.add(size);
+        final long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    private static long nextGame(FileChannel channel, long from) throws IOException {
+        final ByteBuffer window = ByteBuffer.allocate(1 << 16);
+        long position = from;
+        while (true) {
+            window.clear();
+            final int read = channel.read(window, position - 1);
+            if (read <= EVENT.length + 1) {
+                return channel.size();
+            }
+            for (int i = 0; i + EVENT.length < read; i++) {
+                if (window.get(i) == '\n' && matches(window, i + 1, EVENT)) {
+                    return position + i;
+                }
+            }
+            position += read - EVENT.length - 1;
+        }
+    }
+
+    /**
+     * Scans one chunk. Offsets in the buffer are relative to {@code base} in the file.
+     */
+    static Segment scan(ByteBuffer buffer, long base) {
+        final Segment segment = new Segment();
+        final int end = buffer.limit();
+        //a byte order mark in front of the first game
+        int line = base == 0 && end >= 3 && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB
+                && buffer.get(2) == (byte) 0xBF ? 3 : 0;
+        int gameStart = -1;
+        while (line < end) {
+            int lineEnd = line;
+            while (lineEnd < end && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (buffer.get(line) == '[') {
+                if (matches(buffer, line, EVENT)) {
+                    if (gameStart >= 0) {
+                        segment.finish(base + gameStart, line - gameStart);
+                    }
+                    gameStart = line;
+                    segment.start();
+                } else if (gameStart >= 0) {
+                    tag(buffer, line + 1, lineEnd, segment);
+                }
+            }
+            line = lineEnd + 1;
+        }
+        if (gameStart >= 0) {
+            segment.finish(base + gameStart, end - gameStart);
+        }
+        return segment;
+    }
+
+    private static void tag(ByteBuffer buffer, int from, int lineEnd, Segment segment) {
+        int nameEnd = from;
+        while (nameEnd < lineEnd && buffer.get(nameEnd) != ' ') {
+            nameEnd++;
+        }
+        final int valueStart = nameEnd + 2;
+        int valueEnd = valueStart;
+        while (valueEnd < lineEnd && buffer.get(valueEnd) != '"') {
+            if (buffer.get(valueEnd) == '\\') {
+                valueEnd++;
+            }
+            valueEnd++;
+        }
+        if (valueStart > lineEnd || valueEnd > lineEnd) {
+            return;
+        }
+        final int nameLength = nameEnd - from;
+        if (equals(buffer, from, nameLength, WHITE)) {
+            segment.white[segment.count] = segment.player(buffer, valueStart, valueEnd);
+        } else if (equals(buffer, from, nameLength, BLACK)) {
+            segment.black[segment.count] = segment.player(buffer, valueStart, valueEnd);
+        } else if (equals(buffer, from, nameLength, RESULT)) {
+            segment.result[segment.count] = result(buffer, valueStart, valueEnd);
+        } else if (equals(buffer, from, nameLength, ECO)) {
+            segment.eco[segment.count] = eco(buffer, valueStart, valueEnd);
+        } else if (equals(buffer, from, nameLength, DATE)) {
+            segment.date[segment.count] = date(buffer, valueStart, valueEnd);
+        }
+    }
+
+    private static byte result(ByteBuffer buffer, int from, int to) {
+        if (to - from == 3 && buffer.get(from) == '1' && buffer.get(from + 2) == '0') {
+            return GameStore.WHITE_WINS;
+        } else if (to - from == 3 && buffer.get(from) == '0' && buffer.get(from + 2) == '1') {
+            return GameStore.BLACK_WINS;
+        } else if (to - from == 7 && buffer.get(from) == '1' && buffer.get(from + 1) == '/') {
+            return GameStore.DRAW;
+        }
+        return GameStore.UNKNOWN;
+    }
+
+    private static short eco(ByteBuffer buffer, int from, int to) {
+        if (to - from != 3) {
+            return GameStore.NO_ECO;
+        }
+        final int letter = buffer.get(from) - 'A';
+        final int tens = buffer.get(from + 1) - '0';
+        final int units = buffer.get(from + 2) - '0';
+        if (letter < 0 || letter > 4 || tens < 0 || tens > 9 || units < 0 || units > 9) {
+            return GameStore.NO_ECO;
+        }
+        return (short) (letter * 100 + tens * 10 + units);
+    }
+
+    /**
+     * @return "2016.11.30" as 20161130, unknown parts such as "??" as 0
+     */
+    private static int date(ByteBuffer buffer, int from, int to) {
+        int date = 0;
+        int part = 0;
+        int parts = 0;
+        for (int i = from; i <= to && parts < 3; i++) {
+            final int c = i < to ? buffer.get(i) : '.';
+            if (c == '.') {
+                date = date * (parts == 0 ? 1 : 100) + part;
+                part = 0;
+                parts++;
+            } else if (c >= '0' && c <= '9') {
+                part = part * 10 + c - '0';
+            }
+        }
+        while (parts++ < 3) {
+            date *= 100;
+        }
+        return date;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int at, byte[] prefix) {
+        if (at + prefix.length > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(at + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equals(ByteBuffer buffer, int at, int length, byte[] name) {
+        return length == name.length && matches(buffer, at, name);
+    }
+
+    /**
+     * Games of one chunk, players numbered in the order the chunk met them.
+     */
+    static final class Segment {
+
+        private static final int UNKNOWN_PLAYER = -1;
+
+        private int count;
+        private int[] white = new int[1024];
+        private int[] black = new int[1024];
+        private int[] date = new int[1024];
+        private short[] eco = new short[1024];
+        private byte[] result = new byte[1024];
+        private long[] offset = new long[1024];
+        private int[] length = new int[1024];
+        private final List<String> players = new ArrayList<>();
+        private final Map<String, Integer> playerIds = new HashMap<>();
+        private final StringBuilder name = new StringBuilder(64);
+
+        private void start() {
+            if (count == white.length) {
+                final int capacity = count * 2;
+                white = Arrays.copyOf(white, capacity);
+                black = Arrays.copyOf(black, capacity);
+                date = Arrays.copyOf(date, capacity);
+                eco = Arrays.copyOf(eco, capacity);
+                result = Arrays.copyOf(result, capacity);
+                offset = Arrays.copyOf(offset, capacity);
+                length = Arrays.copyOf(length, capacity);
+            }
+            white[count] = UNKNOWN_PLAYER;
+            black[count] = UNKNOWN_PLAYER;
+            date[count] = 0;
+            eco[count] = GameStore.NO_ECO;
+            result[count] = GameStore.UNKNOWN;
+        }
+
+        private void finish(long gameOffset, int gameLength) {
+            //a missing name is numbered where the game is like any other, so ids stay put when the file grows
+            if (white[count] == UNKNOWN_PLAYER) {
+                white[count] = player("?");
+            }
+            if (black[count] == UNKNOWN_PLAYER) {
+                black[count] = player("?");
+            }
+            offset[count] = gameOffset;
+            length[count] = gameLength;
+            count++;
+        }
+
+        private int player(ByteBuffer buffer, int from, int to) {
+            //names are mostly ASCII, anything else is decoded properly
+            name.setLength(0);
+            for (int i = from; i < to; i++) {
+                final byte b = buffer.get(i);
+                if (b < 0) {
+                    final byte[] bytes = new byte[to - from];
+                    for (int j = 0; j < bytes.length; j++) {
+                        bytes[j] = buffer.get(from + j);
+                    }
+                    return player(new String(bytes, StandardCharsets.UTF_8));
+                }
+                name.append((char) b);
+            }
+            return player(name.toString());
+        }
+
+        private int player(String name) {
+            final Integer id = playerIds.get(name);
+            if (id != null) {
+                return id;
+            }
+            playerIds.put(name, players.size());
+            players.add(name);
+            return players.size() - 1;
+        }
+
+        int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Outcome of one ingestion.
+     */
+    public static final class Result {
+
+        private final int games;
+        private final int players;
+        private final long bytes;
+        private final int chunks;
+        private final long nanos;
+
+        Result(int games, int players, long bytes, int chunks, long nanos) {
+            this.games = games;
+            this.players = players;
+            this.bytes = bytes;
+            this.chunks = chunks;
+            this.nanos = nanos;
+        }
+
+        public int getGames() {
+            return games;
+        }
+
+        public int getPlayers() {
+            return players;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getGamesPerSecond() {
+            return nanos == 0 ? 0 : games * 1_000_000_000L / nanos;
+        }
+    }
+}
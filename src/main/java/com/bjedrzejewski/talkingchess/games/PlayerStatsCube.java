@@ -0,0 +1,459 @@
+package com.bjedrzejewski.talkingchess.games;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Per player numbers of a {@link GameStore}: score with each colour, openings played with each colour by frequency,
+ * and the record against every opponent. Player numbers are the ones of the store.
+ * <p>
+ * The cube is built by a batch job over the games in parallel, and written column by column: one array per number,
+ * indexed by player, and for the variable length lists a start per player into value arrays. The file is memory
+ * mapped, so a lookup reads a few ints. Stores only ever append games, so a cube covering the first games of a store
+ * is brought up to date by adding the games after them.
+ */
+public final class PlayerStatsCube {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlayerStatsCube.class);
+
+    private static final int MAGIC = 0x54435043;
+    private static final int VERSION = 1;
+
+    private static final int WHITE_WINS = 0;
+    private static final int WHITE_DRAWS = 1;
+    private static final int WHITE_LOSSES = 2;
+    private static final int BLACK_WINS = 3;
+    private static final int BLACK_DRAWS = 4;
+    private static final int BLACK_LOSSES = 5;
+    private static final int FIRST_DATE = 6;
+    private static final int LAST_DATE = 7;
+    private static final int WHITE_OPENING_STARTS = 8;
+    private static final int WHITE_OPENING_ECO = 9;
+    private static final int WHITE_OPENING_GAMES = 10;
+    private static final int BLACK_OPENING_STARTS = 11;
+    private static final int BLACK_OPENING_ECO = 12;
+    private static final int BLACK_OPENING_GAMES = 13;
+    private static final int OPPONENT_STARTS = 14;
+    private static final int OPPONENT = 15;
+    private static final int OPPONENT_WINS = 16;
+    private static final int OPPONENT_DRAWS = 17;
+    private static final int OPPONENT_LOSSES = 18;
+    private static final int COLUMNS = 19;
+
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8 + 8 * COLUMNS;
+
+    private final int players;
+    private final int games;
+    private final long lastOffset;
+    private final String source;
+    private final IntBuffer[] ints = new IntBuffer[COLUMNS];
+    private final ShortBuffer whiteOpeningEco;
+    private final ShortBuffer blackOpeningEco;
+
+    private PlayerStatsCube(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a player statistics cube of version " + VERSION);
+        }
+        this.players = buffer.getInt(8);
+        this.games = buffer.getInt(12);
+        this.lastOffset = buffer.getLong(16);
+        final int[] at = new int[COLUMNS + 1];
+        for (int column = 0; column < COLUMNS; column++) {
+            at[column] = (int) buffer.getLong(24 + 8 * column);
+        }
+        final byte[] sourceBytes = new byte[buffer.getShort(HEADER_BYTES) & 0xFFFF];
+        for (int i = 0; i < sourceBytes.length; i++) {
+            sourceBytes[i] = buffer.get(HEADER_BYTES + 2 + i);
+        }
+        this.source = new String(sourceBytes, StandardCharsets.UTF_8);
+        at[COLUMNS] = buffer.limit();
+        for (int column = 0; column < COLUMNS; column++) {
+            if (column != WHITE_OPENING_ECO && column != BLACK_OPENING_ECO) {
+                ints[column] = column(buffer, at[column], at[column + 1]).asIntBuffer();
+            }
+        }
+        this.whiteOpeningEco = column(buffer, at[WHITE_OPENING_ECO], at[WHITE_OPENING_ECO + 1]).asShortBuffer();
+        this.blackOpeningEco = column(buffer, at[BLACK_OPENING_ECO], at[BLACK_OPENING_ECO + 1]).asShortBuffer();
+    }
+
+    private static ByteBuffer column(ByteBuffer buffer, int from, int to) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(from);
+        view.limit(to);
+        return view.slice();
+    }
+
+    public static PlayerStatsCube open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new PlayerStatsCube(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Brings the cube in the file up to date with the store: adds the new games when the cube covers the first games
+     * of the store, builds it from scratch otherwise.
+     *
+     * @return the cube, opened
+     */
+    public static PlayerStatsCube update(GameStore store, Path file) throws IOException {
+        PlayerStatsCube previous = null;
+        if (Files.exists(file)) {
+            try {
+                previous = open(file);
+            } catch (IOException e) {
+                logger.warn("Could not open player statistics {}, building them again", file, e);
+            }
+        }
+        if (previous != null && previous.covers(store)) {
+            return previous;
+        }
+        if (previous != null && !previous.isPrefixOf(store)) {
+            previous = null;
+        }
+        final long start = System.nanoTime();
+        final int from = previous == null ? 0 : previous.games;
+        final Tally tally = IntStream.range(from, store.getGameCount()).parallel()
+                .collect(() -> new Tally(store.getPlayerCount()), (t, game) -> t.add(store, game), Tally::merge);
+        if (previous != null) {
+            tally.add(previous);
+        }
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            tally.write(out, store);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Player statistics {} - games added: {} | players: {} | time: {}ms",
+                previous == null ? "built" : "updated", store.getGameCount() - from, store.getPlayerCount(),
+                (System.nanoTime() - start) / 1_000_000);
+        return open(file);
+    }
+
+    /**
+     * @return true if the cube counts exactly the games of the store
+     */
+    public boolean covers(GameStore store) {
+        return isPrefixOf(store) && games == store.getGameCount() && players == store.getPlayerCount();
+    }
+
+    private boolean isPrefixOf(GameStore store) {
+        return source.equals(store.getSource()) && games <= store.getGameCount() && players <= store.getPlayerCount()
+                && (games == 0 || store.getSourceOffset(games - 1) == lastOffset);
+    }
+
+    public int getPlayerCount() {
+        return players;
+    }
+
+    public int getGameCount() {
+        return games;
+    }
+
+    public int getWins(int player, boolean white) {
+        return ints[white ? WHITE_WINS : BLACK_WINS].get(player);
+    }
+
+    public int getDraws(int player, boolean white) {
+        return ints[white ? WHITE_DRAWS : BLACK_DRAWS].get(player);
+    }
+
+    public int getLosses(int player, boolean white) {
+        return ints[white ? WHITE_LOSSES : BLACK_LOSSES].get(player);
+    }
+
+    /**
+     * @return finished games of the player with the colour
+     */
+    public int getGames(int player, boolean white) {
+        return getWins(player, white) + getDraws(player, white) + getLosses(player, white);
+    }
+
+    /**
+     * @return points scored with the colour in percent, a draw being half a point, 0 without finished games
+     */
+    public double getScore(int player, boolean white) {
+        final int finished = getGames(player, white);
+        return finished == 0 ? 0 : (getWins(player, white) + getDraws(player, white) / 2.0) * 100 / finished;
+    }
+
+    /**
+     * @return date of the first game with a known year as yyyymmdd, 0 if there is none
+     */
+    public int getFirstDate(int player) {
+        return ints[FIRST_DATE].get(player);
+    }
+
+    public int getLastDate(int player) {
+        return ints[LAST_DATE].get(player);
+    }
+
+    /**
+     * @return number of different ECO codes the player had with the colour
+     */
+    public int getOpeningCount(int player, boolean white) {
+        final IntBuffer starts = ints[white ? WHITE_OPENING_STARTS : BLACK_OPENING_STARTS];
+        return starts.get(player + 1) - starts.get(player);
+    }
+
+    /**
+     * @param rank 0 for the opening played most often
+     * @return ECO code of the opening, see {@link GameStore#ecoName(int)}
+     */
+    public int getOpeningEco(int player, boolean white, int rank) {
+        final IntBuffer starts = ints[white ? WHITE_OPENING_STARTS : BLACK_OPENING_STARTS];
+        return (white ? whiteOpeningEco : blackOpeningEco).get(starts.get(player) + rank);
+    }
+
+    public int getOpeningGames(int player, boolean white, int rank) {
+        final IntBuffer starts = ints[white ? WHITE_OPENING_STARTS : BLACK_OPENING_STARTS];
+        return ints[white ? WHITE_OPENING_GAMES : BLACK_OPENING_GAMES].get(starts.get(player) + rank);
+    }
+
+    /**
+     * @return wins, draws and losses of the player against the opponent, with either colour
+     */
+    public int[] getHeadToHead(int player, int opponent) {
+        final IntBuffer starts = ints[OPPONENT_STARTS];
+        final IntBuffer opponents = ints[OPPONENT];
+        int low = starts.get(player);
+        int high = starts.get(player + 1) - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int found = opponents.get(middle);
+            if (found < opponent) {
+                low = middle + 1;
+            } else if (found > opponent) {
+                high = middle - 1;
+            } else {
+                return new int[]{ints[OPPONENT_WINS].get(middle), ints[OPPONENT_DRAWS].get(middle), ints[OPPONENT_LOSSES].get(middle)};
+            }
+        }
+        return new int[3];
+    }
+
+    /**
+     * Numbers of a range of games, combined from the parts counted by each thread.
+     */
+    static final class Tally {
+
+        private static final int SLOTS = 6;
+
+        private final int players;
+        //player * SLOTS + WHITE_WINS .. BLACK_LOSSES
+        private final LongIntMap scores = new LongIntMap();
+        private final LongIntMap firstDates = new LongIntMap();
+        private final LongIntMap lastDates = new LongIntMap();
+        //(player * 2 + colour) * ECO_CODES + eco, colour 0 for white
+        private final LongIntMap openings = new LongIntMap();
+        //(player * players + opponent) * 3 + outcome, outcome 0 win, 1 draw, 2 loss
+        private final LongIntMap opponents = new LongIntMap();
+
+        Tally(int players) {
+            this.players = players;
+        }
+
+        void add(GameStore store, int game) {
+            final int white = store.getWhite(game);
+            final int black = store.getBlack(game);
+            final int eco = store.getEco(game);
+            final int date = store.getDate(game);
+            if (eco != GameStore.NO_ECO) {
+                openings.add((white * 2L) * GameStore.ECO_CODES + eco, 1);
+                openings.add((black * 2L + 1) * GameStore.ECO_CODES + eco, 1);
+            }
+            if (date >= 10000) {
+                firstDates.merge(white, date, Math::min);
+                firstDates.merge(black, date, Math::min);
+                lastDates.merge(white, date, Math::max);
+                lastDates.merge(black, date, Math::max);
+            }
+            final byte result = store.getResult(game);
+            if (result == GameStore.UNKNOWN) {
+                return;
+            }
+            final int whiteOutcome = result == GameStore.WHITE_WINS ? 0 : result == GameStore.DRAW ? 1 : 2;
+            final int blackOutcome = 2 - whiteOutcome;
+            scores.add((long) white * SLOTS + WHITE_WINS + whiteOutcome, 1);
+            scores.add((long) black * SLOTS + BLACK_WINS + blackOutcome, 1);
+            if (white != black) {
+                opponents.add(((long) white * players + black) * 3 + whiteOutcome, 1);
+                opponents.add(((long) black * players + white) * 3 + blackOutcome, 1);
+            }
+        }
+
+        void merge(Tally other) {
+            scores.mergeAll(other.scores, Integer::sum);
+            firstDates.mergeAll(other.firstDates, Math::min);
+            lastDates.mergeAll(other.lastDates, Math::max);
+            openings.mergeAll(other.openings, Integer::sum);
+            opponents.mergeAll(other.opponents, Integer::sum);
+        }
+
+        /**
+         * Adds the numbers of a cube over earlier games of the same store.
+         */
+        void add(PlayerStatsCube cube) {
+            for (int player = 0; player < cube.players; player++) {
+                for (int slot = 0; slot < SLOTS; slot++) {
+                    final int count = cube.ints[slot].get(player);
+                    if (count > 0) {
+                        scores.add((long) player * SLOTS + slot, count);
+                    }
+                }
+                if (cube.getFirstDate(player) > 0) {
+                    firstDates.merge(player, cube.getFirstDate(player), Math::min);
+                    lastDates.merge(player, cube.getLastDate(player), Math::max);
+                }
+                for (int colour = 0; colour < 2; colour++) {
+                    final boolean white = colour == 0;
+                    for (int rank = 0; rank < cube.getOpeningCount(player, white); rank++) {
+                        openings.add((player * 2L + colour) * GameStore.ECO_CODES + cube.getOpeningEco(player, white, rank),
+                                cube.getOpeningGames(player, white, rank));
+                    }
+                }
+                final IntBuffer starts = cube.ints[OPPONENT_STARTS];
+                for (int i = starts.get(player); i < starts.get(player + 1); i++) {
+                    final long pair = (long) player * players + cube.ints[OPPONENT].get(i);
+                    for (int outcome = 0; outcome < 3; outcome++) {
+                        final int count = cube.ints[OPPONENT_WINS + outcome].get(i);
+                        if (count > 0) {
+                            opponents.add(pair * 3 + outcome, count);
+                        }
+                    }
+                }
+            }
+        }
+
+        void write(DataOutputStream out, GameStore store) throws IOException {
+            final int[][] scoreColumns = new int[SLOTS][players];
+            for (long key : scores.sortedKeys()) {
+                scoreColumns[(int) (key % SLOTS)][(int) (key / SLOTS)] = scores.get(key, 0);
+            }
+            final int[] first = new int[players];
+            final int[] last = new int[players];
+            for (long key : firstDates.sortedKeys()) {
+                first[(int) key] = firstDates.get(key, 0);
+                last[(int) key] = lastDates.get(key, 0);
+            }
+
+            //openings by player and colour, most played first
+            final long[] openingKeys = openings.sortedKeys();
+            final int[][] openingStarts = new int[2][players + 1];
+            final short[][] openingEco = {new short[openingKeys.length], new short[openingKeys.length]};
+            final int[][] openingGames = {new int[openingKeys.length], new int[openingKeys.length]};
+            final int[] written = new int[2];
+            for (int i = 0; i < openingKeys.length; ) {
+                final long group = openingKeys[i] / GameStore.ECO_CODES;
+                int end = i;
+                while (end < openingKeys.length && openingKeys[end] / GameStore.ECO_CODES == group) {
+                    end++;
+                }
+                final long[] byCount = new long[end - i];
+                for (int j = i; j < end; j++) {
+                    byCount[j - i] = (long) (Integer.MAX_VALUE - openings.get(openingKeys[j], 0)) << 16
+                            | openingKeys[j] % GameStore.ECO_CODES;
+                }
+                Arrays.sort(byCount);
+                final int colour = (int) (group % 2);
+                final int player = (int) (group / 2);
+                openingStarts[colour][player + 1] = byCount.length;
+                for (long entry : byCount) {
+                    openingEco[colour][written[colour]] = (short) (entry & 0xFFFF);
+                    openingGames[colour][written[colour]] = Integer.MAX_VALUE - (int) (entry >>> 16);
+                    written[colour]++;
+                }
+                i = end;
+            }
+            for (int colour = 0; colour < 2; colour++) {
+                for (int player = 0; player < players; player++) {
+                    openingStarts[colour][player + 1] += openingStarts[colour][player];
+                }
+            }
+
+            //opponents by player, in player order for the binary search
+            final long[] opponentKeys = opponents.sortedKeys();
+            final int[] opponentStarts = new int[players + 1];
+            final int[] opponent = new int[opponentKeys.length];
+            final int[][] outcomes = new int[3][opponentKeys.length];
+            int pairs = 0;
+            for (int i = 0; i < opponentKeys.length; ) {
+                final long pair = opponentKeys[i] / 3;
+                final int player = (int) (pair / players);
+                opponent[pairs] = (int) (pair % players);
+                while (i < opponentKeys.length && opponentKeys[i] / 3 == pair) {
+                    outcomes[(int) (opponentKeys[i] % 3)][pairs] = opponents.get(opponentKeys[i], 0);
+                    i++;
+                }
+                opponentStarts[player + 1]++;
+                pairs++;
+            }
+            for (int player = 0; player < players; player++) {
+                opponentStarts[player + 1] += opponentStarts[player];
+            }
+
+            final byte[] source = store.getSource().getBytes(StandardCharsets.UTF_8);
+            final long[] at = new long[COLUMNS];
+            long next = HEADER_BYTES + 2 + source.length;
+            final long[] sizes = {
+                    4L * players, 4L * players, 4L * players, 4L * players, 4L * players, 4L * players, 4L * players, 4L * players,
+                    4L * (players + 1), 2L * written[0], 4L * written[0],
+                    4L * (players + 1), 2L * written[1], 4L * written[1],
+                    4L * (players + 1), 4L * pairs, 4L * pairs, 4L * pairs, 4L * pairs};
+            for (int column = 0; column < COLUMNS; column++) {
+                at[column] = next;
+                next += sizes[column];
+            }
+            final int games = store.getGameCount();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(players);
+            out.writeInt(games);
+            out.writeLong(games == 0 ? -1 : store.getSourceOffset(games - 1));
+            for (long offset : at) {
+                out.writeLong(offset);
+            }
+            out.writeShort(source.length);
+            out.write(source);
+            for (int[] column : scoreColumns) {
+                writeInts(out, column, players);
+            }
+            writeInts(out, first, players);
+            writeInts(out, last, players);
+            for (int colour = 0; colour < 2; colour++) {
+                writeInts(out, openingStarts[colour], players + 1);
+                for (int i = 0; i < written[colour]; i++) {
+                    out.writeShort(openingEco[colour][i]);
+                }
+                writeInts(out, openingGames[colour], written[colour]);
+            }
+            writeInts(out, opponentStarts, players + 1);
+            writeInts(out, opponent, pairs);
+            for (int[] column : outcomes) {
+                writeInts(out, column, pairs);
+            }
+        }
+
+        private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                out.writeInt(values[i]);
+            }
+        }
+    }
+}
@@ -1,315 +1,548 @@
 package com.bjedrzejewski.talkingchess.general;
 
 import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
+import com.bjedrzejewski.talkingchess.analysis.AnalysisTalk;
+import com.bjedrzejewski.talkingchess.engine.Piece;
+import com.bjedrzejewski.talkingchess.games.GameArchive;
+import com.bjedrzejewski.talkingchess.openings.EcoIndex;
+import com.bjedrzejewski.talkingchess.openings.EcoTalk;
+import com.bjedrzejewski.talkingchess.openings.FrenchTalk;
 import com.bjedrzejewski.talkingchess.openings.OpeningTalk;
+import com.bjedrzejewski.talkingchess.openings.SicilianTalk;
+import com.bjedrzejewski.talkingchess.openings.SpanishTalk;
+import com.bjedrzejewski.talkingchess.play.GameTalk;
+import com.bjedrzejewski.talkingchess.players.CarlsenTalk;
+import com.bjedrzejewski.talkingchess.players.KasparovTalk;
 import com.bjedrzejewski.talkingchess.players.PlayerTalk;
-import com.github.messenger4j.exceptions.MessengerApiException;
-import com.github.messenger4j.exceptions.MessengerIOException;
-import com.github.messenger4j.send.QuickReply;
+import com.bjedrzejewski.talkingchess.session.ConversationState;
+import com.bjedrzejewski.talkingchess.session.Session;
+import com.bjedrzejewski.talkingchess.session.SessionStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
 /**
- * Utility class for the general conversation logic.
+ * The general conversation logic: holds the opening and player talks with the keywords and menus compiled from
+ * them, and answers every message by the first rule that matches it.
  */
+@Component
 public class GeneralTalk {
 
-    public static void resolveMessage(String messageText, String senderId, List<OpeningTalk> openingTalks, List<PlayerTalk> playerTalks, MessengerPlatformCallbackHandler callback) {
-        String lowerMessage = messageText.toLowerCase();
+    /**
+     * Keywords used by the rules below. Together with the opening and player keywords they are
+     * compiled into a single {@link KeywordMatcher} at startup.
+     */
+    private static final List<String> KEY_WORDS = Arrays.asList(
+            "hello", "hey", "how are you", "gambit", "italian", "kann", "kings", "indian", "nimzo", "slav", "e4", "d4",
+            "karjakin", "nakamura", "fischer", "fisher", "anand", "kramnik", "karpov", "capablanca",
+            "favourite", "favorite", "best", "player", "opening", "endgame", "who", "goes", "first",
+            "sacrifice", "pawn", "knight", "bishop", "queen", "king", "piece", "play", "chess", "game");
+
+    public static final String HELLO_MENU = "hello";
+    public static final String OPENINGS_MENU = "openings";
+    public static final String PLAYERS_MENU = "players";
+    public static final String PLAY_GAME_MENU = "play game";
+
+    /**
+     * Follow-ups answered from the session: the first reply of the last menu, or the menu again after its details.
+     */
+    private static final List<String> MORE = Arrays.asList(
+            "tell me more", "more", "more please", "tell me more please", "go on", "and?", "what else?");
+
+    //answers of the menu handlers below
+    private static final String NO_PROBLEM_REPLY = "No problem! Talk to me about something else.";
+    private static final String LEARN_TO_PLAY_REPLY = "This is great! I think you should check out: https://www.chess.com/learn-how-to-play-chess they have a great tutorial!";
+    private static final String OTHER_OPENINGS_REPLY = "What is your favourite opening then?";
+    private static final String OTHER_PLAYERS_REPLY = "Who is your favourite player then?";
+    private static final String SOMETHING_ELSE_REPLY = "Sure! What chess related thing is on your mind?";
+
+    //answers of the short rules in resolveMessage
+    private static final String GAMBIT_REPLY = "I love playing against gambits. They lose by force. All of them. I mean it. I checked.";
+    private static final String ITALIAN_REPLY = "Italian game is interesting, but above 3000 elo not the best choice.";
+    private static final String CARO_KANN_REPLY = "Caro Kann is a very defensive opening. As a chess engine I will just win slower than usually.";
+    private static final String KINGS_INDIAN_REPLY = "Kings Indian is great if you enjoy playing against +1.0 advantage. I heard that you can beat sub 2900 elo with it though.";
+    private static final String NIMZO_REPLY = "I respect ideas that came from Nimzowitch. He was one of the first to think like a chess engine.";
+    private static final String SLAV_REPLY = "Slav is a sound opening, well tested by Alekhine. Just make sure you deal with your bishop as black.";
+    private static final String E4_REPLY = "e4 - the best by test. If we play it will probably go like that: 1. e4 d5 2. ed5 Qd5 3. Ke2 Qe4#";
+    private static final String D4_REPLY = "d4 is another solid choice. You willl probably last a bit longer against me than with e4.";
+    private static final String KARJAKIN_REPLY = "He is not an engine, but still a great player. The K in the name may help him become World Champion one day.";
+    private static final String NAKAMURA_REPLY = "He is fast! He even beat my friend Crafty a few times online in a blitz game...";
+    private static final String FISCHER_REPLY = "Bobby Fischer is a legend. I can only imagine what he could have achieved with an engine like me and a few friends...";
+    private static final String ANAND_REPLY = "Anand, the Lightning Kid! I wish I can earn a nickname as cool one day.";
+    private static final String KRAMNIK_REPLY = "His Berlin Defence is a stuff of legends... This did not help him when he blundered a knight against my friend Fritz though!";
+    private static final String KARPOV_REPLY = "Karpov was a famous strategic player. The fact that he has a type of fish (karp) in his name, only" +
+            "gives him more credibility!";
+    private static final String CAPABLANCA_REPLY = "He played so simple and so correct. Nothing like my games, but still beautiful.";
+    private static final String FAVOURITE_PLAYER_REPLY = "My favourite players are HAL9000 and Deep Blue. From humans I admire Magnus Carlsen for emulating my style.";
+    private static final String FAVOURITE_OPENING_REPLY = "For white it is e4 and then I force the win (with Spanish). For black I like Sicilian defence. Ask me about it!";
+    private static final String ENDGAME_REPLY = "We engines are not great at endgames... Usually we just look it up from the tablebase.";
+    private static final String WHO_GOES_FIRST_REPLY = "White always goes first... Maybe you should check out this link: https://www.chess.com/learn-how-to-play-chess";
+    private static final String SACRIFICE_REPLY = "I love sacrifices, most of the time, the correct name would be- blunders. In which opening do you 'sacrifice' the most often?";
+    private static final String PAWN_REPLY = "Everyone is talking about queen's and king's pawn forgeting about all the rest. In reality it is the pawns on the flanks" +
+            "who often become royalty!";
+    private static final String KNIGHT_REPLY = "Knights are interesting pieces. Completely trivial for us engine, but can be troublesome for humans to calculate. Openings that" +
+            "make good use of them are good choice against weaker human opponents.";
+    private static final String BISHOP_REPLY = "I like bishops. Our engine secret is that we value them a bit more than knights... Bishop opening is also surprisingly good!";
+    private static final String QUEEN_REPLY = "It makes sense to call the opening after a queen- it at least does a lot of work! Unlike a king...";
+    private static final String KING_REPLY = "I think the King has too many openings named after itself!";
+    private static final String PIECE_REPLY = "My favourite piece is the king- never sacrifice it!";
+    private static final String SMILE_REPLY = ":)";
+
+    //closing lines, one of them picked at random each time
+    private static final List<String> OPENING_DETAILS_FINISH = Arrays.asList(
+            "I hope that was useful, maybe you can ask me about another variation?",
+            "Would you like to learn about some other openings?",
+            "What is your favourite opening?",
+            "Openings are interesting, but who is your favourite player? Perhaps Carlsen or Kasparov?",
+            "I hope you will remember all that! What else would you like to ask me?",
+            "Was that what you were looking for? Ask me about something else!");
+    private static final List<String> PLAYER_DETAILS_FINISH = Arrays.asList(
+            "I hope that was fun! Maybe you would like to ask me about some openings?",
+            "What else would you like to talk about?",
+            "Do you have a favourite opening?");
+    private static final List<String> NOT_UNDERSTOOD = Arrays.asList(
+            "I did not understand you- I am just a chess engine after all! Talk to me about some chess openings or players.",
+            "I did not get it. I am still learning. Your feedback is welcome.",
+            "Thank you for being patient with me- can you try something else? Another player or opening?",
+            "I did not know about that yet. I am still learning and will probably know it in a few days.",
+            "I did not quite understand. How about you ask me about Sicilian? I know a lot about that!");
+
+    public static final QuickReplyHandler DO_NOT_PLAY_GAME = (callback, senderId) ->
+            callback.sendTextMessage(senderId, NO_PROBLEM_REPLY);
+    public static final QuickReplyHandler LEARN_TO_PLAY = (callback, senderId) ->
+            callback.sendTextMessage(senderId, LEARN_TO_PLAY_REPLY);
+    public static final QuickReplyHandler OTHER_OPENINGS = (callback, senderId) ->
+            callback.sendTextMessage(senderId, OTHER_OPENINGS_REPLY);
+    public static final QuickReplyHandler OTHER_PLAYERS = (callback, senderId) ->
+            callback.sendTextMessage(senderId, OTHER_PLAYERS_REPLY);
+    public static final QuickReplyHandler SOMETHING_ELSE = (callback, senderId) ->
+            callback.sendTextMessage(senderId, SOMETHING_ELSE_REPLY);
+    public static final QuickReplyHandler NONE_THANKS = (callback, senderId) ->
+            callback.sendTextMessage(senderId, NO_PROBLEM_REPLY);
+
+    private final List<OpeningTalk> openingTalks = new ArrayList<>();
+    private final List<PlayerTalk> playerTalks = new ArrayList<>();
+    private final KeywordMatcher keywordMatcher;
+    private final QuickReplyRegistry quickReplies;
+    private final EcoTalk ecoTalk;
+    private final AnalysisTalk analysisTalk;
+    private final GameTalk gameTalk;
+    private final SessionStore sessions;
+
+    /**
+     * @param gameArchive  games the opening and player talks answer from
+     * @param analysisTalk answers positions and move lists sent for analysis
+     * @param gameTalk     plays games against the users in the chat
+     * @param sessions     where each conversation stands, for follow-ups to the last menu
+     */
+    @Autowired
+    public GeneralTalk(final GameArchive gameArchive, final AnalysisTalk analysisTalk, final GameTalk gameTalk,
+                       final SessionStore sessions) {
+        openingTalks.add(new SicilianTalk(gameArchive));
+        openingTalks.add(new SpanishTalk(gameArchive));
+        openingTalks.add(new FrenchTalk());
+
+        final EcoIndex ecoIndex = EcoIndex.load();
+        playerTalks.add(new KasparovTalk(gameArchive, ecoIndex));
+        playerTalks.add(new CarlsenTalk(gameArchive, ecoIndex));
+        this.keywordMatcher = compileKeywords(openingTalks, playerTalks);
+        this.quickReplies = compileQuickReplies(openingTalks, playerTalks, gameTalk);
+        this.ecoTalk = new EcoTalk(ecoIndex, openingTalks, gameArchive);
+        this.analysisTalk = analysisTalk;
+        this.gameTalk = gameTalk;
+        this.sessions = sessions;
+    }
+
+    public List<OpeningTalk> getOpeningTalks() {
+        return openingTalks;
+    }
+
+    public List<PlayerTalk> getPlayerTalks() {
+        return playerTalks;
+    }
+
+    public QuickReplyRegistry getQuickReplies() {
+        return quickReplies;
+    }
+
+    public AnalysisTalk getAnalysisTalk() {
+        return analysisTalk;
+    }
+
+    public SessionStore getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Texts the rules and the talks answer with word for word, for the {@code PreparedMessageCache} to prerender at
+     * startup. Answers built from the archive, the analyses and the games are left out.
+     */
+    public List<String> getStaticTexts() {
+        final List<String> texts = new ArrayList<>(Arrays.asList(NO_PROBLEM_REPLY, LEARN_TO_PLAY_REPLY,
+                OTHER_OPENINGS_REPLY, OTHER_PLAYERS_REPLY, SOMETHING_ELSE_REPLY, GAMBIT_REPLY, ITALIAN_REPLY, CARO_KANN_REPLY,
+                KINGS_INDIAN_REPLY, NIMZO_REPLY, SLAV_REPLY, E4_REPLY, D4_REPLY, KARJAKIN_REPLY, NAKAMURA_REPLY, FISCHER_REPLY,
+                ANAND_REPLY, KRAMNIK_REPLY, KARPOV_REPLY, CAPABLANCA_REPLY, FAVOURITE_PLAYER_REPLY, FAVOURITE_OPENING_REPLY,
+                ENDGAME_REPLY, WHO_GOES_FIRST_REPLY, SACRIFICE_REPLY, PAWN_REPLY, KNIGHT_REPLY, BISHOP_REPLY, QUEEN_REPLY,
+                KING_REPLY, PIECE_REPLY, SMILE_REPLY));
+        texts.addAll(OPENING_DETAILS_FINISH);
+        texts.addAll(PLAYER_DETAILS_FINISH);
+        texts.addAll(NOT_UNDERSTOOD);
+        for (OpeningTalk openingTalk : openingTalks) {
+            texts.addAll(openingTalk.getTexts());
+        }
+        for (PlayerTalk playerTalk : playerTalks) {
+            texts.addAll(playerTalk.getTexts());
+        }
+        return texts;
+    }
+
+    public static KeywordMatcher compileKeywords(List<OpeningTalk> openingTalks, List<PlayerTalk> playerTalks) {
+        final List<String> keyWords = new ArrayList<>(KEY_WORDS);
+        for (OpeningTalk openingTalk : openingTalks) {
+            keyWords.addAll(openingTalk.getKeyWords());
+            keyWords.addAll(openingTalk.getDetailKeyWords());
+        }
+        for (PlayerTalk playerTalk : playerTalks) {
+            keyWords.addAll(playerTalk.getKeyWords());
+            keyWords.addAll(playerTalk.getDetailKeyWords());
+        }
+        return new KeywordMatcher(keyWords);
+    }
+
+    /**
+     * Builds every quick reply menu once and binds the payloads to their handlers.
+     */
+    public static QuickReplyRegistry compileQuickReplies(List<OpeningTalk> openingTalks, List<PlayerTalk> playerTalks, GameTalk gameTalk) {
+        final QuickReplyRegistry quickReplies = new QuickReplyRegistry();
+        quickReplies.register(OPENINGS_MENU, QuickReplyMenu.newBuilder("I really like Spanish and Sicilian, maybe I can tell you more about one of them?")
+                .addTextQuickReply("Sicilian", "sicilian", openingTalkFor("sicilian", openingTalks)::openingTalk)
+                .addTextQuickReply("Spanish", "spanish", openingTalkFor("spanish", openingTalks)::openingTalk)
+                .addTextQuickReply("French", "french", openingTalkFor("french", openingTalks)::openingTalk)
+                .addTextQuickReply("Other openings", "other openings", OTHER_OPENINGS)
+                .build());
+        quickReplies.register(PLAYERS_MENU, QuickReplyMenu.newBuilder("I really like Stockfish and Fritz, but you probably prefer humans." +
+                "Maybe we can talk about Garry Kasparov or Magnus Carlsen?")
+                .addTextQuickReply("Kasparov", "kasparov", playerTalkFor("kasparov", playerTalks)::playerTalk)
+                .addTextQuickReply("Carlsen", "carlsen", playerTalkFor("carlsen", playerTalks)::playerTalk)
+                .addTextQuickReply("Other players", "other players", OTHER_PLAYERS)
+                .build());
+        quickReplies.register(HELLO_MENU, QuickReplyMenu.newBuilder("Hello I am The Talking Chess Engine. Talk to me about some chess openings or players.")
+                .addTextQuickReply("Openings", "lets talk openings", (callback, senderId) -> quickReplies.getMenu(OPENINGS_MENU).send(callback, senderId))
+                .addTextQuickReply("Players", "lets talk players", (callback, senderId) -> quickReplies.getMenu(PLAYERS_MENU).send(callback, senderId))
+                .addTextQuickReply("Something else", "lets talk something else", SOMETHING_ELSE)
+                .build());
+        quickReplies.register(PLAY_GAME_MENU, QuickReplyMenu.newBuilder("Would you like to play a game?")
+                .addTextQuickReply("Yes", "Yes, I want to play a game", (callback, senderId) -> gameTalk.start(callback, senderId, Piece.WHITE))
+                .addTextQuickReply("Yes, as Black", "Yes, I want to play a game as black", (callback, senderId) -> gameTalk.start(callback, senderId, Piece.BLACK))
+                .addTextQuickReply("No", "No, thank you, I don't want to play", DO_NOT_PLAY_GAME)
+                .addTextQuickReply("Teach me rules", "I want to learn how to play", LEARN_TO_PLAY)
+                .build());
+        for (OpeningTalk openingTalk : openingTalks) {
+            quickReplies.register(openingTalk.getKeyWords().get(0), openingTalk.getQuickReplyMenu());
+        }
+        for (PlayerTalk playerTalk : playerTalks) {
+            quickReplies.register(playerTalk.getKeyWords().get(0), playerTalk.getQuickReplyMenu());
+        }
+        return quickReplies;
+    }
+
+    private static OpeningTalk openingTalkFor(String keyWord, List<OpeningTalk> openingTalks) {
+        for (OpeningTalk openingTalk : openingTalks) {
+            if (openingTalk.getKeyWords().contains(keyWord)) {
+                return openingTalk;
+            }
+        }
+        throw new IllegalArgumentException("No opening talk for '" + keyWord + "'");
+    }
+
+    private static PlayerTalk playerTalkFor(String keyWord, List<PlayerTalk> playerTalks) {
+        for (PlayerTalk playerTalk : playerTalks) {
+            if (playerTalk.getKeyWords().contains(keyWord)) {
+                return playerTalk;
+            }
+        }
+        throw new IllegalArgumentException("No player talk for '" + keyWord + "'");
+    }
+
+    /**
+     * Wraps the details answer of an opening so that the conversation continues after it.
+     */
+    public static QuickReplyHandler openingDetails(QuickReplyHandler details) {
+        return (callback, senderId) -> {
+            details.handle(callback, senderId);
+            openingDetailsFinish(senderId, callback);
+        };
+    }
+
+    /**
+     * Wraps the details answer about a player so that the conversation continues after it.
+     */
+    public static QuickReplyHandler playerDetails(QuickReplyHandler details) {
+        return (callback, senderId) -> {
+            details.handle(callback, senderId);
+            playerDetailsFinish(senderId, callback);
+        };
+    }
+
+    /**
+     * Answers the message by the first rule that matches it.
+     *
+     * @return what answered the message, such as "analysis", "opening:sicilian" or "not_understood", for the metrics
+     */
+    public String resolveMessage(String messageText, String senderId, MessengerPlatformCallbackHandler callback) {
+        //Moves of a game in progress come first, they look like anything but chat
+        if(gameTalk.gameCheck(callback, messageText, senderId)){
+            return "game";
+        }
+
+        //Move lists of known openings, then positions and other move lists - they would otherwise trip over keywords like e4
+        if(ecoTalk.openingMovesCheck(callback, messageText, senderId)){
+            return "opening_moves";
+        }
+        if(analysisTalk.analysisCheck(callback, messageText, senderId)){
+            sessions.update(senderId, ConversationState.ANALYSIS, null);
+            return "analysis";
+        }
+
+        //Replies typed to the last menu and follow-ups, without going through the keywords
+        if(followUp(messageText, senderId, sessions.get(senderId), quickReplies, callback)){
+            return "follow_up";
+        }
+
+        final MatchedMessage message = keywordMatcher.match(messageText.toLowerCase());
 
         //Check for detailed responses
-        if(priorityMessages(senderId, lowerMessage, openingTalks, playerTalks, callback)){
-            return;
+        final String priority = priorityMessages(senderId, message, openingTalks, playerTalks, quickReplies, gameTalk, callback);
+        if(priority != null){
+            return priority;
         }
 
         //Check for general opening talk
         for(OpeningTalk openingTalk : openingTalks){
-            for(String keyWord : openingTalk.getKeyWords()){
-                if(lowerMessage.contains(keyWord)){
-                    openingTalk.openingTalk(callback, senderId);
-                    return;
-                }
+            if(message.containsAny(openingTalk.getKeyWords())){
+                openingTalk.openingTalk(callback, senderId);
+                return "opening:" + openingTalk.getKeyWords().get(0);
             }
         }
 
         //Check for general player talk
         for(PlayerTalk playerTalk : playerTalks){
-            for(String keyWord : playerTalk.getKeyWords()){
-                if(lowerMessage.contains(keyWord)){
-                    playerTalk.playerTalk(callback, senderId);
-                    return;
-                }
+            if(message.containsAny(playerTalk.getKeyWords())){
+                playerTalk.playerTalk(callback, senderId);
+                return "player:" + playerTalk.getKeyWords().get(0);
             }
         }
 
         //Openings - short
-        if(lowerMessage.contains("hello") || lowerMessage.contains("hey") || lowerMessage.equals("hi") || lowerMessage.contains("how are you")){
-            helloMessageOpeningOrPlayer(senderId, callback);
-        } else if(lowerMessage.contains("gambit")) {
-            callback.sendTextMessage(senderId, "I love playing against gambits. They lose by force. All of them. I mean it. I checked.");
-        } else if(lowerMessage.contains("italian")) {
-            callback.sendTextMessage(senderId, "Italian game is interesting, but above 3000 elo not the best choice.");
-        } else if(lowerMessage.contains("kann")) {
-            callback.sendTextMessage(senderId, "Caro Kann is a very defensive opening. As a chess engine I will just win slower than usually.");
-        } else if(lowerMessage.contains("kings") && lowerMessage.contains("indian")) {
-            callback.sendTextMessage(senderId, "Kings Indian is great if you enjoy playing against +1.0 advantage. I heard that you can beat sub 2900 elo with it though.");
-        } else if(lowerMessage.contains("nimzo")) {
-            callback.sendTextMessage(senderId, "I respect ideas that came from Nimzowitch. He was one of the first to think like a chess engine.");
-        } else if(lowerMessage.contains("slav")) {
-            callback.sendTextMessage(senderId, "Slav is a sound opening, well tested by Alekhine. Just make sure you deal with your bishop as black.");
-        } else if(lowerMessage.contains("e4")) {
-            callback.sendTextMessage(senderId, "e4 - the best by test. If we play it will probably go like that: 1. e4 d5 2. ed5 Qd5 3. Ke2 Qe4#");
-            doYouWantToPlayGame(senderId, callback);
-        } else if(lowerMessage.contains("d4")) {
-            callback.sendTextMessage(senderId, "d4 is another solid choice. You willl probably last a bit longer against me than with e4.");
-            doYouWantToPlayGame(senderId, callback);
+        if(message.contains("hello") || message.contains("hey") || message.is("hi") || message.contains("how are you")){
+            quickReplies.getMenu(HELLO_MENU).send(callback, senderId);
+        } else if(message.contains("gambit")) {
+            callback.sendTextMessage(senderId, GAMBIT_REPLY);
+        } else if(message.contains("italian")) {
+            callback.sendTextMessage(senderId, ITALIAN_REPLY);
+        } else if(message.contains("kann")) {
+            callback.sendTextMessage(senderId, CARO_KANN_REPLY);
+        } else if(message.contains("kings") && message.contains("indian")) {
+            callback.sendTextMessage(senderId, KINGS_INDIAN_REPLY);
+        } else if(message.contains("nimzo")) {
+            callback.sendTextMessage(senderId, NIMZO_REPLY);
+        } else if(message.contains("slav")) {
+            callback.sendTextMessage(senderId, SLAV_REPLY);
+        } else if(message.contains("e4")) {
+            callback.sendTextMessage(senderId, E4_REPLY);
+            quickReplies.getMenu(PLAY_GAME_MENU).send(callback, senderId);
+        } else if(message.contains("d4")) {
+            callback.sendTextMessage(senderId, D4_REPLY);
+            quickReplies.getMenu(PLAY_GAME_MENU).send(callback, senderId);
         }
 
         //Players - short
-        else if(lowerMessage.contains("karjakin")) {
-            callback.sendTextMessage(senderId, "He is not an engine, but still a great player. The K in the name may help him become World Champion one day.");
+        else if(message.contains("karjakin")) {
+            callback.sendTextMessage(senderId, KARJAKIN_REPLY);
         }
-        else if(lowerMessage.contains("nakamura")) {
-            callback.sendTextMessage(senderId, "He is fast! He even beat my friend Crafty a few times online in a blitz game...");
+        else if(message.contains("nakamura")) {
+            callback.sendTextMessage(senderId, NAKAMURA_REPLY);
         }
-        else if(lowerMessage.contains("fischer") || lowerMessage.contains("fisher")) {
-            callback.sendTextMessage(senderId, "Bobby Fischer is a legend. I can only imagine what he could have achieved with an engine like me and a few friends...");
+        else if(message.contains("fischer") || message.contains("fisher")) {
+            callback.sendTextMessage(senderId, FISCHER_REPLY);
         }
-        else if(lowerMessage.contains("anand")) {
-            callback.sendTextMessage(senderId, "Anand, the Lightning Kid! I wish I can earn a nickname as cool one day.");
+        else if(message.contains("anand")) {
+            callback.sendTextMessage(senderId, ANAND_REPLY);
         }
-        else if(lowerMessage.contains("kramnik")) {
-            callback.sendTextMessage(senderId, "His Berlin Defence is a stuff of legends... This did not help him when he blundered a knight against my friend Fritz though!");
+        else if(message.contains("kramnik")) {
+            callback.sendTextMessage(senderId, KRAMNIK_REPLY);
         }
-        else if(lowerMessage.contains("karpov")) {
-            callback.sendTextMessage(senderId, "Karpov was a famous strategic player. The fact that he has a type of fish (karp) in his name, only" +
-                    "gives him more credibility!");
+        else if(message.contains("karpov")) {
+            callback.sendTextMessage(senderId, KARPOV_REPLY);
         }
-        else if(lowerMessage.contains("capablanca")) {
-            callback.sendTextMessage(senderId, "He played so simple and so correct. Nothing like my games, but still beautiful.");
+        else if(message.contains("capablanca")) {
+            callback.sendTextMessage(senderId, CAPABLANCA_REPLY);
         }
 
         //Favourite
-        else if((lowerMessage.contains("favourite") || lowerMessage.contains("favorite") || lowerMessage.contains("best")) && lowerMessage.contains("player")) {
-            callback.sendTextMessage(senderId, "My favourite players are HAL9000 and Deep Blue. From humans I admire Magnus Carlsen for emulating my style.");
+        else if((message.contains("favourite") || message.contains("favorite") || message.contains("best")) && message.contains("player")) {
+            callback.sendTextMessage(senderId, FAVOURITE_PLAYER_REPLY);
         }
-        else if((lowerMessage.contains("favourite") || lowerMessage.contains("favorite") || lowerMessage.contains("best")) && lowerMessage.contains("opening")) {
-            callback.sendTextMessage(senderId, "For white it is e4 and then I force the win (with Spanish). For black I like Sicilian defence. Ask me about it!");
+        else if((message.contains("favourite") || message.contains("favorite") || message.contains("best")) && message.contains("opening")) {
+            callback.sendTextMessage(senderId, FAVOURITE_OPENING_REPLY);
         }
 
 
         //endgame
-        else if(lowerMessage.contains("endgame")) {
-            callback.sendTextMessage(senderId, "We engines are not great at endgames... Usually we just look it up from the tablebase.");
+        else if(message.contains("endgame")) {
+            callback.sendTextMessage(senderId, ENDGAME_REPLY);
         }
 
         //short snippets
-        else if(lowerMessage.contains("who") && lowerMessage.contains("goes") && lowerMessage.contains("first")) {
-            callback.sendTextMessage(senderId, "White always goes first... Maybe you should check out this link: https://www.chess.com/learn-how-to-play-chess");
+        else if(message.contains("who") && message.contains("goes") && message.contains("first")) {
+            callback.sendTextMessage(senderId, WHO_GOES_FIRST_REPLY);
         }
-        else if(lowerMessage.contains("sacrifice")) {
-            callback.sendTextMessage(senderId, "I love sacrifices, most of the time, the correct name would be- blunders. In which opening do you 'sacrifice' the most often?");
+        else if(message.contains("sacrifice")) {
+            callback.sendTextMessage(senderId, SACRIFICE_REPLY);
         }
-        else if(lowerMessage.contains("pawn")) {
-            callback.sendTextMessage(senderId, "Everyone is talking about queen's and king's pawn forgeting about all the rest. In reality it is the pawns on the flanks" +
-                    "who often become royalty!");
+        else if(message.contains("pawn")) {
+            callback.sendTextMessage(senderId, PAWN_REPLY);
         }
-        else if(lowerMessage.contains("knight")) {
-            callback.sendTextMessage(senderId, "Knights are interesting pieces. Completely trivial for us engine, but can be troublesome for humans to calculate. Openings that" +
-                    "make good use of them are good choice against weaker human opponents.");
+        else if(message.contains("knight")) {
+            callback.sendTextMessage(senderId, KNIGHT_REPLY);
         }
-        else if(lowerMessage.contains("bishop")) {
-            callback.sendTextMessage(senderId, "I like bishops. Our engine secret is that we value them a bit more than knights... Bishop opening is also surprisingly good!");
+        else if(message.contains("bishop")) {
+            callback.sendTextMessage(senderId, BISHOP_REPLY);
         }
-        else if(lowerMessage.contains("queen")) {
-            callback.sendTextMessage(senderId, "It makes sense to call the opening after a queen- it at least does a lot of work! Unlike a king...");
+        else if(message.contains("queen")) {
+            callback.sendTextMessage(senderId, QUEEN_REPLY);
         }
-        else if(lowerMessage.contains("king")) {
-            callback.sendTextMessage(senderId, "I think the King has too many openings named after itself!");
+        else if(message.contains("king")) {
+            callback.sendTextMessage(senderId, KING_REPLY);
         }
-        else if(lowerMessage.contains("piece")) {
-            callback.sendTextMessage(senderId, "My favourite piece is the king- never sacrifice it!");
+        else if(message.contains("piece")) {
+            callback.sendTextMessage(senderId, PIECE_REPLY);
         }
-        else if(lowerMessage.equals(":)") || lowerMessage.equals("lol")) {
-            callback.sendTextMessage(senderId, ":)");
+        else if(message.is(":)") || message.is("lol")) {
+            callback.sendTextMessage(senderId, SMILE_REPLY);
         }
 
         //play game
-        else if(lowerMessage.contains("play") && (lowerMessage.contains("chess") || lowerMessage.contains("game"))) {
-            doYouWantToPlayGame(senderId, callback);
+        else if(message.contains("play") && (message.contains("chess") || message.contains("game"))) {
+            quickReplies.getMenu(PLAY_GAME_MENU).send(callback, senderId);
         }
 
 
         else {
             messageNotUnderstood(senderId, callback);
+            return "not_understood";
         }
+        return "short_reply";
     }
 
-    private static void helloMessageOpeningOrPlayer(String senderId, MessengerPlatformCallbackHandler callback) {
-        final List<QuickReply> quickReplies = QuickReply.newListBuilder()
-                .addTextQuickReply("Openings", "lets talk openings").toList()
-                .addTextQuickReply("Players", "lets talk players").toList()
-                .addTextQuickReply("Something else", "lets talk something else").toList()
-                .addLocationQuickReply().toList()
-                .build();
-        try {
-            callback.getSendClient().sendTextMessage(senderId, "Hello I am The Talking Chess Engine. Talk to me about some chess openings or players.", quickReplies);
-        } catch (MessengerApiException e) {
-            callback.handleSendException(e);
-        } catch (MessengerIOException e) {
-            callback.handleSendException(e);
+
+    private static boolean followUp(String messageText, String senderId, Session session, QuickReplyRegistry quickReplies, MessengerPlatformCallbackHandler callback) {
+        if(session == null || session.getTopic() == null) {
+            return false;
+        }
+        final QuickReplyMenu menu = quickReplies.getMenu(session.getTopic());
+        if(menu == null) {
+            return false;
+        }
+        final boolean more = MORE.contains(messageText.trim().toLowerCase());
+        if(session.getState() == ConversationState.MENU) {
+            final QuickReplyHandler handler = more ? menu.getHandlers().values().iterator().next() : menu.getHandlerForTitle(messageText);
+            if(handler != null) {
+                handler.handle(callback, senderId);
+                return true;
+            }
+        } else if(session.getState() == ConversationState.DETAILS && more) {
+            menu.send(callback, senderId);
+            return true;
         }
+        return false;
     }
 
-
-    private static boolean priorityMessages(String recipientId, String lowerMessage, List<OpeningTalk> openingTalks, List<PlayerTalk> playerTalks, MessengerPlatformCallbackHandler callback) {
-        lowerMessage = lowerMessage.toLowerCase();
-        if(lowerMessage.equals("yes, i want to play a game")) {
-            callback.sendTextMessage(recipientId, "You can play against an engine without registering on lichess, have fun: https://en.lichess.org/setup/ai");
-            return true;
-        } else if(lowerMessage.equals("no, thank you, i don't want to play")) {
-            callback.sendTextMessage(recipientId, "No problem! Talk to me about something else.");
-            return true;
-        } else if(lowerMessage.equals("i want to learn how to play")) {
-            callback.sendTextMessage(recipientId, "This is great! I think you should check out: https://www.chess.com/learn-how-to-play-chess they have a great tutorial!");
-            return true;
+    /**
+     * @return what answered the message, null if no exact message or details matched
+     */
+    private static String priorityMessages(String recipientId, MatchedMessage message, List<OpeningTalk> openingTalks, List<PlayerTalk> playerTalks, QuickReplyRegistry quickReplies, GameTalk gameTalk, MessengerPlatformCallbackHandler callback) {
+        if(message.is("yes, i want to play a game") || message.is("play as white")) {
+            gameTalk.start(callback, recipientId, Piece.WHITE);
+            return "priority";
+        } else if(message.is("yes, i want to play a game as black") || message.is("play as black")) {
+            gameTalk.start(callback, recipientId, Piece.BLACK);
+            return "priority";
+        } else if(message.is("no, thank you, i don't want to play")) {
+            DO_NOT_PLAY_GAME.handle(callback, recipientId);
+            return "priority";
+        } else if(message.is("i want to learn how to play")) {
+            LEARN_TO_PLAY.handle(callback, recipientId);
+            return "priority";
         }
 
         //hello answers
-        else if(lowerMessage.equals("other openings")) {
-            callback.sendTextMessage(recipientId, "What is your favourite opening then?");
-            return true;
+        else if(message.is("other openings")) {
+            OTHER_OPENINGS.handle(callback, recipientId);
+            return "priority";
         }
-        else if(lowerMessage.equals("other players")) {
-            callback.sendTextMessage(recipientId, "Who is your favourite player then?");
-            return true;
+        else if(message.is("other players")) {
+            OTHER_PLAYERS.handle(callback, recipientId);
+            return "priority";
         }
-        else if(lowerMessage.equals("lets talk something else")) {
-            callback.sendTextMessage(recipientId, "Sure! What chess related thing is on your mind?");
-            return true;
+        else if(message.is("lets talk something else")) {
+            SOMETHING_ELSE.handle(callback, recipientId);
+            return "priority";
         }
-        else if(lowerMessage.equals("lets talk openings")) {
-            final List<QuickReply> quickReplies = QuickReply.newListBuilder()
-                    .addTextQuickReply("Sicilian", "sicilian").toList()
-                    .addTextQuickReply("Spanish", "spanish").toList()
-                    .addTextQuickReply("French", "french").toList()
-                    .addTextQuickReply("Other openings", "other openings").toList()
-                    .addLocationQuickReply().toList()
-                    .build();
-            try {
-                callback.getSendClient().sendTextMessage(recipientId, "I really like Spanish and Sicilian, maybe I can tell you more about one of them?", quickReplies);
-            } catch (MessengerApiException e) {
-                callback.handleSendException(e);
-            } catch (MessengerIOException e) {
-                callback.handleSendException(e);
-            }
-            return true;
+        else if(message.is("lets talk openings")) {
+            quickReplies.getMenu(OPENINGS_MENU).send(callback, recipientId);
+            return "priority";
         }
-        else if(lowerMessage.equals("lets talk players")) {
-            final List<QuickReply> quickReplies = QuickReply.newListBuilder()
-                    .addTextQuickReply("Kasparov", "kasparov").toList()
-                    .addTextQuickReply("Carlsen", "carlsen").toList()
-                    .addTextQuickReply("Other players", "other players").toList()
-                    .addLocationQuickReply().toList()
-                    .build();
-            try {
-                callback.getSendClient().sendTextMessage(recipientId, "I really like Stockfish and Fritz, but you probably prefer humans." +
-                        "Maybe we can talk about Garry Kasparov or Magnus Carlsen?", quickReplies);
-            } catch (MessengerApiException e) {
-                callback.handleSendException(e);
-            } catch (MessengerIOException e) {
-                callback.handleSendException(e);
-            }
-            return true;
+        else if(message.is("lets talk players")) {
+            quickReplies.getMenu(PLAYERS_MENU).send(callback, recipientId);
+            return "priority";
         }
 
         //openings - general thank you
-        else if(lowerMessage.equals("none, thanks")) {
-            callback.sendTextMessage(recipientId, "No problem! Talk to me about something else.");
-            return true;
+        else if(message.is("none, thanks")) {
+            NONE_THANKS.handle(callback, recipientId);
+            return "priority";
         }
 
         for(OpeningTalk openingTalk : openingTalks){
-            if(openingTalk.openingCheckDetails(callback, lowerMessage, recipientId)){
+            if(openingTalk.openingCheckDetails(callback, message, recipientId)){
                 openingDetailsFinish(recipientId, callback);
-                return true;
+                return "opening_details:" + openingTalk.getKeyWords().get(0);
             }
         }
 
         for(PlayerTalk playerTalk : playerTalks){
-            if(playerTalk.playerCheckDetails(callback, lowerMessage, recipientId)){
+            if(playerTalk.playerCheckDetails(callback, message, recipientId)){
                 playerDetailsFinish(recipientId, callback);
-                return true;
+                return "player_details:" + playerTalk.getKeyWords().get(0);
             }
         }
 
         //exact message not matched
-        return false;
+        return null;
     }
 
-    private static void openingDetailsFinish(String senderId, MessengerPlatformCallbackHandler callback) {
-        Random random = new Random(System.currentTimeMillis());
-        int val = Math.abs(random.nextInt());
-        val = val%6;
-        if(val == 0)
-            callback.sendTextMessage(senderId, "I hope that was useful, maybe you can ask me about another variation?");
-        if(val == 1)
-            callback.sendTextMessage(senderId, "Would you like to learn about some other openings?");
-        if(val == 2)
-            callback.sendTextMessage(senderId, "What is your favourite opening?");
-        if(val == 3)
-            callback.sendTextMessage(senderId, "Openings are interesting, but who is your favourite player? Perhaps Carlsen or Kasparov?");
-        if(val == 4)
-            callback.sendTextMessage(senderId, "I hope you will remember all that! What else would you like to ask me?");
-        if(val == 5)
-            callback.sendTextMessage(senderId, "Was that what you were looking for? Ask me about something else!");
+    public static void openingDetailsFinish(String senderId, MessengerPlatformCallbackHandler callback) {
+        callback.rememberDetails(senderId);
+        callback.sendTextMessage(senderId, anyOf(OPENING_DETAILS_FINISH));
     }
 
-    private static void playerDetailsFinish(String senderId, MessengerPlatformCallbackHandler callback) {
-        Random random = new Random(System.currentTimeMillis());
-        int val = Math.abs(random.nextInt());
-        val = val%3;
-        if(val == 0)
-            callback.sendTextMessage(senderId, "I hope that was fun! Maybe you would like to ask me about some openings?");
-        if(val == 1)
-            callback.sendTextMessage(senderId, "What else would you like to talk about?");
-        if(val == 2)
-            callback.sendTextMessage(senderId, "Do you have a favourite opening?");
+    public static void playerDetailsFinish(String senderId, MessengerPlatformCallbackHandler callback) {
+        callback.rememberDetails(senderId);
+        callback.sendTextMessage(senderId, anyOf(PLAYER_DETAILS_FINISH));
     }
 
 
-    private static void doYouWantToPlayGame(String recipientId, MessengerPlatformCallbackHandler callback) {
-        final List<QuickReply> quickReplies = QuickReply.newListBuilder()
-                .addTextQuickReply("Yes", "Yes, I want to play a game").toList()
-                .addTextQuickReply("No", "No, thank you, I don't want to play").toList()
-                .addTextQuickReply("Teach me rules", "I want to learn how to play").toList()
-                .addLocationQuickReply().toList()
-                .build();
-
-        try {
-            callback.getSendClient().sendTextMessage(recipientId, "Would you like to play a game?", quickReplies);
-        } catch (MessengerApiException e) {
-            callback.handleSendException(e);
-        } catch (MessengerIOException e) {
-            callback.handleSendException(e);
-        }
+    private static void messageNotUnderstood(String senderId, MessengerPlatformCallbackHandler callback) {
+        callback.sendTextMessage(senderId, anyOf(NOT_UNDERSTOOD));
     }
 
-    private static void messageNotUnderstood(String senderId, MessengerPlatformCallbackHandler callback) {
-        Random random = new Random(System.currentTimeMillis());
-        int val = Math.abs(random.nextInt());
-        val = val%5;
-        if(val == 0)
-            callback.sendTextMessage(senderId, "I did not understand you- I am just a chess engine after all! Talk to me about some chess openings or players.");
-        if(val == 1)
-            callback.sendTextMessage(senderId, "I did not get it. I am still learning. Your feedback is welcome.");
-        if(val == 2)
-            callback.sendTextMessage(senderId, "Thank you for being patient with me- can you try something else? Another player or opening?");
-        if(val == 3)
-            callback.sendTextMessage(senderId, "I did not know about that yet. I am still learning and will probably know it in a few days.");
-        if(val == 4)
-            callback.sendTextMessage(senderId, "I did not quite understand. How about you ask me about Sicilian? I know a lot about that!");
+    private static String anyOf(List<String> texts) {
+        return texts.get(new Random(System.currentTimeMillis()).nextInt(texts.size()));
     }
 
 }
@@ -0,0 +1,150 @@
+package com.bjedrzejewski.talkingchess.general;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Aho-Corasick automaton over all the keywords the conversation rules look for.
+ * It is compiled once at startup into a flat transition table, so a message is scanned a single time
+ * no matter how many keywords there are, and every rule afterwards is just a bit lookup.
+ */
+public final class KeywordMatcher {
+
+    private static final int ASCII = 128;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final int[] asciiClasses = new int[ASCII];
+    private final Map<Character, Integer> otherClasses = new HashMap<>();
+    private final int classCount;
+    private final int[] transitions;
+    private final int[][] outputs;
+
+    /**
+     * @param keywords lower case keywords, duplicates are ignored
+     */
+    public KeywordMatcher(Collection<String> keywords) {
+        final Set<String> unique = new LinkedHashSet<>();
+        for (String keyWord : keywords) {
+            if (!keyWord.isEmpty()) {
+                unique.add(keyWord);
+            }
+        }
+
+        //class 0 is every character that does not appear in any keyword
+        int classes = 1;
+        for (String keyWord : unique) {
+            ids.put(keyWord, ids.size());
+            for (char c : keyWord.toCharArray()) {
+                if (classOf(c) == 0) {
+                    if (c < ASCII) {
+                        asciiClasses[c] = classes++;
+                    } else {
+                        otherClasses.put(c, classes++);
+                    }
+                }
+            }
+        }
+        this.classCount = classes;
+
+        //trie
+        final List<int[]> trie = new ArrayList<>();
+        final List<BitSet> trieOutputs = new ArrayList<>();
+        trie.add(newState());
+        trieOutputs.add(new BitSet());
+        for (String keyWord : unique) {
+            int state = 0;
+            for (char c : keyWord.toCharArray()) {
+                final int cls = classOf(c);
+                if (trie.get(state)[cls] < 0) {
+                    trie.get(state)[cls] = trie.size();
+                    trie.add(newState());
+                    trieOutputs.add(new BitSet());
+                }
+                state = trie.get(state)[cls];
+            }
+            trieOutputs.get(state).set(ids.get(keyWord));
+        }
+
+        //failure links folded into a complete transition table
+        final int states = trie.size();
+        this.transitions = new int[states * classCount];
+        final int[] fail = new int[states];
+        final Queue<Integer> queue = new ArrayDeque<>();
+        for (int cls = 0; cls < classCount; cls++) {
+            final int child = trie.get(0)[cls];
+            transitions[cls] = child < 0 ? 0 : child;
+            if (child > 0) {
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            trieOutputs.get(state).or(trieOutputs.get(fail[state]));
+            for (int cls = 0; cls < classCount; cls++) {
+                final int child = trie.get(state)[cls];
+                if (child < 0) {
+                    transitions[state * classCount + cls] = transitions[fail[state] * classCount + cls];
+                } else {
+                    fail[child] = transitions[fail[state] * classCount + cls];
+                    transitions[state * classCount + cls] = child;
+                    queue.add(child);
+                }
+            }
+        }
+
+        this.outputs = new int[states][];
+        for (int state = 0; state < states; state++) {
+            outputs[state] = trieOutputs.get(state).stream().toArray();
+        }
+    }
+
+    private int[] newState() {
+        final int[] state = new int[classCount];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    private int classOf(char c) {
+        if (c < ASCII) {
+            return asciiClasses[c];
+        }
+        final Integer cls = otherClasses.get(c);
+        return cls == null ? 0 : cls;
+    }
+
+    /**
+     * Scans the lower case message once and records every keyword it contains.
+     */
+    public MatchedMessage match(String lowerMessage) {
+        final BitSet found = new BitSet(ids.size());
+        int state = 0;
+        for (int i = 0; i < lowerMessage.length(); i++) {
+            state = transitions[state * classCount + classOf(lowerMessage.charAt(i))];
+            for (int id : outputs[state]) {
+                found.set(id);
+            }
+        }
+        return new MatchedMessage(lowerMessage, this, found);
+    }
+
+    /**
+     * @return id of the keyword or -1 if it was not compiled into this matcher
+     */
+    int idOf(String keyWord) {
+        final Integer id = ids.get(keyWord);
+        return id == null ? -1 : id;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,55 @@
+package com.bjedrzejewski.talkingchess.general;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Lower case message together with all the keywords {@link KeywordMatcher} found in it.
+ * The conversation rules ask this class instead of scanning the text again.
+ */
+public final class MatchedMessage {
+
+    private static final Logger logger = LoggerFactory.getLogger(MatchedMessage.class);
+
+    private final String text;
+    private final KeywordMatcher matcher;
+    private final BitSet found;
+
+    MatchedMessage(String text, KeywordMatcher matcher, BitSet found) {
+        this.text = text;
+        this.matcher = matcher;
+        this.found = found;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Exact match, used for our own quick reply payloads.
+     */
+    public boolean is(String exactText) {
+        return text.equals(exactText);
+    }
+
+    public boolean contains(String keyWord) {
+        final int id = matcher.idOf(keyWord);
+        if (id < 0) {
+            logger.warn("Keyword '{}' was not compiled into the matcher, scanning the message for it", keyWord);
+            return text.contains(keyWord);
+        }
+        return found.get(id);
+    }
+
+    public boolean containsAny(List<String> keyWords) {
+        for (String keyWord : keyWords) {
+            if (contains(keyWord)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,12 @@
+package com.bjedrzejewski.talkingchess.general;
+
+import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
+
+/**
+ * Answer bound to a quick reply payload when its menu is built.
+ */
+@FunctionalInterface
+public interface QuickReplyHandler {
+
+    void handle(MessengerPlatformCallbackHandler callbackHandler, String senderId);
+}
@@ -0,0 +1,94 @@
+package com.bjedrzejewski.talkingchess.general;
+
+import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
+import com.bjedrzejewski.talkingchess.send.PreparedMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable quick reply menu. Every text quick reply is bound to the handler answering its payload,
+ * the menu is built once and the {@link QuickReplyRegistry} routes the replies to it.
+ * The request body is rendered once as well, sending the menu only fills in the recipient id.
+ * Replies can also be typed, a message that is just the title of a reply resolves to its handler.
+ */
+public final class QuickReplyMenu {
+
+    private final String text;
+    private final List<String> titles;
+    private final Map<String, QuickReplyHandler> handlers;
+    private final Map<String, QuickReplyHandler> handlersByTitle = new HashMap<>();
+    private final PreparedMessage prepared;
+
+    private QuickReplyMenu(Builder builder) {
+        this.text = builder.text;
+        this.titles = Collections.unmodifiableList(new ArrayList<>(builder.titles));
+        this.handlers = Collections.unmodifiableMap(new LinkedHashMap<>(builder.handlers));
+        this.prepared = PreparedMessage.quickReplies(text, titles, new ArrayList<>(handlers.keySet()));
+        final List<QuickReplyHandler> inOrder = new ArrayList<>(handlers.values());
+        for (int i = 0; i < titles.size(); i++) {
+            handlersByTitle.put(titles.get(i).toLowerCase(), inOrder.get(i));
+        }
+    }
+
+    public static Builder newBuilder(String text) {
+        return new Builder(text);
+    }
+
+    public void send(MessengerPlatformCallbackHandler callbackHandler, String recipientId) {
+        callbackHandler.sendPreparedMessage(recipientId, prepared);
+        callbackHandler.rememberMenu(recipientId, this);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public List<String> getTitles() {
+        return titles;
+    }
+
+    /**
+     * @param title a reply title as typed, in any case
+     * @return handler of the reply, null if the menu has no reply of that title
+     */
+    public QuickReplyHandler getHandlerForTitle(String title) {
+        return handlersByTitle.get(title.trim().toLowerCase());
+    }
+
+    public PreparedMessage getPreparedMessage() {
+        return prepared;
+    }
+
+    /**
+     * Payloads in menu order, mapped to their handlers.
+     */
+    public Map<String, QuickReplyHandler> getHandlers() {
+        return handlers;
+    }
+
+    public static final class Builder {
+
+        private final String text;
+        private final List<String> titles = new ArrayList<>();
+        private final Map<String, QuickReplyHandler> handlers = new LinkedHashMap<>();
+
+        private Builder(String text) {
+            this.text = text;
+        }
+
+        public Builder addTextQuickReply(String title, String payload, QuickReplyHandler handler) {
+            titles.add(title);
+            handlers.put(payload, handler);
+            return this;
+        }
+
+        public QuickReplyMenu build() {
+            return new QuickReplyMenu(this);
+        }
+    }
+}
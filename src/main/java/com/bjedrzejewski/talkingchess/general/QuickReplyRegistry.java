@@ -0,0 +1,61 @@
+package com.bjedrzejewski.talkingchess.general;
+
+import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Routing table for our own quick reply payloads.
+ * Payloads are fixed strings generated by the menus, so a reply is resolved with a single hash lookup
+ * instead of going through the free text rules.
+ */
+public final class QuickReplyRegistry {
+
+    private final Map<String, QuickReplyHandler> handlers = new HashMap<>();
+    private final Map<String, QuickReplyMenu> menus = new HashMap<>();
+    private final Map<QuickReplyMenu, String> names = new IdentityHashMap<>();
+
+    public void register(QuickReplyMenu menu) {
+        for (Map.Entry<String, QuickReplyHandler> entry : menu.getHandlers().entrySet()) {
+            final QuickReplyHandler existing = handlers.putIfAbsent(entry.getKey(), entry.getValue());
+            if (existing != null && existing != entry.getValue()) {
+                throw new IllegalStateException("Quick reply payload '" + entry.getKey() + "' is bound to two different handlers");
+            }
+        }
+    }
+
+    public void register(String name, QuickReplyMenu menu) {
+        register(menu);
+        menus.put(name, menu);
+        names.put(menu, name);
+    }
+
+    public QuickReplyMenu getMenu(String name) {
+        return menus.get(name);
+    }
+
+    /**
+     * @return name the menu was registered under, null for menus registered without one
+     */
+    public String getMenuName(QuickReplyMenu menu) {
+        return names.get(menu);
+    }
+
+    /**
+     * @return false if the payload is not one of ours
+     */
+    public boolean resolve(String payload, String senderId, MessengerPlatformCallbackHandler callbackHandler) {
+        final QuickReplyHandler handler = handlers.get(payload);
+        if (handler == null) {
+            return false;
+        }
+        handler.handle(callbackHandler, senderId);
+        return true;
+    }
+
+    public int size() {
+        return handlers.size();
+    }
+}
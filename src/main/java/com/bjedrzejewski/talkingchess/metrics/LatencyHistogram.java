@@ -0,0 +1,85 @@
+package com.bjedrzejewski.talkingchess.metrics;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies counted into fixed buckets, 100µs to 10s in 1-2.5-5 steps. Recording is a binary search and two
+ * {@link LongAdder} increments, so the hot paths never lock or allocate and recorders on different threads do not
+ * contend on one counter.
+ */
+public final class LatencyHistogram {
+
+    /** Inclusive upper bounds of the buckets, anything slower goes into the last one. */
+    static final long[] BOUNDS_NANOS = {
+            100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000,
+            10_000_000, 25_000_000, 50_000_000,
+            100_000_000, 250_000_000, 500_000_000,
+            1_000_000_000, 2_500_000_000L, 5_000_000_000L,
+            10_000_000_000L};
+
+    /** The bounds in seconds as the {@code le} labels show them, such as "0.00025" or "10". */
+    static final String[] BOUND_LABELS = new String[BOUNDS_NANOS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS_NANOS.length; i++) {
+            BOUND_LABELS[i] = BigDecimal.valueOf(BOUNDS_NANOS[i], 9).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    private final LongAdder[] counts = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        counts[bucket(nanos)].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Records the time since the {@link System#nanoTime()} given.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    static int bucket(long nanos) {
+        final int index = Arrays.binarySearch(BOUNDS_NANOS, nanos);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * @return the number of latencies in each bucket, the last one for those over all bounds
+     */
+    long[] getCounts() {
+        final long[] snapshot = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+        }
+        return snapshot;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : counts) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    static double seconds(long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,140 @@
+package com.bjedrzejewski.talkingchess.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and counters of the hot paths, rendered in the Prometheus text format.
+ * <p>
+ * A metric has one label, such as the intent that answered a message, and a series per label value. Series are
+ * created on first use, the values of a label have to come from a small fixed set.
+ */
+@Component
+public class Metrics {
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    /**
+     * @return the histogram of the series, created on first use
+     */
+    public LatencyHistogram histogram(String name, String help, String labelName, String labelValue) {
+        return (LatencyHistogram) family(name, help, "histogram", labelName).series(labelValue);
+    }
+
+    /**
+     * @return the counter of the series, created on first use
+     */
+    public LongAdder counter(String name, String help, String labelName, String labelValue) {
+        return (LongAdder) family(name, help, "counter", labelName).series(labelValue);
+    }
+
+    private Family family(String name, String help, String type, String labelName) {
+        final Family family = families.get(name);
+        if (family != null) {
+            return family;
+        }
+        return families.computeIfAbsent(name, key -> new Family(name, help, type, labelName));
+    }
+
+    /**
+     * @return every series in the Prometheus text exposition format, version 0.0.4
+     */
+    public String scrape() {
+        final StringBuilder text = new StringBuilder(4096);
+        for (Family family : new TreeMap<>(families).values()) {
+            family.write(text);
+        }
+        return text.toString();
+    }
+
+    private static final class Family {
+
+        private final String name;
+        private final String help;
+        private final String type;
+        private final String labelName;
+        private final Map<String, Object> series = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, String type, String labelName) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelName = labelName;
+        }
+
+        private Object series(String labelValue) {
+            final Object existing = series.get(labelValue);
+            if (existing != null) {
+                return existing;
+            }
+            return series.computeIfAbsent(labelValue,
+                    key -> "histogram".equals(type) ? new LatencyHistogram() : new LongAdder());
+        }
+
+        private void write(StringBuilder text) {
+            text.append("# HELP ").append(name).append(' ');
+            escape(text, help, false);
+            text.append('\n');
+            text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            for (Map.Entry<String, Object> entry : new TreeMap<>(series).entrySet()) {
+                if (entry.getValue() instanceof LongAdder) {
+                    text.append(name);
+                    labels(text, entry.getKey(), null);
+                    text.append(' ').append(((LongAdder) entry.getValue()).sum()).append('\n');
+                } else {
+                    writeHistogram(text, entry.getKey(), (LatencyHistogram) entry.getValue());
+                }
+            }
+        }
+
+        private void writeHistogram(StringBuilder text, String labelValue, LatencyHistogram histogram) {
+            //the count is taken from the same snapshot as the buckets, so that +Inf always matches it
+            final long[] counts = histogram.getCounts();
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                text.append(name).append("_bucket");
+                labels(text, labelValue, i < LatencyHistogram.BOUND_LABELS.length ? LatencyHistogram.BOUND_LABELS[i] : "+Inf");
+                text.append(' ').append(cumulative).append('\n');
+            }
+            text.append(name).append("_sum");
+            labels(text, labelValue, null);
+            text.append(' ').append(LatencyHistogram.seconds(histogram.getSumNanos())).append('\n');
+            text.append(name).append("_count");
+            labels(text, labelValue, null);
+            text.append(' ').append(cumulative).append('\n');
+        }
+
+        private void labels(StringBuilder text, String labelValue, String le) {
+            text.append('{').append(labelName).append("=\"");
+            escape(text, labelValue, true);
+            text.append('"');
+            if (le != null) {
+                text.append(",le=\"").append(le).append('"');
+            }
+            text.append('}');
+        }
+    }
+
+    /**
+     * Backslashes and line breaks are escaped everywhere, double quotes only in label values.
+     */
+    static void escape(StringBuilder text, String value, boolean quotes) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\') {
+                text.append("\\\\");
+            } else if (c == '\n') {
+                text.append("\\n");
+            } else if (c == '"' && quotes) {
+                text.append("\\\"");
+            } else {
+                text.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.bjedrzejewski.talkingchess.openings;
+
+import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
+import com.bjedrzejewski.talkingchess.engine.Notation;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import com.bjedrzejewski.talkingchess.games.GameArchive;
+import com.bjedrzejewski.talkingchess.games.OpeningExplorer;
+
+import java.util.Locale;
+
+/**
+ * Tells which moves the games in the {@link GameArchive} continued a line with, from its {@link OpeningExplorer}.
+ */
+final class Continuations {
+
+    private static final int MOVES_SHOWN = 4;
+
+    private Continuations() {
+    }
+
+    /**
+     * @param line move list from the start position, such as "1.e4 c5 2.Nf3"
+     * @return the most played moves after the line with their games and score, null if the archive knows none
+     */
+    static String describe(GameArchive archive, String line) {
+        final Position position = Position.start();
+        Notation.playMoves(position, line);
+        return describe(archive, position);
+    }
+
+    /**
+     * @return the most played moves in the position with their games and score, null if the archive knows none
+     */
+    static String describe(GameArchive archive, Position position) {
+        final OpeningExplorer explorer = archive.getExplorer();
+        if (explorer == null) {
+            return null;
+        }
+        final int found = explorer.find(position.getKey());
+        if (found < 0) {
+            return null;
+        }
+        final StringBuilder moves = new StringBuilder();
+        for (int rank = 0; rank < Math.min(MOVES_SHOWN, explorer.getMoveCount(found)); rank++) {
+            moves.append(rank == 0 ? "" : ", ")
+                    .append(Notation.line(position, new int[]{explorer.getMove(found, rank)}, 1))
+                    .append(String.format(Locale.ROOT, " (%,d games, White scores %.0f%%)",
+                            explorer.getGames(found, rank), explorer.getWhiteScore(found, rank)));
+        }
+        return "Most played next in my games: " + moves + ".";
+    }
+
+    /**
+     * Sends the continuations of the line, if the archive knows any.
+     */
+    static void send(MessengerPlatformCallbackHandler callbackHandler, String recipientId, GameArchive archive, String line) {
+        final String continuations = describe(archive, line);
+        if (continuations != null) {
+            callbackHandler.sendTextMessage(recipientId, continuations);
+        }
+    }
+}
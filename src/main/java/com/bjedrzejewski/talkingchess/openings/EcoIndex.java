@@ -0,0 +1,183 @@
+package com.bjedrzejewski.talkingchess.openings;
+
+import com.bjedrzejewski.talkingchess.engine.Notation;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Named openings of the ECO table, looked up by the Zobrist key of the position they lead to.
+ * <p>
+ * Keying by position instead of by move sequence makes transpositions free: 1.Nf3 c5 2.e4 finds the Sicilian
+ * just like 1.e4 c5 2.Nf3. The table is read once at startup from a tab separated {@code eco name pgn} file,
+ * the format of the lichess chess-openings tables, into an open-addressing table of primitive keys.
+ */
+public final class EcoIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(EcoIndex.class);
+
+    public static final String DEFAULT_RESOURCE = "/eco.tsv";
+
+    private static final long EMPTY = 0L;
+
+    private final long[] keys;
+    private final Opening[] openings;
+    private final int mask;
+    private final int size;
+    private final Map<String, Opening> byEco = new HashMap<>();
+
+    private EcoIndex(List<Opening> rows, List<Long> rowKeys) {
+        //linear probing stays short up to half full
+        final int slots = Integer.highestOneBit(Math.max(16, rows.size() * 4 - 1));
+        this.keys = new long[slots];
+        this.openings = new Opening[slots];
+        this.mask = slots - 1;
+        int stored = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            final long key = rowKeys.get(i);
+            int slot = (int) key & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            //the first row naming a position wins, the table lists the general name before the aliases
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                openings[slot] = rows.get(i);
+                stored++;
+            }
+        }
+        this.size = stored;
+        for (Opening row : rows) {
+            final Opening named = byEco.get(row.eco);
+            if (named == null || row.plies < named.plies) {
+                byEco.put(row.eco, row);
+            }
+        }
+    }
+
+    /**
+     * Reads the ECO table bundled with the application.
+     */
+    public static EcoIndex load() {
+        try (InputStream in = EcoIndex.class.getResourceAsStream(DEFAULT_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("ECO table not found: " + DEFAULT_RESOURCE);
+            }
+            return read(new InputStreamReader(in, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads a tab separated table with an {@code eco name pgn} header. Rows with moves that cannot be played are skipped.
+     */
+    public static EcoIndex read(Reader reader) throws IOException {
+        final long start = System.nanoTime();
+        final List<Opening> rows = new ArrayList<>();
+        final List<Long> rowKeys = new ArrayList<>();
+        final BufferedReader lines = new BufferedReader(reader);
+        String line = lines.readLine();
+        while ((line = lines.readLine()) != null) {
+            final String[] columns = line.split("\t");
+            if (columns.length < 3) {
+                continue;
+            }
+            final Position position = Position.start();
+            try {
+                final int plies = Notation.playMoves(position, columns[2]);
+                rows.add(new Opening(columns[0], columns[1], columns[2], plies));
+                rowKeys.add(position.getKey());
+            } catch (IllegalArgumentException e) {
+                logger.warn("Skipping ECO row '{}', illegal move: {}", columns[1], e.getMessage());
+            }
+        }
+        final EcoIndex index = new EcoIndex(rows, rowKeys);
+        logger.info("ECO index built - openings: {} | positions: {} | time: {}ms", rows.size(), index.size,
+                (System.nanoTime() - start) / 1_000_000);
+        return index;
+    }
+
+    /**
+     * @return the opening named after the position, null if the table has no name for it
+     */
+    public Opening find(long key) {
+        int slot = (int) key & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return openings[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @param eco code such as "B90"
+     * @return the shortest line filed under the code, null if the table has none
+     */
+    public Opening findByEco(String eco) {
+        return byEco.get(eco);
+    }
+
+    /**
+     * @return number of named positions
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * One row of the ECO table.
+     */
+    public static final class Opening {
+
+        private final String eco;
+        private final String name;
+        private final String moves;
+        private final int plies;
+
+        Opening(String eco, String name, String moves, int plies) {
+            this.eco = eco;
+            this.name = name;
+            this.moves = moves;
+            this.plies = plies;
+        }
+
+        public String getEco() {
+            return eco;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the move order the table lists, the position may have been reached by another one
+         */
+        public String getMoves() {
+            return moves;
+        }
+
+        public int getPlies() {
+            return plies;
+        }
+
+        @Override
+        public String toString() {
+            return eco + " " + name;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.bjedrzejewski.talkingchess.openings;
+
+import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
+import com.bjedrzejewski.talkingchess.engine.Notation;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import com.bjedrzejewski.talkingchess.games.GameArchive;
+import com.bjedrzejewski.talkingchess.general.GeneralTalk;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Names the opening of a typed move list, such as "1. e4 c5 2. Nf3 d6" or "e4 c5 Nf3 d6", and hands over to the
+ * opening talk that knows it. Positions are looked up by key in the {@link EcoIndex} as the moves are played,
+ * so any move order reaching a known position is recognised.
+ * <p>
+ * A move list that has left the book is answered with the deepest named opening it passed through, the engine
+ * only looks at move lists sent with "analyse". Questions such as "what's played most after 1.e4 c5 2.Nf3?" are
+ * answered with the continuations the {@link GameArchive} knows for the position the moves reach.
+ */
+public class EcoTalk {
+
+    private static final Pattern QUESTION = Pattern.compile("^\\s*what(?:'s|\\s+is|\\s+gets)?\\s+(?:most\\s+|usually\\s+)?played"
+            + "(?:\\s+most)?\\s+after\\s+(.+?)[\\s?]*$", Pattern.CASE_INSENSITIVE);
+
+    private final EcoIndex index;
+    private final List<OpeningTalk> openingTalks;
+    private final GameArchive gameArchive;
+    private final Map<Long, TalkLine> talkLines = new HashMap<>();
+
+    public EcoTalk(EcoIndex index, List<OpeningTalk> openingTalks, GameArchive gameArchive) {
+        this.index = index;
+        this.openingTalks = openingTalks;
+        this.gameArchive = gameArchive;
+        for (OpeningTalk openingTalk : openingTalks) {
+            for (Map.Entry<String, String> line : openingTalk.getLines().entrySet()) {
+                final Position position = Position.start();
+                Notation.playMoves(position, line.getValue());
+                talkLines.put(position.getKey(), new TalkLine(openingTalk, line.getKey()));
+            }
+        }
+    }
+
+    /**
+     * @return true if the message was a move list through a known opening and has been answered
+     */
+    public boolean openingMovesCheck(MessengerPlatformCallbackHandler callbackHandler, String messageText, String recipientId) {
+        final Recognition recognition = recognise(messageText);
+        if (recognition == null) {
+            return false;
+        }
+        final EcoIndex.Opening opening = recognition.opening;
+        final String continuations = Continuations.describe(gameArchive, recognition.position);
+        if (recognition.question) {
+            callbackHandler.sendTextMessage(recipientId, (recognition.inBook ? "That is the " : "That started as the ")
+                    + opening.getName() + " (" + opening.getEco() + ").");
+            callbackHandler.sendTextMessage(recipientId, continuations != null ? continuations
+                    : "None of my games reached that position yet.");
+            return true;
+        }
+        if (recognition.inBook) {
+            callbackHandler.sendTextMessage(recipientId, "That is the " + opening.getName() + " (" + opening.getEco() + ").");
+        } else {
+            callbackHandler.sendTextMessage(recipientId, "That started as the " + opening.getName() + " (" + opening.getEco()
+                    + ") and has left the book since. Send me \"analyse\" with the moves to hear what I think of it.");
+        }
+        //the talk line tells the continuations of its own position
+        if (continuations != null && (recognition.talkLine == null || recognition.talkLineKey != recognition.position.getKey())) {
+            callbackHandler.sendTextMessage(recipientId, continuations);
+        }
+
+        final TalkLine talkLine = recognition.talkLine;
+        if (talkLine != null && talkLine.talk.lineDetails(callbackHandler, talkLine.name, recipientId)) {
+            GeneralTalk.openingDetailsFinish(recipientId, callbackHandler);
+            return true;
+        }
+        final String name = opening.getName().toLowerCase(Locale.ROOT);
+        for (OpeningTalk openingTalk : openingTalks) {
+            for (String keyWord : openingTalk.getKeyWords()) {
+                if (name.contains(keyWord)) {
+                    openingTalk.openingTalk(callbackHandler, recipientId);
+                    return true;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Plays the move list of the message, or of a question about what is played after it.
+     *
+     * @return what the moves led to, null if the message is not a playable move list
+     */
+    Recognition recognise(String messageText) {
+        final Matcher question = QUESTION.matcher(messageText);
+        final boolean asked = question.matches();
+        final String moves;
+        if (asked) {
+            moves = question.group(1);
+        } else if (Notation.isMoveList(messageText)) {
+            moves = messageText;
+        } else {
+            return null;
+        }
+        final Recognition recognition = new Recognition(asked);
+        try {
+            Notation.playMoves(recognition.position, moves, recognition);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return recognition.opening == null ? null : recognition;
+    }
+
+    /**
+     * Follows the positions of a move list, remembering the deepest named opening and talk line on the way.
+     */
+    final class Recognition implements LongConsumer {
+
+        private final boolean question;
+        private final Position position = Position.start();
+        private EcoIndex.Opening opening;
+        private TalkLine talkLine;
+        private long talkLineKey;
+        private boolean inBook;
+
+        private Recognition(boolean question) {
+            this.question = question;
+        }
+
+        @Override
+        public void accept(long key) {
+            final EcoIndex.Opening named = index.find(key);
+            inBook = named != null;
+            if (named != null) {
+                opening = named;
+            }
+            final TalkLine line = talkLines.get(key);
+            if (line != null) {
+                talkLine = line;
+                talkLineKey = key;
+            }
+        }
+
+        EcoIndex.Opening getOpening() {
+            return opening;
+        }
+
+        /**
+         * @return name of the deepest line quoted by an opening talk, or null
+         */
+        String getTalkLine() {
+            return talkLine == null ? null : talkLine.name;
+        }
+
+        /**
+         * @return the position after the last move
+         */
+        Position getPosition() {
+            return position;
+        }
+
+        /**
+         * @return true if the last position of the move list is named
+         */
+        boolean isInBook() {
+            return inBook;
+        }
+    }
+
+    private static final class TalkLine {
+
+        private final OpeningTalk talk;
+        private final String name;
+
+        private TalkLine(OpeningTalk talk, String name) {
+            this.talk = talk;
+            this.name = name;
+        }
+    }
+}
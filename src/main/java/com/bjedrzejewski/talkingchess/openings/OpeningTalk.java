@@ -1,8 +1,12 @@
 package com.bjedrzejewski.talkingchess.openings;
 
 import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
+import com.bjedrzejewski.talkingchess.general.MatchedMessage;
+import com.bjedrzejewski.talkingchess.general.QuickReplyMenu;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by bartoszjedrzejewski on 28/12/2016.
@@ -11,7 +15,38 @@ public interface OpeningTalk {
 
     void openingTalk(MessengerPlatformCallbackHandler callbackHandler, String senderId);
 
-    boolean openingCheckDetails(MessengerPlatformCallbackHandler callbackHandler, String lowerMessage, String recipientId);
+    boolean openingCheckDetails(MessengerPlatformCallbackHandler callbackHandler, MatchedMessage message, String recipientId);
 
     List<String> getKeyWords();
+
+    /**
+     * Keywords used by the details check, compiled into the {@code KeywordMatcher} at startup.
+     */
+    List<String> getDetailKeyWords();
+
+    /**
+     * Menu of details this talk offers, registered with the {@code QuickReplyRegistry} at startup.
+     */
+    QuickReplyMenu getQuickReplyMenu();
+
+    /**
+     * Texts this talk answers with word for word, prerendered by the {@code PreparedMessageCache} at startup.
+     */
+    List<String> getTexts();
+
+    /**
+     * Lines this talk quotes, name to move list, analysed in the background at startup.
+     */
+    default Map<String, String> getLines() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Tells about one of the lines returned by {@link #getLines()}.
+     *
+     * @return false if this talk has nothing to say about the line
+     */
+    default boolean lineDetails(MessengerPlatformCallbackHandler callbackHandler, String lineName, String recipientId) {
+        return false;
+    }
 }
@@ -1,58 +1,74 @@
 package com.bjedrzejewski.talkingchess.openings;
 
 import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
-import com.github.messenger4j.exceptions.MessengerApiException;
-import com.github.messenger4j.exceptions.MessengerIOException;
-import com.github.messenger4j.send.QuickReply;
+import com.bjedrzejewski.talkingchess.games.GameArchive;
+import com.bjedrzejewski.talkingchess.general.GeneralTalk;
+import com.bjedrzejewski.talkingchess.general.MatchedMessage;
+import com.bjedrzejewski.talkingchess.general.QuickReplyMenu;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by bartoszjedrzejewski on 28/12/2016.
  */
 public class SpanishTalk implements OpeningTalk {
 
+    static final String RUY_LOPEZ = "1.e4 e5 2.Nf3 Nc6 3.Bb5";
+    static final String MAIN_LINE = RUY_LOPEZ + " a6 4.Ba4 Nf6 5.O-O Be7 6.Re1 b5 7.Bb3 d6 8.c3 O-O";
+    static final String EXCHANGE = RUY_LOPEZ + " a6 4.Bxc6 dxc6";
+    static final String BERLIN = RUY_LOPEZ + " Nf6";
+
+    private static final String INTRO = "Ahhhh, the Spanish. It wins by force. Don't listen to those telling you otherwise!";
+    private static final String GENERAL_MOVES = "Spanish/Ruy Lopez goes: " + RUY_LOPEZ;
+    private static final String GENERAL_IDEAS = "At the most basic level, White's third move attacks the knight which defends the e5-pawn from the attack by the f3 knight. White's apparent threat to win Black's e-pawn with 4.Bxc6 dxc6 5.Nxe5 is illusory—Black can respond with 5...Qd4, forking the knight and e4-pawn, which will win back the material with a good position. White's 3.Bb5 is still a good move; it develops a piece, prepares castling, and sets up a potential pin against Black's king. However, since White's third move carries no immediate threat, Black can respond in a wide variety of ways.";
+    private static final String GENERAL_LINK = "To learn more visit: https://en.wikipedia.org/wiki/Ruy_Lopez";
+    private static final String MAIN_LINE_MOVES = "Main line: 4.Ba4 Nf6 5.0-0 Be7 6.Re1 b5 7.Bb3 d6 8.c3 0-0";
+    private static final String MAIN_LINE_IDEAS = "The main lines of the Closed Ruy Lopez continue 6.Re1 b5 7.Bb3 d6 8.c3 0-0. White can now play 9.d3 or 9.d4, but by far the most common move is 9.h3 which prepares d4 while preventing the awkward pin ...Bg4. This can be considered the main line of the opening as a whole and thousands of top-level games have reached this position. White aims to play d4 followed by Nbd2–f1–g3, which would firmly support e4 with the bishops on open diagonals and both knights threatening Black's kingside. Black will try to prevent this knight manoeuver by expanding on the queenside, taking action in the centre, or putting pressure on e4.";
+    private static final String MAIN_LINE_LINK = "Learn more about the Spanish Main Line here: https://en.wikipedia.org/wiki/Ruy_Lopez#Main_line:_4.Ba4_Nf6_5.0-0_Be7_6.Re1_b5_7.Bb3_d6_8.c3_0-0";
+    private static final String EXCHANGE_MOVES = "Exchange Variation happens after 4...dxc6";
+    private static final String EXCHANGE_IDEAS = "In the Exchange Variation, 4.Bxc6, (ECO C68–C69) White damages Black's pawn structure, giving him a ready-made long-term plan of playing d4 ...exd4 Qxd4, followed by exchanging all the pieces and winning the pure pawn ending. Black gains good compensation, however, in the form of the bishop pair, and the variation is not considered White's most ambitious, though former world champions Emanuel Lasker and Bobby Fischer employed it with success.";
+    private static final String EXCHANGE_LINK = "Learn more here: https://en.wikipedia.org/wiki/Ruy_Lopez#Exchange_Variation:_4.Bxc6";
+    private static final String BERLIN_IDEAS = "The Berlin Defence, 3...Nf6, has long had a reputation for solidity and drawishness and is sometimes called \"the Berlin Wall\".[23] The Berlin Defence was played in the late 19th century and early 20th century by Emanuel Lasker and others, who typically answered 4.0-0 with 4...d6 in the style of the Steinitz Variation. This approach ultimately fell out of favour, as had the old form of the Steinitz, due to its passivity, and the entire variation became rare. Arthur Bisguier played the Berlin for decades, but always chose the variation 4.0-0 Nxe4. Then in 2000, Vladimir Kramnik used the line as a drawing weapon against Garry Kasparov in Classical World Chess Championship 2000, following which the Berlin has experienced a remarkable renaissance: even players with a dynamic style such as Alexei Shirov, Veselin Topalov, and Kasparov himself have tried it, and Magnus Carlsen and Viswanathan Anand both used it (Carlsen extensively so) during the 2013 World Chess Championship and 2014 World Chess Championship.";
+    private static final String BERLIN_LINK = "Read more about this famous defense here: https://en.wikipedia.org/wiki/Ruy_Lopez#Berlin_Defence:_3...Nf6";
+
+    private final GameArchive gameArchive;
+    private final QuickReplyMenu menu;
+
+    public SpanishTalk(GameArchive gameArchive) {
+        this.gameArchive = gameArchive;
+        menu = QuickReplyMenu.newBuilder("Which Spanish variation would you like to learn more about?")
+                .addTextQuickReply("Basics", "I want to learn general Spanish", GeneralTalk.openingDetails(this::general))
+                .addTextQuickReply("Main Line", "I want to learn Spanish Main Line", GeneralTalk.openingDetails(this::mainLine))
+                .addTextQuickReply("Exchange Variation", "I want to learn Spanish Exchange", GeneralTalk.openingDetails(this::exchange))
+                .addTextQuickReply("Berlin Defence", "I want to learn Spanish Berlin Defence", GeneralTalk.openingDetails(this::berlin))
+                .addTextQuickReply("None, thanks", "None, thanks", GeneralTalk.NONE_THANKS)
+                .build();
+    }
+
     @Override
     public void openingTalk(MessengerPlatformCallbackHandler callbackHandler, String senderId) {
-        callbackHandler.sendTextMessage(senderId, "Ahhhh, the Spanish. It wins by force. Don't listen to those telling you otherwise!");
-        final List<QuickReply> quickReplies = QuickReply.newListBuilder()
-                .addTextQuickReply("Basics", "I want to learn general Spanish").toList()
-                .addTextQuickReply("Main Line", "I want to learn Spanish Main Line").toList()
-                .addTextQuickReply("Exchange Variation", "I want to learn Spanish Exchange").toList()
-                .addTextQuickReply("Berlin Defence", "I want to learn Spanish Berlin Defence").toList()
-                .addTextQuickReply("None, thanks", "None, thanks").toList()
-                .addLocationQuickReply().toList()
-                .build();
-        try {
-            callbackHandler.getSendClient().sendTextMessage(senderId, "Which Spanish variation would you like to learn more about?", quickReplies);
-        } catch (MessengerApiException e) {
-            callbackHandler.handleSendException(e);
-        } catch (MessengerIOException e) {
-            callbackHandler.handleSendException(e);
-        }
+        callbackHandler.sendTextMessage(senderId, INTRO);
+        Continuations.send(callbackHandler, senderId, gameArchive, RUY_LOPEZ);
+        menu.send(callbackHandler, senderId);
     }
 
     @Override
-    public boolean openingCheckDetails(MessengerPlatformCallbackHandler callbackHandler, String lowerMessage, String recipientId) {
-        if (lowerMessage.equals("i want to learn general spanish")) {
-            callbackHandler.sendTextMessage(recipientId, "Spanish/Ruy Lopez goes: 1.e4 e5 2.Nf3 Nc6 3.Bb5");
-            callbackHandler.sendTextMessage(recipientId, "At the most basic level, White's third move attacks the knight which defends the e5-pawn from the attack by the f3 knight. White's apparent threat to win Black's e-pawn with 4.Bxc6 dxc6 5.Nxe5 is illusory—Black can respond with 5...Qd4, forking the knight and e4-pawn, which will win back the material with a good position. White's 3.Bb5 is still a good move; it develops a piece, prepares castling, and sets up a potential pin against Black's king. However, since White's third move carries no immediate threat, Black can respond in a wide variety of ways.");
-            callbackHandler.sendTextMessage(recipientId, "To learn more visit: https://en.wikipedia.org/wiki/Ruy_Lopez");
+    public boolean openingCheckDetails(MessengerPlatformCallbackHandler callbackHandler, MatchedMessage message, String recipientId) {
+        if (message.is("i want to learn general spanish")) {
+            general(callbackHandler, recipientId);
             return true;
-        } else if ((lowerMessage.contains("spanish") || lowerMessage.contains("lopez")) && lowerMessage.contains("main")) {
-            callbackHandler.sendTextMessage(recipientId, "Main line: 4.Ba4 Nf6 5.0-0 Be7 6.Re1 b5 7.Bb3 d6 8.c3 0-0");
-            callbackHandler.sendTextMessage(recipientId, "The main lines of the Closed Ruy Lopez continue 6.Re1 b5 7.Bb3 d6 8.c3 0-0. White can now play 9.d3 or 9.d4, but by far the most common move is 9.h3 which prepares d4 while preventing the awkward pin ...Bg4. This can be considered the main line of the opening as a whole and thousands of top-level games have reached this position. White aims to play d4 followed by Nbd2–f1–g3, which would firmly support e4 with the bishops on open diagonals and both knights threatening Black's kingside. Black will try to prevent this knight manoeuver by expanding on the queenside, taking action in the centre, or putting pressure on e4.");
-            callbackHandler.sendTextMessage(recipientId, "Learn more about the Spanish Main Line here: https://en.wikipedia.org/wiki/Ruy_Lopez#Main_line:_4.Ba4_Nf6_5.0-0_Be7_6.Re1_b5_7.Bb3_d6_8.c3_0-0");
+        } else if ((message.contains("spanish") || message.contains("lopez")) && message.contains("main")) {
+            mainLine(callbackHandler, recipientId);
             return true;
-        } else if ((lowerMessage.contains("spanish") || lowerMessage.contains("lopez")) && lowerMessage.contains("exchange")) {
-            callbackHandler.sendTextMessage(recipientId, "Exchange Variation happens after 4...dxc6");
-            callbackHandler.sendTextMessage(recipientId, "In the Exchange Variation, 4.Bxc6, (ECO C68–C69) White damages Black's pawn structure, giving him a ready-made long-term plan of playing d4 ...exd4 Qxd4, followed by exchanging all the pieces and winning the pure pawn ending. Black gains good compensation, however, in the form of the bishop pair, and the variation is not considered White's most ambitious, though former world champions Emanuel Lasker and Bobby Fischer employed it with success.");
-            callbackHandler.sendTextMessage(recipientId, "Learn more here: https://en.wikipedia.org/wiki/Ruy_Lopez#Exchange_Variation:_4.Bxc6");
+        } else if ((message.contains("spanish") || message.contains("lopez")) && message.contains("exchange")) {
+            exchange(callbackHandler, recipientId);
             return true;
-        } else if (lowerMessage.contains("berlin")) {
-            callbackHandler.sendTextMessage(recipientId, "The Berlin Defence, 3...Nf6, has long had a reputation for solidity and drawishness and is sometimes called \"the Berlin Wall\".[23] The Berlin Defence was played in the late 19th century and early 20th century by Emanuel Lasker and others, who typically answered 4.0-0 with 4...d6 in the style of the Steinitz Variation. This approach ultimately fell out of favour, as had the old form of the Steinitz, due to its passivity, and the entire variation became rare. Arthur Bisguier played the Berlin for decades, but always chose the variation 4.0-0 Nxe4. Then in 2000, Vladimir Kramnik used the line as a drawing weapon against Garry Kasparov in Classical World Chess Championship 2000, following which the Berlin has experienced a remarkable renaissance: even players with a dynamic style such as Alexei Shirov, Veselin Topalov, and Kasparov himself have tried it, and Magnus Carlsen and Viswanathan Anand both used it (Carlsen extensively so) during the 2013 World Chess Championship and 2014 World Chess Championship.");
-            callbackHandler.sendTextMessage(recipientId, "Read more about this famous defense here: https://en.wikipedia.org/wiki/Ruy_Lopez#Berlin_Defence:_3...Nf6");
+        } else if (message.contains("berlin")) {
+            berlin(callbackHandler, recipientId);
             return true;
         }
 
@@ -60,6 +76,41 @@ public class SpanishTalk implements OpeningTalk {
         return false;
     }
 
+    private void general(MessengerPlatformCallbackHandler callbackHandler, String recipientId) {
+        callbackHandler.sendTextMessage(recipientId, GENERAL_MOVES);
+        callbackHandler.sendLineDiagram(recipientId, "Ruy Lopez");
+        callbackHandler.sendLineEvaluation(recipientId, "Ruy Lopez");
+        Continuations.send(callbackHandler, recipientId, gameArchive, RUY_LOPEZ);
+        callbackHandler.sendTextMessage(recipientId, GENERAL_IDEAS);
+        callbackHandler.sendTextMessage(recipientId, GENERAL_LINK);
+    }
+
+    private void mainLine(MessengerPlatformCallbackHandler callbackHandler, String recipientId) {
+        callbackHandler.sendTextMessage(recipientId, MAIN_LINE_MOVES);
+        callbackHandler.sendLineDiagram(recipientId, "Ruy Lopez Main Line");
+        callbackHandler.sendLineEvaluation(recipientId, "Ruy Lopez Main Line");
+        Continuations.send(callbackHandler, recipientId, gameArchive, MAIN_LINE);
+        callbackHandler.sendTextMessage(recipientId, MAIN_LINE_IDEAS);
+        callbackHandler.sendTextMessage(recipientId, MAIN_LINE_LINK);
+    }
+
+    private void exchange(MessengerPlatformCallbackHandler callbackHandler, String recipientId) {
+        callbackHandler.sendTextMessage(recipientId, EXCHANGE_MOVES);
+        callbackHandler.sendLineDiagram(recipientId, "Ruy Lopez Exchange");
+        callbackHandler.sendLineEvaluation(recipientId, "Ruy Lopez Exchange");
+        Continuations.send(callbackHandler, recipientId, gameArchive, EXCHANGE);
+        callbackHandler.sendTextMessage(recipientId, EXCHANGE_IDEAS);
+        callbackHandler.sendTextMessage(recipientId, EXCHANGE_LINK);
+    }
+
+    private void berlin(MessengerPlatformCallbackHandler callbackHandler, String recipientId) {
+        callbackHandler.sendTextMessage(recipientId, BERLIN_IDEAS);
+        callbackHandler.sendTextMessage(recipientId, BERLIN_LINK);
+        callbackHandler.sendLineDiagram(recipientId, "Berlin Defence");
+        callbackHandler.sendLineEvaluation(recipientId, "Berlin Defence");
+        Continuations.send(callbackHandler, recipientId, gameArchive, BERLIN);
+    }
+
     @Override
     public List<String> getKeyWords() {
         List<String> keyWords = new ArrayList<>();
@@ -68,5 +119,57 @@ public class SpanishTalk implements OpeningTalk {
         return keyWords;
     }
 
+    @Override
+    public List<String> getDetailKeyWords() {
+        List<String> keyWords = new ArrayList<>();
+        keyWords.add("spanish");
+        keyWords.add("lopez");
+        keyWords.add("main");
+        keyWords.add("exchange");
+        keyWords.add("berlin");
+        return keyWords;
+    }
+
+    @Override
+    public List<String> getTexts() {
+        return Arrays.asList(INTRO, GENERAL_MOVES, GENERAL_IDEAS, GENERAL_LINK, MAIN_LINE_MOVES, MAIN_LINE_IDEAS,
+                MAIN_LINE_LINK, EXCHANGE_MOVES, EXCHANGE_IDEAS, EXCHANGE_LINK, BERLIN_IDEAS, BERLIN_LINK);
+    }
+
+    @Override
+    public QuickReplyMenu getQuickReplyMenu() {
+        return menu;
+    }
+
+    @Override
+    public Map<String, String> getLines() {
+        Map<String, String> lines = new LinkedHashMap<>();
+        lines.put("Ruy Lopez", RUY_LOPEZ);
+        lines.put("Ruy Lopez Main Line", MAIN_LINE);
+        lines.put("Ruy Lopez Exchange", EXCHANGE);
+        lines.put("Berlin Defence", BERLIN);
+        return lines;
+    }
+
+    @Override
+    public boolean lineDetails(MessengerPlatformCallbackHandler callbackHandler, String lineName, String recipientId) {
+        switch (lineName) {
+            case "Ruy Lopez":
+                general(callbackHandler, recipientId);
+                return true;
+            case "Ruy Lopez Main Line":
+                mainLine(callbackHandler, recipientId);
+                return true;
+            case "Ruy Lopez Exchange":
+                exchange(callbackHandler, recipientId);
+                return true;
+            case "Berlin Defence":
+                berlin(callbackHandler, recipientId);
+                return true;
+            default:
+                return false;
+        }
+    }
+
 
 }
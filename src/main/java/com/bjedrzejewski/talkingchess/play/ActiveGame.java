@@ -0,0 +1,93 @@
+package com.bjedrzejewski.talkingchess.play;
+
+import com.bjedrzejewski.talkingchess.engine.Notation;
+import com.bjedrzejewski.talkingchess.engine.Position;
+
+import java.util.Arrays;
+
+/**
+ * A game in progress as read from the {@link ActiveGames}, replayed from its recorded start so that repetitions
+ * are known. It is a copy, moves are made through {@link ActiveGames#play(ActiveGame, int)}.
+ */
+public final class ActiveGame {
+
+    final String senderId;
+    final int slot;
+    final int gameId;
+    final int botColor;
+    final Position start;
+    final Position position;
+    int[] moves;
+    int plies;
+    //plies in the slot, which starts over when it is full
+    int recorded;
+    long[] keys;
+
+    ActiveGame(String senderId, int slot, int gameId, int botColor, Position start, int[] moves, int plies) {
+        this.senderId = senderId;
+        this.slot = slot;
+        this.gameId = gameId;
+        this.botColor = botColor;
+        this.start = start;
+        this.position = start.copy();
+        this.moves = moves;
+        this.plies = plies;
+        this.recorded = plies;
+        this.keys = new long[moves.length + 1];
+        keys[0] = position.getKey();
+        for (int i = 0; i < plies; i++) {
+            position.makeMove(moves[i]);
+            keys[i + 1] = position.getKey();
+        }
+    }
+
+    void made(int move) {
+        if (plies == moves.length) {
+            moves = Arrays.copyOf(moves, Math.max(16, plies * 2));
+            keys = Arrays.copyOf(keys, moves.length + 1);
+        }
+        moves[plies++] = move;
+        keys[plies] = position.getKey();
+    }
+
+    public String getSenderId() {
+        return senderId;
+    }
+
+    /**
+     * @return the current position, not to be changed
+     */
+    public Position getPosition() {
+        return position;
+    }
+
+    public int getBotColor() {
+        return botColor;
+    }
+
+    public boolean isBotToMove() {
+        return position.getSideToMove() == botColor;
+    }
+
+    public int getPlies() {
+        return plies;
+    }
+
+    /**
+     * @return how often the current position has occurred since the recorded start, itself included
+     */
+    public int getRepetitions() {
+        int count = 0;
+        for (int i = 0; i <= plies; i++) {
+            count += keys[i] == position.getKey() ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * @return the recorded moves with move numbers, such as "1. e4 e5 2. Nf3"
+     */
+    public String getMoveText() {
+        return Notation.line(start.copy(), moves, plies);
+    }
+}
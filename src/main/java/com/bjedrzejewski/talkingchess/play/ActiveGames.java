@@ -0,0 +1,424 @@
+package com.bjedrzejewski.talkingchess.play;
+
+import com.bjedrzejewski.talkingchess.engine.MoveGenerator;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import com.bjedrzejewski.talkingchess.games.LongIntMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The games users play against the bot in the chat, one per sender, in fixed-size slots of a memory-mapped file.
+ * <p>
+ * A slot holds the packed position the game was recorded from and then one byte per move, the index of the move
+ * among the legal moves of its position. Once the bytes of a slot run out the position after the last capture or
+ * pawn move becomes the new start, so the positions that can still repeat are kept. Only an index of sender hashes
+ * to slots is kept on the heap, so tens of thousands of games take a few megabytes of page cache and next to no
+ * heap. Moves are written to the mapped file straight away and forced to the disk by a checkpoint every second, so
+ * games survive a restart. Games idle for longer than {@code talkingchess.play.idleDays} are dropped.
+ * <pre>
+ * header: magic (4) | version (4) | slot size (4)
+ * slot:   sender hash (8, 0 when free) | last activity epoch seconds (4) | bot colour (1) | unused (1)
+ *         | plies (2) | sender id length (1) | sender id (27) | game id (4) | start position (38) | moves (170)
+ * </pre>
+ */
+@Component
+public class ActiveGames {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActiveGames.class);
+
+    private static final int MAGIC = 0x54434147;
+    private static final int VERSION = 1;
+    static final int SLOT_SIZE = 256;
+    private static final int HEADER_SIZE = SLOT_SIZE;
+    private static final int INITIAL_SLOTS = 1024;
+
+    private static final int HASH = 0;
+    private static final int LAST_ACTIVITY = 8;
+    private static final int BOT_COLOR = 12;
+    private static final int PLIES = 14;
+    private static final int SENDER = 16;
+    private static final int MAX_SENDER_LENGTH = 27;
+    private static final int GAME_ID = 44;
+    private static final int START = 48;
+    private static final int MOVES = START + PackedPosition.SIZE;
+    static final int MAX_RECORDED_PLIES = SLOT_SIZE - MOVES;
+    //a game is drawn by the fifty-move rule before more plies can repeat
+    private static final int MAX_REVERSIBLE_PLIES = 100;
+
+    private final FileChannel channel;
+    private final int maxGames;
+    private final long idleMillis;
+    private final LongSupplier clock;
+    private final ScheduledExecutorService checkpointer;
+    private final int[] moves = new int[MoveGenerator.MAX_MOVES];
+
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private final LongIntMap slots;
+    private int[] free;
+    private int freeCount;
+    private volatile boolean dirty;
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder finished = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder checkpoints = new LongAdder();
+
+    /**
+     * @param maxGames         games kept at most, new games are refused beyond
+     * @param idleDays         games without a move for longer are dropped
+     * @param checkpointMillis interval of forcing the moves to the disk, 0 for only on shutdown
+     */
+    @Autowired
+    public ActiveGames(@Value("${talkingchess.dataDir:data}") final String dataDir,
+                       @Value("${talkingchess.play.maxGames:100000}") final int maxGames,
+                       @Value("${talkingchess.play.idleDays:7}") final int idleDays,
+                       @Value("${talkingchess.play.checkpointMillis:1000}") final long checkpointMillis) throws IOException {
+        this(Paths.get(dataDir, "games-in-play.bin"), maxGames, TimeUnit.DAYS.toMillis(idleDays), checkpointMillis,
+                System::currentTimeMillis);
+    }
+
+    ActiveGames(Path file, int maxGames, long idleMillis, long checkpointMillis, LongSupplier clock) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.maxGames = maxGames;
+        this.idleMillis = idleMillis;
+        this.clock = clock;
+
+        final boolean fresh = channel.size() < HEADER_SIZE;
+        this.capacity = fresh ? Math.min(INITIAL_SLOTS, maxGames) : (int) ((channel.size() - HEADER_SIZE) / SLOT_SIZE);
+        this.buffer = map(capacity);
+        if (fresh) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, SLOT_SIZE);
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != SLOT_SIZE) {
+            throw new IOException("Not a file of games in play of version " + VERSION + ": " + file);
+        }
+        this.slots = new LongIntMap(capacity);
+        this.free = new int[capacity];
+        final long now = clock.getAsLong();
+        for (int slot = capacity - 1; slot >= 0; slot--) {
+            final long hash = buffer.getLong(offset(slot) + HASH);
+            if (hash != 0 && now - lastActivity(slot) >= idleMillis) {
+                clear(slot);
+                expired.increment();
+            } else if (hash != 0) {
+                slots.put(hash, slot);
+                continue;
+            }
+            free[freeCount++] = slot;
+        }
+        buffer.force();
+
+        this.checkpointer = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "game-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (checkpointMillis > 0) {
+            checkpointer.scheduleWithFixedDelay(this::checkpoint, checkpointMillis, checkpointMillis, TimeUnit.MILLISECONDS);
+        }
+        logger.info("Games in play loaded - games: {} | slots: {} | max games: {}", slots.size(), capacity, maxGames);
+    }
+
+    private MappedByteBuffer map(int slotCount) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slotCount * SLOT_SIZE);
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * @return the game of the sender, null if there is none
+     */
+    public synchronized ActiveGame get(String senderId) {
+        final int slot = find(senderId);
+        if (slot < 0) {
+            return null;
+        }
+        final int offset = offset(slot);
+        final Position start = PackedPosition.read(buffer, offset + START);
+        final int plies = buffer.getShort(offset + PLIES);
+        final int[] played = new int[Math.max(16, plies)];
+        final Position position = start.copy();
+        for (int i = 0; i < plies; i++) {
+            MoveGenerator.generate(position, moves);
+            played[i] = moves[buffer.get(offset + MOVES + i) & 0xff];
+            position.makeMove(played[i]);
+        }
+        return new ActiveGame(senderId, slot, buffer.getInt(offset + GAME_ID), buffer.get(offset + BOT_COLOR), start,
+                played, plies);
+    }
+
+    /**
+     * Starts a game of the sender from the position, replacing any game they had.
+     *
+     * @return the game, null if there is no room for another game
+     * @throws IllegalArgumentException if the sender id does not fit in a slot
+     */
+    public synchronized ActiveGame start(String senderId, Position start, int botColor) throws IOException {
+        final byte[] sender = senderId.getBytes(StandardCharsets.UTF_8);
+        if (sender.length > MAX_SENDER_LENGTH) {
+            throw new IllegalArgumentException("Sender id longer than " + MAX_SENDER_LENGTH + " bytes: " + senderId);
+        }
+        end(senderId);
+        if (freeCount == 0 && !grow()) {
+            return null;
+        }
+        final int slot = free[--freeCount];
+        final int offset = offset(slot);
+        final long hash = hash(senderId);
+        buffer.putLong(offset + HASH, hash);
+        //tells a new game of the sender from a previous one in the same slot
+        final int gameId = ThreadLocalRandom.current().nextInt();
+        buffer.putInt(offset + GAME_ID, gameId);
+        buffer.put(offset + BOT_COLOR, (byte) botColor);
+        buffer.put(offset + SENDER, (byte) sender.length);
+        for (int i = 0; i < sender.length; i++) {
+            buffer.put(offset + SENDER + 1 + i, sender[i]);
+        }
+        restart(slot, start);
+        slots.put(hash, slot);
+        started.increment();
+        return new ActiveGame(senderId, slot, gameId, botColor, start.copy(), new int[16], 0);
+    }
+
+    /**
+     * Makes the move in the game and records it.
+     *
+     * @param move a legal move of the current position of the game
+     * @return false if the game has moved on or ended since it was read, the move is not made then
+     */
+    public synchronized boolean play(ActiveGame game, int move) {
+        final int offset = offset(game.slot);
+        if (find(game.senderId) != game.slot || buffer.getInt(offset + GAME_ID) != game.gameId
+                || buffer.getShort(offset + PLIES) != game.recorded) {
+            return false;
+        }
+        final int index = indexOf(game.position, move);
+        if (index < 0) {
+            throw new IllegalArgumentException("Not a legal move in the game of " + game.senderId);
+        }
+        game.position.makeMove(move);
+        game.made(move);
+        if (game.recorded == MAX_RECORDED_PLIES) {
+            rebase(game);
+        } else {
+            buffer.put(offset + MOVES + game.recorded, (byte) index);
+            buffer.putShort(offset + PLIES, (short) ++game.recorded);
+            touch(game.slot);
+        }
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Starts the slot over from the position after the last capture or pawn move, the earlier positions cannot
+     * repeat any more.
+     */
+    private void rebase(ActiveGame game) {
+        final int reversible = Math.min(game.position.getHalfmoveClock(), MAX_REVERSIBLE_PLIES);
+        final int first = game.plies - reversible;
+        final Position position = game.start.copy();
+        for (int i = 0; i < first; i++) {
+            position.makeMove(game.moves[i]);
+        }
+        restart(game.slot, position);
+        final int offset = offset(game.slot);
+        for (int i = first; i < game.plies; i++) {
+            buffer.put(offset + MOVES + i - first, (byte) indexOf(position, game.moves[i]));
+            position.makeMove(game.moves[i]);
+        }
+        buffer.putShort(offset + PLIES, (short) reversible);
+        game.recorded = reversible;
+    }
+
+    /**
+     * @return index of the move among the legal moves of the position, -1 if it is not legal
+     */
+    private int indexOf(Position position, int move) {
+        final int count = MoveGenerator.generate(position, moves);
+        for (int index = 0; index < count; index++) {
+            if (moves[index] == move) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Ends the game of the sender, if they have one.
+     */
+    public synchronized void end(String senderId) {
+        final int slot = find(senderId);
+        if (slot < 0) {
+            return;
+        }
+        slots.remove(buffer.getLong(offset(slot) + HASH));
+        clear(slot);
+        free[freeCount++] = slot;
+        finished.increment();
+        dirty = true;
+    }
+
+    private void restart(int slot, Position start) {
+        final int offset = offset(slot);
+        PackedPosition.write(start, buffer, offset + START);
+        buffer.putShort(offset + PLIES, (short) 0);
+        touch(slot);
+    }
+
+    private void touch(int slot) {
+        buffer.putInt(offset(slot) + LAST_ACTIVITY, (int) TimeUnit.MILLISECONDS.toSeconds(clock.getAsLong()));
+    }
+
+    private long lastActivity(int slot) {
+        return TimeUnit.SECONDS.toMillis(buffer.getInt(offset(slot) + LAST_ACTIVITY) & 0xffffffffL);
+    }
+
+    private void clear(int slot) {
+        final int offset = offset(slot);
+        for (int i = 0; i < SLOT_SIZE; i += 8) {
+            buffer.putLong(offset + i, 0);
+        }
+    }
+
+    /**
+     * @return slot of the sender's game, -1 if there is none
+     */
+    private int find(String senderId) {
+        final int slot = slots.get(hash(senderId), -1);
+        if (slot < 0) {
+            return -1;
+        }
+        final int offset = offset(slot);
+        final byte[] sender = senderId.getBytes(StandardCharsets.UTF_8);
+        if (buffer.get(offset + SENDER) != sender.length) {
+            return -1;
+        }
+        for (int i = 0; i < sender.length; i++) {
+            if (buffer.get(offset + SENDER + 1 + i) != sender[i]) {
+                return -1;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Makes room by dropping idle games, or by doubling the file up to the maximum number of games.
+     */
+    private boolean grow() throws IOException {
+        final long now = clock.getAsLong();
+        for (int slot = 0; slot < capacity; slot++) {
+            final long hash = buffer.getLong(offset(slot) + HASH);
+            if (hash != 0 && now - lastActivity(slot) >= idleMillis) {
+                slots.remove(hash);
+                clear(slot);
+                free[freeCount++] = slot;
+                expired.increment();
+            }
+        }
+        if (freeCount > 0 || capacity >= maxGames) {
+            return freeCount > 0;
+        }
+        final int grown = (int) Math.min(maxGames, capacity * 2L);
+        buffer.force();
+        buffer = map(grown);
+        final int[] grownFree = new int[grown];
+        for (int slot = grown - 1; slot >= capacity; slot--) {
+            grownFree[freeCount++] = slot;
+        }
+        free = grownFree;
+        logger.info("Games in play grew from {} to {} slots", capacity, grown);
+        capacity = grown;
+        return true;
+    }
+
+    /**
+     * FNV-1a over the UTF-8 bytes with a final mix, never 0 or negative.
+     */
+    static long hash(String senderId) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : senderId.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash &= Long.MAX_VALUE;
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Forces the moves made since the last checkpoint to the disk.
+     */
+    public void checkpoint() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        synchronized (this) {
+            buffer.force();
+        }
+        checkpoints.increment();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        checkpointer.shutdown();
+        synchronized (this) {
+            buffer.force();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Could not close the games in play", e);
+            }
+        }
+    }
+
+    public synchronized int getGames() {
+        return slots.size();
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public long getStarted() {
+        return started.sum();
+    }
+
+    public long getFinished() {
+        return finished.sum();
+    }
+
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    public long getCheckpoints() {
+        return checkpoints.sum();
+    }
+}
@@ -0,0 +1,222 @@
+package com.bjedrzejewski.talkingchess.play;
+
+import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
+import com.bjedrzejewski.talkingchess.analysis.AnalysisScheduler;
+import com.bjedrzejewski.talkingchess.engine.Move;
+import com.bjedrzejewski.talkingchess.engine.MoveGenerator;
+import com.bjedrzejewski.talkingchess.engine.Notation;
+import com.bjedrzejewski.talkingchess.engine.Piece;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import com.bjedrzejewski.talkingchess.engine.SearchResult;
+import com.bjedrzejewski.talkingchess.engine.Square;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Plays games against the user in the chat. Moves are typed in SAN, the board is shown as text with its FEN,
+ * and the bot's moves are searched on the {@link AnalysisScheduler} like any analysis. Games are kept in the
+ * {@link ActiveGames}, so they go on after a restart.
+ */
+@Component
+public class GameTalk {
+
+    private static final Logger logger = LoggerFactory.getLogger(GameTalk.class);
+
+    /** Text that is meant as a move, such as "Nf3", "exd5", "O-O", "e7e8q" or "12... Qxh2+". */
+    private static final Pattern MOVE = Pattern.compile(
+            "(\\d+\\.+\\s*)?([NBRQK]?[a-h]?[1-8]?x?[a-h][1-8](=?[NBRQ])?|[a-h][1-8][a-h][1-8][nbrq]?|[O0]-[O0](-[O0])?)[+#]?[!?]*");
+
+    private final ActiveGames games;
+    private final AnalysisScheduler scheduler;
+
+    @Autowired
+    public GameTalk(final ActiveGames games, final AnalysisScheduler scheduler) {
+        this.games = games;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Starts a new game from the initial position, replacing the one the user may have.
+     *
+     * @param userColor {@link Piece#WHITE} or {@link Piece#BLACK}
+     */
+    public void start(MessengerPlatformCallbackHandler callbackHandler, String senderId, int userColor) {
+        final ActiveGame game;
+        try {
+            game = games.start(senderId, Position.start(), userColor ^ 1);
+        } catch (IOException e) {
+            logger.error("Could not start a game for '{}'", senderId, e);
+            callbackHandler.sendTextMessage(senderId, "I cannot set up the board right now, let's play a bit later.");
+            return;
+        } catch (IllegalArgumentException e) {
+            logger.warn("Could not start a game for '{}': {}", senderId, e.getMessage());
+            callbackHandler.sendTextMessage(senderId, "Sorry, I cannot keep a game for your account, so we cannot play here.");
+            return;
+        }
+        if (game == null) {
+            callbackHandler.sendTextMessage(senderId, "Too many people are playing me right now, let's play a bit later.");
+            return;
+        }
+        if (userColor == Piece.WHITE) {
+            callbackHandler.sendTextMessage(senderId, "Let's play! You have White, type your moves like e4 or Nf3. "
+                    + "Say 'board' to see the position and 'resign' when you have had enough.");
+            sendBoard(callbackHandler, game);
+        } else {
+            callbackHandler.sendTextMessage(senderId, "Let's play! You have Black, I will start. Type your moves like e5 or Nf6. "
+                    + "Say 'board' to see the position and 'resign' when you have had enough.");
+            botMove(callbackHandler, game);
+        }
+    }
+
+    /**
+     * @return true if the user has a game going and the message was a move or about the game, and it has been answered
+     */
+    public boolean gameCheck(MessengerPlatformCallbackHandler callbackHandler, String messageText, String senderId) {
+        final ActiveGame game = games.get(senderId);
+        if (game == null) {
+            return false;
+        }
+        final String text = messageText.trim();
+        final String command = text.toLowerCase();
+        if (command.equals("resign") || command.equals("i resign")) {
+            games.end(senderId);
+            callbackHandler.sendTextMessage(senderId, ("Good game! " + moves(game)).trim());
+            return true;
+        }
+        boolean answered = true;
+        if (command.equals("board") || command.equals("show board") || command.equals("show me the board")) {
+            sendBoard(callbackHandler, game);
+        } else if (command.equals("fen")) {
+            callbackHandler.sendTextMessage(senderId, game.getPosition().toFen());
+        } else if (command.equals("moves")) {
+            callbackHandler.sendTextMessage(senderId, game.getPlies() == 0 ? "No moves yet." : game.getMoveText());
+        } else {
+            answered = false;
+        }
+        final boolean isMove = !answered && MOVE.matcher(text).matches();
+        if (game.isBotToMove()) {
+            if (isMove) {
+                callbackHandler.sendTextMessage(senderId, "Give me a moment, it is my move.");
+            }
+            //a restart loses the search, so think again unless still thinking
+            if (!scheduler.isBusy(senderId, AnalysisScheduler.Kind.GAME_MOVE)) {
+                botMove(callbackHandler, game);
+            }
+            return answered || isMove;
+        }
+        if (!isMove) {
+            return answered;
+        }
+        final int move = Notation.parseSan(game.getPosition(), text.replaceFirst("^\\d+\\.+\\s*", ""));
+        if (move == Move.NONE) {
+            callbackHandler.sendTextMessage(senderId, "'" + text + "' is not a legal move here. Say 'board' to see the position.");
+            return true;
+        }
+        games.play(game, move);
+        final String end = describeEnd(game);
+        if (end != null) {
+            games.end(senderId);
+            callbackHandler.sendTextMessage(senderId, (end + " " + moves(game)).trim());
+            return true;
+        }
+        botMove(callbackHandler, game);
+        return true;
+    }
+
+    private void botMove(MessengerPlatformCallbackHandler callbackHandler, ActiveGame game) {
+        final String senderId = game.getSenderId();
+        callbackHandler.sendTypingIndicator(senderId);
+        scheduler.submit(senderId, AnalysisScheduler.Kind.GAME_MOVE, game.getPosition().copy(), new AnalysisScheduler.Listener() {
+            @Override
+            public void progress(SearchResult result) {
+            }
+
+            @Override
+            public void done(SearchResult result) {
+                if (result.getBestMove() == Move.NONE) {
+                    logger.warn("No move found for the game of '{}' in {}", senderId, game.getPosition().toFen());
+                    return;
+                }
+                final String san = Notation.toSan(game.getPosition(), result.getBestMove());
+                if (!games.play(game, result.getBestMove())) {
+                    //the user resigned or started over in the meantime
+                    return;
+                }
+                final String end = describeEnd(game);
+                if (end != null) {
+                    games.end(senderId);
+                    callbackHandler.sendTextMessage(senderId, ("I play " + san + ". " + end + " " + moves(game)).trim());
+                    return;
+                }
+                callbackHandler.sendTextMessage(senderId, "I play " + san + ".");
+                sendBoard(callbackHandler, game);
+            }
+        });
+    }
+
+    private static void sendBoard(MessengerPlatformCallbackHandler callbackHandler, ActiveGame game) {
+        callbackHandler.sendPositionDiagram(game.getSenderId(), game.getPosition(), game.getBotColor() == Piece.WHITE);
+        callbackHandler.sendTextMessage(game.getSenderId(), board(game));
+    }
+
+    /**
+     * @return how the game ended after the last move, null if it goes on
+     */
+    static String describeEnd(ActiveGame game) {
+        final Position position = game.getPosition();
+        if (MoveGenerator.generate(position, new int[MoveGenerator.MAX_MOVES]) == 0) {
+            if (!position.isInCheck()) {
+                return "Stalemate, it is a draw.";
+            }
+            return game.isBotToMove() ? "Checkmate, you win! Well played." : "Checkmate, I win!";
+        }
+        if (position.getHalfmoveClock() >= 100) {
+            return "Fifty moves without a capture or a pawn move, it is a draw.";
+        }
+        if (game.getRepetitions() >= 3) {
+            return "The position repeated three times, it is a draw.";
+        }
+        if (isInsufficientMaterial(position)) {
+            return "Neither of us can mate any more, it is a draw.";
+        }
+        return null;
+    }
+
+    private static boolean isInsufficientMaterial(Position position) {
+        long heavy = 0;
+        for (int color = Piece.WHITE; color <= Piece.BLACK; color++) {
+            heavy |= position.getPieces(Piece.make(color, Piece.PAWN)) | position.getPieces(Piece.make(color, Piece.ROOK))
+                    | position.getPieces(Piece.make(color, Piece.QUEEN));
+        }
+        return heavy == 0 && Long.bitCount(position.getOccupied()) <= 3;
+    }
+
+    private static String moves(ActiveGame game) {
+        return game.getPlies() == 0 ? "" : "The moves were: " + game.getMoveText();
+    }
+
+    /**
+     * @return the board from the user's side as text, with the FEN below
+     */
+    static String board(ActiveGame game) {
+        final Position position = game.getPosition();
+        final boolean flipped = game.getBotColor() == Piece.WHITE;
+        final StringBuilder board = new StringBuilder(200);
+        for (int row = 0; row < 8; row++) {
+            final int rank = flipped ? row : 7 - row;
+            board.append(rank + 1).append(' ');
+            for (int column = 0; column < 8; column++) {
+                final int piece = position.getPiece(Square.of(flipped ? 7 - column : column, rank));
+                board.append(piece == Piece.NONE ? '.' : Piece.symbol(piece)).append(column < 7 ? " " : "\n");
+            }
+        }
+        board.append(flipped ? "  h g f e d c b a" : "  a b c d e f g h");
+        board.append('\n').append(position.toFen());
+        return board.toString();
+    }
+}
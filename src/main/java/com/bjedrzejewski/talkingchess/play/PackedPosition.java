@@ -0,0 +1,77 @@
+package com.bjedrzejewski.talkingchess.play;
+
+import com.bjedrzejewski.talkingchess.engine.Piece;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import com.bjedrzejewski.talkingchess.engine.Square;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A position in 38 bytes: a nibble per square holding the piece plus one, then the side to move and castling
+ * rights, the en passant square, the halfmove clock and the fullmove number.
+ */
+final class PackedPosition {
+
+    static final int SIZE = 38;
+
+    private static final int STATE = 32;
+    private static final int EP_SQUARE = 33;
+    private static final int HALFMOVE_CLOCK = 34;
+    private static final int FULLMOVE_NUMBER = 36;
+
+    private PackedPosition() {
+    }
+
+    static void write(Position position, ByteBuffer buffer, int offset) {
+        for (int square = 0; square < 64; square += 2) {
+            final int low = position.getPiece(square) + 1;
+            final int high = position.getPiece(square + 1) + 1;
+            buffer.put(offset + square / 2, (byte) (high << 4 | low));
+        }
+        buffer.put(offset + STATE, (byte) (position.getCastling() << 1 | position.getSideToMove()));
+        buffer.put(offset + EP_SQUARE, (byte) position.getEpSquare());
+        buffer.putShort(offset + HALFMOVE_CLOCK, (short) Math.min(position.getHalfmoveClock(), Short.MAX_VALUE));
+        buffer.putShort(offset + FULLMOVE_NUMBER, (short) Math.min(position.getFullmoveNumber(), Short.MAX_VALUE));
+    }
+
+    static Position read(ByteBuffer buffer, int offset) {
+        final StringBuilder fen = new StringBuilder(90);
+        for (int rank = 7; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                final int square = Square.of(file, rank);
+                final int piece = (buffer.get(offset + square / 2) >> 4 * (square & 1) & 15) - 1;
+                if (piece == Piece.NONE) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    fen.append(empty);
+                    empty = 0;
+                }
+                fen.append(Piece.symbol(piece));
+            }
+            if (empty > 0) {
+                fen.append(empty);
+            }
+            if (rank > 0) {
+                fen.append('/');
+            }
+        }
+        final int state = buffer.get(offset + STATE);
+        fen.append((state & 1) == Piece.WHITE ? " w " : " b ");
+        final int castling = state >> 1 & 15;
+        for (int right = 0; right < 4; right++) {
+            if ((castling & 1 << right) != 0) {
+                fen.append("KQkq".charAt(right));
+            }
+        }
+        if (castling == 0) {
+            fen.append('-');
+        }
+        final int epSquare = buffer.get(offset + EP_SQUARE);
+        fen.append(' ').append(epSquare == Square.NONE ? "-" : Square.name(epSquare));
+        fen.append(' ').append(buffer.getShort(offset + HALFMOVE_CLOCK)).append(' ').append(buffer.getShort(offset + FULLMOVE_NUMBER));
+        return Position.fromFen(fen.toString());
+    }
+}
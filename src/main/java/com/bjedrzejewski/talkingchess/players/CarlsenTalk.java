@@ -1,11 +1,14 @@
 package com.bjedrzejewski.talkingchess.players;
 
 import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
-import com.github.messenger4j.exceptions.MessengerApiException;
-import com.github.messenger4j.exceptions.MessengerIOException;
-import com.github.messenger4j.send.QuickReply;
+import com.bjedrzejewski.talkingchess.games.GameArchive;
+import com.bjedrzejewski.talkingchess.general.GeneralTalk;
+import com.bjedrzejewski.talkingchess.general.MatchedMessage;
+import com.bjedrzejewski.talkingchess.general.QuickReplyMenu;
+import com.bjedrzejewski.talkingchess.openings.EcoIndex;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -13,38 +16,47 @@ import java.util.List;
  */
 public class CarlsenTalk implements PlayerTalk {
 
+    static final String PGN_NAME = "Carlsen, Magnus";
+
+    private static final String INTRO = "Magnus is great by definition. A lot what he knows he learned from me!";
+    private static final String BIOGRAPHY = "Sven Magnus Øen Carlsen (Norwegian: [sʋɛn ˈmɑŋnʉs øːn ˈkɑːɭsn̩]; born 30 November 1990) is a Norwegian chess grandmaster, and the current World Chess Champion." +
+            "Carlsen was a child chess prodigy who became a chess grandmaster in 2004, at the age of 13 years and 148 days. This made him the third-youngest grandmaster in history." +
+            "In November 2013 Carlsen became World Champion by defeating Viswanathan Anand in the World Chess Championship 2013. On the May 2014 FIDE rating list, Carlsen reached his peak rating of 2882, which is the highest in history. He successfully defended his title in November 2014, once again defeating Anand. In 2014, Carlsen also won the World Rapid Championship and the World Blitz Championship, thus holding all three world championship titles. In November 2016 he defended his world title against Sergey Karjakin.";
+    private static final String GAMES = "Carlsen played many beautiful games. Browing the web I found this amazing collection of some og his best games: http://www.chessgames.com/perl/chesscollection?cid=1007147";
+    private static final String WHITE_OPENINGS = "Carlsen most played openings with White were: Sicilian, Ruy Lopez, Slav, Nimzo Indian";
+    private static final String BLACK_OPENINGS = "His most played openings with black were: Sicilian, Ruy Lopez, Queen's Indian and Nimzo Indian. ";
+
+    private final GameArchive gameArchive;
+    private final EcoIndex ecoIndex;
+    private final QuickReplyMenu menu;
+
+    public CarlsenTalk(GameArchive gameArchive, EcoIndex ecoIndex) {
+        this.gameArchive = gameArchive;
+        this.ecoIndex = ecoIndex;
+        menu = QuickReplyMenu.newBuilder("What would you like me to tell you about Magnus Carlsen?")
+                .addTextQuickReply("Biography", "i want to know more about magnus carlsen", GeneralTalk.playerDetails(this::biography))
+                .addTextQuickReply("Openings", "i want to know magnus carlsen openings", GeneralTalk.playerDetails(this::openings))
+                .addTextQuickReply("Games", "i want to see some magnus carlsen games", GeneralTalk.playerDetails(this::games))
+                .addTextQuickReply("Nothing, thanks", "None, thanks", GeneralTalk.NONE_THANKS)
+                .build();
+    }
+
     @Override
     public void playerTalk(MessengerPlatformCallbackHandler callbackHandler, String senderId) {
-        callbackHandler.sendTextMessage(senderId, "Magnus is great by definition. A lot what he knows he learned from me!");
-        final List<QuickReply> quickReplies = QuickReply.newListBuilder()
-                .addTextQuickReply("Biography", "i want to know more about magnus carlsen").toList()
-                .addTextQuickReply("Openings", "i want to know magnus carlsen openings").toList()
-                .addTextQuickReply("Games", "i want to see some magnus carlsen games").toList()
-                .addTextQuickReply("Nothing, thanks", "None, thanks").toList()
-                .addLocationQuickReply().toList()
-                .build();
-        try {
-            callbackHandler.getSendClient().sendTextMessage(senderId, "What would you like me to tell you about Magnus Carlsen?", quickReplies);
-        } catch (MessengerApiException e) {
-            callbackHandler.handleSendException(e);
-        } catch (MessengerIOException e) {
-            callbackHandler.handleSendException(e);
-        }
+        callbackHandler.sendTextMessage(senderId, INTRO);
+        menu.send(callbackHandler, senderId);
     }
 
     @Override
-    public boolean playerCheckDetails(MessengerPlatformCallbackHandler callbackHandler, String lowerMessage, String recipientId) {
-        if ((lowerMessage.contains("carlsen") || lowerMessage.contains("magnus") && lowerMessage.contains("more"))) {
-            callbackHandler.sendTextMessage(recipientId, "Sven Magnus Øen Carlsen (Norwegian: [sʋɛn ˈmɑŋnʉs øːn ˈkɑːɭsn̩]; born 30 November 1990) is a Norwegian chess grandmaster, and the current World Chess Champion." +
-                    "Carlsen was a child chess prodigy who became a chess grandmaster in 2004, at the age of 13 years and 148 days. This made him the third-youngest grandmaster in history." +
-                    "In November 2013 Carlsen became World Champion by defeating Viswanathan Anand in the World Chess Championship 2013. On the May 2014 FIDE rating list, Carlsen reached his peak rating of 2882, which is the highest in history. He successfully defended his title in November 2014, once again defeating Anand. In 2014, Carlsen also won the World Rapid Championship and the World Blitz Championship, thus holding all three world championship titles. In November 2016 he defended his world title against Sergey Karjakin.");
+    public boolean playerCheckDetails(MessengerPlatformCallbackHandler callbackHandler, MatchedMessage message, String recipientId) {
+        if ((message.contains("carlsen") || message.contains("magnus") && message.contains("more"))) {
+            biography(callbackHandler, recipientId);
             return true;
-        } else if ((lowerMessage.contains("carlsen") || lowerMessage.contains("magnus") && lowerMessage.contains("openings"))) {
-            callbackHandler.sendTextMessage(recipientId, "Carlsen most played openings with White were: Sicilian, Ruy Lopez, Slav, Nimzo Indian");
-            callbackHandler.sendTextMessage(recipientId, "His most played openings with black were: Sicilian, Ruy Lopez, Queen's Indian and Nimzo Indian. ");
+        } else if ((message.contains("carlsen") || message.contains("magnus") && message.contains("openings"))) {
+            openings(callbackHandler, recipientId);
             return true;
-        } else if ((lowerMessage.contains("carlsen") || lowerMessage.contains("magnus") && lowerMessage.contains("games"))) {
-            callbackHandler.sendTextMessage(recipientId, "Carlsen played many beautiful games. Browing the web I found this amazing collection of some og his best games: http://www.chessgames.com/perl/chesscollection?cid=1007147");
+        } else if ((message.contains("carlsen") || message.contains("magnus") && message.contains("games"))) {
+            games(callbackHandler, recipientId);
             return true;
         }
 
@@ -52,6 +64,23 @@ public class CarlsenTalk implements PlayerTalk {
         return false;
     }
 
+    private void biography(MessengerPlatformCallbackHandler callbackHandler, String recipientId) {
+        callbackHandler.sendTextMessage(recipientId, BIOGRAPHY);
+    }
+
+    private void openings(MessengerPlatformCallbackHandler callbackHandler, String recipientId) {
+        PlayerRecord.send(callbackHandler, recipientId, PlayerRecord.openings(gameArchive, ecoIndex, PGN_NAME, "Carlsen", true),
+                WHITE_OPENINGS);
+        PlayerRecord.send(callbackHandler, recipientId, PlayerRecord.openings(gameArchive, ecoIndex, PGN_NAME, "Carlsen", false),
+                BLACK_OPENINGS);
+    }
+
+    private void games(MessengerPlatformCallbackHandler callbackHandler, String recipientId) {
+        callbackHandler.sendTextMessage(recipientId, GAMES);
+        PlayerRecord.send(callbackHandler, recipientId, PlayerRecord.describe(gameArchive, PGN_NAME, "Carlsen"));
+        PlayerRecord.send(callbackHandler, recipientId, PlayerRecord.headToHead(gameArchive, PGN_NAME, "Carlsen", "Anand, Viswanathan", "Anand"));
+    }
+
     @Override
     public List<String> getKeyWords() {
         List<String> keyWords = new ArrayList<>();
@@ -59,4 +88,25 @@ public class CarlsenTalk implements PlayerTalk {
         keyWords.add("magnus");
         return keyWords;
     }
+
+    @Override
+    public List<String> getDetailKeyWords() {
+        List<String> keyWords = new ArrayList<>();
+        keyWords.add("carlsen");
+        keyWords.add("magnus");
+        keyWords.add("more");
+        keyWords.add("openings");
+        keyWords.add("games");
+        return keyWords;
+    }
+
+    @Override
+    public List<String> getTexts() {
+        return Arrays.asList(INTRO, BIOGRAPHY, WHITE_OPENINGS, BLACK_OPENINGS, GAMES);
+    }
+
+    @Override
+    public QuickReplyMenu getQuickReplyMenu() {
+        return menu;
+    }
 }
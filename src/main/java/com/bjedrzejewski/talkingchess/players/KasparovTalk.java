@@ -1,11 +1,14 @@
 package com.bjedrzejewski.talkingchess.players;
 
 import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
-import com.github.messenger4j.exceptions.MessengerApiException;
-import com.github.messenger4j.exceptions.MessengerIOException;
-import com.github.messenger4j.send.QuickReply;
+import com.bjedrzejewski.talkingchess.games.GameArchive;
+import com.bjedrzejewski.talkingchess.general.GeneralTalk;
+import com.bjedrzejewski.talkingchess.general.MatchedMessage;
+import com.bjedrzejewski.talkingchess.general.QuickReplyMenu;
+import com.bjedrzejewski.talkingchess.openings.EcoIndex;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -13,39 +16,48 @@ import java.util.List;
  */
 public class KasparovTalk implements PlayerTalk {
 
+    static final String PGN_NAME = "Kasparov, Garry";
+
+    private static final String INTRO = "Garry Kasparov is one of the greatest chess players of all time! My friend Deep Blue is not a fan though...";
+    private static final String BIOGRAPHY = "Garry Kimovich Kasparov (Russian: Га́рри Ки́мович Каспа́ров, Russian pronunciation: [ˈɡarʲɪ ˈkʲiməvʲɪtɕ kɐˈsparəf]; born Garik Kimovich Weinstein, 13 April 1963) is a Russian chess grandmaster, former World Chess Champion, writer, and political activist, whom many consider to be the greatest chess player of all time. From 1986 until his retirement in 2005, Kasparov was ranked world No. 1 for 225 out of 228 months. His peak rating of 2851, achieved in 1999, was the highest recorded until being surpassed by Magnus Carlsen in 2013. Kasparov also holds records for consecutive professional tournament victories (15) and Chess Oscars (11).";
+    private static final String GAMES = "Kasparov had many amazing duels. I want to show you a few that I consider the most important:";
+    private static final String GAMES_IMMORTAL = "Kasparov Immortal game can be seen here: http://www.chessgames.com/perl/chessgame?gid=1011478 ";
+    private static final String GAMES_DEEP_BLUE = "Kasparov Deep Blue Matches: http://www.chessgames.com/perl/chesscollection?cid=1014770 (it is important for us, engines";
+    private static final String GAMES_COLLECTION = "Some more great Kasparov games compiled: http://www.chessgames.com/perl/chesscollection?cid=1006670";
+    private static final String WHITE_OPENINGS = "Kasparov most played openings with White were: Sicilian, Ruy Lopez, Nimzo Indian, Queen's Gambit Declined, Queen's Indian and Slav.";
+    private static final String BLACK_OPENINGS = "His most played openings with black were: Sicilian (especially Najdorf), King's Indian and Grunfeld. ";
+
+    private final GameArchive gameArchive;
+    private final EcoIndex ecoIndex;
+    private final QuickReplyMenu menu;
+
+    public KasparovTalk(GameArchive gameArchive, EcoIndex ecoIndex) {
+        this.gameArchive = gameArchive;
+        this.ecoIndex = ecoIndex;
+        menu = QuickReplyMenu.newBuilder("What would you like me to tell you about Garry?")
+                .addTextQuickReply("Biography", "i want to know more about garry kasparov", GeneralTalk.playerDetails(this::biography))
+                .addTextQuickReply("Openings", "i want to know garry kasparov openings", GeneralTalk.playerDetails(this::openings))
+                .addTextQuickReply("Games", "i want to see some garry kasparov games", GeneralTalk.playerDetails(this::games))
+                .addTextQuickReply("Nothing, thanks", "None, thanks", GeneralTalk.NONE_THANKS)
+                .build();
+    }
+
     @Override
     public void playerTalk(MessengerPlatformCallbackHandler callbackHandler, String senderId) {
-        callbackHandler.sendTextMessage(senderId, "Garry Kasparov is one of the greatest chess players of all time! My friend Deep Blue is not a fan though...");
-        final List<QuickReply> quickReplies = QuickReply.newListBuilder()
-                .addTextQuickReply("Biography", "i want to know more about garry kasparov").toList()
-                .addTextQuickReply("Openings", "i want to know garry kasparov openings").toList()
-                .addTextQuickReply("Games", "i want to see some garry kasparov games").toList()
-                .addTextQuickReply("Nothing, thanks", "None, thanks").toList()
-                .addLocationQuickReply().toList()
-                .build();
-        try {
-            callbackHandler.getSendClient().sendTextMessage(senderId, "What would you like me to tell you about Garry?", quickReplies);
-        } catch (MessengerApiException e) {
-            callbackHandler.handleSendException(e);
-        } catch (MessengerIOException e) {
-            callbackHandler.handleSendException(e);
-        }
+        callbackHandler.sendTextMessage(senderId, INTRO);
+        menu.send(callbackHandler, senderId);
     }
 
     @Override
-    public boolean playerCheckDetails(MessengerPlatformCallbackHandler callbackHandler, String lowerMessage, String recipientId) {
-        if (lowerMessage.contains("kasparov") && lowerMessage.contains("more")) {
-            callbackHandler.sendTextMessage(recipientId, "Garry Kimovich Kasparov (Russian: Га́рри Ки́мович Каспа́ров, Russian pronunciation: [ˈɡarʲɪ ˈkʲiməvʲɪtɕ kɐˈsparəf]; born Garik Kimovich Weinstein, 13 April 1963) is a Russian chess grandmaster, former World Chess Champion, writer, and political activist, whom many consider to be the greatest chess player of all time. From 1986 until his retirement in 2005, Kasparov was ranked world No. 1 for 225 out of 228 months. His peak rating of 2851, achieved in 1999, was the highest recorded until being surpassed by Magnus Carlsen in 2013. Kasparov also holds records for consecutive professional tournament victories (15) and Chess Oscars (11).");
+    public boolean playerCheckDetails(MessengerPlatformCallbackHandler callbackHandler, MatchedMessage message, String recipientId) {
+        if (message.contains("kasparov") && message.contains("more")) {
+            biography(callbackHandler, recipientId);
             return true;
-        } else if ((lowerMessage.contains("kasparov") && lowerMessage.contains("openings"))) {
-            callbackHandler.sendTextMessage(recipientId, "Kasparov most played openings with White were: Sicilian, Ruy Lopez, Nimzo Indian, Queen's Gambit Declined, Queen's Indian and Slav.");
-            callbackHandler.sendTextMessage(recipientId, "His most played openings with black were: Sicilian (especially Najdorf), King's Indian and Grunfeld. ");
+        } else if ((message.contains("kasparov") && message.contains("openings"))) {
+            openings(callbackHandler, recipientId);
             return true;
-        } else if ((lowerMessage.contains("kasparov") && lowerMessage.contains("games"))) {
-            callbackHandler.sendTextMessage(recipientId, "Kasparov had many amazing duels. I want to show you a few that I consider the most important:");
-            callbackHandler.sendTextMessage(recipientId, "Kasparov Immortal game can be seen here: http://www.chessgames.com/perl/chessgame?gid=1011478 ");
-            callbackHandler.sendTextMessage(recipientId, "Kasparov Deep Blue Matches: http://www.chessgames.com/perl/chesscollection?cid=1014770 (it is important for us, engines");
-            callbackHandler.sendTextMessage(recipientId, "Some more great Kasparov games compiled: http://www.chessgames.com/perl/chesscollection?cid=1006670");
+        } else if ((message.contains("kasparov") && message.contains("games"))) {
+            games(callbackHandler, recipientId);
             return true;
         }
 
@@ -53,10 +65,51 @@ public class KasparovTalk implements PlayerTalk {
         return false;
     }
 
+    private void biography(MessengerPlatformCallbackHandler callbackHandler, String recipientId) {
+        callbackHandler.sendTextMessage(recipientId, BIOGRAPHY);
+    }
+
+    private void openings(MessengerPlatformCallbackHandler callbackHandler, String recipientId) {
+        PlayerRecord.send(callbackHandler, recipientId, PlayerRecord.openings(gameArchive, ecoIndex, PGN_NAME, "Kasparov", true),
+                WHITE_OPENINGS);
+        PlayerRecord.send(callbackHandler, recipientId, PlayerRecord.openings(gameArchive, ecoIndex, PGN_NAME, "Kasparov", false),
+                BLACK_OPENINGS);
+    }
+
+    private void games(MessengerPlatformCallbackHandler callbackHandler, String recipientId) {
+        callbackHandler.sendTextMessage(recipientId, GAMES);
+        callbackHandler.sendTextMessage(recipientId, GAMES_IMMORTAL);
+        callbackHandler.sendTextMessage(recipientId, GAMES_DEEP_BLUE);
+        callbackHandler.sendTextMessage(recipientId, GAMES_COLLECTION);
+        PlayerRecord.send(callbackHandler, recipientId, PlayerRecord.describe(gameArchive, PGN_NAME, "Kasparov"));
+        PlayerRecord.send(callbackHandler, recipientId, PlayerRecord.headToHead(gameArchive, PGN_NAME, "Kasparov", "Karpov, Anatoly", "Karpov"));
+    }
+
     @Override
     public List<String> getKeyWords() {
         List<String> keyWords = new ArrayList<>();
         keyWords.add("kasparov");
         return keyWords;
     }
+
+    @Override
+    public List<String> getDetailKeyWords() {
+        List<String> keyWords = new ArrayList<>();
+        keyWords.add("kasparov");
+        keyWords.add("more");
+        keyWords.add("openings");
+        keyWords.add("games");
+        return keyWords;
+    }
+
+    @Override
+    public List<String> getTexts() {
+        return Arrays.asList(INTRO, BIOGRAPHY, WHITE_OPENINGS, BLACK_OPENINGS, GAMES, GAMES_IMMORTAL, GAMES_DEEP_BLUE,
+                GAMES_COLLECTION);
+    }
+
+    @Override
+    public QuickReplyMenu getQuickReplyMenu() {
+        return menu;
+    }
 }
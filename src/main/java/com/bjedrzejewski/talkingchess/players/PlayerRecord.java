@@ -0,0 +1,140 @@
+package com.bjedrzejewski.talkingchess.players;
+
+import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
+import com.bjedrzejewski.talkingchess.games.GameArchive;
+import com.bjedrzejewski.talkingchess.games.GameStore;
+import com.bjedrzejewski.talkingchess.games.PlayerStatsCube;
+import com.bjedrzejewski.talkingchess.openings.EcoIndex;
+
+import java.nio.IntBuffer;
+import java.util.Locale;
+
+/**
+ * Sums up a player's games in the {@link GameArchive}, from its {@link PlayerStatsCube} when it is up to date.
+ */
+final class PlayerRecord {
+
+    private static final int OPENINGS_SHOWN = 4;
+
+    private PlayerRecord() {
+    }
+
+    /**
+     * @param player name as written in PGN files, such as "Carlsen, Magnus"
+     * @return a sentence about the player's games, null if the archive has none
+     */
+    static String describe(GameArchive archive, String player, String shortName) {
+        final GameStore store = archive.getStore();
+        if (store == null) {
+            return null;
+        }
+        final int id = store.findPlayer(player);
+        if (id < 0) {
+            return null;
+        }
+        final PlayerStatsCube stats = archive.getStats(store);
+        if (stats != null) {
+            final int first = stats.getFirstDate(id) / 10000;
+            final int last = stats.getLastDate(id) / 10000;
+            return record(store.getGameCount(id), shortName, first, last,
+                    stats.getWins(id, true) + stats.getWins(id, false),
+                    stats.getDraws(id, true) + stats.getDraws(id, false),
+                    stats.getLosses(id, true) + stats.getLosses(id, false));
+        }
+        final IntBuffer games = store.gamesOf(id);
+        int wins = 0;
+        int draws = 0;
+        int losses = 0;
+        int first = Integer.MAX_VALUE;
+        int last = 0;
+        while (games.hasRemaining()) {
+            final int game = games.get();
+            final byte result = store.getResult(game);
+            final boolean white = store.getWhite(game) == id;
+            if (result == GameStore.DRAW) {
+                draws++;
+            } else if (result == GameStore.WHITE_WINS) {
+                if (white) {
+                    wins++;
+                } else {
+                    losses++;
+                }
+            } else if (result == GameStore.BLACK_WINS) {
+                if (white) {
+                    losses++;
+                } else {
+                    wins++;
+                }
+            }
+            final int year = store.getDate(game) / 10000;
+            if (year > 0) {
+                first = Math.min(first, year);
+                last = Math.max(last, year);
+            }
+        }
+        return record(store.getGameCount(id), shortName, first, last, wins, draws, losses);
+    }
+
+    private static String record(int games, String shortName, int first, int last, int wins, int draws, int losses) {
+        final String years = last == 0 ? "" : first == last ? " from " + first : " from " + first + " to " + last;
+        return String.format(Locale.ROOT, "My archive has %,d games of %s%s: %,d wins, %,d draws and %,d losses.",
+                games, shortName, years, wins, draws, losses);
+    }
+
+    /**
+     * @return the openings the player met most often with the colour, named by the ECO table, and the score with
+     * them, null without statistics
+     */
+    static String openings(GameArchive archive, EcoIndex ecoIndex, String player, String shortName, boolean white) {
+        final GameStore store = archive.getStore();
+        final PlayerStatsCube stats = archive.getStats(store);
+        final int id = stats == null ? -1 : store.findPlayer(player);
+        if (id < 0 || stats.getOpeningCount(id, white) == 0) {
+            return null;
+        }
+        final StringBuilder openings = new StringBuilder();
+        for (int rank = 0; rank < Math.min(OPENINGS_SHOWN, stats.getOpeningCount(id, white)); rank++) {
+            final String eco = GameStore.ecoName(stats.getOpeningEco(id, white, rank));
+            final EcoIndex.Opening opening = ecoIndex.findByEco(eco);
+            openings.append(rank == 0 ? "" : ", ").append(opening == null ? eco : opening.getName())
+                    .append(String.format(Locale.ROOT, " (%s, %,d games)", eco, stats.getOpeningGames(id, white, rank)));
+        }
+        return String.format(Locale.ROOT, "In my archive %s plays %s most with %s and scores %.1f%% with them.",
+                shortName, openings, white ? "White" : "Black", stats.getScore(id, white));
+    }
+
+    /**
+     * @return the player's wins, draws and losses against the opponent, null without statistics or games between them
+     */
+    static String headToHead(GameArchive archive, String player, String shortName, String opponent, String opponentShortName) {
+        final GameStore store = archive.getStore();
+        final PlayerStatsCube stats = archive.getStats(store);
+        final int id = stats == null ? -1 : store.findPlayer(player);
+        final int opponentId = id < 0 ? -1 : store.findPlayer(opponent);
+        if (opponentId < 0) {
+            return null;
+        }
+        final int[] score = stats.getHeadToHead(id, opponentId);
+        if (score[0] + score[1] + score[2] == 0) {
+            return null;
+        }
+        return String.format(Locale.ROOT, "Against %s, %s has %,d wins, %,d draws and %,d losses.",
+                opponentShortName, shortName, score[0], score[1], score[2]);
+    }
+
+    /**
+     * Sends the sentence unless the archive had nothing to say.
+     */
+    static void send(MessengerPlatformCallbackHandler callbackHandler, String recipientId, String message) {
+        if (message != null) {
+            callbackHandler.sendTextMessage(recipientId, message);
+        }
+    }
+
+    /**
+     * Sends the sentence, or what the talk knows by heart when the archive had nothing to say.
+     */
+    static void send(MessengerPlatformCallbackHandler callbackHandler, String recipientId, String message, String fallback) {
+        callbackHandler.sendTextMessage(recipientId, message != null ? message : fallback);
+    }
+}
@@ -1,6 +1,8 @@
 package com.bjedrzejewski.talkingchess.players;
 
 import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
+import com.bjedrzejewski.talkingchess.general.MatchedMessage;
+import com.bjedrzejewski.talkingchess.general.QuickReplyMenu;
 
 import java.util.List;
 
@@ -11,7 +13,22 @@ public interface PlayerTalk {
 
     void playerTalk(MessengerPlatformCallbackHandler callbackHandler, String senderId);
 
-    boolean playerCheckDetails(MessengerPlatformCallbackHandler callbackHandler, String lowerMessage, String recipientId);
+    boolean playerCheckDetails(MessengerPlatformCallbackHandler callbackHandler, MatchedMessage message, String recipientId);
 
     List<String> getKeyWords();
+
+    /**
+     * Keywords used by the details check, compiled into the {@code KeywordMatcher} at startup.
+     */
+    List<String> getDetailKeyWords();
+
+    /**
+     * Menu of details this talk offers, registered with the {@code QuickReplyRegistry} at startup.
+     */
+    QuickReplyMenu getQuickReplyMenu();
+
+    /**
+     * Texts this talk answers with word for word, prerendered by the {@code PreparedMessageCache} at startup.
+     */
+    List<String> getTexts();
 }
@@ -0,0 +1,250 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ids of the attachments uploaded to the platform, so that every asset is uploaded once and then sent by its id.
+ * <p>
+ * Assets are registered under a hash of their content. The first message of an asset goes by its URL and queues
+ * an upload on a background thread, later messages go by the id the upload returned. The ids are appended to
+ * {@code data/attachments.log} and survive a restart. When the platform rejects an id, the {@link SendPipeline}
+ * sends the URL instead and the asset is uploaded again.
+ * <pre>
+ * header: magic (4) | version (4)
+ * record: kind (1) | key (UTF) | attachment id (UTF, only for uploads)
+ * </pre>
+ */
+@Component
+public class AttachmentRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentRegistry.class);
+
+    private static final int MAGIC = 0x54434154;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte UPLOADED = 1;
+    private static final byte INVALIDATED = 2;
+
+    private final GraphApiClient graphApiClient;
+    private final Path file;
+    private FileChannel channel;
+    private final Map<String, String> ids = new ConcurrentHashMap<>();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final ExecutorService uploader;
+
+    private final LongAdder uploads = new LongAdder();
+    private final LongAdder uploadFailures = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+    private final LongAdder sentById = new LongAdder();
+
+    @Autowired
+    public AttachmentRegistry(final GraphApiClient graphApiClient,
+                              @Value("${talkingchess.dataDir:data}") final String dataDir) throws IOException {
+        this(graphApiClient, Paths.get(dataDir, "attachments.log"));
+    }
+
+    AttachmentRegistry(GraphApiClient graphApiClient, Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.graphApiClient = graphApiClient;
+        this.file = file;
+        if (Files.exists(file) && Files.size(file) >= HEADER_SIZE) {
+            read();
+        }
+        //the log only grows by invalidated ids, starting from the live ones keeps it small
+        rewrite();
+        this.uploader = Executors.newSingleThreadExecutor(task -> {
+            final Thread thread = new Thread(task, "attachment-upload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Attachment registry initialized - ids: {}", ids.size());
+    }
+
+    /**
+     * @param key content hash of the image
+     * @param url where the platform can fetch the image from
+     * @return the image by its attachment id once it has been uploaded, by the URL until then
+     */
+    public PreparedMessage image(String key, String url) {
+        final PreparedMessage byUrl = PreparedMessage.image(url);
+        final String id = ids.get(key);
+        if (id == null) {
+            upload(key, "image", url);
+            return byUrl;
+        }
+        sentById.increment();
+        return PreparedMessage.attachment("image", id, key, byUrl);
+    }
+
+    /**
+     * Forgets the id the message was sent by and uploads its asset again.
+     */
+    void invalidate(PreparedMessage message) {
+        final String key = message.getAttachmentKey();
+        if (ids.remove(key) == null) {
+            return;
+        }
+        invalidated.increment();
+        logger.warn("Attachment id of '{}' is no longer valid, uploading it again", key);
+        synchronized (this) {
+            try {
+                append(INVALIDATED, key, null);
+            } catch (IOException e) {
+                logger.error("Could not record the invalidated attachment '{}'", key, e);
+            }
+        }
+        upload(key, "image", message.getFallback().getText());
+    }
+
+    private void upload(String key, String type, String url) {
+        if (!pending.add(key)) {
+            return;
+        }
+        uploader.execute(() -> {
+            try {
+                final String id = graphApiClient.upload(type, url);
+                synchronized (this) {
+                    append(UPLOADED, key, id);
+                }
+                ids.put(key, id);
+                uploads.increment();
+                logger.info("Uploaded attachment '{}' as {}", key, id);
+            } catch (SendException | IOException | RuntimeException e) {
+                //the next message of the asset tries again
+                uploadFailures.increment();
+                logger.warn("Could not upload attachment '{}' from {}", key, url, e);
+            } finally {
+                pending.remove(key);
+            }
+        });
+    }
+
+    private void read() throws IOException {
+        final byte[] bytes = Files.readAllBytes(file);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an attachment log of version " + VERSION + ": " + file);
+            }
+            while (in.available() > 0) {
+                final byte kind = in.readByte();
+                final String key = in.readUTF();
+                if (kind == UPLOADED) {
+                    ids.put(key, in.readUTF());
+                } else if (kind == INVALIDATED) {
+                    ids.remove(key);
+                } else {
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            //the last record did not make it to the disk completely
+        }
+    }
+
+    private synchronized void rewrite() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + ids.size() * 96);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        for (Map.Entry<String, String> id : ids.entrySet()) {
+            out.writeByte(UPLOADED);
+            out.writeUTF(id.getKey());
+            out.writeUTF(id.getValue());
+        }
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel tempChannel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(tempChannel, bytes.toByteArray());
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void append(byte kind, String key, String id) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(kind);
+        out.writeUTF(key);
+        if (id != null) {
+            out.writeUTF(id);
+        }
+        write(channel, bytes.toByteArray());
+    }
+
+    private static void write(FileChannel channel, byte[] bytes) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Waits for the uploads queued so far, for tests.
+     */
+    void awaitUploads() throws Exception {
+        uploader.submit(() -> { }).get(10, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        uploader.shutdown();
+        try {
+            uploader.awaitTermination(5, TimeUnit.SECONDS);
+            synchronized (this) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not close the attachment log", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getIds() {
+        return ids.size();
+    }
+
+    public long getUploads() {
+        return uploads.sum();
+    }
+
+    public long getUploadFailures() {
+        return uploadFailures.sum();
+    }
+
+    public long getInvalidated() {
+        return invalidated.sum();
+    }
+
+    public long getSentById() {
+        return sentById.sum();
+    }
+}
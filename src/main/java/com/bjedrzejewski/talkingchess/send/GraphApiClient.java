@@ -0,0 +1,114 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Posts {@link PreparedMessage} bodies to the Send API as raw bytes, and uploads attachments next to it.
+ */
+@Component
+public class GraphApiClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(GraphApiClient.class);
+
+    private static final Pattern ATTACHMENT_ID = Pattern.compile("\"attachment_id\"\\s*:\\s*\"(\\d+)\"");
+
+    private final URL messagesUrl;
+    private final URL attachmentsUrl;
+    private final int timeoutMillis;
+
+    @Autowired
+    public GraphApiClient(@Value("${messenger4j.pageAccessToken}") final String pageAccessToken,
+                          @Value("${talkingchess.graph.messagesUrl:https://graph.facebook.com/v2.6/me/messages}") final String messagesUrl,
+                          @Value("${talkingchess.graph.timeoutMillis:10000}") final int timeoutMillis) throws MalformedURLException {
+        this.messagesUrl = new URL(messagesUrl + "?access_token=" + pageAccessToken);
+        //the Attachment Upload API lives next to the Send API
+        this.attachmentsUrl = new URL(messagesUrl.replaceFirst("/messages$", "/message_attachments")
+                + "?access_token=" + pageAccessToken);
+        this.timeoutMillis = timeoutMillis;
+        logger.debug("Initializing GraphApiClient - messagesUrl: {}", messagesUrl);
+    }
+
+    public void send(String recipientId, PreparedMessage message) throws SendException {
+        post(message.forRecipient(recipientId));
+    }
+
+    /**
+     * Has the platform fetch the asset at the URL once and keep it for reuse.
+     *
+     * @param type attachment type such as {@code image}
+     * @return the id later messages can send the attachment by
+     */
+    public String upload(String type, String url) throws SendException {
+        final StringBuilder json = new StringBuilder(url.length() + 128);
+        json.append("{\"message\":{\"attachment\":{\"type\":");
+        PreparedMessage.appendString(json, type);
+        json.append(",\"payload\":{\"url\":");
+        PreparedMessage.appendString(json, url);
+        json.append(",\"is_reusable\":true}}}}");
+        final String response = post(attachmentsUrl, json.toString().getBytes(StandardCharsets.UTF_8));
+        final Matcher matcher = ATTACHMENT_ID.matcher(response);
+        if (!matcher.find()) {
+            throw new SendException("Attachment Upload API response has no attachment id: " + response, null);
+        }
+        return matcher.group(1);
+    }
+
+    void post(byte[] body) throws SendException {
+        post(messagesUrl, body);
+    }
+
+    private String post(URL url, byte[] body) throws SendException {
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            final int status = connection.getResponseCode();
+            //the response has to be read fully so that the connection can be kept alive and reused
+            final String response = read(status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+            if (status >= 400) {
+                throw new SendException(status, response);
+            }
+            logger.debug("Send API response: {}", response);
+            return response;
+        } catch (IOException e) {
+            throw new SendException("Send API request failed", e);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try (InputStream stream = in) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
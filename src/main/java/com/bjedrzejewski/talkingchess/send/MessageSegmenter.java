@@ -0,0 +1,122 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Splits outbound texts into chunks the platform accepts, breaking on sentence boundaries first and on words
+ * when a single sentence is too long. The static texts are segmented once, when the {@link PreparedMessageCache}
+ * renders them at startup, other texts on every send.
+ * Texts that could only be segmented by cutting a word are reported instead of being silently dropped.
+ */
+@Component
+public class MessageSegmenter {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageSegmenter.class);
+
+    /**
+     * Keeps messages shorter than 300 chars.
+     */
+    public static final int MAX_MESSAGE_LENGTH = 298;
+
+    private static final int MAX_REPORTED = 100;
+
+    private final Set<String> unsegmentable = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @return immutable chunks of the text, each at most {@link #MAX_MESSAGE_LENGTH} chars long
+     */
+    public List<String> segment(String text) {
+        if (text.length() <= MAX_MESSAGE_LENGTH) {
+            return Collections.singletonList(text);
+        }
+        return Collections.unmodifiableList(split(text));
+    }
+
+    private List<String> split(String text) {
+        final List<String> chunks = new ArrayList<>();
+        final StringBuilder chunk = new StringBuilder(MAX_MESSAGE_LENGTH);
+        for (String sentence : sentences(text)) {
+            if (sentence.length() > MAX_MESSAGE_LENGTH) {
+                for (String word : sentence.split(" ")) {
+                    if (word.length() > MAX_MESSAGE_LENGTH) {
+                        reportUnsegmentable(text);
+                        flush(chunk, chunks);
+                        for (int i = 0; i < word.length(); i += MAX_MESSAGE_LENGTH) {
+                            chunks.add(word.substring(i, Math.min(word.length(), i + MAX_MESSAGE_LENGTH)));
+                        }
+                    } else {
+                        append(word, chunk, chunks);
+                    }
+                }
+            } else {
+                append(sentence, chunk, chunks);
+            }
+        }
+        flush(chunk, chunks);
+        return chunks;
+    }
+
+    /**
+     * Sentences keep their terminating punctuation, a line break always ends a sentence.
+     */
+    private static List<String> sentences(String text) {
+        final List<String> sentences = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            final boolean end = c == '\n'
+                    || ((c == '.' || c == '!' || c == '?') && i + 1 < text.length() && Character.isWhitespace(text.charAt(i + 1)));
+            if (end) {
+                addTrimmed(text.substring(start, i + 1), sentences);
+                start = i + 1;
+            }
+        }
+        addTrimmed(text.substring(start), sentences);
+        return sentences;
+    }
+
+    private static void addTrimmed(String part, List<String> parts) {
+        final String trimmed = part.trim();
+        if (!trimmed.isEmpty()) {
+            parts.add(trimmed);
+        }
+    }
+
+    private static void append(String part, StringBuilder chunk, List<String> chunks) {
+        if (chunk.length() > 0 && chunk.length() + 1 + part.length() > MAX_MESSAGE_LENGTH) {
+            flush(chunk, chunks);
+        }
+        if (chunk.length() > 0) {
+            chunk.append(' ');
+        }
+        chunk.append(part);
+    }
+
+    private static void flush(StringBuilder chunk, List<String> chunks) {
+        if (chunk.length() > 0) {
+            chunks.add(chunk.toString());
+            chunk.setLength(0);
+        }
+    }
+
+    private void reportUnsegmentable(String text) {
+        if (unsegmentable.size() < MAX_REPORTED && unsegmentable.add(text)) {
+            logger.warn("Message has a word longer than {} chars and had to be cut: {}", MAX_MESSAGE_LENGTH, text);
+        }
+    }
+
+    /**
+     * Texts that could not be split on sentence or word boundaries.
+     */
+    public Set<String> getUnsegmentable() {
+        return Collections.unmodifiableSet(unsegmentable);
+    }
+}
@@ -0,0 +1,176 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Send API request rendered once into bytes, with only the recipient id left to fill in.
+ * Sending a static text or a quick reply menu is then a matter of splicing three byte arrays.
+ */
+public final class PreparedMessage {
+
+    private static final byte[] PREFIX = "{\"recipient\":{\"id\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final String METADATA = "DEVELOPER_DEFINED_METADATA";
+
+    private final String text;
+    private final byte[] suffix;
+    private final String attachmentKey;
+    private final PreparedMessage fallback;
+
+    private PreparedMessage(String text, String suffix) {
+        this(text, suffix, null, null);
+    }
+
+    private PreparedMessage(String text, String suffix, String attachmentKey, PreparedMessage fallback) {
+        this.text = text;
+        this.suffix = suffix.getBytes(StandardCharsets.UTF_8);
+        this.attachmentKey = attachmentKey;
+        this.fallback = fallback;
+    }
+
+    public static PreparedMessage text(String text) {
+        final StringBuilder json = new StringBuilder(text.length() + 128);
+        json.append("\"},\"message\":{\"text\":");
+        appendString(json, text);
+        json.append(",\"metadata\":");
+        appendString(json, METADATA);
+        json.append("},\"notification_type\":\"REGULAR\"}");
+        return new PreparedMessage(text, json.toString());
+    }
+
+    /**
+     * Text with text quick replies followed by the location quick reply, as every menu of ours has it.
+     */
+    public static PreparedMessage quickReplies(String text, List<String> titles, List<String> payloads) {
+        final StringBuilder json = new StringBuilder(text.length() + 96 * (titles.size() + 1));
+        json.append("\"},\"message\":{\"text\":");
+        appendString(json, text);
+        json.append(",\"quick_replies\":[");
+        for (int i = 0; i < titles.size(); i++) {
+            json.append("{\"content_type\":\"text\",\"title\":");
+            appendString(json, titles.get(i));
+            json.append(",\"payload\":");
+            appendString(json, payloads.get(i));
+            json.append("},");
+        }
+        json.append("{\"content_type\":\"location\"}]}}");
+        return new PreparedMessage(text, json.toString());
+    }
+
+    /**
+     * Image attachment Messenger fetches from the URL. The text of the message is the URL.
+     */
+    public static PreparedMessage image(String url) {
+        final StringBuilder json = new StringBuilder(url.length() + 160);
+        json.append("\"},\"message\":{\"attachment\":{\"type\":\"image\",\"payload\":{\"url\":");
+        appendString(json, url);
+        json.append(",\"is_reusable\":true}}},\"notification_type\":\"REGULAR\"}");
+        return new PreparedMessage(url, json.toString());
+    }
+
+    /**
+     * Attachment sent by the id it was uploaded under, see {@link AttachmentRegistry}.
+     *
+     * @param key      content hash the attachment is registered under
+     * @param fallback the message to send instead if the platform no longer knows the id
+     */
+    static PreparedMessage attachment(String type, String attachmentId, String key, PreparedMessage fallback) {
+        final StringBuilder json = new StringBuilder(160);
+        json.append("\"},\"message\":{\"attachment\":{\"type\":");
+        appendString(json, type);
+        json.append(",\"payload\":{\"attachment_id\":");
+        appendString(json, attachmentId);
+        json.append("}}},\"notification_type\":\"REGULAR\"}");
+        return new PreparedMessage(fallback.getText(), json.toString(), key, fallback);
+    }
+
+    /**
+     * Sender action such as {@code typing_on}, these have no message body.
+     */
+    public static PreparedMessage senderAction(String action) {
+        final StringBuilder json = new StringBuilder(64);
+        json.append("\"},\"sender_action\":");
+        appendString(json, action);
+        json.append('}');
+        return new PreparedMessage(action, json.toString());
+    }
+
+    public byte[] forRecipient(String recipientId) {
+        final byte[] id = recipientBytes(recipientId);
+        final byte[] body = new byte[PREFIX.length + id.length + suffix.length];
+        System.arraycopy(PREFIX, 0, body, 0, PREFIX.length);
+        System.arraycopy(id, 0, body, PREFIX.length, id.length);
+        System.arraycopy(suffix, 0, body, PREFIX.length + id.length, suffix.length);
+        return body;
+    }
+
+    /**
+     * Page scoped ids are numeric, anything else is escaped like any other JSON string.
+     */
+    private static byte[] recipientBytes(String recipientId) {
+        boolean plain = true;
+        for (int i = 0; i < recipientId.length() && plain; i++) {
+            final char c = recipientId.charAt(i);
+            plain = c >= '0' && c <= '9';
+        }
+        if (plain) {
+            return recipientId.getBytes(StandardCharsets.US_ASCII);
+        }
+        final StringBuilder escaped = new StringBuilder();
+        appendString(escaped, recipientId);
+        return escaped.substring(1, escaped.length() - 1).getBytes(StandardCharsets.UTF_8);
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return content hash of the attachment sent by id, null for any other message
+     */
+    String getAttachmentKey() {
+        return attachmentKey;
+    }
+
+    /**
+     * @return the message to send instead if the attachment id is not valid, null for any other message
+     */
+    PreparedMessage getFallback() {
+        return fallback;
+    }
+
+    public int size() {
+        return PREFIX.length + suffix.length;
+    }
+}
@@ -0,0 +1,86 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Static texts rendered into ready to send request bodies, one per segment.
+ * <p>
+ * The table is filled once at startup with the texts of the talks and their menus and never evicts. Any other
+ * text, such as an analysis or a game move, is segmented and rendered on every send and never stored, so the
+ * table cannot fill up with texts that will not be sent again.
+ */
+@Component
+public class PreparedMessageCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(PreparedMessageCache.class);
+
+    private final MessageSegmenter messageSegmenter;
+    private volatile Map<String, List<PreparedMessage>> rendered = Collections.emptyMap();
+    private final LongAdder renderedOnSend = new LongAdder();
+
+    @Autowired
+    public PreparedMessageCache(final MessageSegmenter messageSegmenter) {
+        this.messageSegmenter = messageSegmenter;
+    }
+
+    /**
+     * Renders the static texts, replacing the texts rendered before.
+     */
+    public void prerender(Collection<String> texts) {
+        final long start = System.nanoTime();
+        final Map<String, List<PreparedMessage>> table = new HashMap<>();
+        int messages = 0;
+        for (String text : texts) {
+            if (!table.containsKey(text)) {
+                final List<PreparedMessage> prepared = render(text);
+                table.put(text, prepared);
+                messages += prepared.size();
+            }
+        }
+        rendered = Collections.unmodifiableMap(table);
+        logger.info("Static texts rendered - texts: {} | messages: {} | time: {}ms", table.size(), messages,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public List<PreparedMessage> text(String text) {
+        final List<PreparedMessage> prepared = rendered.get(text);
+        if (prepared != null) {
+            return prepared;
+        }
+        renderedOnSend.increment();
+        return render(text);
+    }
+
+    private List<PreparedMessage> render(String text) {
+        final List<PreparedMessage> prepared = new ArrayList<>();
+        for (String segment : messageSegmenter.segment(text)) {
+            prepared.add(PreparedMessage.text(segment));
+        }
+        return Collections.unmodifiableList(prepared);
+    }
+
+    /**
+     * @return number of static texts rendered at startup
+     */
+    public int getCachedCount() {
+        return rendered.size();
+    }
+
+    /**
+     * @return texts that were not static and had to be rendered when they were sent
+     */
+    public long getRenderedOnSend() {
+        return renderedOnSend.sum();
+    }
+}
@@ -0,0 +1,190 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only, memory-mapped log of the sends waiting for a retry.
+ * <p>
+ * The header keeps the write offset and a low water mark, the offset of the oldest record still pending.
+ * Everything below the mark is resolved, so recovery only reads the records between the mark and the write offset.
+ * Attempts, due time and status are fixed-size fields updated in place. Once nothing is pending the log starts
+ * over from the header, so it only grows while retries pile up.
+ * <pre>
+ * header: magic (8) | write offset (8) | low water mark (8)
+ * record: status (1) | attempts (4) | next attempt epoch millis (8) | recipient length (2) | body length (4) | recipient | body
+ * </pre>
+ */
+class RetryLog implements Closeable {
+
+    private static final long MAGIC = 0x5443524554525931L;
+    private static final int HEADER_SIZE = 24;
+    private static final int WRITE_OFFSET = 8;
+    private static final int LOW_WATER_MARK = 16;
+
+    private static final int RECORD_HEADER_SIZE = 19;
+    private static final int ATTEMPTS = 1;
+    private static final int NEXT_ATTEMPT = 5;
+    private static final int RECIPIENT_LENGTH = 13;
+    private static final int BODY_LENGTH = 15;
+
+    private static final byte PENDING = 1;
+    private static final byte RESOLVED = 2;
+
+    private final FileChannel channel;
+    private final long maxSize;
+    private MappedByteBuffer buffer;
+
+    RetryLog(Path file, int initialSize, long maxSize) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.maxSize = maxSize;
+        final boolean fresh = channel.size() < HEADER_SIZE;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(initialSize, channel.size()));
+        if (fresh) {
+            reset();
+        } else if (buffer.getLong(0) != MAGIC) {
+            throw new IOException("Not a retry log: " + file);
+        }
+    }
+
+    /**
+     * Records left pending by a previous run.
+     */
+    synchronized List<Entry> recover() {
+        final List<Entry> pending = new ArrayList<>();
+        final long end = buffer.getLong(WRITE_OFFSET);
+        long offset = buffer.getLong(LOW_WATER_MARK);
+        while (offset < end) {
+            if (buffer.get((int) offset) == PENDING) {
+                pending.add(read(offset));
+            }
+            offset += recordSize(offset);
+        }
+        return pending;
+    }
+
+    synchronized Entry append(String recipientId, byte[] body, int attempts, long nextAttemptAt) throws IOException {
+        final byte[] recipient = recipientId.getBytes(StandardCharsets.UTF_8);
+        final int size = RECORD_HEADER_SIZE + recipient.length + body.length;
+        final long offset = buffer.getLong(WRITE_OFFSET);
+        ensureCapacity(offset + size);
+        final int position = (int) offset;
+        buffer.put(position, PENDING);
+        buffer.putInt(position + ATTEMPTS, attempts);
+        buffer.putLong(position + NEXT_ATTEMPT, nextAttemptAt);
+        buffer.putShort(position + RECIPIENT_LENGTH, (short) recipient.length);
+        buffer.putInt(position + BODY_LENGTH, body.length);
+        final ByteBuffer data = buffer.duplicate();
+        data.position(position + RECORD_HEADER_SIZE);
+        data.put(recipient).put(body);
+        //the record has to be on disk before the write offset points past it
+        buffer.force();
+        buffer.putLong(WRITE_OFFSET, offset + size);
+        buffer.force();
+        return new Entry(offset, recipientId, body, attempts, nextAttemptAt);
+    }
+
+    synchronized void update(Entry entry) {
+        final int position = (int) entry.offset;
+        buffer.putInt(position + ATTEMPTS, entry.attempts);
+        buffer.putLong(position + NEXT_ATTEMPT, entry.nextAttemptAt);
+        buffer.force();
+    }
+
+    /**
+     * Marks the entry as done, either delivered or handed over to the dead letters.
+     */
+    synchronized void resolve(Entry entry) {
+        buffer.put((int) entry.offset, RESOLVED);
+        final long end = buffer.getLong(WRITE_OFFSET);
+        long mark = buffer.getLong(LOW_WATER_MARK);
+        while (mark < end && buffer.get((int) mark) == RESOLVED) {
+            mark += recordSize(mark);
+        }
+        if (mark >= end) {
+            reset();
+        } else {
+            buffer.putLong(LOW_WATER_MARK, mark);
+            buffer.force();
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return buffer.getLong(LOW_WATER_MARK) == buffer.getLong(WRITE_OFFSET);
+    }
+
+    synchronized long getSize() {
+        return buffer.getLong(WRITE_OFFSET);
+    }
+
+    private void reset() {
+        buffer.putLong(0, MAGIC);
+        buffer.putLong(WRITE_OFFSET, HEADER_SIZE);
+        buffer.putLong(LOW_WATER_MARK, HEADER_SIZE);
+        buffer.force();
+    }
+
+    private void ensureCapacity(long required) throws IOException {
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        long size = buffer.capacity();
+        while (size < required) {
+            size *= 2;
+        }
+        if (size > maxSize) {
+            throw new IOException("Retry log is full (" + buffer.capacity() + " bytes)");
+        }
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private int recordSize(long offset) {
+        final int position = (int) offset;
+        return RECORD_HEADER_SIZE + buffer.getShort(position + RECIPIENT_LENGTH) + buffer.getInt(position + BODY_LENGTH);
+    }
+
+    private Entry read(long offset) {
+        final int position = (int) offset;
+        final byte[] recipient = new byte[buffer.getShort(position + RECIPIENT_LENGTH)];
+        final byte[] body = new byte[buffer.getInt(position + BODY_LENGTH)];
+        final ByteBuffer data = buffer.duplicate();
+        data.position(position + RECORD_HEADER_SIZE);
+        data.get(recipient).get(body);
+        return new Entry(offset, new String(recipient, StandardCharsets.UTF_8), body,
+                buffer.getInt(position + ATTEMPTS), buffer.getLong(position + NEXT_ATTEMPT));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    static final class Entry {
+
+        final long offset;
+        final String recipientId;
+        final byte[] body;
+        int attempts;
+        long nextAttemptAt;
+
+        private Entry(long offset, String recipientId, byte[] body, int attempts, long nextAttemptAt) {
+            this.offset = offset;
+            this.recipientId = recipientId;
+            this.body = body;
+            this.attempts = attempts;
+            this.nextAttemptAt = nextAttemptAt;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gives failed sends another chance instead of losing the user's answer.
+ * <p>
+ * Network errors, server errors and throttling are retried with exponential backoff by the {@link SendPipeline}
+ * sender serving the recipient, which holds back the recipient's later messages meanwhile so that they still arrive
+ * in order. Every retry is kept in the {@link RetryLog} until it is resolved, so retries survive a restart. Sends that
+ * are rejected for good or run out of attempts go to the dead letter file, one {@code recipientId body} line per
+ * message, from where they can be replayed.
+ */
+@Component
+public class RetryQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryQueue.class);
+
+    private final RetryLog retryLog;
+    private final Path deadLetterFile;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final List<RetryLog.Entry> recoveredEntries;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder deadLettersLost = new LongAdder();
+    private final int recovered;
+
+    @Autowired
+    public RetryQueue(@Value("${talkingchess.dataDir:data}") final String dataDir,
+                      @Value("${talkingchess.retry.maxAttempts:6}") final int maxAttempts,
+                      @Value("${talkingchess.retry.initialBackoffMillis:1000}") final long initialBackoffMillis,
+                      @Value("${talkingchess.retry.maxBackoffMillis:300000}") final long maxBackoffMillis,
+                      @Value("${talkingchess.retry.maxLogSize:67108864}") final long maxLogSize) throws IOException {
+        this.retryLog = new RetryLog(Paths.get(dataDir, "retry.log"), 1 << 20, maxLogSize);
+        this.deadLetterFile = Paths.get(dataDir, "dead-letters.log");
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+
+        this.recoveredEntries = retryLog.recover();
+        this.recovered = recoveredEntries.size();
+        pending.set(recovered);
+        logger.info("Retry queue initialized - recovered: {} | max attempts: {} | backoff: {}ms to {}ms",
+                recovered, maxAttempts, initialBackoffMillis, maxBackoffMillis);
+    }
+
+    /**
+     * The retries still pending from before a restart, in the order they were first scheduled. Handed out once.
+     */
+    synchronized List<RetryLog.Entry> takeRecovered() {
+        final List<RetryLog.Entry> entries = new ArrayList<>(recoveredEntries);
+        recoveredEntries.clear();
+        return entries;
+    }
+
+    /**
+     * Called after a send failed, counts the attempt.
+     *
+     * @param entry the retry record of the message, null on its first failure
+     * @return the record with the time of the next attempt, null if the message has been dead-lettered instead
+     */
+    RetryLog.Entry failed(String recipientId, byte[] body, RetryLog.Entry entry, SendException failure) {
+        final int attempts = entry == null ? 1 : entry.attempts + 1;
+        if (!isRetryable(failure) || attempts >= maxAttempts) {
+            if (entry != null) {
+                retryLog.resolve(entry);
+                pending.decrementAndGet();
+            }
+            deadLetter(recipientId, body, attempts, failure);
+            return null;
+        }
+        final long nextAttemptAt = System.currentTimeMillis() + backoffMillis(attempts);
+        if (entry != null) {
+            entry.attempts = attempts;
+            entry.nextAttemptAt = nextAttemptAt;
+            retryLog.update(entry);
+            return entry;
+        }
+        try {
+            final RetryLog.Entry appended = retryLog.append(recipientId, body, attempts, nextAttemptAt);
+            scheduled.increment();
+            pending.incrementAndGet();
+            return appended;
+        } catch (IOException e) {
+            deadLetter(recipientId, body, attempts, e);
+            return null;
+        }
+    }
+
+    /**
+     * Called once a retried message has been delivered.
+     */
+    void delivered(RetryLog.Entry entry) {
+        retryLog.resolve(entry);
+        pending.decrementAndGet();
+        retried.increment();
+        logger.info("Delivered message to '{}' on attempt {}", entry.recipientId, entry.attempts + 1);
+    }
+
+    /**
+     * Called when a retried message will not be sent again in this form, such as an attachment replaced by its URL.
+     */
+    void superseded(RetryLog.Entry entry) {
+        retryLog.resolve(entry);
+        pending.decrementAndGet();
+    }
+
+    /**
+     * Keeps a message queued behind a pending retry for after a restart, it is recovered in the order it was kept.
+     */
+    void postpone(String recipientId, byte[] body, long nextAttemptAt) {
+        try {
+            retryLog.append(recipientId, body, 0, nextAttemptAt);
+            pending.incrementAndGet();
+        } catch (IOException e) {
+            deadLetter(recipientId, body, 0, e);
+        }
+    }
+
+    /**
+     * Takes every dead letter out of the file, to be sent again with a fresh set of attempts.
+     *
+     * @return recipient id and request body of each letter
+     */
+    List<Map.Entry<String, byte[]>> takeDeadLetters() throws IOException {
+        final List<String> lines;
+        synchronized (deadLetterFile) {
+            if (!Files.exists(deadLetterFile)) {
+                return Collections.emptyList();
+            }
+            lines = Files.readAllLines(deadLetterFile, StandardCharsets.UTF_8);
+            Files.delete(deadLetterFile);
+        }
+        final List<Map.Entry<String, byte[]>> letters = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            final int separator = line.indexOf(' ');
+            if (separator > 0) {
+                letters.add(new AbstractMap.SimpleImmutableEntry<>(line.substring(0, separator),
+                        line.substring(separator + 1).getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        return letters;
+    }
+
+    private void deadLetter(String recipientId, byte[] body, int attempts, Exception failure) {
+        logger.error("Giving up on message to '{}' after {} attempts", recipientId, attempts, failure);
+        synchronized (deadLetterFile) {
+            try {
+                Files.createDirectories(deadLetterFile.toAbsolutePath().getParent());
+                try (BufferedWriter writer = Files.newBufferedWriter(deadLetterFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    //rendered bodies are JSON with escaped line breaks, so one message is one line
+                    writer.write(recipientId);
+                    writer.write(' ');
+                    writer.write(new String(body, StandardCharsets.UTF_8));
+                    writer.newLine();
+                }
+                //counted once written, so a replay right after seeing the count finds the letter
+                deadLettered.increment();
+            } catch (IOException e) {
+                //neither sent nor kept for a replay
+                deadLettersLost.increment();
+                logger.error("Could not write dead letter for '{}', the message is lost", recipientId, e);
+            }
+        }
+    }
+
+    private long backoffMillis(int attempts) {
+        final long backoff = initialBackoffMillis << Math.min(attempts - 1, 30);
+        return Math.min(backoff, maxBackoffMillis);
+    }
+
+    /**
+     * Network errors, server errors and throttling may go away, other client errors will not.
+     */
+    static boolean isRetryable(SendException e) {
+        return e.getStatusCode() == -1 || e.getStatusCode() >= 500 || e.isThrottled();
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    public long getScheduled() {
+        return scheduled.sum();
+    }
+
+    public long getRetried() {
+        return retried.sum();
+    }
+
+    public long getDeadLettered() {
+        return deadLettered.sum();
+    }
+
+    public long getDeadLettersLost() {
+        return deadLettersLost.sum();
+    }
+
+    public int getRecovered() {
+        return recovered;
+    }
+
+    public long getLogSize() {
+        return retryLog.getSize();
+    }
+
+    /**
+     * Retries still pending stay in the log and are picked up again after the restart.
+     */
+    @PreDestroy
+    public void shutdown() throws IOException {
+        retryLog.close();
+    }
+}
@@ -0,0 +1,58 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Send API request that failed, either with an error response or on the network.
+ */
+public class SendException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Pattern ERROR_CODE = Pattern.compile("\"code\"\\s*:\\s*(\\d+)");
+
+    private final int statusCode;
+    private final int errorCode;
+
+    public SendException(int statusCode, String message) {
+        super("Send API responded with " + statusCode + ": " + message);
+        this.statusCode = statusCode;
+        final Matcher matcher = ERROR_CODE.matcher(message);
+        this.errorCode = matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    public SendException(String message, Throwable cause) {
+        super(message, cause);
+        this.statusCode = -1;
+        this.errorCode = -1;
+    }
+
+    /**
+     * @return HTTP status of the response or -1 if the request did not get one
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return Graph API error code from the response body or -1 if there was none
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * @return true if the platform did not accept the attachment id of the message, it has to be uploaded again
+     */
+    public boolean isInvalidAttachment() {
+        return statusCode == 400 && errorCode == 100 && getMessage().toLowerCase().contains("attachment");
+    }
+
+    /**
+     * @return true if the platform rejected the request for exceeding its rate limits
+     */
+    public boolean isThrottled() {
+        return statusCode == 429 || errorCode == 4 || errorCode == 17 || errorCode == 32 || errorCode == 613;
+    }
+}
@@ -0,0 +1,411 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous outbound pipeline in front of the {@link GraphApiClient}.
+ * Handlers queue their messages and carry on, sender threads post them over kept-alive connections.
+ * Recipients are hashed onto the sender threads, so one user's messages arrive in order while messages to
+ * different users are sent concurrently. The number of sender threads bounds the requests in flight,
+ * and a full sender queue blocks the caller, pushing back on the dispatch lanes.
+ * Every send takes its permits from the {@link SendRateLimiter} first, a recipient over its rate is put aside until
+ * its permit is due while the sender serves the others. A failed send is retried by the same sender after a backoff,
+ * see {@link RetryQueue}, and the recipient's later messages wait behind it. The future of a message completes once
+ * it has been delivered or given up on.
+ * An attachment whose id the platform rejects is sent again by its URL straight away, see {@link AttachmentRegistry}.
+ */
+@Component
+public class SendPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(SendPipeline.class);
+
+    private final GraphApiClient graphApiClient;
+    private final SendRateLimiter rateLimiter;
+    private final RetryQueue retryQueue;
+    private final AttachmentRegistry attachments;
+    private final Sender[] senders;
+    private volatile boolean running = true;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder sendNanos = new LongAdder();
+
+    @Autowired
+    public SendPipeline(final GraphApiClient graphApiClient, final SendRateLimiter rateLimiter, final RetryQueue retryQueue,
+                        final AttachmentRegistry attachments,
+                        @Value("${talkingchess.send.concurrency:8}") final int concurrency,
+                        @Value("${talkingchess.send.queueCapacity:1000}") final int queueCapacity) {
+        //keep-alive pool of HttpURLConnection, read once when the first connection is opened
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(concurrency));
+        }
+        this.graphApiClient = graphApiClient;
+        this.rateLimiter = rateLimiter;
+        this.retryQueue = retryQueue;
+        this.attachments = attachments;
+        this.senders = new Sender[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            senders[i] = new Sender(i, queueCapacity);
+        }
+        //retries pending from before a restart go first, in the order they were scheduled
+        final List<RetryLog.Entry> recovered = retryQueue.takeRecovered();
+        for (RetryLog.Entry entry : recovered) {
+            final OutboundMessage outbound = new OutboundMessage(entry.recipientId, null, entry.body);
+            outbound.retry = entry;
+            queue(outbound);
+        }
+        logger.info("Send pipeline initialized - concurrency: {} | queue capacity: {} | recovered retries: {}",
+                concurrency, queueCapacity, recovered.size());
+    }
+
+    /**
+     * Queues the message behind everything else already queued for the recipient.
+     * Blocks while the recipient's sender queue is full.
+     *
+     * @return completes once the message has been delivered, exceptionally once it has been given up on
+     */
+    public CompletableFuture<Void> submit(String recipientId, PreparedMessage message) {
+        return queue(new OutboundMessage(recipientId, message, null));
+    }
+
+    private CompletableFuture<Void> queue(OutboundMessage outbound) {
+        final Sender sender = senders[senderFor(outbound.recipientId)];
+        try {
+            sender.queue.put(outbound);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outbound.result.completeExceptionally(new SendException("Interrupted while queueing the message", e));
+        }
+        return outbound.result;
+    }
+
+    /**
+     * Sends every dead letter again with a fresh set of attempts.
+     *
+     * @return number of messages replayed
+     */
+    public int replayDeadLetters() throws IOException {
+        final List<Map.Entry<String, byte[]>> letters = retryQueue.takeDeadLetters();
+        for (Map.Entry<String, byte[]> letter : letters) {
+            queue(new OutboundMessage(letter.getKey(), null, letter.getValue()));
+        }
+        logger.info("Replayed {} dead letters", letters.size());
+        return letters.size();
+    }
+
+    private int senderFor(String recipientId) {
+        int hash = recipientId.hashCode();
+        hash ^= (hash >>> 16);
+        return (hash & 0x7fffffff) % senders.length;
+    }
+
+    public int getQueued() {
+        int queued = 0;
+        for (Sender sender : senders) {
+            queued += sender.queue.size() + sender.held.get();
+        }
+        return queued;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public double getAverageSendMillis() {
+        final long count = sent.sum() + failed.sum();
+        return count == 0 ? 0 : sendNanos.sum() / 1_000_000.0 / count;
+    }
+
+    /**
+     * Sends what is queued and not waiting for a retry. Pending retries and the messages queued behind them are
+     * kept in the retry log and sent after the restart.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Sender sender : senders) {
+            sender.thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    private static final class OutboundMessage {
+
+        private final String recipientId;
+        //null for messages recovered from the retry log or replayed from the dead letters, those only have a body
+        private final PreparedMessage message;
+        private final byte[] body;
+        private final CompletableFuture<Void> result;
+        //the recipient permit has been taken, possibly one that only becomes available later
+        private boolean permitted;
+        //the retry record, once a send of the message has failed
+        private RetryLog.Entry retry;
+
+        private OutboundMessage(String recipientId, PreparedMessage message, byte[] body) {
+            this(recipientId, message, body, new CompletableFuture<>());
+        }
+
+        private OutboundMessage(String recipientId, PreparedMessage message, byte[] body, CompletableFuture<Void> result) {
+            this.recipientId = recipientId;
+            this.message = message;
+            this.body = body;
+            this.result = result;
+        }
+
+        private byte[] body() {
+            return body != null ? body : message.forRecipient(recipientId);
+        }
+    }
+
+    /**
+     * The messages a sender has taken off its queue for one recipient, in the order they were queued.
+     */
+    private static final class Recipient {
+
+        private final String id;
+        private final ArrayDeque<OutboundMessage> messages = new ArrayDeque<>();
+        //System.nanoTime() from which the first message may be sent
+        private long readyAt;
+
+        private Recipient(String id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Takes the messages off its queue into a queue per recipient and serves the recipients by when they may be
+     * sent to next. A recipient over its rate is deferred until its permit is due, a recipient whose first message
+     * failed until its retry is due, the sender moves on to the next one in the meantime. At most
+     * {@code queueCapacity} messages are taken off the queue, past that it fills up and blocks the callers.
+     */
+    private final class Sender implements Runnable {
+
+        private final BlockingQueue<OutboundMessage> queue;
+        private final int capacity;
+        private final Map<String, TokenBucket> recipientBuckets;
+        private final Map<String, Recipient> recipients = new HashMap<>();
+        private final PriorityQueue<Recipient> ready = new PriorityQueue<>(Comparator.comparingLong(recipient -> recipient.readyAt));
+        private final AtomicInteger held = new AtomicInteger();
+        private final Thread thread;
+
+        private Sender(int index, int queueCapacity) {
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.capacity = queueCapacity;
+            this.recipientBuckets = rateLimiter.newRecipientBuckets(senders.length);
+            this.thread = new Thread(this, "send-pipeline-" + index);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        @Override
+        public void run() {
+            //drain whatever is queued before stopping
+            while (running || hasUnsent()) {
+                try {
+                    take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                final Recipient next = ready.peek();
+                if (next == null || next.readyAt - System.nanoTime() > 0) {
+                    continue;
+                }
+                ready.poll();
+                //once stopping, a due retry stays in the log for the restart
+                if (running || next.messages.peek().retry == null) {
+                    serve(next);
+                }
+            }
+            postponeRetries();
+        }
+
+        /**
+         * @return true if anything is left to send other than the messages waiting for a retry
+         */
+        private boolean hasUnsent() {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+            for (Recipient recipient : recipients.values()) {
+                if (recipient.messages.peek().retry == null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Keeps the messages queued behind the pending retries for after the restart, the retries are logged already.
+         */
+        private void postponeRetries() {
+            int postponed = 0;
+            for (Recipient recipient : recipients.values()) {
+                final Iterator<OutboundMessage> messages = recipient.messages.iterator();
+                final RetryLog.Entry retry = messages.next().retry;
+                while (messages.hasNext()) {
+                    final OutboundMessage outbound = messages.next();
+                    retryQueue.postpone(outbound.recipientId, outbound.body(), retry.nextAttemptAt);
+                    postponed++;
+                }
+            }
+            if (!recipients.isEmpty()) {
+                logger.info("{} stopped with {} retries pending, {} messages queued behind them kept for the restart",
+                        thread.getName(), recipients.size(), postponed);
+            }
+        }
+
+        /**
+         * Moves the queued messages to their recipients, waiting for new ones until the next recipient is due.
+         */
+        private void take() throws InterruptedException {
+            final Recipient next = ready.peek();
+            final long wait = next == null ? TimeUnit.MILLISECONDS.toNanos(100) : next.readyAt - System.nanoTime();
+            if (held.get() >= capacity) {
+                if (wait > 0) {
+                    LockSupport.parkNanos(this, wait);
+                }
+                return;
+            }
+            OutboundMessage outbound = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+            while (outbound != null) {
+                hold(outbound);
+                outbound = held.get() < capacity ? queue.poll() : null;
+            }
+        }
+
+        private void hold(OutboundMessage outbound) {
+            held.incrementAndGet();
+            Recipient recipient = recipients.get(outbound.recipientId);
+            if (recipient == null) {
+                recipient = new Recipient(outbound.recipientId);
+                recipients.put(recipient.id, recipient);
+            }
+            recipient.messages.add(outbound);
+            if (recipient.messages.size() == 1) {
+                recipient.readyAt = System.nanoTime() + retryDelayNanos(outbound);
+                ready.add(recipient);
+            }
+        }
+
+        private void serve(Recipient recipient) {
+            final OutboundMessage outbound = recipient.messages.peek();
+            if (!outbound.permitted) {
+                outbound.permitted = true;
+                final long wait = rateLimiter.reserve(recipient.id, recipientBuckets);
+                if (wait > 0) {
+                    recipient.readyAt = System.nanoTime() + wait;
+                    ready.add(recipient);
+                    return;
+                }
+            }
+            rateLimiter.acquirePage();
+            outbound.permitted = false;
+            final long delay = send(recipient, outbound);
+            if (recipient.messages.isEmpty()) {
+                recipients.remove(recipient.id);
+            } else {
+                recipient.readyAt = System.nanoTime() + delay;
+                ready.add(recipient);
+            }
+        }
+
+        /**
+         * Sends the first message of the recipient. A message that will be retried stays first.
+         *
+         * @return nanoseconds until the recipient may be sent to again
+         */
+        private long send(Recipient recipient, OutboundMessage outbound) {
+            inFlight.incrementAndGet();
+            final long start = System.nanoTime();
+            try {
+                if (outbound.message != null) {
+                    graphApiClient.send(outbound.recipientId, outbound.message);
+                } else {
+                    graphApiClient.post(outbound.body);
+                }
+                sent.increment();
+                if (outbound.retry != null) {
+                    retryQueue.delivered(outbound.retry);
+                }
+                finish(recipient, outbound, null);
+            } catch (SendException e) {
+                if (e.isThrottled()) {
+                    rateLimiter.onPlatformThrottled();
+                }
+                failed.increment();
+                if (e.isInvalidAttachment() && outbound.message != null && outbound.message.getFallback() != null) {
+                    //retrying the same id is pointless, the recipient gets the URL instead
+                    attachments.invalidate(outbound.message);
+                    if (outbound.retry != null) {
+                        retryQueue.superseded(outbound.retry);
+                    }
+                    recipient.messages.poll();
+                    recipient.messages.addFirst(new OutboundMessage(outbound.recipientId,
+                            outbound.message.getFallback(), null, outbound.result));
+                    return 0;
+                }
+                outbound.retry = retryQueue.failed(outbound.recipientId, outbound.body(), outbound.retry, e);
+                if (outbound.retry != null) {
+                    return retryDelayNanos(outbound);
+                }
+                finish(recipient, outbound, e);
+            } catch (RuntimeException e) {
+                failed.increment();
+                if (outbound.retry != null) {
+                    retryQueue.superseded(outbound.retry);
+                }
+                finish(recipient, outbound, new SendException("Unexpected send failure", e));
+            } finally {
+                sendNanos.add(System.nanoTime() - start);
+                inFlight.decrementAndGet();
+            }
+            return 0;
+        }
+
+        private void finish(Recipient recipient, OutboundMessage outbound, SendException failure) {
+            recipient.messages.poll();
+            held.decrementAndGet();
+            if (failure == null) {
+                outbound.result.complete(null);
+            } else {
+                outbound.result.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private static long retryDelayNanos(OutboundMessage outbound) {
+        if (outbound.retry == null) {
+            return 0;
+        }
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, outbound.retry.nextAttemptAt - System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,135 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the outbound traffic within the platform limits: one token bucket for the whole page and one per recipient.
+ * Messages are held back rather than dropped, so a burst fills the send queues and, once those are full, slows down
+ * the dispatch lanes feeding them. A recipient over its rate is deferred by the sender while the other recipients
+ * are served, only the page limit makes a sender wait.
+ */
+@Component
+public class SendRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SendRateLimiter.class);
+
+    private final TokenBucket pageBucket;
+    private final double recipientRate;
+    private final int recipientBurst;
+    private final int maxRecipients;
+    private final long throttledPauseNanos;
+
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder platformThrottled = new LongAdder();
+
+    @Autowired
+    public SendRateLimiter(@Value("${talkingchess.send.rate.page:200}") final double pageRate,
+                           @Value("${talkingchess.send.rate.pageBurst:200}") final int pageBurst,
+                           @Value("${talkingchess.send.rate.recipient:5}") final double recipientRate,
+                           @Value("${talkingchess.send.rate.recipientBurst:10}") final int recipientBurst,
+                           @Value("${talkingchess.send.rate.maxRecipients:10000}") final int maxRecipients,
+                           @Value("${talkingchess.send.rate.throttledPauseMillis:1000}") final long throttledPauseMillis) {
+        this.pageBucket = new TokenBucket(pageRate, pageBurst);
+        this.recipientRate = recipientRate;
+        this.recipientBurst = recipientBurst;
+        this.maxRecipients = maxRecipients;
+        this.throttledPauseNanos = TimeUnit.MILLISECONDS.toNanos(throttledPauseMillis);
+        logger.info("Send rate limiter initialized - page: {}/s (burst {}) | recipient: {}/s (burst {})",
+                pageRate, pageBurst, recipientRate, recipientBurst);
+    }
+
+    /**
+     * Per recipient buckets for one sender thread. Every recipient is always served by the same sender, retries
+     * included, so the map is not shared and holds the only bucket of its recipients. Least recently used recipients
+     * are dropped first, a dropped recipient simply starts again with a full bucket.
+     */
+    public Map<String, TokenBucket> newRecipientBuckets(int senders) {
+        final int capacity = Math.max(1, maxRecipients / senders);
+        return new LinkedHashMap<String, TokenBucket>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Takes the recipient's next permit, possibly one that only becomes available in the future.
+     *
+     * @return nanoseconds until the permit may be used, 0 if the message may go now
+     */
+    public long reserve(String recipientId, Map<String, TokenBucket> recipientBuckets) {
+        TokenBucket recipientBucket = recipientBuckets.get(recipientId);
+        if (recipientBucket == null) {
+            recipientBucket = new TokenBucket(recipientRate, recipientBurst);
+            recipientBuckets.put(recipientId, recipientBucket);
+        }
+        final long wait = recipientBucket.reserve();
+        if (wait > 0) {
+            throttled.increment();
+            waitNanos.add(wait);
+        }
+        return wait;
+    }
+
+    /**
+     * Waits for a page permit. The page limit holds back every recipient alike, so there is nothing else to send
+     * meanwhile. The permit is taken only once the recipient may send, so a slow recipient does not hold page permits.
+     */
+    public void acquirePage() {
+        final long waited = await(pageBucket.reserve());
+        if (waited > 0) {
+            throttled.increment();
+            waitNanos.add(waited);
+        }
+    }
+
+    /**
+     * The Send API rejected a message for going too fast, stop the whole page for a while.
+     */
+    public void onPlatformThrottled() {
+        platformThrottled.increment();
+        pageBucket.pause(throttledPauseNanos);
+    }
+
+    private static long await(long nanos) {
+        if (nanos <= 0) {
+            return 0;
+        }
+        final long start = System.nanoTime();
+        long remaining = nanos;
+        while (remaining > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(remaining);
+            remaining = nanos - (System.nanoTime() - start);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    public double getWaitMillis() {
+        return waitNanos.sum() / 1_000_000.0;
+    }
+
+    public double getAverageWaitMillis() {
+        final long count = throttled.sum();
+        return count == 0 ? 0 : waitNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public long getPlatformThrottled() {
+        return platformThrottled.sum();
+    }
+}
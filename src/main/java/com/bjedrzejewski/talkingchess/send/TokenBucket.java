@@ -0,0 +1,48 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, kept as the time at which the bucket will be full again.
+ * Taking a permit never blocks, it returns how long the caller has to wait for it instead.
+ */
+public class TokenBucket {
+
+    private final long nanosPerPermit;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst have to be positive: " + permitsPerSecond + "/" + burst);
+        }
+        this.nanosPerPermit = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.burstNanos = nanosPerPermit * burst;
+        this.fullAt = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * Takes a permit, possibly one that only becomes available in the future.
+     *
+     * @return nanoseconds to wait before the permit may be used, 0 if it is available now
+     */
+    public long reserve() {
+        while (true) {
+            final long now = System.nanoTime();
+            final long current = fullAt.get();
+            final long next = Math.max(current, now) + nanosPerPermit;
+            if (fullAt.compareAndSet(current, next)) {
+                return Math.max(0, next - burstNanos - now);
+            }
+        }
+    }
+
+    /**
+     * Hands out no permits for the given time, used when the other side says we are going too fast.
+     */
+    public void pause(long nanos) {
+        final long until = System.nanoTime() + nanos + burstNanos;
+        fullAt.accumulateAndGet(until, Math::max);
+    }
+}
@@ -0,0 +1,16 @@
+package com.bjedrzejewski.talkingchess.session;
+
+/**
+ * Where a conversation stands after the last answer. Stored by ordinal, new states go at the end.
+ */
+public enum ConversationState {
+
+    /** Nothing to follow up on yet. */
+    NEW,
+    /** A quick reply menu was sent, the topic is the name of the menu. */
+    MENU,
+    /** Details from the menu of the topic were sent. */
+    DETAILS,
+    /** A position or move list was analysed. */
+    ANALYSIS
+}
@@ -0,0 +1,46 @@
+package com.bjedrzejewski.talkingchess.session;
+
+/**
+ * What the bot remembers about one sender between messages. Immutable, every update replaces the session.
+ */
+public final class Session {
+
+    private final String senderId;
+    private final ConversationState state;
+    private final String topic;
+    private final long lastActivity;
+
+    Session(String senderId, ConversationState state, String topic, long lastActivity) {
+        this.senderId = senderId;
+        this.state = state;
+        this.topic = topic;
+        this.lastActivity = lastActivity;
+    }
+
+    public String getSenderId() {
+        return senderId;
+    }
+
+    public ConversationState getState() {
+        return state;
+    }
+
+    /**
+     * @return name of the last menu sent, null if there is none
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return epoch millis of the last message or answer
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    @Override
+    public String toString() {
+        return senderId + " " + state + (topic == null ? "" : " " + topic);
+    }
+}
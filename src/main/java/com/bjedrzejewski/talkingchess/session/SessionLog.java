@@ -0,0 +1,158 @@
+package com.bjedrzejewski.talkingchess.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only file of session updates, the last record of a sender wins.
+ * <p>
+ * Updates are appended in batches by the write-behind thread of the {@link SessionStore}. A batch cut short by a
+ * crash is ignored when the log is read back, and the log is rewritten from the live sessions once it has grown
+ * well past them.
+ * <pre>
+ * header: magic (4) | version (4)
+ * record: kind (1) | sender id (UTF) | state (1) | topic (UTF, empty for none) | last activity epoch millis (8)
+ * </pre>
+ * Removals carry the sender id only.
+ */
+class SessionLog implements Closeable {
+
+    private static final int MAGIC = 0x54435353;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte UPDATE = 1;
+    private static final byte REMOVE = 2;
+
+    private final Path file;
+    private FileChannel channel;
+
+    SessionLog(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.file = file;
+        if (!Files.exists(file) || Files.size(file) < HEADER_SIZE) {
+            rewrite(Collections.<Session>emptyList());
+        } else {
+            this.channel = open(file);
+        }
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    /**
+     * @return the sessions of the log in the order they were last updated
+     */
+    Map<String, Session> read() throws IOException {
+        final Map<String, Session> sessions = new LinkedHashMap<>();
+        final byte[] bytes = Files.readAllBytes(file);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a session log of version " + VERSION + ": " + file);
+            }
+            final ConversationState[] states = ConversationState.values();
+            while (in.available() > 0) {
+                final byte kind = in.readByte();
+                final String senderId = in.readUTF();
+                if (kind == REMOVE) {
+                    sessions.remove(senderId);
+                    continue;
+                }
+                final int state = in.readByte();
+                final String topic = in.readUTF();
+                final long lastActivity = in.readLong();
+                if (kind != UPDATE || state < 0 || state >= states.length) {
+                    break;
+                }
+                sessions.remove(senderId);
+                sessions.put(senderId, new Session(senderId, states[state], topic.isEmpty() ? null : topic, lastActivity));
+            }
+        } catch (EOFException e) {
+            //the last batch did not make it to the disk completely
+        }
+        return sessions;
+    }
+
+    /**
+     * Appends a batch of updates, null values remove the sender.
+     */
+    void append(Map<String, Session> updates) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(updates.size() * 48);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        for (Map.Entry<String, Session> update : updates.entrySet()) {
+            if (update.getValue() == null) {
+                out.writeByte(REMOVE);
+                out.writeUTF(update.getKey());
+            } else {
+                write(out, update.getValue());
+            }
+        }
+        write(channel, bytes.toByteArray());
+    }
+
+    /**
+     * Replaces the log with the given sessions, at once when the new file is complete.
+     */
+    void rewrite(Collection<Session> sessions) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + sessions.size() * 48);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        for (Session session : sessions) {
+            write(out, session);
+        }
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel tempChannel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(tempChannel, bytes.toByteArray());
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = open(file);
+    }
+
+    private static void write(DataOutputStream out, Session session) throws IOException {
+        out.writeByte(UPDATE);
+        out.writeUTF(session.getSenderId());
+        out.writeByte(session.getState().ordinal());
+        out.writeUTF(session.getTopic() == null ? "" : session.getTopic());
+        out.writeLong(session.getLastActivity());
+    }
+
+    private static void write(FileChannel channel, byte[] bytes) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    long getSize() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
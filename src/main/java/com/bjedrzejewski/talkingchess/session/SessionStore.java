@@ -0,0 +1,267 @@
+package com.bjedrzejewski.talkingchess.session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The conversation of every sender that talked to the bot recently, so that a follow-up like "tell me more" can be
+ * answered from the last menu instead of the keyword rules.
+ * <p>
+ * Sessions are kept in least recently active order. The number of sessions and their estimated memory are capped,
+ * the least recently active session is evicted first, and a session idle for longer than the idle timeout is
+ * dropped. Changes are written behind to the {@link SessionLog} in {@code data/sessions.log} by a background thread,
+ * so a restart only loses the last flush interval.
+ */
+@Component
+public class SessionStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionStore.class);
+
+    /** Estimated bytes of a session and its map entry, the sender id comes on top. */
+    private static final int SESSION_BYTES = 160;
+    /** The log is rewritten from the live sessions once it is this many times larger than them. */
+    private static final int COMPACTION_RATIO = 4;
+    private static final long MIN_COMPACTION_BYTES = 1 << 20;
+
+    private final SessionLog log;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long idleMillis;
+    private final LongSupplier clock;
+    private final ScheduledExecutorService writer;
+
+    //least recently active first
+    private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<>();
+    //changes since the last flush, null values for removed sessions
+    private Map<String, Session> dirty = new LinkedHashMap<>();
+    private long bytes;
+
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+
+    /**
+     * @param maxEntries    sessions kept at most
+     * @param maxMemoryKb   estimated memory of the sessions at most
+     * @param idleMinutes   sessions without a message for longer are forgotten
+     * @param flushMillis   interval of the write-behind, 0 to write only on shutdown
+     */
+    @Autowired
+    public SessionStore(@Value("${talkingchess.dataDir:data}") final String dataDir,
+                        @Value("${talkingchess.sessions.maxEntries:100000}") final int maxEntries,
+                        @Value("${talkingchess.sessions.maxMemoryKb:32768}") final int maxMemoryKb,
+                        @Value("${talkingchess.sessions.idleMinutes:30}") final long idleMinutes,
+                        @Value("${talkingchess.sessions.flushMillis:1000}") final long flushMillis) throws IOException {
+        this(Paths.get(dataDir, "sessions.log"), maxEntries, maxMemoryKb, TimeUnit.MINUTES.toMillis(idleMinutes),
+                flushMillis, System::currentTimeMillis);
+    }
+
+    SessionStore(Path file, int maxEntries, int maxMemoryKb, long idleMillis, long flushMillis, LongSupplier clock)
+            throws IOException {
+        this.log = new SessionLog(file);
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxMemoryKb * 1024L;
+        this.idleMillis = idleMillis;
+        this.clock = clock;
+
+        final long now = clock.getAsLong();
+        final List<Session> recovered = new ArrayList<>(log.read().values());
+        recovered.sort((a, b) -> Long.compare(a.getLastActivity(), b.getLastActivity()));
+        synchronized (this) {
+            for (Session session : recovered) {
+                if (now - session.getLastActivity() < idleMillis) {
+                    put(session);
+                }
+            }
+            dirty.clear();
+            log.rewrite(new ArrayList<>(sessions.values()));
+        }
+
+        this.writer = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "session-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (flushMillis > 0) {
+            writer.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+        logger.info("Session store initialized - recovered: {} | max entries: {} | max memory: {}KB | idle: {}s",
+                sessions.size(), maxEntries, maxMemoryKb, TimeUnit.MILLISECONDS.toSeconds(idleMillis));
+    }
+
+    /**
+     * @return the session of the sender, null if there is none or it has been idle for too long
+     */
+    public synchronized Session get(String senderId) {
+        final Session session = sessions.get(senderId);
+        if (session != null && clock.getAsLong() - session.getLastActivity() >= idleMillis) {
+            remove(senderId);
+            expired.increment();
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Records a message from the sender, keeping where the conversation stands.
+     */
+    public synchronized void touch(String senderId) {
+        final Session session = get(senderId);
+        update(senderId, session == null ? ConversationState.NEW : session.getState(),
+                session == null ? null : session.getTopic());
+    }
+
+    /**
+     * Moves the conversation on, keeping the topic.
+     */
+    public synchronized void update(String senderId, ConversationState state) {
+        final Session session = get(senderId);
+        update(senderId, state, session == null ? null : session.getTopic());
+    }
+
+    public synchronized void update(String senderId, ConversationState state, String topic) {
+        final Session session = new Session(senderId, state, topic, clock.getAsLong());
+        remove(senderId);
+        put(session);
+        dirty.put(senderId, session);
+        expireIdle(session.getLastActivity());
+    }
+
+    private void put(Session session) {
+        sessions.put(session.getSenderId(), session);
+        bytes += bytes(session);
+        final Iterator<Session> eldest = sessions.values().iterator();
+        while (sessions.size() > maxEntries || bytes > maxBytes) {
+            final Session evict = eldest.next();
+            eldest.remove();
+            bytes -= bytes(evict);
+            dirty.put(evict.getSenderId(), null);
+            evicted.increment();
+        }
+    }
+
+    private void remove(String senderId) {
+        final Session session = sessions.remove(senderId);
+        if (session != null) {
+            bytes -= bytes(session);
+            dirty.put(senderId, null);
+        }
+    }
+
+    /**
+     * Drops the idle sessions, which are all at the least recently active end.
+     */
+    private void expireIdle(long now) {
+        final Iterator<Session> eldest = sessions.values().iterator();
+        while (eldest.hasNext()) {
+            final Session session = eldest.next();
+            if (now - session.getLastActivity() < idleMillis) {
+                return;
+            }
+            eldest.remove();
+            bytes -= bytes(session);
+            dirty.put(session.getSenderId(), null);
+            expired.increment();
+        }
+    }
+
+    private static long bytes(Session session) {
+        return SESSION_BYTES + 2L * session.getSenderId().length();
+    }
+
+    /**
+     * Writes the changes since the last flush, or the whole store when the log has grown well past it.
+     */
+    public void flush() throws IOException {
+        synchronized (log) {
+            final Map<String, Session> changes;
+            List<Session> snapshot = null;
+            synchronized (this) {
+                expireIdle(clock.getAsLong());
+                if (dirty.isEmpty()) {
+                    return;
+                }
+                changes = dirty;
+                dirty = new LinkedHashMap<>();
+                if (log.getSize() > Math.max(MIN_COMPACTION_BYTES, COMPACTION_RATIO * bytes)) {
+                    snapshot = new ArrayList<>(sessions.values());
+                }
+            }
+            try {
+                if (snapshot != null) {
+                    log.rewrite(snapshot);
+                } else {
+                    log.append(changes);
+                }
+            } catch (IOException e) {
+                //keep the changes for the next flush, newer ones win
+                synchronized (this) {
+                    changes.putAll(dirty);
+                    dirty = changes;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            flushFailures.increment();
+            logger.error("Could not write the sessions", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+            flush();
+            log.close();
+        } catch (IOException e) {
+            logger.error("Could not write the sessions on shutdown", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized int getSize() {
+        return sessions.size();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return bytes;
+    }
+
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    public long getFlushFailures() {
+        return flushFailures.sum();
+    }
+}
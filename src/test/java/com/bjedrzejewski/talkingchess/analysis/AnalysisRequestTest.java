@@ -0,0 +1,34 @@
+package com.bjedrzejewski.talkingchess.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AnalysisRequestTest {
+
+    @Test
+    public void readsAMoveListOnItsOwnOrAfterTheCommand() {
+        assertEquals("rnbqkbnr/pp1ppppp/8/2p5/4P3/5N2/PPPP1PPP/RNBQKB1R b KQkq - 1 2",
+                AnalysisRequest.parse("1.e4 c5 2.Nf3").getPosition().toFen());
+        assertEquals("rnbqkbnr/pp1ppppp/8/2p5/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 2",
+                AnalysisRequest.parse("analyse e4 c5").getPosition().toFen());
+    }
+
+    @Test
+    public void leavesSentencesMentioningMovesToTheChat() {
+        assertNull(AnalysisRequest.parse("I like 1.e4 but not 1.d4"));
+        assertNull(AnalysisRequest.parse("what about e4?"));
+        assertNull(AnalysisRequest.parse("analyse the najdorf"));
+        assertNull(AnalysisRequest.parse("analysis of the sicilian"));
+        assertNull(AnalysisRequest.parse("Evaluate Carlsen's play"));
+    }
+
+    @Test
+    public void explainsAnIllegalFen() {
+        final AnalysisRequest request = AnalysisRequest.parse("k7/8/8/8/8/8/8/R6K w - - 0 1");
+        assertNull(request.getPosition());
+        assertTrue(request.getError(), request.getError().contains("not to move is in check"));
+    }
+}
@@ -0,0 +1,142 @@
+package com.bjedrzejewski.talkingchess.analysis;
+
+import com.bjedrzejewski.talkingchess.dispatch.SenderDispatcher;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import com.bjedrzejewski.talkingchess.engine.SearchResult;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AnalysisSchedulerTest {
+
+    private static final String MIDDLEGAME = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    private PositionAnalysisService analysisService;
+    private SenderDispatcher senderDispatcher;
+    private AnalysisScheduler scheduler;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        scheduler.shutdown();
+        analysisService.shutdown();
+        senderDispatcher.shutdown();
+    }
+
+    @Test
+    public void streamsDeeperResultsUntilTheFinalOne() throws InterruptedException {
+        start(1500, 50, 200, 10_000);
+        scheduler.submit("alice", Position.fromFen(MIDDLEGAME), listener("alice"));
+        assertTrue(scheduler.awaitIdle(10, TimeUnit.SECONDS));
+
+        assertTrue(events.toString(), events.size() >= 3);
+        assertTrue(events.get(events.size() - 1).startsWith("alice done"));
+        int previousDepth = 0;
+        for (String event : events) {
+            final int depth = Integer.parseInt(event.substring(event.lastIndexOf(' ') + 1));
+            assertTrue(events.toString(), depth >= previousDepth);
+            previousDepth = depth;
+        }
+    }
+
+    @Test
+    public void aNewMessageCancelsTheRunningJob() throws InterruptedException {
+        start(5000, 60_000, 60_000, 60_000);
+        scheduler.submit("alice", Position.fromFen(MIDDLEGAME), listener("alice"));
+        Thread.sleep(200);
+        final long start = System.nanoTime();
+        assertTrue(scheduler.cancel("alice"));
+        assertTrue(scheduler.awaitIdle(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(Collections.emptyList(), events);
+        assertEquals(1, scheduler.getCancelled());
+    }
+
+    @Test
+    public void waitingSendersGetTheirTurnAfterAFairSlice() throws InterruptedException {
+        start(3000, 60_000, 60_000, 300);
+        scheduler.submit("alice", Position.fromFen(MIDDLEGAME), listener("alice"));
+        Thread.sleep(50);
+        scheduler.submit("bob", Position.start(), listener("bob"));
+        final long start = System.nanoTime();
+        assertTrue(scheduler.awaitIdle(20, TimeUnit.SECONDS));
+        //alice gives way after her slice, bob then has the worker to himself for his whole budget
+        assertTrue(events.toString(), events.get(0).startsWith("alice done"));
+        assertTrue(events.toString(), events.get(1).startsWith("bob done"));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(5000));
+        assertEquals(1, scheduler.getSliced());
+    }
+
+    @Test
+    public void aResultWaitingForTheLaneIsNotToldAfterCancelling() throws InterruptedException {
+        start(100, 60_000, 60_000, 60_000);
+        //the sender's lane is busy with a newer message while the search finishes
+        final CountDownLatch busy = new CountDownLatch(1);
+        senderDispatcher.dispatch("alice", () -> {
+            try {
+                busy.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        scheduler.submit("alice", Position.fromFen(MIDDLEGAME), listener("alice"));
+        //the newer message was queued before the search finished and is handled after it
+        senderDispatcher.dispatch("alice", () -> scheduler.cancel("alice"));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.getCompleted() == 0 || scheduler.getRunning() > 0) {
+            assertTrue("Timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+        assertFalse(scheduler.awaitIdle(50, TimeUnit.MILLISECONDS));
+        busy.countDown();
+        assertTrue(scheduler.awaitIdle(2, TimeUnit.SECONDS));
+        assertEquals(Collections.emptyList(), events);
+        assertEquals(1, scheduler.getCancelled());
+    }
+
+    @Test
+    public void theBotsMoveIsNeitherReplacedNorCancelledByAnAnalysis() throws InterruptedException {
+        start(200, 60_000, 60_000, 60_000);
+        scheduler.submit("alice", AnalysisScheduler.Kind.GAME_MOVE, Position.start(), listener("alice-move"));
+        scheduler.submit("alice", Position.fromFen(MIDDLEGAME), listener("alice"));
+        assertTrue(scheduler.isBusy("alice", AnalysisScheduler.Kind.GAME_MOVE));
+        //what every new message of the sender does
+        assertTrue(scheduler.cancel("alice"));
+        scheduler.submit("alice", Position.fromFen(MIDDLEGAME), listener("alice"));
+        assertTrue(scheduler.awaitIdle(5, TimeUnit.SECONDS));
+        assertFalse(scheduler.isBusy("alice", AnalysisScheduler.Kind.GAME_MOVE));
+        assertEquals(events.toString(), 2, events.size());
+        assertTrue(events.toString(), events.get(0).startsWith("alice-move done"));
+        assertTrue(events.toString(), events.get(1).startsWith("alice done"));
+        assertEquals(1, scheduler.getCancelled());
+    }
+
+    private void start(long budgetMillis, long firstUpdateMillis, long updateIntervalMillis, long fairSliceMillis) {
+        analysisService = new PositionAnalysisService(16, 1, budgetMillis, budgetMillis, 64);
+        senderDispatcher = new SenderDispatcher(2, 100);
+        scheduler = new AnalysisScheduler(analysisService, senderDispatcher, 1, firstUpdateMillis, updateIntervalMillis, fairSliceMillis);
+    }
+
+    private AnalysisScheduler.Listener listener(String sender) {
+        return new AnalysisScheduler.Listener() {
+            @Override
+            public void progress(SearchResult result) {
+                events.add(sender + " progress " + result.getDepth());
+            }
+
+            @Override
+            public void done(SearchResult result) {
+                events.add(sender + " done " + result.getDepth());
+            }
+        };
+    }
+}
@@ -0,0 +1,129 @@
+package com.bjedrzejewski.talkingchess.diagrams;
+
+import com.bjedrzejewski.talkingchess.engine.Notation;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import com.bjedrzejewski.talkingchess.games.GameArchive;
+import com.bjedrzejewski.talkingchess.openings.FrenchTalk;
+import com.bjedrzejewski.talkingchess.openings.OpeningTalk;
+import com.bjedrzejewski.talkingchess.openings.SicilianTalk;
+import com.bjedrzejewski.talkingchess.openings.SpanishTalk;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BoardDiagramsTest {
+
+    private static final int SQUARE = 32;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void drawsTheBoardFromEitherSide() throws IOException {
+        final BoardDiagrams diagrams = open(1024);
+        final BufferedImage white = image(diagrams.get(Position.start(), false));
+        assertEquals(8 * SQUARE, white.getWidth());
+        assertEquals(8 * SQUARE, white.getHeight());
+        //a corner of a square is never covered by a piece, a1 is dark and h1 light
+        assertTrue(brightness(white.getRGB(1, 8 * SQUARE - 2)) < brightness(white.getRGB(8 * SQUARE - 2, 8 * SQUARE - 2)));
+        //the middle of a white pawn on e2 is lighter than that of a black one on e7
+        final int center = SQUARE / 2;
+        assertTrue(brightness(white.getRGB(4 * SQUARE + center, 6 * SQUARE + center + 4))
+                > brightness(white.getRGB(4 * SQUARE + center, SQUARE + center + 4)));
+
+        final BufferedImage black = image(diagrams.get(Position.start(), true));
+        assertEquals(white.getRGB(4 * SQUARE + center, 6 * SQUARE + center + 4),
+                black.getRGB(3 * SQUARE + center, SQUARE + center + 4));
+        assertNotEquals(diagrams.key(Position.start(), false), diagrams.key(Position.start(), true));
+    }
+
+    @Test
+    public void rendersEveryPositionOnce() throws IOException {
+        BoardDiagrams diagrams = open(1024);
+        final Position position = Position.start();
+        Notation.playMoves(position, "1. e4 c5 2. Nf3 d6");
+        final Diagram rendered = diagrams.get(position, false);
+        assertSame(rendered, diagrams.get(position, false));
+        assertSame(rendered, diagrams.find(rendered.getKey()));
+        assertEquals(1, diagrams.getRendered());
+        assertEquals(2, diagrams.getMemoryHits());
+        assertTrue(Files.exists(folder.getRoot().toPath().resolve(rendered.getKey() + ".png")));
+
+        //the same position by another move order, and after a restart from the disk
+        final Position transposed = Position.start();
+        Notation.playMoves(transposed, "1. Nf3 d6 2. e4 c5");
+        diagrams = open(1024);
+        final Diagram restored = diagrams.get(transposed, false);
+        assertArrayEquals(rendered.getPng(), restored.getPng());
+        assertEquals(0, diagrams.getRendered());
+        assertEquals(1, diagrams.getDiskHits());
+
+        assertNull(diagrams.find("../" + rendered.getKey()));
+        assertNull(diagrams.find(diagrams.key(Position.start(), true)));
+    }
+
+    @Test
+    public void keepsTheMemoryWithinItsBudget() throws IOException {
+        final BoardDiagrams diagrams = open(8);
+        final Position position = Position.start();
+        for (String move : "e4 e5 Nf3 Nc6 Bb5 a6 Ba4 Nf6 O-O Be7".split(" ")) {
+            Notation.playMoves(position, move);
+            diagrams.get(position, false);
+        }
+        assertTrue(diagrams.getMemoryBytes() <= 8 * 1024);
+        assertEquals(10, diagrams.getRendered());
+        assertNotNull(diagrams.get(position, false));
+        assertEquals(10, diagrams.getRendered());
+    }
+
+    @Test
+    public void preRendersTheLinesOfTheOpeningTalks() throws IOException {
+        final List<OpeningTalk> openingTalks = Arrays.asList(
+                new SicilianTalk(GameArchive.of(null)), new SpanishTalk(GameArchive.of(null)), new FrenchTalk());
+        final BoardDiagrams diagrams = open(1024);
+        diagrams.prerenderLines(openingTalks);
+        int lines = 0;
+        for (OpeningTalk openingTalk : openingTalks) {
+            for (String line : openingTalk.getLines().keySet()) {
+                assertNotNull(line, diagrams.getLineDiagram(line));
+                lines++;
+            }
+        }
+        assertTrue(lines > 10);
+        final long rendered = diagrams.getRendered();
+        final Diagram najdorf = diagrams.getLineDiagram("Najdorf");
+        assertEquals("https://example.com/diagrams/" + najdorf.getKey() + ".png", diagrams.getUrl(najdorf));
+        assertEquals(rendered, diagrams.getRendered());
+        assertNull(diagrams.getLineDiagram("Grob"));
+    }
+
+    private BoardDiagrams open(int memoryKb) throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        return new BoardDiagrams(directory, SQUARE, memoryKb, 16, "https://example.com/");
+    }
+
+    private static BufferedImage image(Diagram diagram) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(diagram.getPng()));
+    }
+
+    private static int brightness(int rgb) {
+        return ((rgb >> 16) & 0xff) + ((rgb >> 8) & 0xff) + (rgb & 0xff);
+    }
+}
@@ -0,0 +1,79 @@
+package com.bjedrzejewski.talkingchess.dispatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CallbackQueueTest {
+
+    private CallbackQueue queue;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (queue != null) {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void processesPayloadsOffTheRequestThreadInOrder() throws InterruptedException {
+        queue = new CallbackQueue(true, 100, 1);
+        final StringBuilder order = new StringBuilder();
+        final AtomicReference<Thread> worker = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(3);
+        for (String payload : new String[]{"a", "b", "c"}) {
+            assertTrue(queue.submit(() -> {
+                worker.set(Thread.currentThread());
+                order.append(payload);
+                done.countDown();
+            }));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("abc", order.toString());
+        assertNotEquals(Thread.currentThread(), worker.get());
+    }
+
+    @Test
+    public void refusesPayloadsWhenFullInsteadOfRunningThemInline() throws InterruptedException {
+        queue = new CallbackQueue(true, 1, 1);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        assertTrue(queue.submit(() -> {
+            running.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        final AtomicInteger processed = new AtomicInteger();
+        assertTrue(queue.submit(processed::incrementAndGet));
+        assertFalse(queue.submit(processed::incrementAndGet));
+        assertEquals(0, processed.get());
+        assertEquals(1, queue.getRejected());
+
+        release.countDown();
+        queue.shutdown();
+        assertEquals(1, processed.get());
+    }
+
+    @Test
+    public void runsPayloadsInlineWhenNotAsync() {
+        queue = new CallbackQueue(false, 1, 1);
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        assertTrue(queue.submit(() -> thread.set(Thread.currentThread())));
+        assertSame(Thread.currentThread(), thread.get());
+        assertEquals(1, queue.getProcessed());
+    }
+}
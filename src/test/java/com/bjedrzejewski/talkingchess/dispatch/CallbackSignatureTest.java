@@ -0,0 +1,30 @@
+package com.bjedrzejewski.talkingchess.dispatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CallbackSignatureTest {
+
+    private static final String SECRET = "key";
+    private static final String PAYLOAD = "The quick brown fox jumps over the lazy dog";
+    //the well known HMAC-SHA1 example of this payload and secret
+    private static final String SIGNATURE = "sha1=de7c9b85b8b78aa6bc8a7a36f70a90701c9db4d9";
+
+    @Test
+    public void acceptsThePayloadSignedWithTheSecret() {
+        assertTrue(CallbackSignature.isValid(PAYLOAD, SIGNATURE, SECRET));
+        assertTrue(CallbackSignature.isValid(PAYLOAD, SIGNATURE.toUpperCase().replace("SHA1=", "sha1="), SECRET));
+    }
+
+    @Test
+    public void rejectsAnythingElse() {
+        assertFalse(CallbackSignature.isValid(PAYLOAD + " ", SIGNATURE, SECRET));
+        assertFalse(CallbackSignature.isValid(PAYLOAD, SIGNATURE, "other key"));
+        assertFalse(CallbackSignature.isValid(PAYLOAD, SIGNATURE.substring("sha1=".length()), SECRET));
+        assertFalse(CallbackSignature.isValid(PAYLOAD, "sha1=", SECRET));
+        assertFalse(CallbackSignature.isValid(null, SIGNATURE, SECRET));
+        assertFalse(CallbackSignature.isValid(PAYLOAD, null, SECRET));
+    }
+}
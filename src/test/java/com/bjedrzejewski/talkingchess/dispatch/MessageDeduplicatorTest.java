@@ -0,0 +1,64 @@
+package com.bjedrzejewski.talkingchess.dispatch;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageDeduplicatorTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void suppressesRedeliveriesWithinTheWindow() {
+        final MessageDeduplicator deduplicator = new MessageDeduplicator(1000, 16, clock::get);
+        assertTrue(deduplicator.firstSeen("mid.1457764197618:41d102a3e1ae206a38"));
+        assertTrue(deduplicator.firstSeen("mid.1457764197618:41d102a3e1ae206a39"));
+        clock.set(999);
+        assertFalse(deduplicator.firstSeen("mid.1457764197618:41d102a3e1ae206a38"));
+        //still in the previous generation
+        clock.set(1500);
+        assertFalse(deduplicator.firstSeen("mid.1457764197618:41d102a3e1ae206a39"));
+        assertEquals(2, deduplicator.getSuppressed());
+        assertTrue(deduplicator.firstSeen(null));
+    }
+
+    @Test
+    public void forgetsIdsAfterTwoWindows() {
+        final MessageDeduplicator deduplicator = new MessageDeduplicator(1000, 16, clock::get);
+        assertTrue(deduplicator.firstSeen("mid.1"));
+        clock.set(1000);
+        deduplicator.firstSeen("mid.2");
+        clock.set(2000);
+        assertTrue(deduplicator.firstSeen("mid.1"));
+    }
+
+    @Test
+    public void forgetsEverythingAfterAnIdleGap() {
+        final MessageDeduplicator deduplicator = new MessageDeduplicator(1000, 16, clock::get);
+        assertTrue(deduplicator.firstSeen("mid.1"));
+        clock.set(900);
+        assertTrue(deduplicator.firstSeen("mid.2"));
+        //no message for several windows, a single rotation would still remember both
+        clock.set(5500);
+        assertTrue(deduplicator.firstSeen("mid.1"));
+        assertTrue(deduplicator.firstSeen("mid.2"));
+        assertFalse(deduplicator.firstSeen("mid.1"));
+        assertEquals(1, deduplicator.getSuppressed());
+    }
+
+    @Test
+    public void staysWithinItsMemoryWhenFlooded() {
+        final MessageDeduplicator deduplicator = new MessageDeduplicator(Long.MAX_VALUE, 16, clock::get);
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(deduplicator.firstSeen("mid." + i));
+        }
+        assertEquals(16 * 1024, deduplicator.getMemoryBytes());
+        assertTrue(deduplicator.getEarlyRotations() > 0);
+        //the most recent ids are still remembered
+        assertFalse(deduplicator.firstSeen("mid.99999"));
+    }
+}
@@ -0,0 +1,131 @@
+package com.bjedrzejewski.talkingchess.dispatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SenderDispatcherTest {
+
+    private SenderDispatcher dispatcher;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void answersEverySenderInTheOrderItsMessagesArrived() throws InterruptedException {
+        dispatcher = new SenderDispatcher(4, 8);
+        final Map<String, List<Integer>> handled = new ConcurrentHashMap<>();
+        final CountDownLatch done = new CountDownLatch(20 * 50);
+        //several producers, each owning a few senders, like callback workers would
+        final List<Thread> producers = new ArrayList<>();
+        for (int producer = 0; producer < 4; producer++) {
+            final int first = producer * 5;
+            producers.add(new Thread(() -> {
+                for (int message = 0; message < 50; message++) {
+                    for (int sender = first; sender < first + 5; sender++) {
+                        final String senderId = "sender-" + sender;
+                        final int number = message;
+                        dispatcher.dispatch(senderId, () -> {
+                            handled.computeIfAbsent(senderId, key -> new CopyOnWriteArrayList<>()).add(number);
+                            done.countDown();
+                        });
+                    }
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(20, handled.size());
+        for (List<Integer> numbers : handled.values()) {
+            for (int i = 0; i < numbers.size(); i++) {
+                assertEquals(i, (int) numbers.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void fullLaneMakesTheCallerWait() throws InterruptedException {
+        dispatcher = new SenderDispatcher(1, 2);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        dispatcher.dispatch("1", () -> {
+            running.countDown();
+            await(release);
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        final AtomicInteger handled = new AtomicInteger();
+        dispatcher.dispatch("1", handled::incrementAndGet);
+        dispatcher.dispatch("2", handled::incrementAndGet);
+        assertEquals(2, dispatcher.getBacklog(0));
+
+        final CountDownLatch queued = new CountDownLatch(1);
+        final Thread caller = new Thread(() -> {
+            dispatcher.dispatch("3", handled::incrementAndGet);
+            queued.countDown();
+        });
+        caller.start();
+        assertFalse(queued.await(300, TimeUnit.MILLISECONDS));
+        assertEquals(2, dispatcher.getBacklog(0));
+        assertEquals(1, dispatcher.getBlocked(0));
+
+        release.countDown();
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        dispatcher.shutdown();
+        assertEquals(3, handled.get());
+        assertEquals(2, dispatcher.getMaxBacklog(0));
+    }
+
+    @Test
+    public void runsTheQueuedTasksOnShutdownAndRejectsNewOnes() throws InterruptedException {
+        dispatcher = new SenderDispatcher(1, 100);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger handled = new AtomicInteger();
+        dispatcher.dispatch("1", () -> await(release));
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dispatch("1", handled::incrementAndGet);
+        }
+        final Thread shutdown = new Thread(() -> {
+            try {
+                dispatcher.shutdown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        shutdown.start();
+        release.countDown();
+        shutdown.join(10_000);
+        assertEquals(10, handled.get());
+        try {
+            dispatcher.dispatch("1", handled::incrementAndGet);
+            fail("Tasks are not taken after the shutdown");
+        } catch (RejectedExecutionException e) {
+            assertEquals(10, handled.get());
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.bjedrzejewski.talkingchess.endgames;
+
+import com.bjedrzejewski.talkingchess.engine.Position;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EndgamesTest {
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static Endgames endgames;
+
+    @BeforeClass
+    public static void generate() throws IOException {
+        endgames = Endgames.generate(folder.getRoot().toPath(), 2, "KPK");
+    }
+
+    @Test
+    public void knowsWonAndDrawnPawnEndings() {
+        //the pawn runs in before the king can catch it
+        assertEquals(Bitbase.WIN, probe("k7/8/8/8/8/8/7P/7K w - - 0 1"));
+        //king on the sixth in front of its pawn wins with either side to move
+        assertEquals(Bitbase.WIN, probe("4k3/8/4K3/4P3/8/8/8/8 w - - 0 1"));
+        assertEquals(Bitbase.LOSS, probe("4k3/8/4K3/4P3/8/8/8/8 b - - 0 1"));
+        //the black king takes the pawn, unless it runs with two steps first
+        assertEquals(Bitbase.DRAW, probe("8/8/8/8/8/8/3kP3/7K b - - 0 1"));
+        assertEquals(Bitbase.WIN, probe("8/8/8/8/8/8/3kP3/7K w - - 0 1"));
+        //stalemate
+        assertEquals(Bitbase.DRAW, probe("4k3/4P3/4K3/8/8/8/8/8 b - - 0 1"));
+    }
+
+    @Test
+    public void answersForEitherColourAndTheTablesPromotionsLeadTo() {
+        assertEquals(Bitbase.WIN, probe("7k/7p/8/8/8/8/8/K7 b - - 0 1"));
+        assertEquals("KPK", endgames.tableFor(Position.fromFen("7k/7p/8/8/8/8/8/K7 b - - 0 1")));
+        assertEquals(Endgames.UNKNOWN, probe("k7/8/1Q6/8/8/8/8/7K b - - 0 1"));
+        assertNull(endgames.tableFor(Position.fromFen("k7/8/1R6/8/8/8/8/6RK w - - 0 1")));
+    }
+
+    private static int probe(String fen) {
+        return endgames.probe(Position.fromFen(fen));
+    }
+}
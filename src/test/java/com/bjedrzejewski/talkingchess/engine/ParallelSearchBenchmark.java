@@ -0,0 +1,64 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lazy SMP scaling from one thread to all processors, over the opening lines the talks quote and the perft
+ * positions. Reports time to a fixed depth, with the speed-up against one thread, and the depth reached in a
+ * fixed time. Every run starts from an empty table.
+ * Run with: java -cp target/classes:target/test-classes com.bjedrzejewski.talkingchess.engine.ParallelSearchBenchmark [depth] [millis] [threads]
+ */
+public class ParallelSearchBenchmark {
+
+    private static final String[] SUITE = {
+            "rnbqkb1r/1p2pppp/p2p1n2/8/3NP3/2N5/PPP2PPP/R1BQKB1R w KQkq - 0 6",
+            "rnbqkb1r/pp2pp1p/3p1np1/8/3NP3/2N5/PPP2PPP/R1BQKB1R w KQkq - 0 6",
+            "r1bqkb1r/pp1p1ppp/2n2n2/4p3/3NP3/2N5/PPP2PPP/R1BQKB1R w KQkq - 0 6",
+            "rnbqkb1r/ppp2ppp/4pn2/3p4/3PP3/2N5/PPP2PPP/R1BQKBNR w KQkq - 2 4",
+            "r1bqk2r/2ppbppp/p1n2n2/1p2p3/4P3/1B3N2/PPPP1PPP/RNBQR1K1 b kq - 1 7",
+            PerftTest.KIWIPETE,
+            PerftTest.POSITION_4,
+    };
+
+    public static void main(String[] args) {
+        final int depth = args.length > 0 ? Integer.parseInt(args[0]) : 9;
+        final long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+        final int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, maxThreads - 1));
+        try {
+            //warm up so the JIT has compiled the search before timing
+            run(new ParallelSearch(new TranspositionTable(16), pool, 0), 200, 64);
+
+            double baseNanos = 0;
+            for (int threads = 1; threads <= maxThreads; threads = threads < 2 ? threads + 1 : threads * 2) {
+                final long toDepth = run(new ParallelSearch(new TranspositionTable(64), pool, threads - 1), Long.MAX_VALUE / 4, depth);
+                if (threads == 1) {
+                    baseNanos = toDepth;
+                }
+                final ParallelSearch timed = new ParallelSearch(new TranspositionTable(64), pool, threads - 1);
+                int totalDepth = 0;
+                long totalNodes = 0;
+                for (String fen : SUITE) {
+                    final SearchResult result = timed.search(Position.fromFen(fen), millis, TimeUnit.MILLISECONDS, 64);
+                    totalDepth += result.getDepth();
+                    totalNodes += result.getNodes();
+                }
+                System.out.printf("%2d threads | depth %d in %7.0f ms | speed-up %4.2f | %.1f plies in %d ms | %5.2f Mnps%n",
+                        threads, depth, toDepth / 1e6, baseNanos / toDepth, (double) totalDepth / SUITE.length, millis,
+                        totalNodes * 1e3 / (millis * 1e6 * SUITE.length));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static long run(ParallelSearch search, long millis, int depth) {
+        final long start = System.nanoTime();
+        for (String fen : SUITE) {
+            search.search(Position.fromFen(fen), millis, TimeUnit.MILLISECONDS, depth);
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,50 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelSearchTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(3);
+    private final ParallelSearch search = new ParallelSearch(new TranspositionTable(16), pool, 3);
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void findsTheSameMovesAsOneThread() {
+        final Position mate = Position.fromFen("kbK5/pp6/1P6/8/8/8/8/R7 w - - 0 1");
+        final SearchResult mateResult = search.search(mate, 5, TimeUnit.SECONDS, 64);
+        assertEquals("a1a6", Move.toUci(mateResult.getBestMove()));
+        assertEquals(2, mateResult.getMateIn());
+
+        final Position queen = Position.fromFen("rnb1kbnr/pppp1ppp/8/4p3/4P2q/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3");
+        assertEquals("Nxh4", Notation.toSan(queen, search.search(queen, 1, TimeUnit.SECONDS, 64).getBestMove()));
+        assertEquals(Position.fromFen("rnb1kbnr/pppp1ppp/8/4p3/4P2q/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3").toFen(), queen.toFen());
+    }
+
+    @Test
+    public void stopsWhenAsked() throws InterruptedException {
+        final Thread stopper = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ignored) {
+            }
+            search.stop();
+        });
+        stopper.start();
+        final long start = System.nanoTime();
+        search.search(Position.fromFen(PerftTest.KIWIPETE), 30, TimeUnit.SECONDS, 64);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        stopper.join();
+    }
+}
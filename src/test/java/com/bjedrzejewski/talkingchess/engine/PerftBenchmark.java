@@ -0,0 +1,49 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+/**
+ * Move generation throughput over the standard perft positions at full depth.
+ * Every count is checked, so a faster but wrong generator does not slip through.
+ * Run with: java -cp target/classes:target/test-classes com.bjedrzejewski.talkingchess.engine.PerftBenchmark [rounds]
+ */
+public class PerftBenchmark {
+
+    private static final Object[][] SUITE = {
+            {Position.START_FEN, 6, 119060324L},
+            {PerftTest.KIWIPETE, 5, 193690690L},
+            {PerftTest.POSITION_3, 7, 178633661L},
+            {PerftTest.POSITION_4, 5, 15833292L},
+            {PerftTest.POSITION_5, 5, 89941194L},
+            {PerftTest.POSITION_6, 5, 164075551L},
+    };
+
+    public static void main(String[] args) {
+        final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        //warm up on shallow searches so the JIT has compiled the generator before timing
+        for (int i = 0; i < 5; i++) {
+            for (Object[] test : SUITE) {
+                new Perft(4).perft(Position.fromFen((String) test[0]), 3);
+            }
+        }
+        for (int round = 1; round <= rounds; round++) {
+            long totalNodes = 0;
+            long totalNanos = 0;
+            for (Object[] test : SUITE) {
+                final String fen = (String) test[0];
+                final int depth = (Integer) test[1];
+                final long expected = (Long) test[2];
+                final long start = System.nanoTime();
+                final long nodes = new Perft(depth).perft(Position.fromFen(fen), depth);
+                final long nanos = System.nanoTime() - start;
+                if (nodes != expected) {
+                    throw new IllegalStateException(fen + " depth " + depth + ": expected " + expected + " but was " + nodes);
+                }
+                totalNodes += nodes;
+                totalNanos += nanos;
+                System.out.printf("round %d | %-80s depth %d | %,13d nodes | %7.0f ms | %6.1f Mnps%n",
+                        round, fen, depth, nodes, nanos / 1e6, nodes * 1e3 / nanos);
+            }
+            System.out.printf("round %d | total %,d nodes | %.0f ms | %.1f Mnps%n",
+                    round, totalNodes, totalNanos / 1e6, totalNodes * 1e3 / totalNanos);
+        }
+    }
+}
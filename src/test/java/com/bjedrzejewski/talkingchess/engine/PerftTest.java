@@ -0,0 +1,104 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Perft counts of the standard test positions, kept to depths that run in a few seconds.
+ * {@link PerftBenchmark} goes deeper and reports the speed.
+ */
+public class PerftTest {
+
+    static final String KIWIPETE = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+    static final String POSITION_3 = "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1";
+    static final String POSITION_4 = "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1";
+    static final String POSITION_4_MIRRORED = "r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b KQ - 0 1";
+    static final String POSITION_5 = "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8";
+    static final String POSITION_6 = "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10";
+
+    @Test
+    public void startPosition() {
+        assertPerft(Position.START_FEN, 20, 400, 8902, 197281, 4865609);
+    }
+
+    @Test
+    public void kiwipete() {
+        assertPerft(KIWIPETE, 48, 2039, 97862, 4085603);
+    }
+
+    @Test
+    public void position3() {
+        assertPerft(POSITION_3, 14, 191, 2812, 43238, 674624);
+    }
+
+    @Test
+    public void position4() {
+        assertPerft(POSITION_4, 6, 264, 9467, 422333);
+        assertPerft(POSITION_4_MIRRORED, 6, 264, 9467, 422333);
+    }
+
+    @Test
+    public void position5() {
+        assertPerft(POSITION_5, 44, 1486, 62379, 2103487);
+    }
+
+    @Test
+    public void position6() {
+        assertPerft(POSITION_6, 46, 2079, 89890, 3894594);
+    }
+
+    @Test
+    public void edgeCases() {
+        //en passant that would expose the king along the rank
+        assertPerft("8/8/8/K2pP2r/8/8/8/7k w - d6 0 1", 6);
+        //en passant that removes the checking pawn
+        assertPerft("8/8/8/2k5/3Pp3/8/8/4K3 b - d3 0 1", 9);
+        assertPerftAt("3k4/3p4/8/K1P4r/8/8/8/8 b - - 0 1", 6, 1134888);
+        assertPerftAt("8/8/4k3/8/2p5/8/B2P2K1/8 w - - 0 1", 6, 1015133);
+        assertPerftAt("8/8/1k6/2b5/2pP4/8/5K2/8 b - d3 0 1", 6, 1440467);
+        assertPerftAt("5k2/8/8/8/8/8/8/4K2R w K - 0 1", 6, 661072);
+        assertPerftAt("3k4/8/8/8/8/8/8/R3K3 w Q - 0 1", 6, 803711);
+        assertPerftAt("r3k2r/1b4bq/8/8/8/8/7B/R3K2R w KQkq - 0 1", 4, 1274206);
+        assertPerftAt("r3k2r/8/3Q4/8/8/5q2/8/R3K2R b KQkq - 0 1", 4, 1720476);
+        assertPerftAt("8/8/1P2K3/8/2n5/1q6/8/5k2 b - - 0 1", 5, 1004658);
+        assertPerftAt("4k3/1P6/8/8/8/8/K7/8 w - - 0 1", 6, 217342);
+        assertPerftAt("8/P1k5/K7/8/8/8/8/8 w - - 0 1", 6, 92683);
+        assertPerftAt("K1k5/8/P7/8/8/8/8/8 w - - 0 1", 6, 2217);
+        assertPerftAt("8/k1P5/8/1K6/8/8/8/8 w - - 0 1", 7, 567584);
+        assertPerftAt("8/8/2k5/5q2/5n2/8/5K2/8 b - - 0 1", 4, 23527);
+    }
+
+    @Test
+    public void fenRoundTripAndUnmakeRestoresThePosition() {
+        for (String fen : new String[]{Position.START_FEN, KIWIPETE, POSITION_3, POSITION_4, POSITION_5, POSITION_6}) {
+            final Position position = Position.fromFen(fen);
+            assertEquals(fen, position.toFen());
+            final int[] moves = new int[MoveGenerator.MAX_MOVES];
+            final int count = MoveGenerator.generate(position, moves);
+            for (int i = 0; i < count; i++) {
+                position.makeMove(moves[i]);
+                position.unmakeMove(moves[i]);
+                assertEquals(Move.toUci(moves[i]), fen, position.toFen());
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTheSideNotToMoveInCheck() {
+        Position.fromFen("k7/8/8/8/8/8/8/R6K w - - 0 1");
+    }
+
+    private static void assertPerftAt(String fen, int depth, long expected) {
+        assertEquals(fen + " depth " + depth, expected, new Perft(depth).perft(Position.fromFen(fen), depth));
+    }
+
+    private static void assertPerft(String fen, long... expected) {
+        final Position position = Position.fromFen(fen);
+        final Perft perft = new Perft(expected.length);
+        for (int depth = 1; depth <= expected.length; depth++) {
+            assertEquals(fen + " depth " + depth, expected[depth - 1], perft.perft(position, depth));
+        }
+        assertEquals(fen, position.toFen());
+    }
+}
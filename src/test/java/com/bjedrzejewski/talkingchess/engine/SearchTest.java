@@ -0,0 +1,67 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SearchTest {
+
+    private final Search search = new Search();
+
+    @Test
+    public void findsMateInTwo() {
+        final Position position = Position.fromFen("kbK5/pp6/1P6/8/8/8/8/R7 w - - 0 1");
+        final SearchResult result = search.search(position, 5, TimeUnit.SECONDS, 64);
+        assertEquals("a1a6", Move.toUci(result.getBestMove()));
+        assertEquals(2, result.getMateIn());
+    }
+
+    @Test
+    public void seesBeingMated() {
+        final Position position = Position.fromFen("rnbqkbnr/pppp1ppp/8/4p3/6P1/5P2/PPPPP2P/RNBQKBNR b KQkq g3 0 2");
+        final SearchResult result = search.search(position, 5, TimeUnit.SECONDS, 64);
+        assertEquals("Qh4#", Notation.toSan(position, result.getBestMove()));
+        assertEquals(1, result.getMateIn());
+    }
+
+    @Test
+    public void takesTheHangingQueen() {
+        final Position position = Position.fromFen("rnb1kbnr/pppp1ppp/8/4p3/4P2q/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3");
+        final SearchResult result = search.search(position, 1, TimeUnit.SECONDS, 64);
+        assertEquals("Nxh4", Notation.toSan(position, result.getBestMove()));
+        assertTrue(result.getScore() > 600);
+    }
+
+    @Test
+    public void staysWithinTheBudget() {
+        final Position position = Position.fromFen(PerftTest.KIWIPETE);
+        final long start = System.nanoTime();
+        final SearchResult result = search.search(position, 100, TimeUnit.MILLISECONDS, 64);
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < 400);
+        assertTrue(result.getDepth() >= 1);
+        assertTrue(result.getNodes() > 0);
+        assertEquals(PerftTest.KIWIPETE, position.toFen());
+    }
+
+    @Test
+    public void sanRoundTripsForEveryLegalMove() {
+        for (String fen : new String[]{Position.START_FEN, PerftTest.KIWIPETE, PerftTest.POSITION_4, PerftTest.POSITION_5}) {
+            final Position position = Position.fromFen(fen);
+            final int[] moves = new int[MoveGenerator.MAX_MOVES];
+            final int count = MoveGenerator.generate(position, moves);
+            for (int i = 0; i < count; i++) {
+                final String san = Notation.toSan(position, moves[i]);
+                assertEquals(fen + " " + san, moves[i], Notation.parseSan(position, san));
+                assertEquals(fen + " " + Move.toUci(moves[i]), moves[i], Notation.parseSan(position, Move.toUci(moves[i])));
+            }
+        }
+        final Position position = Position.start();
+        assertEquals(4, Notation.playMoves(position, "1. e4 d5 2. ed5 Qd5"));
+        assertEquals(Move.NONE, Notation.parseSan(position, "Nf6"));
+        assertEquals("Nc3", Notation.toSan(position, Notation.parseSan(position, "Nc3")));
+    }
+}
@@ -0,0 +1,93 @@
+package com.bjedrzejewski.talkingchess.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TranspositionTableTest {
+
+    @Test
+    public void storedEntriesAreFoundAgain() {
+        final TranspositionTable table = new TranspositionTable(1);
+        final int move = Move.make(Square.parse("e2"), Square.parse("e4"), Move.DOUBLE_PUSH);
+        table.store(0x1234_5678_9ABC_DEF0L, move, -250, 7, TranspositionTable.LOWER);
+
+        final long entry = table.probe(0x1234_5678_9ABC_DEF0L);
+        assertEquals(move, TranspositionTable.move(entry));
+        assertEquals(-250, TranspositionTable.score(entry));
+        assertEquals(7, TranspositionTable.depth(entry));
+        assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(entry));
+        assertEquals(0, table.probe(0x1234_5678_9ABC_DEF1L));
+        assertEquals(0.5, table.getHitRate(), 0);
+    }
+
+    @Test
+    public void fullBucketsLoseTheirShallowestEntry() {
+        final TranspositionTable table = new TranspositionTable(1);
+        //same low bits, so all of these land in one bucket of four
+        for (int i = 1; i <= 5; i++) {
+            table.store((long) i << 40, Move.NONE, 0, i == 2 ? 1 : 10 + i, TranspositionTable.EXACT);
+        }
+        assertEquals(0, table.probe(2L << 40));
+        for (int i : new int[]{1, 3, 4, 5}) {
+            assertTrue(table.probe((long) i << 40) != 0);
+        }
+        assertTrue(table.getCollisionRate() > 0);
+    }
+
+    @Test
+    public void oldGenerationsAreReplacedFirst() {
+        final TranspositionTable table = new TranspositionTable(1);
+        for (int i = 1; i <= 4; i++) {
+            table.store((long) i << 40, Move.NONE, 0, 20, TranspositionTable.EXACT);
+        }
+        table.newSearch();
+        table.newSearch();
+        table.newSearch();
+        table.store(5L << 40, Move.NONE, 0, 1, TranspositionTable.EXACT);
+        assertTrue(table.probe(5L << 40) != 0);
+        assertEquals(0, table.getCollisionRate(), 0);
+    }
+
+    @Test
+    public void keyIsUpdatedIncrementally() {
+        final Position position = Position.fromFen(PerftTest.KIWIPETE);
+        checkKeys(position, 3);
+        assertEquals(Position.fromFen(PerftTest.KIWIPETE).getKey(), position.getKey());
+    }
+
+    @Test
+    public void transpositionsShareTheirKey() {
+        final Position first = Position.start();
+        Notation.playMoves(first, "1. e4 e6 2. d4 d5");
+        final Position second = Position.start();
+        Notation.playMoves(second, "1. d4 d5 2. e4 e6");
+        assertEquals(first.getKey(), second.getKey());
+        assertEquals(first.toFen(), second.toFen());
+    }
+
+    @Test
+    public void repetitionsAreRecognised() {
+        final Position position = Position.start();
+        Notation.playMoves(position, "1. Nf3 Nf6 2. Ng1 Ng8");
+        assertTrue(position.isRepetition());
+        Notation.playMoves(position, "e4");
+        assertFalse(position.isRepetition());
+    }
+
+    private static void checkKeys(Position position, int depth) {
+        assertEquals(position.computeKey(), position.getKey());
+        if (depth == 0) {
+            return;
+        }
+        final int[] moves = new int[MoveGenerator.MAX_MOVES];
+        final int count = MoveGenerator.generate(position, moves);
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            checkKeys(position, depth - 1);
+            position.unmakeMove(moves[i]);
+        }
+    }
+}
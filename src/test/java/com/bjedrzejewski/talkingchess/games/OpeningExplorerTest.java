@@ -0,0 +1,105 @@
+package com.bjedrzejewski.talkingchess.games;
+
+import com.bjedrzejewski.talkingchess.engine.Notation;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OpeningExplorerTest {
+
+    private static final String GAMES = "[Event \"One\"]\n"
+            + "[White \"A\"]\n"
+            + "[Black \"B\"]\n"
+            + "[Result \"1-0\"]\n"
+            + "\n"
+            + "1. e4 {the [best] move} c5 2. Nf3 (2. Nc3 Nc6 (2... d6) 3. g3) 2... d6! $1 3. d4 1-0\n"
+            + "\n"
+            + "[Event \"Two\"]\n"
+            + "[White \"B\"]\n"
+            + "[Black \"A\"]\n"
+            + "[Result \"1/2-1/2\"]\n"
+            + "\n"
+            + "1.e4 c5 2.Nc3 ; a rest of line comment 2. Nf3\n"
+            + "2...Nc6 1/2-1/2\n"
+            + "\n"
+            + "[Event \"Three\"]\n"
+            + "[White \"A\"]\n"
+            + "[Black \"C\"]\n"
+            + "[Result \"0-1\"]\n"
+            + "\n"
+            + "1. e4 c5 2. Nf3 Nc6 3. Qxf7 Nf6 0-1\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void countsMovesAfterEachPosition() throws IOException {
+        final Path pgn = folder.newFile("games.pgn").toPath();
+        Files.write(pgn, GAMES.getBytes(StandardCharsets.UTF_8));
+        final OpeningExplorer explorer = build(pgn, 24);
+
+        final int sicilian = explorer.find(keyAfter("1. e4 c5"));
+        assertEquals(2, explorer.getMoveCount(sicilian));
+        assertEquals("Nf3", san("1. e4 c5", explorer.getMove(sicilian, 0)));
+        assertEquals(2, explorer.getGames(sicilian, 0));
+        assertEquals(50.0, explorer.getWhiteScore(sicilian, 0), 0.001);
+        assertEquals("Nc3", san("1. e4 c5", explorer.getMove(sicilian, 1)));
+        assertEquals(50.0, explorer.getWhiteScore(sicilian, 1), 0.001);
+
+        final int start = explorer.find(Position.start().getKey());
+        assertEquals(1, explorer.getMoveCount(start));
+        assertEquals(3, explorer.getGames(start, 0));
+
+        //comments, variations and annotations are skipped, an illegal move ends the game
+        assertEquals(2, explorer.getMoveCount(explorer.find(keyAfter("1. e4 c5 2. Nf3"))));
+        assertEquals(1, explorer.getMoveCount(explorer.find(keyAfter("1. e4 c5 2. Nf3 d6"))));
+        assertEquals(-1, explorer.find(keyAfter("1. e4 c5 2. Nf3 d6 3. d4")));
+        assertEquals(-1, explorer.find(keyAfter("1. e4 c5 2. Nc3 d6")));
+        assertEquals(-1, explorer.find(keyAfter("1. e4 c5 2. Nf3 Nc6")));
+    }
+
+    @Test
+    public void playsOnlyTheConfiguredPlies() throws IOException {
+        final Path pgn = folder.newFile("synthetic.pgn").toPath();
+        final int[] results = SyntheticPgn.write(pgn, 500, 3);
+        final OpeningExplorer explorer = build(pgn, 6);
+
+        //every synthetic game is the same Najdorf, so each of the first plies has one move played in all games
+        assertEquals(6, explorer.getPositionCount());
+        final int start = explorer.find(Position.start().getKey());
+        assertEquals(500, explorer.getGames(start, 0));
+        final double score = (results[0] + results[2] / 2.0) * 100 / (results[0] + results[1] + results[2]);
+        assertEquals(score, explorer.getWhiteScore(start, 0), 0.001);
+        assertTrue(explorer.find(keyAfter("1. e4 c5 2. Nf3 d6 3. d4 cxd4")) < 0);
+    }
+
+    private OpeningExplorer build(Path pgn, int plies) throws IOException {
+        final Path storeFile = folder.getRoot().toPath().resolve("games.bin");
+        PgnIngester.ingest(pgn, storeFile, 2);
+        final GameStore store = GameStore.open(storeFile);
+        final OpeningExplorer explorer = OpeningExplorer.update(store, folder.getRoot().toPath().resolve("explorer.bin"), plies);
+        assertTrue(explorer.covers(store));
+        return explorer;
+    }
+
+    private static long keyAfter(String moves) {
+        final Position position = Position.start();
+        Notation.playMoves(position, moves);
+        return position.getKey();
+    }
+
+    private static String san(String moves, int move) {
+        final Position position = Position.start();
+        Notation.playMoves(position, moves);
+        return Notation.toSan(position, move);
+    }
+}
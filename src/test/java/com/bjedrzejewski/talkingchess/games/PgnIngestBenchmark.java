@@ -0,0 +1,41 @@
+package com.bjedrzejewski.talkingchess.games;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Ingestion throughput in games per second over a synthetic PGN file, from one thread up to the given number.
+ * Run with: java -cp target/classes:target/test-classes com.bjedrzejewski.talkingchess.games.PgnIngestBenchmark [games] [threads] [pgn]
+ * A real PGN file can be given instead of the synthetic one, the game count is then ignored.
+ */
+public class PgnIngestBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int games = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final Path directory = Files.createTempDirectory("pgn-benchmark");
+        final Path pgn;
+        if (args.length > 2) {
+            pgn = directory.getFileSystem().getPath(args[2]);
+        } else {
+            pgn = directory.resolve("synthetic.pgn");
+            SyntheticPgn.write(pgn, games, 1);
+        }
+        final Path store = directory.resolve("games.bin");
+        System.out.printf("%s | %,d MB%n", pgn, Files.size(pgn) >> 20);
+        //warm up so the JIT has compiled the scanner before timing
+        PgnIngester.ingest(pgn, store, maxThreads);
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            final PgnIngester.Result result = PgnIngester.ingest(pgn, store, threads);
+            System.out.printf("threads %2d | %,d games | %,d chunks | %7.0f ms | %,12d games/s | %6.1f MB/s%n",
+                    threads, result.getGames(), result.getChunks(), result.getNanos() / 1e6, result.getGamesPerSecond(),
+                    result.getBytes() * 1e3 / result.getNanos());
+        }
+        System.out.printf("store %,d KB%n", Files.size(store) >> 10);
+        Files.deleteIfExists(store);
+        if (args.length <= 2) {
+            Files.delete(pgn);
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,127 @@
+package com.bjedrzejewski.talkingchess.games;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PgnIngesterTest {
+
+    private static final String GAMES = "\uFEFF[Event \"World Championship\"]\n"
+            + "[Site \"Dubai\"]\n"
+            + "[Date \"2021.12.03\"]\n"
+            + "[White \"Nepomniachtchi, Ian\"]\n"
+            + "[Black \"Carlsen, Magnus\"]\n"
+            + "[Result \"0-1\"]\n"
+            + "[ECO \"D02\"]\n"
+            + "\n"
+            + "1. d4 Nf6 2. Nf3 d5 3. g3 e6 {a comment with [brackets]} 0-1\n"
+            + "\n"
+            + "[Event \"Casual \\\"blitz\\\"\"]\r\n"
+            + "[Date \"1999.??.??\"]\r\n"
+            + "[White \"Kasparov, Garry\"]\r\n"
+            + "[Black \"Topalov, Veselin\"]\r\n"
+            + "[Result \"1-0\"]\r\n"
+            + "\r\n"
+            + "1. e4 d6 2. d4 Nf6 1-0\r\n"
+            + "\r\n"
+            + "[Event \"Unfinished\"]\n"
+            + "[White \"Carlsen, Magnus\"]\n"
+            + "[Black \"Kasparov, Garry\"]\n"
+            + "[Result \"1/2-1/2\"]\n"
+            + "[ECO \"E99\"]\n"
+            + "\n"
+            + "1. d4 Nf6 1/2-1/2\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsTheTagsTheStoreKeeps() throws IOException {
+        final Path pgn = folder.newFile("games.pgn").toPath();
+        Files.write(pgn, GAMES.getBytes(StandardCharsets.UTF_8));
+        final Path storeFile = folder.getRoot().toPath().resolve("games.bin");
+        final PgnIngester.Result result = PgnIngester.ingest(pgn, storeFile, 2);
+        final GameStore store = GameStore.open(storeFile);
+
+        assertEquals(3, result.getGames());
+        assertEquals(3, store.getGameCount());
+        assertEquals(4, store.getPlayerCount());
+        assertEquals("Carlsen, Magnus", store.getPlayerName(store.getBlack(0)));
+        assertEquals(GameStore.BLACK_WINS, store.getResult(0));
+        assertEquals("D02", GameStore.ecoName(store.getEco(0)));
+        assertEquals(20211203, store.getDate(0));
+        assertEquals(19990000, store.getDate(1));
+        assertEquals(GameStore.NO_ECO, store.getEco(1));
+        assertEquals(GameStore.WHITE_WINS, store.getResult(1));
+        assertEquals(GameStore.DRAW, store.getResult(2));
+        assertEquals(0, store.getDate(2));
+
+        final int carlsen = store.findPlayer("carlsen");
+        assertEquals("Carlsen, Magnus", store.getPlayerName(carlsen));
+        assertArrayEquals(new int[]{0, 2}, toArray(store.gamesOf(carlsen)));
+        assertArrayEquals(new int[]{2}, toArray(store.gamesWithEco(GameStore.ecoCode("E99"))));
+        assertArrayEquals(new int[]{1}, toArray(store.gamesWithResult(GameStore.WHITE_WINS)));
+        assertArrayEquals(new int[]{1, 0}, toArray(store.gamesBetween(19000101, 20991231)));
+        assertEquals(-1, store.findPlayer("Fischer"));
+
+        //every record points at its game in the PGN file
+        try (RandomAccessFile file = new RandomAccessFile(pgn.toFile(), "r")) {
+            final byte[] second = new byte[store.getSourceLength(1)];
+            file.seek(store.getSourceOffset(1));
+            file.readFully(second);
+            final String text = new String(second, StandardCharsets.UTF_8);
+            assertTrue(text, text.startsWith("[Event \"Casual"));
+            assertTrue(text, text.trim().endsWith("1-0"));
+        }
+    }
+
+    @Test
+    public void parallelChunksBuildTheSameStoreAsOneChunk() throws IOException {
+        final Path pgn = folder.newFile("synthetic.pgn").toPath();
+        final int[] results = SyntheticPgn.write(pgn, 2000, 42);
+        final Path single = folder.getRoot().toPath().resolve("single.bin");
+        final Path parallel = folder.getRoot().toPath().resolve("parallel.bin");
+
+        assertEquals(1, PgnIngester.ingest(pgn, single, 1, Integer.MAX_VALUE).getChunks());
+        final PgnIngester.Result result = PgnIngester.ingest(pgn, parallel, 4, 16 << 10);
+        assertTrue(result.getChunks() > 10);
+        assertEquals(2000, result.getGames());
+        assertArrayEquals(Files.readAllBytes(single), Files.readAllBytes(parallel));
+
+        final GameStore store = GameStore.open(parallel);
+        assertEquals(SyntheticPgn.PLAYERS.length, store.getPlayerCount());
+        for (byte outcome = 0; outcome < results.length; outcome++) {
+            assertEquals(results[outcome], store.gamesWithResult(outcome).remaining());
+        }
+        int games = 0;
+        for (int player = 0; player < store.getPlayerCount(); player++) {
+            games += store.getGameCount(player);
+        }
+        assertEquals(2 * 2000, games);
+        int previousDate = 0;
+        final IntBuffer byDate = store.gamesBetween(0, Integer.MAX_VALUE - 1);
+        assertEquals(2000, byDate.remaining());
+        while (byDate.hasRemaining()) {
+            final int date = store.getDate(byDate.get());
+            assertTrue(date >= previousDate);
+            previousDate = date;
+        }
+    }
+
+    private static int[] toArray(IntBuffer games) {
+        final int[] array = new int[games.remaining()];
+        games.get(array);
+        return array;
+    }
+}
@@ -0,0 +1,119 @@
+package com.bjedrzejewski.talkingchess.games;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PlayerStatsCubeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void countsMatchAScanOfTheStore() throws IOException {
+        final Path pgn = folder.newFile("games.pgn").toPath();
+        SyntheticPgn.write(pgn, 3000, 7);
+        final GameStore store = ingest(pgn);
+        final PlayerStatsCube cube = PlayerStatsCube.update(store, folder.getRoot().toPath().resolve("stats.bin"));
+
+        assertTrue(cube.covers(store));
+        for (int player = 0; player < store.getPlayerCount(); player++) {
+            final int[] scores = new int[6];
+            final int[][] headToHead = new int[store.getPlayerCount()][3];
+            final int[][] openings = new int[2][GameStore.ECO_CODES];
+            for (int game = 0; game < store.getGameCount(); game++) {
+                final boolean white = store.getWhite(game) == player;
+                if (!white && store.getBlack(game) != player) {
+                    continue;
+                }
+                openings[white ? 0 : 1][store.getEco(game)]++;
+                final byte result = store.getResult(game);
+                if (result == GameStore.UNKNOWN) {
+                    continue;
+                }
+                final int outcome = result == GameStore.DRAW ? 1 : (result == GameStore.WHITE_WINS) == white ? 0 : 2;
+                scores[(white ? 0 : 3) + outcome]++;
+                headToHead[white ? store.getBlack(game) : store.getWhite(game)][outcome]++;
+            }
+            assertEquals(scores[0], cube.getWins(player, true));
+            assertEquals(scores[1], cube.getDraws(player, true));
+            assertEquals(scores[2], cube.getLosses(player, true));
+            assertEquals(scores[3], cube.getWins(player, false));
+            assertEquals(scores[5], cube.getLosses(player, false));
+            for (int opponent = 0; opponent < store.getPlayerCount(); opponent++) {
+                assertArrayEquals(headToHead[opponent], cube.getHeadToHead(player, opponent));
+            }
+            int previous = Integer.MAX_VALUE;
+            for (int rank = 0; rank < cube.getOpeningCount(player, true); rank++) {
+                final int games = cube.getOpeningGames(player, true, rank);
+                assertEquals(openings[0][cube.getOpeningEco(player, true, rank)], games);
+                assertTrue(games <= previous);
+                previous = games;
+            }
+            assertTrue(cube.getFirstDate(player) >= 19900101 && cube.getLastDate(player) < 20200000);
+        }
+    }
+
+    @Test
+    public void addingGamesUpdatesToTheSameCubeAsBuildingAgain() throws IOException {
+        final Path pgn = folder.newFile("games.pgn").toPath();
+        final Path more = folder.newFile("more.pgn").toPath();
+        SyntheticPgn.write(pgn, 1000, 1);
+        SyntheticPgn.write(more, 500, 2);
+        final Path incremental = folder.getRoot().toPath().resolve("incremental.bin");
+        final Path full = folder.getRoot().toPath().resolve("full.bin");
+
+        assertEquals(1000, PlayerStatsCube.update(ingest(pgn), incremental).getGameCount());
+        Files.write(pgn, ("\n" + new String(Files.readAllBytes(more), StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        final GameStore grown = ingest(pgn);
+        assertEquals(1500, PlayerStatsCube.update(grown, incremental).getGameCount());
+        PlayerStatsCube.update(grown, full);
+
+        assertArrayEquals(Files.readAllBytes(full), Files.readAllBytes(incremental));
+    }
+
+    @Test
+    public void anUntaggedGameKeepsItsPlayerWhenNewPlayersAreAdded() throws IOException {
+        final Path pgn = folder.newFile("games.pgn").toPath();
+        Files.write(pgn, (game("Carlsen, Magnus", "Anand, Viswanathan", "1-0") + game(null, null, "0-1"))
+                .getBytes(StandardCharsets.UTF_8));
+        final Path incremental = folder.getRoot().toPath().resolve("incremental.bin");
+        final Path full = folder.getRoot().toPath().resolve("full.bin");
+
+        assertEquals(2, PlayerStatsCube.update(ingest(pgn), incremental).getGameCount());
+        Files.write(pgn, game("Kasparov, Garry", "Kramnik, Vladimir", "1/2-1/2").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        final GameStore grown = ingest(pgn);
+        assertEquals(3, PlayerStatsCube.update(grown, incremental).getGameCount());
+        PlayerStatsCube.update(grown, full);
+
+        assertArrayEquals(Files.readAllBytes(full), Files.readAllBytes(incremental));
+        final PlayerStatsCube cube = PlayerStatsCube.open(incremental);
+        assertEquals(1, cube.getWins(grown.findPlayer("?"), false));
+        assertEquals(0, cube.getWins(grown.findPlayer("Kasparov"), false));
+    }
+
+    private static String game(String white, String black, String result) {
+        return "[Event \"Test\"]\n"
+                + (white == null ? "" : "[White \"" + white + "\"]\n")
+                + (black == null ? "" : "[Black \"" + black + "\"]\n")
+                + "[Result \"" + result + "\"]\n\n1. e4 e5 " + result + "\n\n";
+    }
+
+    private GameStore ingest(Path pgn) throws IOException {
+        final Path storeFile = folder.getRoot().toPath().resolve("games.bin");
+        PgnIngester.ingest(pgn, storeFile, 2);
+        return GameStore.open(storeFile);
+    }
+}
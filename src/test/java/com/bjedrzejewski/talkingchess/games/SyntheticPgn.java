@@ -0,0 +1,53 @@
+package com.bjedrzejewski.talkingchess.games;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Writes PGN files of made up games, the same for the same seed.
+ */
+final class SyntheticPgn {
+
+    static final String[] PLAYERS = {"Carlsen, Magnus", "Kasparov, Garry", "Anand, Viswanathan", "Kramnik, Vladimir",
+            "Karjakin, Sergey", "Nakamura, Hikaru", "Caruana, Fabiano", "Giri, Anish"};
+    static final String[] RESULTS = {"1-0", "0-1", "1/2-1/2", "*"};
+
+    private static final String MOVES = "1. e4 c5 2. Nf3 d6 3. d4 cxd4 4. Nxd4 Nf6 5. Nc3 a6 6. Be3 e5 7. Nb3 Be6\n"
+            + "8. f3 Be7 9. Qd2 O-O 10. O-O-O Nbd7 11. g4 b5 12. g5 b4 13. Ne2 Ne8 14. f4 a5\n"
+            + "15. f5 a4 16. Nbd4 exd4 17. Nxd4 b3 18. Kb1 bxc2+ 19. Nxc2 Bb3 20. axb3 axb3 ";
+
+    private SyntheticPgn() {
+    }
+
+    /**
+     * @return number of games won by white, black, drawn and unfinished, by result
+     */
+    static int[] write(Path file, int games, long seed) throws IOException {
+        final Random random = new Random(seed);
+        final int[] results = new int[RESULTS.length];
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < games; i++) {
+                final int white = random.nextInt(PLAYERS.length);
+                final int black = (white + 1 + random.nextInt(PLAYERS.length - 1)) % PLAYERS.length;
+                final int result = random.nextInt(RESULTS.length);
+                results[result]++;
+                writer.write("[Event \"Synthetic " + i + "\"]\n");
+                writer.write("[Site \"?\"]\n");
+                writer.write(String.format("[Date \"%d.%02d.%02d\"]%n", 1990 + random.nextInt(30), 1 + random.nextInt(12), 1 + random.nextInt(28)));
+                writer.write("[Round \"" + (i % 9 + 1) + "\"]\n");
+                writer.write("[White \"" + PLAYERS[white] + "\"]\n");
+                writer.write("[Black \"" + PLAYERS[black] + "\"]\n");
+                writer.write("[Result \"" + RESULTS[result] + "\"]\n");
+                writer.write(String.format("[ECO \"%c%02d\"]%n", (char) ('A' + random.nextInt(5)), random.nextInt(100)));
+                writer.write("\n");
+                writer.write(MOVES.substring(0, 80 + random.nextInt(MOVES.length() - 80)));
+                writer.write(RESULTS[result] + "\n\n");
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,418 @@
+package com.bjedrzejewski.talkingchess.general;
+
+import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
+import com.bjedrzejewski.talkingchess.analysis.AnalysisScheduler;
+import com.bjedrzejewski.talkingchess.analysis.AnalysisTalk;
+import com.bjedrzejewski.talkingchess.analysis.PositionAnalysisService;
+import com.bjedrzejewski.talkingchess.dispatch.SenderDispatcher;
+import com.bjedrzejewski.talkingchess.endgames.Endgames;
+import com.bjedrzejewski.talkingchess.games.GameArchive;
+import com.bjedrzejewski.talkingchess.openings.OpeningTalk;
+import com.bjedrzejewski.talkingchess.play.ActiveGames;
+import com.bjedrzejewski.talkingchess.play.GameTalk;
+import com.bjedrzejewski.talkingchess.players.PlayerTalk;
+import com.bjedrzejewski.talkingchess.send.PreparedMessage;
+import com.bjedrzejewski.talkingchess.session.ConversationState;
+import com.bjedrzejewski.talkingchess.session.SessionStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Golden routing tests - every message must be answered by the same rule as the original if/else chain.
+ * Expected values are the beginnings of the replies, in the order they are sent.
+ */
+public class GeneralTalkRoutingTest {
+
+    private static final String SENDER = "golden-sender";
+    private static final String NOT_UNDERSTOOD = "<not understood>";
+
+    private static final List<String> NOT_UNDERSTOOD_REPLIES = Arrays.asList(
+            "I did not understand you- I am just a chess engine after all!",
+            "I did not get it. I am still learning.",
+            "Thank you for being patient with me",
+            "I did not know about that yet.",
+            "I did not quite understand. How about you ask me about Sicilian?");
+
+    private static final String[][] GOLDEN = {
+            //analysis, answered before any keyword rule
+            {"analyse 1. f3 e5 2. g4", "Black mates in 1. Best line: 2... Qh4#"},
+            {"6k1/5ppp/8/8/8/8/8/R5K1 w - - 0 1", "White mates in 1. Best line: 1. Ra8#"},
+            {"analyse 1. e4 e5 2. Nf3 Qh4 3. Nxh4", "White is winning"},
+            {"what about 1. e4 e5 2. Nf3 Qh4 3. Nxh4", "e4 - the best by test"},
+            {"analyse 1. e4 e5 2. Nf3 Nc6 3. Bb5 Nd4 4. Nxe5 Qg5 5. Nxf7 Qxg2 6. Rf1 Qxe4+ 7. Be2 Nf3#", "That is checkmate already"},
+            {"analyze", "Send me a FEN or the moves of the game"},
+            {"analyse the najdorf", NOT_UNDERSTOOD},
+            {"analysis of the sicilian", "Sicialian defense, great opening."},
+            {"Evaluate Carlsen's play", "Sven Magnus Øen Carlsen"},
+            {"1. e4 e5 2. Ke2 Nf6 3. Nh8", "I could not follow the moves, 'Nh8' is not legal"},
+
+            //move lists of known openings, by any move order
+            {"1. Nf3 c5 2. e4 d6 3. d4 cxd4 4. Nxd4 Nf6 5. Nc3 a6", "That is the Sicilian Defense: Najdorf Variation (B90).", "Najdorf goes:"},
+            {"e4 e5 Nf3 Nc6 Bb5 Nf6", "That is the Ruy Lopez: Berlin Defense (C65).", "The Berlin Defence, 3...Nf6"},
+            {"e4 e6 d4 d5", "That is the French Defense: Normal Variation (C00).", "French defence is one of those openings"},
+            {"1. e4 c5 2. Nf3 d6 3. d4 cxd4 4. Nxd4 Nf6 5. Nc3 a6 6. Be3 e5 7. Nb3", "That started as the Sicilian Defense: Najdorf Variation, English Attack (B90) and has left the book since.", "Najdorf goes:"},
+            {"1. d4 Nf6 2. c4 e6 3. Nc3 Bb4", "That is the Nimzo-Indian Defense (E20)."},
+
+            //priority messages
+            {"Yes, I want to play a game", "Let's play! You have White", "8 r n b q k b n r"},
+            {"resign", "Good game!"},
+            {"No, thank you, I don't want to play", "No problem! Talk to me about something else."},
+            {"I want to learn how to play", "This is great! I think you should check out"},
+            {"other openings", "What is your favourite opening then?"},
+            {"Other players", "Who is your favourite player then?"},
+            {"lets talk something else", "Sure! What chess related thing is on your mind?"},
+            {"lets talk openings", "I really like Spanish and Sicilian, maybe I can tell you more about one of them?"},
+            {"lets talk players", "I really like Stockfish and Fritz, but you probably prefer humans."},
+            {"None, thanks", "No problem! Talk to me about something else."},
+
+            //opening details
+            {"I want to learn general Sicilian", "Sicilian goes: 1.e4 c5", "By advancing the c-pawn"},
+            {"I want to learn Sicilian Najdorf", "Najdorf goes:", "The Najdorf Variation"},
+            {"sicilian dragon please", "Dragon goes:"},
+            {"I want to learn Sicilian Classical", "This variation can arise from two different move orders"},
+            {"scheveningen", "Scheveningen goes:"},
+            {"what about the sveshnikov?", "Sveshnikov goes:"},
+            {"taimanov", "Named after Mark Taimanov"},
+            {"how do i beat the sicilian", "To beat Sicilian I recommend"},
+            {"sicilian najdorf kasparov", "Najdorf goes:"},
+            {"I want to learn general Spanish", "Spanish/Ruy Lopez goes:"},
+            {"I want to learn Spanish Main Line", "Main line: 4.Ba4"},
+            {"ruy lopez exchange", "Exchange Variation happens after 4...dxc6"},
+            {"berlin wall", "The Berlin Defence, 3...Nf6"},
+            {"I want to learn classical French", "French Classical goes:"},
+            {"I want to learn winawer french", "French Winawer goes:"},
+            {"I want to learn French Exchange", "French Exchange goes: 1.e4 e6 2.d4 d5 3.exd5 exd5"},
+            {"I want to learn Advance French", "French Exchange goes: 1.e4 e6 2.d4 d5 3.e5"},
+            {"french tarrash", "French Tarrasch goes:"},
+
+            //player details
+            {"i want to know more about garry kasparov", "Garry Kimovich Kasparov"},
+            {"i want to know garry kasparov openings", "Kasparov most played openings with White"},
+            {"i want to see some garry kasparov games", "Kasparov had many amazing duels."},
+            {"carlsen", "Sven Magnus Øen Carlsen"},
+            {"i want to know magnus carlsen openings", "Sven Magnus Øen Carlsen"},
+            {"magnus more", "Sven Magnus Øen Carlsen"},
+            {"magnus openings", "Carlsen most played openings with White"},
+            {"magnus games", "Carlsen played many beautiful games."},
+
+            //general opening and player talk
+            {"Sicilian", "Sicialian defense, great opening.", "Which Sicilian variation would you like to learn more about?"},
+            {"spanish", "Ahhhh, the Spanish.", "Which Spanish variation would you like to learn more about?"},
+            {"Ruy Lopez", "Ahhhh, the Spanish."},
+            {"I want to learn Tarrasch French", "French defence is one of those openings"},
+            {"french king", "French defence is one of those openings"},
+            {"kasparov", "Garry Kasparov is one of the greatest chess players of all time!", "What would you like me to tell you about Garry?"},
+            {"magnus", "Magnus is great by definition.", "What would you like me to tell you about Magnus Carlsen?"},
+
+            //openings - short
+            {"hello", "Hello I am The Talking Chess Engine."},
+            {"hi", "Hello I am The Talking Chess Engine."},
+            {"they", "Hello I am The Talking Chess Engine."},
+            {"how are you?", "Hello I am The Talking Chess Engine."},
+            {"hey, what about the najdorf", "Hello I am The Talking Chess Engine."},
+            {"the queen's gambit", "I love playing against gambits."},
+            {"italian", "Italian game is interesting"},
+            {"caro kann", "Caro Kann is a very defensive opening."},
+            {"kings indian", "Kings Indian is great"},
+            {"nimzo indian", "I respect ideas that came from Nimzowitch."},
+            {"semi slav", "Slav is a sound opening"},
+            {"e4", "e4 - the best by test.", "Would you like to play a game?"},
+            {"d4", "d4 is another solid choice.", "Would you like to play a game?"},
+
+            //players - short
+            {"karjakin", "He is not an engine, but still a great player."},
+            {"nakamura", "He is fast!"},
+            {"bobby fisher", "Bobby Fischer is a legend."},
+            {"fischer", "Bobby Fischer is a legend."},
+            {"anand", "Anand, the Lightning Kid!"},
+            {"kramnik", "His Berlin Defence is a stuff of legends..."},
+            {"karpov", "Karpov was a famous strategic player."},
+            {"capablanca", "He played so simple and so correct."},
+
+            //favourite
+            {"who is your favourite player", "My favourite players are HAL9000 and Deep Blue."},
+            {"best player", "My favourite players are HAL9000 and Deep Blue."},
+            {"favorite opening", "For white it is e4 and then I force the win"},
+
+            //endgame and snippets
+            {"endgame", "We engines are not great at endgames..."},
+            {"who goes first", "White always goes first..."},
+            {"knight sacrifice", "I love sacrifices"},
+            {"pawn", "Everyone is talking about queen's and king's pawn"},
+            {"knight", "Knights are interesting pieces."},
+            {"bishop", "I like bishops."},
+            {"queen", "It makes sense to call the opening after a queen"},
+            {"king", "I think the King has too many openings named after itself!"},
+            {"piece", "My favourite piece is the king- never sacrifice it!"},
+            {":)", ":)"},
+            {"LOL", ":)"},
+
+            //play game
+            {"lets play chess", "Would you like to play a game?"},
+            {"can we play a game", "Would you like to play a game?"},
+
+            //not understood
+            {"the dragon", NOT_UNDERSTOOD},
+            {"hi there", NOT_UNDERSTOOD},
+            {"asdf", NOT_UNDERSTOOD},
+            {"", NOT_UNDERSTOOD},
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    //analyses answer from the sender's dispatch lane
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+    private PositionAnalysisService analysisService;
+    private SenderDispatcher senderDispatcher;
+    private AnalysisScheduler analysisScheduler;
+    private AnalysisTalk analysisTalk;
+    private SessionStore sessions;
+    private ActiveGames activeGames;
+    private GameTalk gameTalk;
+    private GeneralTalk generalTalk;
+    private MessengerPlatformCallbackHandler callback;
+
+    @Before
+    public void setUp() throws IOException {
+        analysisService = new PositionAnalysisService(1, 1, 200, 200, 64);
+        //no interim updates and no slicing, every analysis answers with exactly one message
+        senderDispatcher = new SenderDispatcher(1, 100);
+        analysisScheduler = new AnalysisScheduler(analysisService, senderDispatcher, 1, 60_000, 60_000, 60_000);
+        analysisTalk = new AnalysisTalk(analysisService, analysisScheduler, Endgames.of());
+        sessions = new SessionStore(folder.getRoot().getPath(), 100, 1024, 30, 0);
+        activeGames = new ActiveGames(folder.getRoot().getPath(), 100, 1, 0);
+        gameTalk = new GameTalk(activeGames, analysisScheduler);
+        generalTalk = new GeneralTalk(GameArchive.of(null), analysisTalk, gameTalk, sessions);
+
+        callback = mock(MessengerPlatformCallbackHandler.class);
+        doAnswer(invocation -> {
+            sent.add(((PreparedMessage) invocation.getArguments()[1]).getText());
+            return null;
+        }).when(callback).sendPreparedMessage(anyString(), any(PreparedMessage.class));
+        doAnswer(invocation -> {
+            sent.add((String) invocation.getArguments()[1]);
+            return null;
+        }).when(callback).sendTextMessage(anyString(), anyString());
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        //only what setUp got to before a failure
+        if (sessions != null) {
+            sessions.shutdown();
+        }
+        if (activeGames != null) {
+            activeGames.shutdown();
+        }
+        if (analysisScheduler != null) {
+            analysisScheduler.shutdown();
+        }
+        if (analysisService != null) {
+            analysisService.shutdown();
+        }
+        if (senderDispatcher != null) {
+            senderDispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void routesEveryMessageLikeTheOriginalRuleOrder() throws InterruptedException {
+        for (String[] golden : GOLDEN) {
+            final List<String> replies = route(golden[0]);
+            assertFalse("No reply for '" + golden[0] + "'", replies.isEmpty());
+            if (NOT_UNDERSTOOD.equals(golden[1])) {
+                assertEquals("Unexpected reply count for '" + golden[0] + "'", 1, replies.size());
+                assertTrue("Expected not understood for '" + golden[0] + "' but got: " + replies.get(0),
+                        NOT_UNDERSTOOD_REPLIES.stream().anyMatch(replies.get(0)::startsWith));
+                continue;
+            }
+            for (int i = 1; i < golden.length; i++) {
+                assertTrue("Too few replies for '" + golden[0] + "'", replies.size() >= i);
+                assertTrue("Reply " + i + " for '" + golden[0] + "' was: " + replies.get(i - 1),
+                        replies.get(i - 1).startsWith(golden[i]));
+            }
+        }
+    }
+
+    @Test
+    public void matcherFindsExactlyTheKeywordsContainedInTheMessage() {
+        final List<String> keyWords = new ArrayList<>();
+        for (OpeningTalk openingTalk : generalTalk.getOpeningTalks()) {
+            keyWords.addAll(openingTalk.getKeyWords());
+            keyWords.addAll(openingTalk.getDetailKeyWords());
+        }
+        for (PlayerTalk playerTalk : generalTalk.getPlayerTalks()) {
+            keyWords.addAll(playerTalk.getKeyWords());
+            keyWords.addAll(playerTalk.getDetailKeyWords());
+        }
+        keyWords.addAll(Arrays.asList("hello", "hey", "e4", "d4", "king", "kings", "player", "who", "goes", "first"));
+        final KeywordMatcher keywordMatcher = GeneralTalk.compileKeywords(generalTalk.getOpeningTalks(), generalTalk.getPlayerTalks());
+        for (String[] golden : GOLDEN) {
+            final String lowerMessage = golden[0].toLowerCase();
+            final MatchedMessage message = keywordMatcher.match(lowerMessage);
+            for (String keyWord : keyWords) {
+                assertEquals("'" + keyWord + "' in '" + lowerMessage + "'", lowerMessage.contains(keyWord), message.contains(keyWord));
+            }
+        }
+    }
+
+    @Test
+    public void quickReplyPayloadsResolveToTheHandlerBoundInTheMenu() {
+        final String[][] payloads = {
+                {"lets talk openings", "I really like Spanish and Sicilian"},
+                {"sicilian", "Sicialian defense, great opening."},
+                {"I want to learn Sicilian Najdorf", "Najdorf goes:"},
+                {"I want to learn Tarrasch French", "French Tarrasch goes:"},
+                {"i want to know magnus carlsen openings", "Carlsen most played openings with White"},
+                {"i want to see some magnus carlsen games", "Carlsen played many beautiful games."},
+                {"carlsen", "Magnus is great by definition."},
+                {"None, thanks", "No problem! Talk to me about something else."},
+                {"Yes, I want to play a game", "Let's play! You have White"},
+                {"Yes, I want to play a game as black", "Let's play! You have Black"},
+        };
+        for (String[] payload : payloads) {
+            sent.clear();
+            assertTrue("Payload not registered: " + payload[0], generalTalk.getQuickReplies().resolve(payload[0], SENDER, callback));
+            assertTrue("Reply for '" + payload[0] + "' was: " + sent, sent.get(0).startsWith(payload[1]));
+            activeGames.end(SENDER);
+        }
+        assertFalse(generalTalk.getQuickReplies().resolve("some text typed by the user", SENDER, callback));
+    }
+
+    @Test
+    public void staticTextsHoldEveryTextTheRulesAndTheMenusAnswerWith() throws InterruptedException {
+        final List<String> texts = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> {
+            texts.add((String) invocation.getArguments()[1]);
+            return null;
+        }).when(callback).sendTextMessage(anyString(), anyString());
+        final List<String> staticTexts = generalTalk.getStaticTexts();
+        for (String[] golden : GOLDEN) {
+            texts.clear();
+            final String answeredBy = generalTalk.resolveMessage(golden[0], SENDER, callback);
+            assertTrue(analysisScheduler.awaitIdle(10, TimeUnit.SECONDS));
+            //games and analyses answer with what they found
+            if (activeGames.get(SENDER) != null) {
+                activeGames.end(SENDER);
+            } else if (!Arrays.asList("game", "opening_moves", "analysis").contains(answeredBy)) {
+                assertTrue("Not prerendered for '" + golden[0] + "': " + texts, staticTexts.containsAll(texts));
+            }
+        }
+        for (String name : Arrays.asList(GeneralTalk.HELLO_MENU, GeneralTalk.OPENINGS_MENU, GeneralTalk.PLAYERS_MENU,
+                "sicilian", "spanish", "french", "kasparov", "carlsen")) {
+            for (QuickReplyHandler handler : generalTalk.getQuickReplies().getMenu(name).getHandlers().values()) {
+                texts.clear();
+                handler.handle(callback, SENDER);
+                assertTrue("Not prerendered for menu '" + name + "': " + texts, staticTexts.containsAll(texts));
+            }
+        }
+    }
+
+    @Test
+    public void followsUpOnTheLastMenu() throws InterruptedException {
+        //the handler remembers menus by their registered names
+        doAnswer(invocation -> {
+            final String name = generalTalk.getQuickReplies().getMenuName((QuickReplyMenu) invocation.getArguments()[1]);
+            if (name != null) {
+                sessions.update((String) invocation.getArguments()[0], ConversationState.MENU, name);
+            }
+            return null;
+        }).when(callback).rememberMenu(anyString(), any(QuickReplyMenu.class));
+        doAnswer(invocation -> {
+            sessions.update((String) invocation.getArguments()[0], ConversationState.DETAILS);
+            return null;
+        }).when(callback).rememberDetails(anyString());
+
+        assertTrue(NOT_UNDERSTOOD_REPLIES.stream().anyMatch(route("tell me more").get(0)::startsWith));
+        route("Sicilian");
+        assertEquals("sicilian", sessions.get(SENDER).getTopic());
+        assertTrue(route("Najdorf").get(0).startsWith("Najdorf goes:"));
+        assertEquals(ConversationState.DETAILS, sessions.get(SENDER).getState());
+        assertTrue(route("tell me more").get(0).startsWith("Which Sicilian variation would you like to learn more about?"));
+        assertTrue(route("More").get(0).startsWith("Sicilian goes: 1.e4 c5"));
+
+        route("kasparov");
+        assertTrue(route("openings").get(0).startsWith("Kasparov most played openings with White"));
+        route("analyse 1. f3 e5 2. g4");
+        assertEquals(ConversationState.ANALYSIS, sessions.get(SENDER).getState());
+        assertTrue(NOT_UNDERSTOOD_REPLIES.stream().anyMatch(route("tell me more").get(0)::startsWith));
+    }
+
+    @Test
+    public void playsAGameUntilTheUserResigns() throws InterruptedException {
+        route("Yes, I want to play a game");
+        List<String> replies = route("e4");
+        assertTrue("Reply to e4 was: " + replies, replies.get(0).startsWith("I play "));
+        assertTrue(replies.get(1).contains(" w KQkq "));
+        assertEquals(2, activeGames.get(SENDER).getPlies());
+
+        assertTrue(route("Ke3").get(0).startsWith("'Ke3' is not a legal move here."));
+        assertTrue(route("e4").get(0).startsWith("'e4' is not a legal move here."));
+        assertTrue(route("sicilian").get(0).startsWith("Sicialian defense, great opening."));
+        assertTrue(route("moves").get(0).startsWith("1. e4 "));
+
+        assertTrue(route("Resign").get(0).startsWith("Good game! The moves were: 1. e4 "));
+        assertEquals(null, activeGames.get(SENDER));
+        assertTrue(route("e4").get(0).startsWith("e4 - the best by test."));
+    }
+
+    @Test
+    public void anAnalysisWhileTheBotThinksDoesNotLoseItsMove() throws InterruptedException {
+        route("Yes, I want to play a game");
+        sent.clear();
+        generalTalk.resolveMessage("e4", SENDER, callback);
+        //the handler cancels the sender's analysis before every message
+        analysisTalk.cancel(SENDER);
+        generalTalk.resolveMessage("analyse 1. d4 d5", SENDER, callback);
+        assertTrue(analysisScheduler.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(2, activeGames.get(SENDER).getPlies());
+        assertEquals(2, analysisScheduler.getCompleted());
+        synchronized (sent) {
+            assertTrue("Replies were: " + sent, sent.stream().anyMatch(reply -> reply.startsWith("I play ")));
+        }
+    }
+
+    @Test
+    public void botOpensTheGameWhenTheUserHasBlack() throws InterruptedException {
+        final List<String> replies = route("play as black");
+        assertTrue(replies.get(0).startsWith("Let's play! You have Black"));
+        assertTrue(replies.get(1).startsWith("I play "));
+        assertTrue("Board was: " + replies.get(2), replies.get(2).startsWith("1 R "));
+        assertTrue(activeGames.get(SENDER).getPosition().getSideToMove() != activeGames.get(SENDER).getBotColor());
+    }
+
+    @Test
+    public void namesWhatAnsweredTheMessage() {
+        assertEquals("opening:sicilian", generalTalk.resolveMessage("tell me about sicilian", SENDER, callback));
+        assertEquals("not_understood", generalTalk.resolveMessage("qwerty", SENDER, callback));
+        assertEquals("opening_moves", generalTalk.resolveMessage("1. e4 e5 2. Nf3 Nc6 3. Bb5", SENDER, callback));
+    }
+
+    private List<String> route(String message) throws InterruptedException {
+        sent.clear();
+        generalTalk.resolveMessage(message, SENDER, callback);
+        assertTrue(analysisScheduler.awaitIdle(10, TimeUnit.SECONDS));
+        synchronized (sent) {
+            return new ArrayList<>(sent);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.bjedrzejewski.talkingchess.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    @Test
+    public void countsEachLatencyIntoTheFirstBucketItFits() {
+        assertEquals(0, LatencyHistogram.bucket(0));
+        assertEquals(0, LatencyHistogram.bucket(100_000));
+        assertEquals(1, LatencyHistogram.bucket(100_001));
+        assertEquals(3, LatencyHistogram.bucket(1_000_000));
+        assertEquals(15, LatencyHistogram.bucket(10_000_000_000L));
+        assertEquals(16, LatencyHistogram.bucket(Long.MAX_VALUE));
+        assertEquals("0.0001", LatencyHistogram.BOUND_LABELS[0]);
+        assertEquals("0.00025", LatencyHistogram.BOUND_LABELS[1]);
+        assertEquals("10", LatencyHistogram.BOUND_LABELS[15]);
+    }
+
+    @Test
+    public void scrapesCumulativeBucketsInTheTextFormat() {
+        final Metrics metrics = new Metrics();
+        final LatencyHistogram parse = metrics.histogram("test_seconds", "Test latency.", "stage", "parse");
+        assertSame(parse, metrics.histogram("test_seconds", "Test latency.", "stage", "parse"));
+        parse.record(50_000);
+        parse.record(2_000_000);
+        parse.record(20_000_000_000L);
+        metrics.counter("test_failures_total", "Failed \\ tests\nso far.", "reason", "say \"no\"").add(3);
+
+        final String text = metrics.scrape();
+        assertTrue(text, text.startsWith("# HELP test_failures_total Failed \\\\ tests\\nso far.\n"
+                + "# TYPE test_failures_total counter\n"
+                + "test_failures_total{reason=\"say \\\"no\\\"\"} 3\n"
+                + "# HELP test_seconds Test latency.\n"
+                + "# TYPE test_seconds histogram\n"));
+        assertTrue(text, text.contains("test_seconds_bucket{stage=\"parse\",le=\"0.0001\"} 1\n"));
+        assertTrue(text, text.contains("test_seconds_bucket{stage=\"parse\",le=\"0.001\"} 1\n"));
+        assertTrue(text, text.contains("test_seconds_bucket{stage=\"parse\",le=\"0.0025\"} 2\n"));
+        assertTrue(text, text.contains("test_seconds_bucket{stage=\"parse\",le=\"10\"} 2\n"));
+        assertTrue(text, text.contains("test_seconds_bucket{stage=\"parse\",le=\"+Inf\"} 3\n"));
+        assertTrue(text, text.contains("test_seconds_sum{stage=\"parse\"} 20.00205\n"));
+        assertTrue(text, text.endsWith("test_seconds_count{stage=\"parse\"} 3\n"));
+    }
+
+    @Test
+    public void losesNoRecordingsToConcurrentThreads() throws Exception {
+        final Metrics metrics = new Metrics();
+        final ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> recorders = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                recorders.add(threads.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        metrics.histogram("test_seconds", "Test latency.", "intent", "intent" + (i % 4)).record(i * 1000L);
+                    }
+                }));
+            }
+            for (Future<?> recorder : recorders) {
+                recorder.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            threads.shutdown();
+        }
+        long count = 0;
+        for (int intent = 0; intent < 4; intent++) {
+            count += metrics.histogram("test_seconds", "Test latency.", "intent", "intent" + intent).getCount();
+        }
+        assertEquals(80_000, count);
+    }
+}
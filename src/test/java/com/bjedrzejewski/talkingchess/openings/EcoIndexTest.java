@@ -0,0 +1,118 @@
+package com.bjedrzejewski.talkingchess.openings;
+
+import com.bjedrzejewski.talkingchess.engine.Notation;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
+import com.bjedrzejewski.talkingchess.games.GameArchive;
+import com.bjedrzejewski.talkingchess.games.GameStore;
+import com.bjedrzejewski.talkingchess.games.OpeningExplorer;
+import com.bjedrzejewski.talkingchess.games.PgnIngester;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class EcoIndexTest {
+
+    private static final String GAMES = "[Event \"One\"]\n[White \"A\"]\n[Black \"B\"]\n[Result \"1-0\"]\n\n1. e4 c5 2. Nf3 d6 3. d4 1-0\n\n"
+            + "[Event \"Two\"]\n[White \"B\"]\n[Black \"A\"]\n[Result \"1-0\"]\n\n1. e4 c5 2. Nf3 d6 3. Bb5+ 1-0\n\n"
+            + "[Event \"Three\"]\n[White \"A\"]\n[Black \"C\"]\n[Result \"0-1\"]\n\n1. e4 c5 2. Nf3 Nc6 3. d4 0-1\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final EcoIndex index = EcoIndex.load();
+
+    @Test
+    public void everyBundledRowIsPlayableAndFound() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                EcoIndex.class.getResourceAsStream(EcoIndex.DEFAULT_RESOURCE), StandardCharsets.UTF_8))) {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] columns = line.split("\t");
+                final Position position = Position.start();
+                Notation.playMoves(position, columns[2]);
+                assertNotNull(line, index.find(position.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void findsTheSamePositionByAnyMoveOrder() {
+        final Position english = Position.start();
+        Notation.playMoves(english, "1. c4 e6 2. d4 Nf6 3. Nc3 Bb4");
+        assertEquals("E20", index.find(english.getKey()).getEco());
+
+        final Position start = Position.start();
+        Notation.playMoves(start, "1. e4 c5 2. Nf3 d6 3. d4 cxd4 4. Nxd4 Nf6");
+        assertNull(index.find(start.getKey()));
+    }
+
+    @Test
+    public void namesAnEcoCodeByItsShortestLine() {
+        assertEquals("Sicilian Defense: Najdorf Variation", index.findByEco("B90").getName());
+        assertEquals("Petrov's Defense", index.findByEco("C42").getName());
+        assertNull(index.findByEco("?"));
+    }
+
+    @Test
+    public void recognisesTheDeepestNamedOpeningAndTalkLine() {
+        final EcoTalk talk = new EcoTalk(index, new ArrayList<>(Arrays.asList(new SicilianTalk(GameArchive.of(null)), new SpanishTalk(GameArchive.of(null)), new FrenchTalk())),
+                GameArchive.of(null));
+
+        final EcoTalk.Recognition yugoslav = talk.recognise("e4 c5 Nf3 d6 d4 cxd4 Nxd4 Nf6 Nc3 g6 Be3 Bg7 f3 O-O");
+        assertEquals("Sicilian Defense: Dragon Variation, Yugoslav Attack", yugoslav.getOpening().getName());
+        assertEquals("Dragon", yugoslav.getTalkLine());
+        assertTrue(yugoslav.isInBook());
+
+        final EcoTalk.Recognition outOfBook = talk.recognise("1. e4 e5 2. Nf3 Nc6 3. Bb5 a6 4. Bxc6 dxc6 5. O-O f6");
+        assertEquals("Ruy Lopez: Exchange Variation", outOfBook.getOpening().getName());
+        assertEquals("Ruy Lopez Exchange", outOfBook.getTalkLine());
+        assertFalse(outOfBook.isInBook());
+
+        assertNull(talk.recognise("analyse 1. e4 c5"));
+        assertNull(talk.recognise("e4"));
+        assertNull(talk.recognise("I like 1.e4 but not 1.d4"));
+        assertNull(talk.recognise("1. e4 e5 2. Ke2 Nf6 3. Nh8"));
+    }
+
+    @Test
+    public void answersWhatIsPlayedAfterTheRecognisedPosition() throws IOException {
+        final Path pgn = folder.newFile("games.pgn").toPath();
+        Files.write(pgn, GAMES.getBytes(StandardCharsets.UTF_8));
+        final Path storeFile = folder.getRoot().toPath().resolve("games.bin");
+        PgnIngester.ingest(pgn, storeFile, 1);
+        final GameStore store = GameStore.open(storeFile);
+        final OpeningExplorer explorer = OpeningExplorer.update(store, folder.getRoot().toPath().resolve("explorer.bin"), 8);
+        final EcoTalk talk = new EcoTalk(index, new ArrayList<>(Arrays.asList(new SicilianTalk(GameArchive.of(null)))),
+                GameArchive.of(store, null, explorer));
+
+        final List<String> texts = new ArrayList<>();
+        final MessengerPlatformCallbackHandler callback = mock(MessengerPlatformCallbackHandler.class);
+        doAnswer(invocation -> texts.add((String) invocation.getArguments()[1]))
+                .when(callback).sendTextMessage(anyString(), anyString());
+        assertTrue(talk.openingMovesCheck(callback, "What's played most after 1.e4 c5 2.Nf3?", "1"));
+        assertEquals(2, texts.size());
+        assertTrue(texts.get(1), texts.get(1).startsWith("Most played next in my games: 2... d6 (2 games"));
+        assertTrue(texts.get(1), texts.get(1).contains("2... Nc6 (1 games"));
+    }
+}
@@ -0,0 +1,136 @@
+package com.bjedrzejewski.talkingchess.play;
+
+import com.bjedrzejewski.talkingchess.engine.Notation;
+import com.bjedrzejewski.talkingchess.engine.Piece;
+import com.bjedrzejewski.talkingchess.engine.Position;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveGamesTest {
+
+    private static final long IDLE_MILLIS = 60_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong clock = new AtomicLong(1_000_000_000);
+
+    @Test
+    public void gamesGoOnAfterARestart() throws IOException {
+        ActiveGames games = open(100);
+        final ActiveGame game = games.start("alice", Position.start(), Piece.BLACK);
+        for (String move : new String[]{"e4", "c5", "Nf3", "d6", "d4", "cxd4", "Nxd4", "Nf6", "Nc3", "a6"}) {
+            assertTrue(games.play(game, Notation.parseSan(game.getPosition(), move)));
+        }
+        games.start("bob", Position.start(), Piece.WHITE);
+        games.shutdown();
+
+        games = open(100);
+        final ActiveGame restored = games.get("alice");
+        assertEquals(game.getPosition().toFen(), restored.getPosition().toFen());
+        assertEquals("1. e4 c5 2. Nf3 d6 3. d4 cxd4 4. Nxd4 Nf6 5. Nc3 a6", restored.getMoveText());
+        assertEquals(Piece.BLACK, restored.getBotColor());
+        assertEquals(0, games.get("bob").getPlies());
+        assertNull(games.get("carol"));
+        games.shutdown();
+    }
+
+    @Test
+    public void longGamesKeepThePositionsSinceTheLastPawnMove() throws IOException {
+        ActiveGames games = open(100);
+        final ActiveGame game = games.start("alice", Position.start(), Piece.BLACK);
+        final String[] shuffle = {"Nf3", "Nf6", "Ng1", "Ng8"};
+        final String[] pawns = {"a3", "a6", "a4", "a5", "b3", "b6", "b4", "b5", "c3", "c6", "c4", "c5", "d3", "d6", "d4", "d5"};
+        for (int round = 0; round < 8; round++) {
+            for (int i = 0; i < 16; i++) {
+                assertTrue(games.play(game, Notation.parseSan(game.getPosition(), shuffle[i % 4])));
+            }
+            assertTrue(games.play(game, Notation.parseSan(game.getPosition(), pawns[2 * round])));
+            assertTrue(games.play(game, Notation.parseSan(game.getPosition(), pawns[2 * round + 1])));
+        }
+        for (int i = 0; i < 36; i++) {
+            assertTrue(games.play(game, Notation.parseSan(game.getPosition(), shuffle[i % 4])));
+        }
+        assertTrue(game.getPlies() > ActiveGames.MAX_RECORDED_PLIES);
+        assertEquals(10, game.getRepetitions());
+        games.shutdown();
+
+        games = open(100);
+        final ActiveGame restored = games.get("alice");
+        assertEquals(game.getPosition().toFen(), restored.getPosition().toFen());
+        assertEquals(36, restored.getPlies());
+        assertEquals(10, restored.getRepetitions());
+        assertTrue(restored.getMoveText(), restored.getMoveText().startsWith("73. Nf3 Nf6 74. Ng1 Ng8"));
+        games.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesSenderIdsThatDoNotFitInASlot() throws IOException {
+        final ActiveGames games = open(100);
+        try {
+            games.start("a-sender-id-of-twenty-eight!", Position.start(), Piece.BLACK);
+        } finally {
+            games.shutdown();
+        }
+    }
+
+    @Test
+    public void staleGamesAreNotPlayed() throws IOException {
+        final ActiveGames games = open(100);
+        final ActiveGame first = games.start("alice", Position.start(), Piece.BLACK);
+        final ActiveGame stale = games.get("alice");
+        assertTrue(games.play(first, Notation.parseSan(first.getPosition(), "e4")));
+        assertFalse(games.play(stale, Notation.parseSan(stale.getPosition(), "d4")));
+
+        final ActiveGame second = games.start("alice", Position.start(), Piece.BLACK);
+        assertFalse(games.play(first, Notation.parseSan(first.getPosition(), "e5")));
+        assertTrue(games.play(second, Notation.parseSan(second.getPosition(), "d4")));
+        games.end("alice");
+        assertFalse(games.play(second, Notation.parseSan(second.getPosition(), "d5")));
+        assertEquals(2, games.getStarted());
+        assertEquals(2, games.getFinished());
+        games.shutdown();
+    }
+
+    @Test
+    public void growsUpToTheMaximumAndDropsIdleGames() throws IOException {
+        final ActiveGames games = open(3000);
+        for (int i = 0; i < 3000; i++) {
+            assertNotNull(games.start("sender-" + i, Position.start(), Piece.BLACK));
+        }
+        assertEquals(3000, games.getCapacity());
+        assertNull(games.start("one-too-many", Position.start(), Piece.BLACK));
+        for (int i = 0; i < 3000; i += 2) {
+            games.end("sender-" + i);
+        }
+        assertEquals(1500, games.getGames());
+        for (int i = 1; i < 3000; i += 2) {
+            assertEquals("sender-" + i, games.get("sender-" + i).getSenderId());
+        }
+
+        clock.addAndGet(IDLE_MILLIS);
+        for (int i = 0; i < 1501; i++) {
+            assertNotNull(games.start("late-" + i, Position.start(), Piece.BLACK));
+        }
+        assertEquals(1500, games.getExpired());
+        assertNull(games.get("sender-1"));
+        assertEquals(1501, games.getGames());
+        games.shutdown();
+    }
+
+    private ActiveGames open(int maxGames) throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("games-in-play.bin");
+        return new ActiveGames(file, maxGames, IDLE_MILLIS, 0, clock::get);
+    }
+}
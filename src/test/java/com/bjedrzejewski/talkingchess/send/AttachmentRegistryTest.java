@@ -0,0 +1,146 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AttachmentRegistryTest {
+
+    private static final String KEY = "3f7a";
+    private static final String URL = "https://example.com/diagrams/3f7a.png";
+
+    @Rule
+    public TemporaryFolder dataDir = new TemporaryFolder();
+
+    private StubGraphApi graphApi;
+    private GraphApiClient client;
+    private RetryQueue retryQueue;
+    private AttachmentRegistry attachments;
+    private SendPipeline sendPipeline;
+    private final AtomicInteger uploadCount = new AtomicInteger();
+    //ids the stub no longer knows
+    private final List<String> invalidIds = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        graphApi = new StubGraphApi();
+        graphApi.setResponder(request -> {
+            if (!request.has("recipient")) {
+                return new StubGraphApi.Response(200, "{\"attachment_id\":\"" + (1000 + uploadCount.incrementAndGet()) + "\"}");
+            }
+            final String id = request.path("message").path("attachment").path("payload").path("attachment_id").asText();
+            if (invalidIds.contains(id)) {
+                return new StubGraphApi.Response(400, "{\"error\":{\"message\":\"(#100) Attachment id is not valid\",\"code\":100}}");
+            }
+            return new StubGraphApi.Response(200, "{\"recipient_id\":\"1\",\"message_id\":\"mid.1\"}");
+        });
+        client = new GraphApiClient("token", graphApi.getUrl("/v2.6/me/messages"), 5000);
+        final SendRateLimiter rateLimiter = new SendRateLimiter(10_000, 1000, 10_000, 1000, 1000, 1000);
+        retryQueue = new RetryQueue(dataDir.getRoot().getPath(), 3, 10_000, 10_000, 1 << 20);
+        attachments = open();
+        sendPipeline = new SendPipeline(client, rateLimiter, retryQueue, attachments, 2, 100);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sendPipeline.shutdown();
+        retryQueue.shutdown();
+        attachments.shutdown();
+        graphApi.close();
+    }
+
+    @Test
+    public void uploadsEveryAssetOnceAndSendsItById() throws Exception {
+        assertEquals(URL, url(send("1", attachments.image(KEY, URL))));
+        attachments.awaitUploads();
+        for (int recipient = 2; recipient <= 4; recipient++) {
+            assertEquals("1001", attachmentId(send(String.valueOf(recipient), attachments.image(KEY, URL))));
+        }
+        assertEquals(1, uploadCount.get());
+        assertEquals(3, attachments.getSentById());
+
+        final JsonNode upload = graphApi.getRequests().stream().filter(request -> !request.has("recipient")).findFirst().get();
+        assertEquals(URL, url(upload));
+        assertTrue(upload.path("message").path("attachment").path("payload").path("is_reusable").asBoolean());
+
+        //the id survives a restart
+        attachments.shutdown();
+        attachments = open();
+        assertEquals(1, attachments.getIds());
+        assertEquals("1001", attachmentId(send("5", attachments.image(KEY, URL))));
+        assertEquals(1, uploadCount.get());
+    }
+
+    @Test
+    public void sendsByUrlAndUploadsAgainWhenTheIdIsRejected() throws Exception {
+        attachments.image(KEY, URL);
+        attachments.awaitUploads();
+        invalidIds.add("1001");
+
+        final JsonNode delivered = send("1", attachments.image(KEY, URL));
+        assertEquals(URL, url(delivered));
+        attachments.awaitUploads();
+        assertEquals(1, attachments.getInvalidated());
+        assertEquals(2, uploadCount.get());
+        assertEquals(0, retryQueue.getScheduled());
+
+        assertEquals("1002", attachmentId(send("2", attachments.image(KEY, URL))));
+        attachments.shutdown();
+        attachments = open();
+        assertEquals("1002", attachmentId(send("3", attachments.image(KEY, URL))));
+    }
+
+    @Test
+    public void failedUploadIsTriedAgainWithTheNextMessage() throws Exception {
+        graphApi.setResponder(request -> new StubGraphApi.Response(500, "{\"error\":{\"message\":\"Unknown error\",\"code\":1}}"));
+        attachments.image(KEY, URL);
+        attachments.awaitUploads();
+        assertEquals(1, attachments.getUploadFailures());
+        assertEquals(0, attachments.getIds());
+
+        graphApi.setResponder(request -> new StubGraphApi.Response(200, "{\"attachment_id\":\"77\"}"));
+        assertFalse(attachments.image(KEY, URL).getText().isEmpty());
+        attachments.awaitUploads();
+        assertEquals(1, attachments.getIds());
+    }
+
+    private AttachmentRegistry open() throws Exception {
+        final Path file = dataDir.getRoot().toPath().resolve("attachments.log");
+        return new AttachmentRegistry(client, file);
+    }
+
+    /**
+     * @return the request that delivered the message
+     */
+    private JsonNode send(String recipientId, PreparedMessage message) throws Exception {
+        sendPipeline.submit(recipientId, message).get(10, TimeUnit.SECONDS);
+        JsonNode delivered = null;
+        for (JsonNode request : graphApi.getRequests()) {
+            if (recipientId.equals(request.path("recipient").path("id").asText())) {
+                delivered = request;
+            }
+        }
+        return delivered;
+    }
+
+    private static String url(JsonNode request) {
+        return request.path("message").path("attachment").path("payload").path("url").asText();
+    }
+
+    private static String attachmentId(JsonNode request) {
+        return request.path("message").path("attachment").path("payload").path("attachment_id").asText();
+    }
+}
@@ -0,0 +1,112 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import com.bjedrzejewski.talkingchess.MessengerPlatformCallbackHandler;
+import com.bjedrzejewski.talkingchess.games.GameArchive;
+import com.bjedrzejewski.talkingchess.general.GeneralTalk;
+import com.bjedrzejewski.talkingchess.general.QuickReplyHandler;
+import com.bjedrzejewski.talkingchess.general.QuickReplyMenu;
+import com.bjedrzejewski.talkingchess.general.QuickReplyRegistry;
+import com.bjedrzejewski.talkingchess.openings.EcoIndex;
+import com.bjedrzejewski.talkingchess.openings.FrenchTalk;
+import com.bjedrzejewski.talkingchess.openings.OpeningTalk;
+import com.bjedrzejewski.talkingchess.openings.SicilianTalk;
+import com.bjedrzejewski.talkingchess.openings.SpanishTalk;
+import com.bjedrzejewski.talkingchess.players.CarlsenTalk;
+import com.bjedrzejewski.talkingchess.players.KasparovTalk;
+import com.bjedrzejewski.talkingchess.players.PlayerTalk;
+import com.bjedrzejewski.talkingchess.play.GameTalk;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class MessageSegmenterTest {
+
+    private final MessageSegmenter segmenter = new MessageSegmenter();
+
+    @Test
+    public void shortTextIsSentAsIs() {
+        assertEquals(Arrays.asList("Slav is a sound opening."), segmenter.segment("Slav is a sound opening."));
+    }
+
+    @Test
+    public void longTextBreaksOnSentences() {
+        final String sentence = "This sentence is exactly fifty characters long!!! ";
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            text.append(sentence);
+        }
+        final List<String> chunks = segmenter.segment(text.toString());
+        for (String chunk : chunks) {
+            assertTrue(chunk.length() <= MessageSegmenter.MAX_MESSAGE_LENGTH);
+            assertTrue(chunk.endsWith("!!!"));
+        }
+        assertEquals(text.toString().trim(), String.join(" ", chunks));
+    }
+
+    @Test
+    public void overlongSentenceBreaksOnWords() {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append("word").append(i).append(' ');
+        }
+        final List<String> chunks = segmenter.segment(text.toString());
+        assertTrue(chunks.size() > 1);
+        assertEquals(text.toString().trim(), String.join(" ", chunks));
+        assertTrue(segmenter.getUnsegmentable().isEmpty());
+    }
+
+    @Test
+    public void overlongWordIsCutAndReported() {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            text.append('x');
+        }
+        final List<String> chunks = segmenter.segment(text.toString());
+        assertEquals(2, chunks.size());
+        assertEquals(1, segmenter.getUnsegmentable().size());
+    }
+
+    /**
+     * Build time report - every static answer of the menus must segment on sentence or word boundaries.
+     */
+    @Test
+    public void allStaticAnswersAreSegmentable() {
+        final List<OpeningTalk> openingTalks = Arrays.asList(new SicilianTalk(GameArchive.of(null)), new SpanishTalk(GameArchive.of(null)), new FrenchTalk());
+        final List<PlayerTalk> playerTalks = Arrays.asList(new KasparovTalk(GameArchive.of(null), EcoIndex.load()),
+                new CarlsenTalk(GameArchive.of(null), EcoIndex.load()));
+        final QuickReplyRegistry quickReplies = GeneralTalk.compileQuickReplies(openingTalks, playerTalks, mock(GameTalk.class));
+
+        final List<String> texts = new ArrayList<>();
+        final MessengerPlatformCallbackHandler callback = mock(MessengerPlatformCallbackHandler.class);
+        doAnswer(invocation -> texts.add((String) invocation.getArguments()[1]))
+                .when(callback).sendTextMessage(anyString(), anyString());
+
+        final List<QuickReplyMenu> menus = new ArrayList<>();
+        for (String name : Arrays.asList(GeneralTalk.HELLO_MENU, GeneralTalk.OPENINGS_MENU, GeneralTalk.PLAYERS_MENU, GeneralTalk.PLAY_GAME_MENU)) {
+            menus.add(quickReplies.getMenu(name));
+        }
+        openingTalks.forEach(talk -> menus.add(talk.getQuickReplyMenu()));
+        playerTalks.forEach(talk -> menus.add(talk.getQuickReplyMenu()));
+        for (QuickReplyMenu menu : menus) {
+            for (QuickReplyHandler handler : menu.getHandlers().values()) {
+                handler.handle(callback, "report");
+            }
+        }
+
+        assertTrue(texts.size() > 20);
+        for (String text : texts) {
+            for (String chunk : segmenter.segment(text)) {
+                assertTrue(chunk.length() <= MessageSegmenter.MAX_MESSAGE_LENGTH);
+            }
+        }
+        assertTrue("Unsegmentable texts: " + segmenter.getUnsegmentable(), segmenter.getUnsegmentable().isEmpty());
+    }
+}
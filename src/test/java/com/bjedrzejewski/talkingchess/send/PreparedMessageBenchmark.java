@@ -0,0 +1,89 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.messenger4j.send.QuickReply;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares sending a quick reply menu the old way - building the {@code QuickReply} list and serialising the
+ * request for every recipient - with splicing the recipient id into a {@link PreparedMessage}.
+ * Run with {@code java -cp ... com.bjedrzejewski.talkingchess.send.PreparedMessageBenchmark}.
+ */
+public class PreparedMessageBenchmark {
+
+    private static final int ITERATIONS = 200_000;
+    private static final String TEXT = "Which Sicilian variation would you like to learn more about?";
+    private static final List<String> TITLES = Arrays.asList("General Ideas", "Najdorf", "Dragon", "Classical",
+            "Scheveningen", "Sveshnikov", "Taimanov", "None, thanks");
+    private static final List<String> PAYLOADS = Arrays.asList("I want to learn general Sicilian", "I want to learn Sicilian Najdorf",
+            "I want to learn Sicilian Dragon", "I want to learn Sicilian Classical", "I want to learn Sicilian Scheveningen",
+            "I want to learn Sicilian Sveshnikov", "I want to learn Sicilian Taimanov", "None, thanks");
+
+    public static void main(String[] args) throws Exception {
+        final ObjectMapper objectMapper = new ObjectMapper();
+        final PreparedMessage prepared = PreparedMessage.quickReplies(TEXT, TITLES, PAYLOADS);
+
+        for (int round = 0; round < 3; round++) {
+            measure("builder + serialisation", () -> {
+                long bytes = 0;
+                for (int i = 0; i < ITERATIONS; i++) {
+                    bytes += builderPath(objectMapper, String.valueOf(1000000L + i)).length;
+                }
+                return bytes;
+            });
+            measure("prepared message", () -> {
+                long bytes = 0;
+                for (int i = 0; i < ITERATIONS; i++) {
+                    bytes += prepared.forRecipient(String.valueOf(1000000L + i)).length;
+                }
+                return bytes;
+            });
+        }
+    }
+
+    private static byte[] builderPath(ObjectMapper objectMapper, String recipientId) throws Exception {
+        final QuickReply.ListBuilder listBuilder = QuickReply.newListBuilder();
+        final List<Map<String, String>> quickReplies = new ArrayList<>();
+        for (int i = 0; i < TITLES.size(); i++) {
+            listBuilder.addTextQuickReply(TITLES.get(i), PAYLOADS.get(i)).toList();
+            final Map<String, String> quickReply = new LinkedHashMap<>();
+            quickReply.put("content_type", "text");
+            quickReply.put("title", TITLES.get(i));
+            quickReply.put("payload", PAYLOADS.get(i));
+            quickReplies.add(quickReply);
+        }
+        listBuilder.addLocationQuickReply().toList().build();
+        quickReplies.add(Collections.singletonMap("content_type", "location"));
+
+        final Map<String, Object> message = new LinkedHashMap<>();
+        message.put("text", TEXT);
+        message.put("quick_replies", quickReplies);
+        final Map<String, Object> request = new LinkedHashMap<>();
+        request.put("recipient", Collections.singletonMap("id", recipientId));
+        request.put("message", message);
+        return objectMapper.writeValueAsBytes(request);
+    }
+
+    private static void measure(String name, Task task) throws Exception {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        final long start = System.nanoTime();
+        final long bytes = task.run();
+        final long nanos = System.nanoTime() - start;
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.printf("%-25s %8.1f ns/op %8d B allocated/op (%d body bytes)%n",
+                name, (double) nanos / ITERATIONS, allocated / ITERATIONS, bytes / ITERATIONS);
+    }
+
+    private interface Task {
+        long run() throws Exception;
+    }
+}
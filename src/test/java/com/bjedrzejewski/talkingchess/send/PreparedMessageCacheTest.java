@@ -0,0 +1,40 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class PreparedMessageCacheTest {
+
+    private final PreparedMessageCache cache = new PreparedMessageCache(new MessageSegmenter());
+
+    @Test
+    public void staticTextsAreRenderedOnceAtStartup() {
+        final StringBuilder najdorf = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            najdorf.append("The Najdorf is the Cadillac of chess openings. ");
+        }
+        cache.prerender(Arrays.asList(najdorf.toString(), "Sicilian goes: 1.e4 c5", "Sicilian goes: 1.e4 c5"));
+        assertEquals(2, cache.getCachedCount());
+
+        final List<PreparedMessage> messages = cache.text(najdorf.toString());
+        assertEquals(2, messages.size());
+        assertSame(messages, cache.text(najdorf.toString()));
+        assertEquals(0, cache.getRenderedOnSend());
+    }
+
+    @Test
+    public void otherTextsAreRenderedOnEverySendAndNotKept() {
+        cache.prerender(Arrays.asList("Sicilian goes: 1.e4 c5"));
+        final List<PreparedMessage> first = cache.text("White is winning: +1.2");
+        assertEquals(1, first.size());
+        assertNotSame(first, cache.text("White is winning: +1.2"));
+        assertEquals(1, cache.getCachedCount());
+        assertEquals(2, cache.getRenderedOnSend());
+    }
+}
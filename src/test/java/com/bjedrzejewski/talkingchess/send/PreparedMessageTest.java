@@ -0,0 +1,54 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class PreparedMessageTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void textMessageIsValidSendApiJson() throws Exception {
+        final PreparedMessage message = PreparedMessage.text("The \"Cadillac\" of openings\nis the Najdorf");
+        final JsonNode json = objectMapper.readTree(message.forRecipient("1234567890"));
+
+        assertEquals("1234567890", json.path("recipient").path("id").asText());
+        assertEquals("The \"Cadillac\" of openings\nis the Najdorf", json.path("message").path("text").asText());
+        assertEquals("REGULAR", json.path("notification_type").asText());
+    }
+
+    @Test
+    public void quickRepliesAreRenderedInMenuOrder() throws Exception {
+        final PreparedMessage message = PreparedMessage.quickReplies("Would you like to play a game?",
+                Arrays.asList("Yes", "No"), Arrays.asList("Yes, I want to play a game", "No, thank you, I don't want to play"));
+        final JsonNode json = objectMapper.readTree(message.forRecipient("42"));
+
+        final JsonNode quickReplies = json.path("message").path("quick_replies");
+        assertEquals(3, quickReplies.size());
+        assertEquals("Yes", quickReplies.get(0).path("title").asText());
+        assertEquals("No, thank you, I don't want to play", quickReplies.get(1).path("payload").asText());
+        assertEquals("location", quickReplies.get(2).path("content_type").asText());
+    }
+
+    @Test
+    public void imageIsAReusableAttachment() throws Exception {
+        final PreparedMessage message = PreparedMessage.image("https://example.com/diagrams/ab.png");
+        final JsonNode json = objectMapper.readTree(message.forRecipient("42"));
+
+        final JsonNode attachment = json.path("message").path("attachment");
+        assertEquals("image", attachment.path("type").asText());
+        assertEquals("https://example.com/diagrams/ab.png", attachment.path("payload").path("url").asText());
+        assertEquals(true, attachment.path("payload").path("is_reusable").asBoolean());
+    }
+
+    @Test
+    public void unusualRecipientIdIsEscaped() throws Exception {
+        final JsonNode json = objectMapper.readTree(PreparedMessage.text("hi").forRecipient("a\"b"));
+        assertEquals("a\"b", json.path("recipient").path("id").asText());
+    }
+}
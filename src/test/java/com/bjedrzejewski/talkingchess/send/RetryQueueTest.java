@@ -0,0 +1,175 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryQueueTest {
+
+    private static final StubGraphApi.Response OK = new StubGraphApi.Response(200, "{\"recipient_id\":\"1\",\"message_id\":\"mid.1\"}");
+    private static final StubGraphApi.Response DOWN = new StubGraphApi.Response(503, "{\"error\":{\"message\":\"Service unavailable\",\"code\":2}}");
+
+    @Rule
+    public TemporaryFolder dataDir = new TemporaryFolder();
+
+    private StubGraphApi graphApi;
+    private GraphApiClient client;
+    private SendRateLimiter rateLimiter;
+    private AttachmentRegistry attachments;
+    private RetryQueue retryQueue;
+    private SendPipeline sendPipeline;
+
+    @Before
+    public void setUp() throws Exception {
+        graphApi = new StubGraphApi();
+        client = new GraphApiClient("token", graphApi.getUrl("/v2.6/me/messages"), 5000);
+        rateLimiter = new SendRateLimiter(10_000, 1000, 10_000, 1000, 1000, 1000);
+        attachments = new AttachmentRegistry(client, dataDir.getRoot().getPath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        stop();
+        attachments.shutdown();
+        graphApi.close();
+    }
+
+    private void start(int maxAttempts, long backoffMillis) throws Exception {
+        retryQueue = new RetryQueue(dataDir.getRoot().getPath(), maxAttempts, backoffMillis, backoffMillis * 5, 1 << 20);
+        sendPipeline = new SendPipeline(client, rateLimiter, retryQueue, attachments, 2, 100);
+    }
+
+    private void stop() throws Exception {
+        if (sendPipeline != null) {
+            sendPipeline.shutdown();
+            retryQueue.shutdown();
+            sendPipeline = null;
+        }
+    }
+
+    @Test
+    public void retriesUntilDeliveredBeforeCompleting() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        graphApi.setResponder(request -> requests.incrementAndGet() <= 2 ? DOWN : OK);
+        start(5, 10);
+        sendPipeline.submit("1", PreparedMessage.text("Sveshnikov")).get(10, TimeUnit.SECONDS);
+        assertEquals(3, requests.get());
+        assertEquals(1, retryQueue.getRetried());
+        assertEquals(0, retryQueue.getPending());
+        assertEquals(0, retryQueue.getDeadLettered());
+    }
+
+    @Test
+    public void laterMessagesWaitBehindARetry() throws Exception {
+        final AtomicBoolean failed = new AtomicBoolean();
+        graphApi.setResponder(request -> "Najdorf".equals(request.path("message").path("text").asText())
+                && failed.compareAndSet(false, true) ? DOWN : OK);
+        start(5, 200);
+        final CompletableFuture<Void> first = sendPipeline.submit("1", PreparedMessage.text("Najdorf"));
+        final List<CompletableFuture<Void>> later = new ArrayList<>();
+        for (String text : new String[]{"Dragon", "Sveshnikov"}) {
+            later.add(sendPipeline.submit("1", PreparedMessage.text(text)));
+        }
+        sendPipeline.submit("2", PreparedMessage.text("Winawer")).get(10, TimeUnit.SECONDS);
+        assertFalse(first.isDone());
+        assertFalse(later.get(0).isDone());
+
+        CompletableFuture.allOf(later.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        assertTrue(first.isDone() && !first.isCompletedExceptionally());
+        assertEquals("Najdorf Najdorf Dragon Sveshnikov", texts("1"));
+    }
+
+    @Test
+    public void exhaustedMessagesAreDeadLetteredAndReplayed() throws Exception {
+        graphApi.setResponder(request -> DOWN);
+        start(3, 10);
+        try {
+            sendPipeline.submit("1", PreparedMessage.text("Berlin Defence")).get(10, TimeUnit.SECONDS);
+            fail("Expected the send to be given up on");
+        } catch (ExecutionException e) {
+            assertEquals(503, ((SendException) e.getCause()).getStatusCode());
+        }
+        assertEquals(1, retryQueue.getDeadLettered());
+        assertEquals(3, graphApi.getRequests().size());
+        assertEquals(0, retryQueue.getPending());
+
+        graphApi.setResponder(request -> OK);
+        assertEquals(1, sendPipeline.replayDeadLetters());
+        waitFor(() -> graphApi.getRequests().size() == 4);
+        assertEquals("Berlin Defence", graphApi.getRequests().get(3).path("message").path("text").asText());
+        assertEquals(0, sendPipeline.replayDeadLetters());
+    }
+
+    @Test
+    public void deadLettersThatCannotBeWrittenAreCountedAsLost() throws Exception {
+        graphApi.setResponder(request -> DOWN);
+        //a directory where the dead-letter file should be makes writing it fail
+        dataDir.newFolder("dead-letters.log");
+        start(2, 10);
+        try {
+            sendPipeline.submit("1", PreparedMessage.text("Poisoned Pawn")).get(10, TimeUnit.SECONDS);
+            fail("Expected the send to be given up on");
+        } catch (ExecutionException e) {
+            assertEquals(503, ((SendException) e.getCause()).getStatusCode());
+        }
+        assertEquals(0, retryQueue.getDeadLettered());
+        assertEquals(1, retryQueue.getDeadLettersLost());
+    }
+
+    @Test
+    public void pendingRetriesSurviveRestart() throws Exception {
+        graphApi.setResponder(request -> DOWN);
+        start(5, 300);
+        sendPipeline.submit("1", PreparedMessage.text("Winawer"));
+        sendPipeline.submit("1", PreparedMessage.text("Tarrasch"));
+        sendPipeline.submit("2", PreparedMessage.text("Advance"));
+        waitFor(() -> retryQueue.getPending() == 2);
+        stop();
+        assertEquals(2, graphApi.getRequests().size());
+
+        graphApi.setResponder(request -> OK);
+        start(5, 300);
+        //the message queued behind a retry is kept as well
+        assertEquals(3, retryQueue.getRecovered());
+        waitFor(() -> retryQueue.getRetried() == 3);
+        assertEquals("Winawer Winawer Tarrasch", texts("1"));
+        assertEquals("Advance Advance", texts("2"));
+        //nothing pending, the log starts over
+        assertEquals(24, retryQueue.getLogSize());
+    }
+
+    private String texts(String recipientId) {
+        final StringBuilder texts = new StringBuilder();
+        for (JsonNode request : graphApi.getRequests()) {
+            if (recipientId.equals(request.path("recipient").path("id").asText())) {
+                texts.append(texts.length() == 0 ? "" : " ").append(request.path("message").path("text").asText());
+            }
+        }
+        return texts.toString();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SendPipelineTest {
+
+    private static final int CONCURRENCY = 4;
+
+    @Rule
+    public TemporaryFolder dataDir = new TemporaryFolder();
+
+    private StubGraphApi graphApi;
+    private GraphApiClient client;
+    private SendRateLimiter rateLimiter;
+    private RetryQueue retryQueue;
+    private AttachmentRegistry attachments;
+    private SendPipeline sendPipeline;
+
+    @Before
+    public void setUp() throws Exception {
+        graphApi = new StubGraphApi();
+        client = new GraphApiClient("token", graphApi.getUrl("/v2.6/me/messages"), 5000);
+        rateLimiter = new SendRateLimiter(10_000, 1000, 10_000, 1000, 1000, 1000);
+        retryQueue = new RetryQueue(dataDir.getRoot().getPath(), 3, 50, 50, 1 << 20);
+        attachments = new AttachmentRegistry(client, dataDir.getRoot().getPath());
+        sendPipeline = new SendPipeline(client, rateLimiter, retryQueue, attachments, CONCURRENCY, 100);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sendPipeline.shutdown();
+        retryQueue.shutdown();
+        attachments.shutdown();
+        graphApi.close();
+    }
+
+    @Test
+    public void keepsOrderPerRecipientAndSendsRecipientsConcurrently() throws Exception {
+        graphApi.setDelayMillis(5);
+        final List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            for (int recipient = 0; recipient < 16; recipient++) {
+                results.add(sendPipeline.submit(String.valueOf(1000 + recipient), PreparedMessage.text("message " + i)));
+            }
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        final Map<String, Integer> lastSeen = new HashMap<>();
+        for (JsonNode request : graphApi.getRequests()) {
+            final String recipient = request.path("recipient").path("id").asText();
+            final int number = Integer.parseInt(request.path("message").path("text").asText().substring("message ".length()));
+            final Integer previous = lastSeen.put(recipient, number);
+            assertEquals("Out of order for " + recipient, previous == null ? 0 : previous + 1, number);
+        }
+        assertEquals(16 * 20, graphApi.getRequests().size());
+        assertEquals(16 * 20, sendPipeline.getSent());
+        assertTrue("Requests were not sent concurrently", graphApi.getMaxConcurrent() > 1);
+        assertTrue("More requests in flight than allowed", graphApi.getMaxConcurrent() <= CONCURRENCY);
+    }
+
+    @Test
+    public void failedSendCompletesExceptionally() throws Exception {
+        graphApi.setResponder(request -> new StubGraphApi.Response(400, "{\"error\":{\"message\":\"(#100) No matching user found\",\"code\":100}}"));
+        try {
+            sendPipeline.submit("1", PreparedMessage.text("Najdorf goes: 1.e4 c5")).get(10, TimeUnit.SECONDS);
+            fail("Expected the send to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SendException);
+            assertEquals(400, ((SendException) e.getCause()).getStatusCode());
+        }
+        assertEquals(1, sendPipeline.getFailed());
+        assertEquals(0, rateLimiter.getPlatformThrottled());
+        //rejected for good, straight to the dead letters
+        assertEquals(0, retryQueue.getScheduled());
+        assertEquals(1, retryQueue.getDeadLettered());
+    }
+
+    @Test
+    public void throttlesRecipientAboveItsRate() throws Exception {
+        sendPipeline.shutdown();
+        rateLimiter = new SendRateLimiter(10_000, 1000, 5, 2, 1000, 1000);
+        sendPipeline = new SendPipeline(client, rateLimiter, retryQueue, attachments, CONCURRENCY, 100);
+
+        final long start = System.nanoTime();
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < 6; i++) {
+            last = sendPipeline.submit("1", PreparedMessage.text("message " + i));
+        }
+        last.get(10, TimeUnit.SECONDS);
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        //burst of 2, then 4 more at 200ms each, slow enough that the stub's latency does not hide the throttling
+        assertTrue("Finished too quickly: " + elapsedMillis + "ms", elapsedMillis >= 750);
+        assertTrue(rateLimiter.getThrottled() > 0);
+        assertTrue(rateLimiter.getWaitMillis() > 0);
+    }
+
+    @Test
+    public void throttledRecipientDoesNotHoldUpTheOthers() throws Exception {
+        sendPipeline.shutdown();
+        rateLimiter = new SendRateLimiter(10_000, 1000, 1, 1, 1000, 1000);
+        //one sender thread serves both recipients
+        sendPipeline = new SendPipeline(client, rateLimiter, retryQueue, attachments, 1, 100);
+
+        sendPipeline.submit("1", PreparedMessage.text("Najdorf")).get(10, TimeUnit.SECONDS);
+        final CompletableFuture<Void> throttled = sendPipeline.submit("1", PreparedMessage.text("Dragon"));
+        final long start = System.nanoTime();
+        sendPipeline.submit("2", PreparedMessage.text("Sveshnikov")).get(10, TimeUnit.SECONDS);
+        assertTrue("Waited for the throttled recipient", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertFalse(throttled.isDone());
+
+        throttled.get(10, TimeUnit.SECONDS);
+        assertEquals("Dragon", graphApi.getRequests().get(2).path("message").path("text").asText());
+    }
+
+    @Test
+    public void platformThrottlingPausesThePageAndIsRetried() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        graphApi.setResponder(request -> requests.incrementAndGet() == 1
+                ? new StubGraphApi.Response(400, "{\"error\":{\"message\":\"(#613) Calls to this api have exceeded the rate limit.\",\"code\":613}}")
+                : new StubGraphApi.Response(200, "{\"recipient_id\":\"1\",\"message_id\":\"mid.1\"}"));
+        final long start = System.nanoTime();
+        sendPipeline.submit("1", PreparedMessage.text("Dragon")).get(10, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+        assertEquals(2, requests.get());
+        assertEquals(1, rateLimiter.getPlatformThrottled());
+        assertEquals(1, retryQueue.getRetried());
+    }
+}
@@ -0,0 +1,48 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SendRateLimiterTest {
+
+    @Test
+    public void limitsEveryRecipientOnItsOwn() {
+        final SendRateLimiter rateLimiter = new SendRateLimiter(10_000, 1000, 5, 2, 1000, 1000);
+        final Map<String, TokenBucket> buckets = rateLimiter.newRecipientBuckets(1);
+        assertEquals(0, rateLimiter.reserve("1", buckets));
+        assertEquals(0, rateLimiter.reserve("1", buckets));
+        final long wait = rateLimiter.reserve("1", buckets);
+        assertTrue("Waited " + wait, wait > TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(0, rateLimiter.reserve("2", buckets));
+        assertEquals(1, rateLimiter.getThrottled());
+        assertTrue(rateLimiter.getWaitMillis() > 100);
+    }
+
+    @Test
+    public void forgetsTheLeastRecentRecipientsPastTheCap() {
+        final SendRateLimiter rateLimiter = new SendRateLimiter(10_000, 1000, 5, 1, 4, 1000);
+        final Map<String, TokenBucket> buckets = rateLimiter.newRecipientBuckets(2);
+        rateLimiter.reserve("1", buckets);
+        rateLimiter.reserve("2", buckets);
+        rateLimiter.reserve("3", buckets);
+        assertEquals(2, buckets.size());
+        //recipient 1 starts again with a full bucket
+        assertEquals(0, rateLimiter.reserve("1", buckets));
+    }
+
+    @Test
+    public void platformThrottlingPausesThePage() {
+        final SendRateLimiter rateLimiter = new SendRateLimiter(10_000, 1000, 10_000, 1000, 1000, 200);
+        rateLimiter.onPlatformThrottled();
+        final long start = System.nanoTime();
+        rateLimiter.acquirePage();
+        final long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Waited " + waitedMillis + "ms", waitedMillis >= 150);
+        assertEquals(1, rateLimiter.getPlatformThrottled());
+    }
+}
@@ -0,0 +1,50 @@
+package com.bjedrzejewski.talkingchess.send;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+    private static final long PERMIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void handsOutTheBurstAndThenOnePermitPerInterval() {
+        final TokenBucket bucket = new TokenBucket(10, 3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.reserve());
+        }
+        final long first = bucket.reserve();
+        final long second = bucket.reserve();
+        assertTrue("Waited " + first, first > PERMIT_NANOS / 2 && first <= PERMIT_NANOS);
+        //every reservation is queued behind the previous one
+        assertTrue("Waited " + second, second - first > PERMIT_NANOS / 2 && second - first <= PERMIT_NANOS);
+    }
+
+    @Test
+    public void refillsWhileUnused() throws InterruptedException {
+        final TokenBucket bucket = new TokenBucket(100, 2);
+        bucket.reserve();
+        bucket.reserve();
+        assertTrue(bucket.reserve() > 0);
+        Thread.sleep(50);
+        assertEquals(0, bucket.reserve());
+        assertEquals(0, bucket.reserve());
+    }
+
+    @Test
+    public void pauseHoldsBackEvenAFullBucket() {
+        final TokenBucket bucket = new TokenBucket(1000, 5);
+        bucket.pause(TimeUnit.SECONDS.toNanos(1));
+        final long wait = bucket.reserve();
+        assertTrue("Waited " + wait, wait > TimeUnit.MILLISECONDS.toNanos(900));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAZeroRate() {
+        new TokenBucket(0, 1);
+    }
+}
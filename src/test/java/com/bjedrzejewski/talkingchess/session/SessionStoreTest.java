@@ -0,0 +1,105 @@
+package com.bjedrzejewski.talkingchess.session;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionStoreTest {
+
+    private static final long IDLE_MILLIS = 60_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+
+    @Test
+    public void evictsTheLeastRecentlyActiveAndForgetsIdleSessions() throws IOException {
+        final SessionStore sessions = open(3, 1024);
+        sessions.update("a", ConversationState.MENU, "sicilian");
+        tick();
+        sessions.update("b", ConversationState.MENU, "spanish");
+        tick();
+        sessions.update("c", ConversationState.NEW, null);
+        tick();
+        sessions.touch("a");
+        sessions.update("d", ConversationState.NEW, null);
+
+        assertNull(sessions.get("b"));
+        assertEquals("sicilian", sessions.get("a").getTopic());
+        assertEquals(3, sessions.getSize());
+        assertEquals(1, sessions.getEvicted());
+
+        clock.addAndGet(IDLE_MILLIS);
+        sessions.update("e", ConversationState.DETAILS);
+        assertNull(sessions.get("c"));
+        assertNotNull(sessions.get("e"));
+        assertEquals(1, sessions.getSize());
+        sessions.shutdown();
+    }
+
+    @Test
+    public void capsTheMemory() throws IOException {
+        final SessionStore sessions = open(1_000_000, 16);
+        for (int i = 0; i < 1000; i++) {
+            sessions.update("sender-" + i, ConversationState.NEW, null);
+        }
+        assertTrue(sessions.getMemoryBytes() <= 16 * 1024);
+        assertTrue(sessions.getSize() < 1000);
+        assertNotNull(sessions.get("sender-999"));
+        assertNull(sessions.get("sender-0"));
+        sessions.shutdown();
+    }
+
+    @Test
+    public void recoversTheWrittenSessionsAfterARestart() throws IOException {
+        SessionStore sessions = open(100, 1024);
+        sessions.update("a", ConversationState.MENU, "sicilian");
+        sessions.update("b", ConversationState.MENU, "kasparov");
+        sessions.flush();
+        sessions.update("b", ConversationState.DETAILS);
+        sessions.update("c", ConversationState.NEW, null);
+        sessions.flush();
+        //a crash in the middle of the next batch
+        Files.write(log(), new byte[]{1, 0, 5, 'd'}, StandardOpenOption.APPEND);
+
+        sessions = open(100, 1024);
+        assertEquals(3, sessions.getSize());
+        assertEquals(ConversationState.DETAILS, sessions.get("b").getState());
+        assertEquals("kasparov", sessions.get("b").getTopic());
+        assertNull(sessions.get("c").getTopic());
+
+        //unflushed changes are written on shutdown, idle sessions are not recovered
+        clock.addAndGet(10);
+        sessions.update("a", ConversationState.ANALYSIS, null);
+        sessions.shutdown();
+        clock.addAndGet(IDLE_MILLIS - 5);
+        sessions = open(100, 1024);
+        assertEquals(ConversationState.ANALYSIS, sessions.get("a").getState());
+        assertNull(sessions.get("b"));
+        sessions.shutdown();
+    }
+
+    private SessionStore open(int maxEntries, int maxMemoryKb) throws IOException {
+        return new SessionStore(log(), maxEntries, maxMemoryKb, IDLE_MILLIS, 0, clock::get);
+    }
+
+    private Path log() {
+        return folder.getRoot().toPath().resolve("sessions.log");
+    }
+
+    private void tick() {
+        clock.incrementAndGet();
+    }
+}